@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +36,7 @@ import com.google.common.collect.Lists;
 
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.Span;
 import eus.ixa.ixa.pipe.nerc.dict.Dictionaries;
 import eus.ixa.ixa.pipe.nerc.train.Flags;
@@ -64,10 +66,6 @@ public class Annotate {
    * The dictionary name finder.
    */
   private DictionariesNameFinder dictFinder;
-  /**
-   * The NameFinder Lexer for rule-based name finding.
-   */
-  private NumericNameFinder numericLexerFinder;
   /**
    * True if the name finder is statistical.
    */
@@ -89,6 +87,11 @@ public class Annotate {
    * Clear features after every sentence or when a -DOCSTART- mark appears.
    */
   private String clearFeatures;
+  /**
+   * The splitting of the sentences longer than the maxSentenceLength
+   * property, null if every sentence is tagged at once.
+   */
+  private SentenceChunker sentenceChunker;
 
   /** It manages the use of the three different name finders: {@code StatisticalNameFinder}, 
    * {@code DictionariesNameFinder} and {@code NumericNameFinder}. In particular, if --dictTag
@@ -98,16 +101,36 @@ public class Annotate {
    * Obviously, this option depends on the --dictPath parameter being correctly specified. The
    * --lexer numeric option annotates numeric entities (dates, percentages, and so on) via rules.
    * Finally, the oepc option post-process the output using the one entity per class hypothesis.
+   * The sentences longer than the maxSentenceLength option are tagged in overlapping windows
+   * by a {@link SentenceChunker}.
    * @param properties
    *          the properties
    * @throws IOException
    *           the io thrown
    */
   public Annotate(final Properties properties) throws IOException {
+    this(properties, null);
+  }
+
+  /**
+   * Construct an annotator whose statistical name finder tags with a model
+   * already read instead of the model loaded in this JVM for the model path,
+   * see {@link StatisticalNameFinder#StatisticalNameFinder(Properties, NameFactory, TokenNameFinderModel)}.
+   * @param properties
+   *          the properties
+   * @param nerModel
+   *          the model, null to use the model loaded for the model path
+   * @throws IOException
+   *           the io thrown
+   */
+  public Annotate(final Properties properties, final TokenNameFinderModel nerModel)
+      throws IOException {
 
     this.clearFeatures = properties.getProperty("clearFeatures");
+    this.sentenceChunker = SentenceChunker.getSentenceChunker(properties.getProperty(
+        "maxSentenceLength", Flags.DEFAULT_MAX_SENTENCE_LENGTH));
     nameFactory = new NameFactory();
-    annotateOptions(properties);
+    annotateOptions(properties, nerModel);
   }
 
   /**
@@ -118,11 +141,14 @@ public class Annotate {
    * @param properties
    *          the parameters to choose the NameFinder are lexer, dictTag and
    *          dictPath
+   * @param nerModel
+   *          the model, null to use the model loaded for the model path
    * @throws IOException
    *           the io exception
    */
   // TODO surely we can simplify this?
-  private void annotateOptions(Properties properties) throws IOException {
+  private void annotateOptions(Properties properties, TokenNameFinderModel nerModel)
+      throws IOException {
 
     String ruleBasedOption = properties.getProperty("ruleBasedOption");
     String dictOption = properties.getProperty("dictTag");
@@ -145,12 +171,14 @@ public class Annotate {
           postProcess = false;
           statistical = false;
         } else if (dictOption.equalsIgnoreCase("post")) {
-          nameFinder = new StatisticalNameFinder(properties, nameFactory);
+          nameFinder = nerModel == null ? new StatisticalNameFinder(properties, nameFactory)
+              : new StatisticalNameFinder(properties, nameFactory, nerModel);
           statistical = true;
           postProcess = true;
           dictTag = false;
         } else {
-          nameFinder = new StatisticalNameFinder(properties, nameFactory);
+          nameFinder = nerModel == null ? new StatisticalNameFinder(properties, nameFactory)
+              : new StatisticalNameFinder(properties, nameFactory, nerModel);
           statistical = true;
           dictTag = false;
           postProcess = false;
@@ -161,13 +189,15 @@ public class Annotate {
       statistical = true;
       dictTag = false;
       postProcess = false;
-      nameFinder = new StatisticalNameFinder(properties, nameFactory);
+      nameFinder = nerModel == null ? new StatisticalNameFinder(properties, nameFactory)
+          : new StatisticalNameFinder(properties, nameFactory, nerModel);
     } else {
       lexerFind = false;
       statistical = true;
       dictTag = false;
       postProcess = false;
-      nameFinder = new StatisticalNameFinder(properties, nameFactory);
+      nameFinder = nerModel == null ? new StatisticalNameFinder(properties, nameFactory)
+          : new StatisticalNameFinder(properties, nameFactory, nerModel);
     }
   }
   
@@ -179,6 +209,14 @@ public class Annotate {
     return nameFinder;
   }
 
+  /**
+   * Get the splitting of the long sentences.
+   * @return the sentence chunker, null if every sentence is tagged at once
+   */
+  public SentenceChunker getSentenceChunker() {
+    return sentenceChunker;
+  }
+
   /**
    * Classify Named Entities creating the entities layer in the
    * {@link KAFDocument} using statistical models, post-processing and/or
@@ -190,72 +228,217 @@ public class Annotate {
    *           throws exception if problems with the kaf document
    */
   public final void annotateNEs(final KAFDocument kaf) throws IOException {
+    annotateNEs(Collections.singletonList(kaf));
+  }
 
-    List<Span> allSpans = null;
-    List<List<WF>> sentences = kaf.getSentences();
-    for (List<WF> sentence : sentences) {
-      //process each sentence
-      String[] tokens = new String[sentence.size()];
-      String[] tokenIds = new String[sentence.size()];
-      for (int i = 0; i < sentence.size(); i++) {
-        tokens[i] = sentence.get(i).getForm();
-        tokenIds[i] = sentence.get(i).getId();
-      }
-      if (statistical) {
-        if (clearFeatures.equalsIgnoreCase("docstart") && tokens[0].startsWith("-DOCSTART-")) {
-          nameFinder.clearAdaptiveData();
+  /**
+   * Classify the Named Entities of several documents in one pass, see
+   * {@link #annotateDocuments(List)}, creating the entities layer of each
+   * {@link KAFDocument}.
+   * 
+   * @param documents
+   *          the kaf documents to be used for annotation
+   * @throws IOException
+   *           throws exception if problems with the kaf documents
+   */
+  public final void annotateNEs(final List<KAFDocument> documents) throws IOException {
+
+    List<List<String[]>> tokenized = new ArrayList<List<String[]>>(documents.size());
+    for (KAFDocument kaf : documents) {
+      List<String[]> sentences = new ArrayList<String[]>();
+      for (List<WF> sentence : kaf.getSentences()) {
+        String[] tokens = new String[sentence.size()];
+        for (int i = 0; i < sentence.size(); i++) {
+          tokens[i] = sentence.get(i).getForm();
         }
-        Span[] statSpans = nameFinder.nercToSpans(tokens);
-        allSpans = Lists.newArrayList(statSpans);
-      }
-      if (postProcess) {
-        Span[] dictSpans = dictFinder.nercToSpansExact(tokens);
-        SpanUtils.postProcessDuplicatedSpans(allSpans, dictSpans);
-        SpanUtils.concatenateSpans(allSpans, dictSpans);
+        sentences.add(tokens);
       }
-      if (dictTag) {
-        Span[] dictOnlySpans = dictFinder.nercToSpansExact(tokens);
-        allSpans = Lists.newArrayList(dictOnlySpans);
-      }
-      if (lexerFind) {
-        String sentenceText = StringUtils.getStringFromTokens(tokens);
-        StringReader stringReader = new StringReader(sentenceText);
-        BufferedReader sentenceReader = new BufferedReader(stringReader);
-        numericLexerFinder = new NumericNameFinder(sentenceReader, nameFactory);
-        Span[] numericSpans = numericLexerFinder.nercToSpans(tokens);
-        SpanUtils.concatenateSpans(allSpans, numericSpans);
-      }
-      Span[] allSpansArray = NameFinderME.dropOverlappingSpans(allSpans
-          .toArray(new Span[allSpans.size()]));
-      List<Name> names = new ArrayList<Name>();
-      if (statistical) {
-        names = nameFinder.getNamesFromSpans(allSpansArray, tokens);
-      } else {
-        names = dictFinder.getNamesFromSpans(allSpansArray, tokens);
-      }
-      for (Name name : names) {
-        Integer startIndex = name.getSpan().getStart();
-        Integer endIndex = name.getSpan().getEnd();
-        List<String> wfIds = Arrays
-            .asList(Arrays.copyOfRange(tokenIds, startIndex, endIndex));
-        List<String> wfTermIds = getAllWFIdsFromTerms(kaf);
-        if (checkTermsRefsIntegrity(wfIds, wfTermIds)) {
-          List<Term> nameTerms = kaf.getTermsFromWFs(wfIds);
-          ixa.kaflib.Span<Term> neSpan = KAFDocument.newTermSpan(nameTerms);
-          List<ixa.kaflib.Span<Term>> references = new ArrayList<ixa.kaflib.Span<Term>>();
-          references.add(neSpan);
-          Entity neEntity = kaf.newEntity(references);
-          neEntity.setType(name.getType());
+      tokenized.add(sentences);
+    }
+    List<List<List<Name>>> documentNames = annotateDocuments(tokenized);
+    for (int document = 0; document < documents.size(); document++) {
+      KAFDocument kaf = documents.get(document);
+      List<List<WF>> sentences = kaf.getSentences();
+      for (int sentence = 0; sentence < sentences.size(); sentence++) {
+        List<WF> wfs = sentences.get(sentence);
+        String[] tokenIds = new String[wfs.size()];
+        for (int i = 0; i < wfs.size(); i++) {
+          tokenIds[i] = wfs.get(i).getId();
+        }
+        for (Name name : documentNames.get(document).get(sentence)) {
+          Integer startIndex = name.getSpan().getStart();
+          Integer endIndex = name.getSpan().getEnd();
+          List<String> wfIds = Arrays
+              .asList(Arrays.copyOfRange(tokenIds, startIndex, endIndex));
+          List<String> wfTermIds = getAllWFIdsFromTerms(kaf);
+          if (checkTermsRefsIntegrity(wfIds, wfTermIds)) {
+            List<Term> nameTerms = kaf.getTermsFromWFs(wfIds);
+            ixa.kaflib.Span<Term> neSpan = KAFDocument.newTermSpan(nameTerms);
+            List<ixa.kaflib.Span<Term>> references = new ArrayList<ixa.kaflib.Span<Term>>();
+            references.add(neSpan);
+            Entity neEntity = kaf.newEntity(references);
+            neEntity.setType(name.getType());
+          }
         }
       }
-      if (clearFeatures.equalsIgnoreCase("yes")) {
-        nameFinder.clearAdaptiveData();
+    }
+  }
+
+  /**
+   * Classify the Named Entities of the tokenized sentences of several
+   * documents in one pass of this annotator, clearing the adaptive features
+   * after every document. If the names of a sentence do not depend on the
+   * previous sentences, see {@link StatisticalNameFinder#hasIndependentSentences()},
+   * the sentences repeated in the documents are tagged only once.
+   * 
+   * @param documents
+   *          the tokenized sentences of every document
+   * @return the names found in every sentence of every document
+   */
+  public final List<List<List<Name>>> annotateDocuments(final List<List<String[]>> documents) {
+    Map<List<String>, Span[]> tagged = null;
+    if (!statistical || nameFinder.hasIndependentSentences()) {
+      tagged = new HashMap<List<String>, Span[]>();
+    }
+    List<List<List<Name>>> documentNames = new ArrayList<List<List<Name>>>(documents.size());
+    for (List<String[]> sentences : documents) {
+      List<List<Name>> sentenceNames = new ArrayList<List<Name>>(sentences.size());
+      for (String[] tokens : sentences) {
+        if (tokens.length == 0) {
+          sentenceNames.add(new ArrayList<Name>());
+        } else if (tagged == null) {
+          sentenceNames.add(annotateTokens(tokens));
+        } else {
+          List<String> key = Arrays.asList(tokens);
+          Span[] spans = tagged.get(key);
+          if (spans == null) {
+            spans = tagSentence(tokens);
+            tagged.put(key, spans);
+          }
+          sentenceNames.add(getNamesFromSpans(spans, tokens));
+        }
       }
+      documentNames.add(sentenceNames);
+      clearAdaptiveData();
+    }
+    return documentNames;
+  }
+
+  /**
+   * Classify the Named Entities of a tokenized sentence. The adaptive
+   * features are cleared according to the clearFeatures option, so calling
+   * this method for every sentence of a document and then
+   * {@link #clearAdaptiveData()} is equivalent to
+   * {@link #annotateNEs(KAFDocument)} without building a NAF document.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the names found in the sentence
+   */
+  public final List<Name> annotateTokens(final String[] tokens) {
+    return getNamesFromSpans(tagSentence(tokens), tokens);
+  }
+
+  /**
+   * Get the spans of a sentence, clearing the adaptive features afterwards
+   * if the clearFeatures option is yes.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the spans
+   */
+  private Span[] tagSentence(final String[] tokens) {
+    Span[] spans = getAllSpans(tokens);
+    if (statistical && clearFeatures.equalsIgnoreCase("yes")) {
+      nameFinder.clearAdaptiveData();
+    }
+    return spans;
+  }
+
+  /**
+   * Create the names of the spans of a sentence.
+   * 
+   * @param spans
+   *          the spans found in the sentence
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the names
+   */
+  private List<Name> getNamesFromSpans(final Span[] spans, final String[] tokens) {
+    if (statistical) {
+      return nameFinder.getNamesFromSpans(spans, tokens);
     }
+    return dictFinder.getNamesFromSpans(spans, tokens);
+  }
+
+  /**
+   * Clear the adaptive features, e.g., at the end of each document.
+   */
+  public final void clearAdaptiveData() {
     if (statistical) {
       nameFinder.clearAdaptiveData();
     }
   }
+
+  /**
+   * Get the non overlapping spans of every name finder used for a sentence,
+   * namely the statistical, dictionary and lexer based ones. The sentences
+   * longer than the maximum sentence length are tagged window by window.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the spans
+   */
+  private Span[] getAllSpans(final String[] tokens) {
+    if (statistical && clearFeatures.equalsIgnoreCase("docstart")
+        && tokens[0].startsWith("-DOCSTART-")) {
+      nameFinder.clearAdaptiveData();
+    }
+    if (sentenceChunker == null) {
+      return getWindowSpans(tokens);
+    }
+    return sentenceChunker.tag(tokens, new SentenceChunker.Tagger() {
+      @Override
+      public Span[] tag(final String[] windowTokens) {
+        return getWindowSpans(windowTokens);
+      }
+    });
+  }
+
+  /**
+   * Get the non overlapping spans of every name finder used for a sentence
+   * or a window of a long sentence.
+   * 
+   * @param tokens
+   *          the tokens of the sentence or window
+   * @return the spans
+   */
+  private Span[] getWindowSpans(final String[] tokens) {
+    List<Span> allSpans = null;
+    if (statistical) {
+      Span[] statSpans = nameFinder.nercToSpans(tokens);
+      allSpans = Lists.newArrayList(statSpans);
+    }
+    if (postProcess) {
+      Span[] dictSpans = dictFinder.nercToSpansExact(tokens);
+      SpanUtils.postProcessDuplicatedSpans(allSpans, dictSpans);
+      SpanUtils.concatenateSpans(allSpans, dictSpans);
+    }
+    if (dictTag) {
+      Span[] dictOnlySpans = dictFinder.nercToSpansExact(tokens);
+      allSpans = Lists.newArrayList(dictOnlySpans);
+    }
+    if (lexerFind) {
+      String sentenceText = StringUtils.getStringFromTokens(tokens);
+      StringReader stringReader = new StringReader(sentenceText);
+      BufferedReader sentenceReader = new BufferedReader(stringReader);
+      NumericNameFinder numericLexerFinder = new NumericNameFinder(sentenceReader, nameFactory);
+      Span[] numericSpans = numericLexerFinder.nercToSpans(tokens);
+      SpanUtils.concatenateSpans(allSpans, numericSpans);
+    }
+    return NameFinderME.dropOverlappingSpans(allSpans
+        .toArray(new Span[allSpans.size()]));
+  }
   
   /**
    * Get all the WF ids for the terms contained in the KAFDocument.
@@ -311,49 +494,21 @@ public class Annotate {
    */
   public final String annotateNEsToOpenNLP(KAFDocument kaf) {
     StringBuilder sb = new StringBuilder();
-    List<Span> allSpans = null;
     List<List<WF>> sentences = kaf.getSentences();
     for (List<WF> sentence : sentences) {
       String[] tokens = new String[sentence.size()];
-      String[] tokenIds = new String[sentence.size()];
       for (int i = 0; i < sentence.size(); i++) {
         tokens[i] = sentence.get(i).getForm();
-        tokenIds[i] = sentence.get(i).getId();
-      }
-      if (statistical) {
-        if (clearFeatures.equalsIgnoreCase("docstart") && tokens[0].startsWith("-DOCSTART-")) {
-          nameFinder.clearAdaptiveData();
-        }
-        Span[] statSpans = nameFinder.nercToSpans(tokens);
-        allSpans = Lists.newArrayList(statSpans);
-      }
-      if (postProcess) {
-        Span[] dictSpans = dictFinder.nercToSpansExact(tokens);
-        SpanUtils.postProcessDuplicatedSpans(allSpans, dictSpans);
-        SpanUtils.concatenateSpans(allSpans, dictSpans);
-      }
-      if (dictTag) {
-        Span[] dictOnlySpans = dictFinder.nercToSpansExact(tokens);
-        allSpans = Lists.newArrayList(dictOnlySpans);
-      }
-      if (lexerFind) {
-        String sentenceText = StringUtils.getStringFromTokens(tokens);
-        StringReader stringReader = new StringReader(sentenceText);
-        BufferedReader sentenceReader = new BufferedReader(stringReader);
-        numericLexerFinder = new NumericNameFinder(sentenceReader, nameFactory);
-        Span[] numericSpans = numericLexerFinder.nercToSpans(tokens);
-        SpanUtils.concatenateSpans(allSpans, numericSpans);
       }
+      Span[] allSpansArray = getAllSpans(tokens);
       boolean isClearAdaptiveData = false;
       if (clearFeatures.equalsIgnoreCase("yes")) {
         isClearAdaptiveData = true;
       }
-      Span[] allSpansArray = NameFinderME.dropOverlappingSpans(allSpans
-          .toArray(new Span[allSpans.size()]));
       NameSample nameSample = new NameSample(tokens, allSpansArray, isClearAdaptiveData);
       sb.append(nameSample.toString()).append("\n");
     }
-    nameFinder.clearAdaptiveData();
+    clearAdaptiveData();
     return sb.toString();
   }
 
@@ -0,0 +1,661 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.WF;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jdom2.JDOMException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eus.ixa.ixa.pipe.nerc.train.Flags;
+
+/**
+ * HTTP server for Named Entity tagging and Opinion Target Extraction, based
+ * on the HTTP server of the JDK. It provides two endpoints, {@code /annotate}
+ * for NERC and {@code /ote} for OTE, which take via POST either a NAF
+ * document or a JSON array of tokenized sentences, e.g.,
+ * {@code [["Barack","Obama","visited","Paris","."]]}; a flat array of tokens
+ * is taken as a single sentence. The response only contains the spans found
+ * in each sentence:
+ *
+ * <pre>
+ * {"sentences":[[{"start":0,"end":2,"type":"PERSON","text":"Barack Obama"},...]]}
+ * </pre>
+ *
+ * Connections are kept alive and requests on the same connection are served
+ * in order. Requests are processed by a pool of worker threads, each with its
+ * own annotator; models and resources are shared by every worker. If the
+ * batchLatency property is set, the requests are instead gathered into
+ * micro-batches by a {@link BatchScheduler}, the sentences of the requests of
+ * a batch being tagged in one pass of an annotator, and answered once their
+ * batch is done; the batching metrics are then available via GET at
+ * {@code /metrics}.
+ *
+ * @author ragerri
+ * @version 2016-07-23
+ */
+public class AnnotationHttpServer {
+
+  /**
+   * The NERC endpoint.
+   */
+  public static final String ANNOTATE_PATH = "/annotate";
+  /**
+   * The OTE endpoint.
+   */
+  public static final String OTE_PATH = "/ote";
+  /**
+   * The metrics endpoint.
+   */
+  public static final String METRICS_PATH = "/metrics";
+
+  /**
+   * The HTTP server.
+   */
+  private final HttpServer httpServer;
+  /**
+   * The threads serving the requests.
+   */
+  private final ExecutorService workers;
+  /**
+   * The micro-batching scheduler, if requests are annotated in batches.
+   */
+  private final BatchScheduler<List<String[]>, String> scheduler;
+  /**
+   * The NERC annotator of each worker, if NERC is served.
+   */
+  private final ThreadLocal<Annotate> annotators;
+  /**
+   * The OTE annotator of each worker, if OTE is served.
+   */
+  private final ThreadLocal<OpinionTargetExtractor> oteExtractors;
+
+  /**
+   * Construct the HTTP server. The properties are those of the NERC
+   * annotator, the port and the number of threads. If the task property is
+   * ote, the model is served at {@code /ote}, otherwise at
+   * {@code /annotate}; the oteModel property, if given, adds the
+   * {@code /ote} endpoint to a NERC server.
+   *
+   * @param properties
+   *          the properties
+   * @throws IOException
+   *           if the models cannot be loaded or the port is not available
+   */
+  public AnnotationHttpServer(final Properties properties) throws IOException {
+    int port = Integer.parseInt(properties.getProperty("port"));
+    int threads = Integer.parseInt(properties.getProperty("threads",
+        Integer.toString(Runtime.getRuntime().availableProcessors())));
+    boolean oteTask = "ote".equalsIgnoreCase(properties.getProperty("task"));
+
+    final Properties nerProperties = oteTask ? null : properties;
+    final Properties oteProperties;
+    if (oteTask) {
+      oteProperties = properties;
+    } else if (properties.getProperty("oteModel") != null) {
+      oteProperties = new Properties();
+      oteProperties.putAll(properties);
+      oteProperties.setProperty("model", properties.getProperty("oteModel"));
+    } else {
+      oteProperties = null;
+    }
+    annotators = nerProperties == null ? null : new ThreadLocal<Annotate>() {
+      @Override
+      protected Annotate initialValue() {
+        try {
+          return new Annotate(nerProperties);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    oteExtractors = oteProperties == null ? null : new ThreadLocal<OpinionTargetExtractor>() {
+      @Override
+      protected OpinionTargetExtractor initialValue() {
+        try {
+          return new OpinionTargetExtractor(oteProperties);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    // load the models before accepting requests
+    if (annotators != null) {
+      annotators.get();
+    }
+    if (oteExtractors != null) {
+      oteExtractors.get();
+    }
+    httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    if (annotators != null) {
+      httpServer.createContext(ANNOTATE_PATH, new SpansHandler(false));
+    }
+    if (oteExtractors != null) {
+      httpServer.createContext(OTE_PATH, new SpansHandler(true));
+    }
+    httpServer.createContext(METRICS_PATH, new MetricsHandler());
+    int batchLatency = Integer.parseInt(properties.getProperty("batchLatency",
+        Flags.DEFAULT_BATCH_LATENCY));
+    if (batchLatency > 0) {
+      int batchSize = Integer.parseInt(properties.getProperty("batchSize",
+          Flags.DEFAULT_BATCH_SIZE));
+      scheduler = new BatchScheduler<List<String[]>, String>(
+          new BatchScheduler.Processor<List<String[]>, String>() {
+            @Override
+            public List<String> process(final String path,
+                final List<List<String[]>> documents) {
+              return annotate(path.equals(OTE_PATH), documents);
+            }
+          }, batchSize, batchLatency, threads);
+    } else {
+      scheduler = null;
+    }
+    // with batching, the request threads only read the requests and the
+    // responses are sent by the workers of the scheduler
+    workers = Executors.newFixedThreadPool(threads);
+    httpServer.setExecutor(workers);
+  }
+
+  /**
+   * Start serving requests; this method returns immediately.
+   */
+  public final void start() {
+    httpServer.start();
+    System.err.println("-> HTTP server listening to port "
+        + httpServer.getAddress().getPort());
+  }
+
+  /**
+   * Stop the server, waiting at most a second for the requests being served.
+   */
+  public final void stop() {
+    httpServer.stop(1);
+    workers.shutdown();
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+  }
+
+  /**
+   * Get the port the server is listening to.
+   *
+   * @return the port
+   */
+  public final int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Handler annotating the sentences of a request and sending back the
+   * spans as JSON.
+   */
+  private class SpansHandler implements HttpHandler {
+
+    /**
+     * Whether the handler does OTE instead of NERC.
+     */
+    private final boolean ote;
+
+    SpansHandler(final boolean ote) {
+      this.ote = ote;
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      boolean answeredLater = false;
+      try {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+          sendResponse(exchange, 405, error("Only POST requests are accepted"));
+          return;
+        }
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+          body = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        }
+        List<String[]> sentences;
+        try {
+          sentences = readSentences(body);
+        } catch (IllegalArgumentException | JDOMException e) {
+          sendResponse(exchange, 400, error("Badly formatted input: " + e.getMessage()));
+          return;
+        }
+        if (scheduler == null) {
+          sendResponse(exchange, 200, annotate(ote, Collections.singletonList(sentences)).get(0));
+        } else {
+          answerLater(exchange, scheduler.submit(ote ? OTE_PATH : ANNOTATE_PATH,
+              sentences, sentences.size()));
+          answeredLater = true;
+        }
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        sendResponse(exchange, 500, error(e.toString()));
+      } finally {
+        if (!answeredLater) {
+          exchange.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Send the response of a request once its batch is annotated.
+   *
+   * @param exchange
+   *          the exchange
+   * @param annotation
+   *          the future annotation of the request
+   */
+  private static void answerLater(final HttpExchange exchange,
+      final ListenableFuture<String> annotation) {
+    Futures.addCallback(annotation, new FutureCallback<String>() {
+      @Override
+      public void onSuccess(final String json) {
+        respond(200, json);
+      }
+
+      @Override
+      public void onFailure(final Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+          respond(503, error(e.getMessage()));
+        } else {
+          e.printStackTrace();
+          respond(500, error(e.toString()));
+        }
+      }
+
+      private void respond(final int status, final String json) {
+        try {
+          sendResponse(exchange, status, json);
+        } catch (IOException e) {
+          e.printStackTrace();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Annotate the sentences of several documents in one pass of the
+   * annotator of the current thread.
+   *
+   * @param ote
+   *          whether to do OTE instead of NERC
+   * @param documents
+   *          the tokenized sentences of every document
+   * @return the spans of every sentence of every document as JSON
+   */
+  private List<String> annotate(final boolean ote, final List<List<String[]>> documents) {
+    List<List<List<Name>>> documentNames;
+    if (ote) {
+      OpinionTargetExtractor oteExtractor = oteExtractors.get();
+      documentNames = new ArrayList<>(documents.size());
+      for (List<String[]> sentences : documents) {
+        List<List<Name>> sentenceNames = new ArrayList<>(sentences.size());
+        for (String[] tokens : sentences) {
+          sentenceNames.add(tokens.length == 0 ? new ArrayList<Name>()
+              : oteExtractor.extractTargets(tokens));
+        }
+        documentNames.add(sentenceNames);
+        oteExtractor.clearAdaptiveData();
+      }
+    } else {
+      documentNames = annotators.get().annotateDocuments(documents);
+    }
+    List<String> responses = new ArrayList<>(documents.size());
+    for (int document = 0; document < documents.size(); document++) {
+      List<String[]> sentences = documents.get(document);
+      StringBuilder sb = new StringBuilder("{\"sentences\":[");
+      for (int i = 0; i < sentences.size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        appendSpans(sb, documentNames.get(document).get(i), sentences.get(i));
+      }
+      responses.add(sb.append("]}").toString());
+    }
+    return responses;
+  }
+
+  /**
+   * Handler sending back the batching and sentence cache metrics as JSON.
+   */
+  private class MetricsHandler implements HttpHandler {
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+        if (scheduler != null) {
+          metrics.putAll(scheduler.getMetrics());
+        }
+        metrics.putAll(StatisticalNameFinder.getSentenceCacheMetrics());
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Long> metric : metrics.entrySet()) {
+          if (sb.length() > 1) {
+            sb.append(',');
+          }
+          appendString(sb, metric.getKey());
+          sb.append(':').append(metric.getValue());
+        }
+        sendResponse(exchange, 200, sb.append('}').toString());
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  /**
+   * Send a JSON response with a fixed length, so that the connection can be
+   * kept alive.
+   *
+   * @param exchange
+   *          the exchange
+   * @param status
+   *          the HTTP status code
+   * @param json
+   *          the response
+   * @throws IOException
+   *           if io errors
+   */
+  private static void sendResponse(final HttpExchange exchange,
+      final int status, final String json) throws IOException {
+    byte[] response = json.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type",
+        "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, response.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(response);
+    }
+  }
+
+  /**
+   * Read the tokenized sentences of a request, either a NAF document or a
+   * JSON array.
+   *
+   * @param body
+   *          the request body
+   * @return the sentences
+   * @throws JDOMException
+   *           if the NAF document is not well formed
+   * @throws IOException
+   *           if io errors
+   */
+  static List<String[]> readSentences(final String body)
+      throws JDOMException, IOException {
+    String trimmed = body.trim();
+    if (trimmed.startsWith("<")) {
+      KAFDocument kaf = KAFDocument.createFromStream(new BufferedReader(
+          new StringReader(trimmed)));
+      List<String[]> sentences = new ArrayList<>();
+      for (List<WF> sentence : kaf.getSentences()) {
+        String[] tokens = new String[sentence.size()];
+        for (int i = 0; i < sentence.size(); i++) {
+          tokens[i] = sentence.get(i).getForm();
+        }
+        sentences.add(tokens);
+      }
+      return sentences;
+    }
+    return new JsonTokensReader(trimmed).read();
+  }
+
+  /**
+   * Append the spans of a sentence as a JSON array.
+   *
+   * @param sb
+   *          the builder
+   * @param names
+   *          the names found
+   * @param tokens
+   *          the tokens of the sentence
+   */
+  private static void appendSpans(final StringBuilder sb,
+      final List<Name> names, final String[] tokens) {
+    sb.append('[');
+    for (int i = 0; i < names.size(); i++) {
+      Name name = names.get(i);
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"start\":").append(name.getSpan().getStart())
+          .append(",\"end\":").append(name.getSpan().getEnd())
+          .append(",\"type\":");
+      appendString(sb, name.getType());
+      sb.append(",\"text\":");
+      appendString(sb, StringUtils.getStringFromTokens(Arrays
+          .copyOfRange(tokens, name.getSpan().getStart(), name.getSpan().getEnd())).trim());
+      sb.append('}');
+    }
+    sb.append(']');
+  }
+
+  /**
+   * Build a JSON error message.
+   *
+   * @param message
+   *          the message
+   * @return the JSON error
+   */
+  private static String error(final String message) {
+    StringBuilder sb = new StringBuilder("{\"error\":");
+    appendString(sb, message);
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Append a string as a JSON string literal.
+   *
+   * @param sb
+   *          the builder
+   * @param value
+   *          the string
+   */
+  private static void appendString(final StringBuilder sb, final String value) {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    sb.append('"');
+  }
+
+  /**
+   * Minimal reader of a JSON array of strings or of arrays of strings.
+   */
+  private static class JsonTokensReader {
+
+    private final String json;
+    private int pos = 0;
+
+    JsonTokensReader(final String json) {
+      this.json = json;
+    }
+
+    /**
+     * Read the sentences.
+     * @return the list of tokenized sentences
+     */
+    List<String[]> read() {
+      List<String[]> sentences = new ArrayList<>();
+      List<String> flat = new ArrayList<>();
+      expect('[');
+      skipSpaces();
+      if (peek() != ']') {
+        do {
+          skipSpaces();
+          if (peek() == '[') {
+            sentences.add(readTokens());
+          } else {
+            flat.add(readString());
+          }
+          skipSpaces();
+        } while (consume(','));
+      }
+      expect(']');
+      skipSpaces();
+      if (pos != json.length()) {
+        throw new IllegalArgumentException("unexpected content at " + pos);
+      }
+      if (!flat.isEmpty()) {
+        if (!sentences.isEmpty()) {
+          throw new IllegalArgumentException("mixed tokens and sentences");
+        }
+        sentences.add(flat.toArray(new String[flat.size()]));
+      }
+      return sentences;
+    }
+
+    private String[] readTokens() {
+      List<String> tokens = new ArrayList<>();
+      expect('[');
+      skipSpaces();
+      if (peek() != ']') {
+        do {
+          skipSpaces();
+          tokens.add(readString());
+          skipSpaces();
+        } while (consume(','));
+      }
+      expect(']');
+      return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private String readString() {
+      expect('"');
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        if (pos >= json.length()) {
+          throw new IllegalArgumentException("unterminated string");
+        }
+        char c = json.charAt(pos++);
+        if (c == '"') {
+          return sb.toString();
+        }
+        if (c != '\\') {
+          sb.append(c);
+          continue;
+        }
+        if (pos >= json.length()) {
+          throw new IllegalArgumentException("unterminated string");
+        }
+        char escaped = json.charAt(pos++);
+        switch (escaped) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (pos + 4 > json.length()) {
+            throw new IllegalArgumentException("bad unicode escape");
+          }
+          sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+          pos += 4;
+          break;
+        default:
+          sb.append(escaped);
+        }
+      }
+    }
+
+    private void skipSpaces() {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private char peek() {
+      if (pos >= json.length()) {
+        throw new IllegalArgumentException("unexpected end of input");
+      }
+      return json.charAt(pos);
+    }
+
+    private boolean consume(final char c) {
+      if (pos < json.length() && json.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(final char c) {
+      skipSpaces();
+      if (!consume(c)) {
+        throw new IllegalArgumentException("expected '" + c + "' at " + pos);
+      }
+    }
+  }
+}
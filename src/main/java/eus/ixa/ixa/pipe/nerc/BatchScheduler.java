@@ -0,0 +1,388 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Micro-batching scheduler in front of the annotators of a server. The
+ * documents of concurrent requests are gathered into a batch until either the
+ * batch holds a maximum number of sentences or the latency budget, counted
+ * from the arrival of the first document of the batch, is spent. While every
+ * worker is busy no batch is closed, so that the batches grow with the load.
+ * <p>
+ * The documents of a batch are grouped by their key, e.g., the model
+ * annotating them, and each group is handed to the {@link Processor} in a
+ * single call on a worker thread, which tags all the sentences of the group
+ * in one pass with one annotator; the result of each document is then handed
+ * back to its request via a future.
+ * <p>
+ * The documents are not split into sentences across workers: the adaptive
+ * features of the name finders depend on the previous sentences of the same
+ * document, so the sentences of a document need to be tagged in order by the
+ * same annotator.
+ *
+ * @param <D>
+ *          the document type
+ * @param <R>
+ *          the result type
+ * @author ragerri
+ * @version 2016-07-24
+ */
+public class BatchScheduler<D, R> {
+
+  /**
+   * The annotation of the documents of a batch.
+   *
+   * @param <D>
+   *          the document type
+   * @param <R>
+   *          the result type
+   */
+  public interface Processor<D, R> {
+
+    /**
+     * Annotate the documents of a batch sharing a key. It is called on a
+     * worker thread, so it must use annotators local to the thread.
+     *
+     * @param key
+     *          the key of the documents
+     * @param documents
+     *          the documents, in order of arrival
+     * @return the result of every document, in the same order
+     * @throws Exception
+     *           if the documents cannot be annotated
+     */
+    List<R> process(String key, List<D> documents) throws Exception;
+  }
+
+  /**
+   * Number of buckets of the batch size histogram: 1, 2-3, 4-7, ...
+   */
+  private static final int HISTOGRAM_BUCKETS = 16;
+  /**
+   * The annotation of the batches.
+   */
+  private final Processor<D, R> processor;
+  /**
+   * The maximum number of sentences of a batch.
+   */
+  private final int maxBatchSentences;
+  /**
+   * The latency budget of a batch in nanoseconds.
+   */
+  private final long latencyBudget;
+  /**
+   * The documents waiting to be batched.
+   */
+  private final BlockingQueue<Request<D, R>> queue = new LinkedBlockingQueue<>();
+  /**
+   * The worker threads.
+   */
+  private final ExecutorService workers;
+  /**
+   * The workers not running a batch.
+   */
+  private final Semaphore idleWorkers;
+  /**
+   * The thread gathering the batches.
+   */
+  private final Thread dispatcher;
+  private volatile boolean shutdown = false;
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong documents = new AtomicLong();
+  private final AtomicLong sentences = new AtomicLong();
+  private final AtomicLong maxBatch = new AtomicLong();
+  private final AtomicLong queueTime = new AtomicLong();
+  private final AtomicLongArray batchSizes = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+  /**
+   * A document waiting to be annotated.
+   */
+  private static class Request<D, R> {
+    private final String key;
+    private final D document;
+    private final int sentences;
+    private final SettableFuture<R> future = SettableFuture.create();
+    private final long arrival = System.nanoTime();
+
+    Request(final String key, final D document, final int sentences) {
+      this.key = key;
+      this.document = document;
+      this.sentences = sentences;
+    }
+  }
+
+  /**
+   * Construct and start a scheduler.
+   *
+   * @param processor
+   *          the annotation of the batches
+   * @param maxBatchSentences
+   *          the maximum number of sentences of a batch
+   * @param latencyBudgetMillis
+   *          the milliseconds a document can wait for its batch to fill
+   * @param workerCount
+   *          the number of worker threads
+   */
+  public BatchScheduler(final Processor<D, R> processor, final int maxBatchSentences,
+      final long latencyBudgetMillis, final int workerCount) {
+    this.processor = processor;
+    this.maxBatchSentences = maxBatchSentences;
+    this.latencyBudget = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+    this.idleWorkers = new Semaphore(workerCount);
+    this.workers = Executors.newFixedThreadPool(workerCount,
+        new ThreadFactory() {
+          private int count = 0;
+
+          @Override
+          public synchronized Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "ixa-pipe-nerc-worker-" + count++);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    }, "ixa-pipe-nerc-batcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Submit a document for annotation.
+   *
+   * @param key
+   *          the key of the document; only the documents with the same key
+   *          are processed together
+   * @param document
+   *          the document
+   * @param sentenceCount
+   *          the number of sentences of the document
+   * @return the future result of the document
+   */
+  public final ListenableFuture<R> submit(final String key, final D document,
+      final int sentenceCount) {
+    Request<D, R> request = new Request<>(key, document, Math.max(sentenceCount, 1));
+    queue.add(request);
+    if (shutdown) {
+      rejectPending();
+    }
+    return request.future;
+  }
+
+  /**
+   * Stop the scheduler: the batches already handed to the workers are
+   * finished, and the documents still waiting fail with a
+   * {@link RejectedExecutionException}.
+   */
+  public final void shutdown() {
+    shutdown = true;
+    dispatcher.interrupt();
+    workers.shutdown();
+    rejectPending();
+  }
+
+  /**
+   * Fail the documents waiting in the queue.
+   */
+  private void rejectPending() {
+    List<Request<D, R>> pending = new ArrayList<>();
+    queue.drainTo(pending);
+    reject(pending);
+  }
+
+  /**
+   * Fail the documents of a batch which will not be annotated.
+   *
+   * @param requests
+   *          the documents
+   */
+  private static <D, R> void reject(final List<Request<D, R>> requests) {
+    for (Request<D, R> request : requests) {
+      request.future.setException(new RejectedExecutionException(
+          "The batching scheduler is shut down"));
+    }
+  }
+
+  /**
+   * Gather the documents of the queue into batches and hand them over to the
+   * workers, as soon as one of them is idle.
+   */
+  private void dispatch() {
+    while (!shutdown) {
+      List<Request<D, R>> batch = new ArrayList<>();
+      int batchSentences = 0;
+      try {
+        idleWorkers.acquire();
+        Request<D, R> first = queue.take();
+        batch.add(first);
+        batchSentences += first.sentences;
+        long deadline = first.arrival + latencyBudget;
+        while (batchSentences < maxBatchSentences) {
+          long wait = deadline - System.nanoTime();
+          Request<D, R> next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS)
+              : queue.poll();
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          batchSentences += next.sentences;
+        }
+      } catch (InterruptedException e) {
+        reject(batch);
+        break;
+      }
+      try {
+        runBatch(batch, batchSentences);
+      } catch (RejectedExecutionException e) {
+        reject(batch);
+      }
+    }
+    rejectPending();
+  }
+
+  /**
+   * Hand a batch over to a worker, which processes its documents grouped by
+   * key.
+   *
+   * @param batch
+   *          the documents of the batch
+   * @param batchSentences
+   *          the number of sentences of the batch
+   */
+  private void runBatch(final List<Request<D, R>> batch, final int batchSentences) {
+    long now = System.nanoTime();
+    for (Request<D, R> request : batch) {
+      queueTime.addAndGet(now - request.arrival);
+    }
+    recordBatch(batch.size(), batchSentences);
+    final Map<String, List<Request<D, R>>> groups = new LinkedHashMap<>();
+    for (Request<D, R> request : batch) {
+      List<Request<D, R>> group = groups.get(request.key);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(request.key, group);
+      }
+      group.add(request);
+    }
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (Map.Entry<String, List<Request<D, R>>> group : groups.entrySet()) {
+            process(group.getKey(), group.getValue());
+          }
+        } finally {
+          idleWorkers.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Process the documents of a batch sharing a key and complete their
+   * futures.
+   *
+   * @param key
+   *          the key of the documents
+   * @param group
+   *          the documents
+   */
+  private void process(final String key, final List<Request<D, R>> group) {
+    List<D> groupDocuments = new ArrayList<>(group.size());
+    for (Request<D, R> request : group) {
+      groupDocuments.add(request.document);
+    }
+    try {
+      List<R> results = processor.process(key, groupDocuments);
+      for (int i = 0; i < group.size(); i++) {
+        group.get(i).future.set(results.get(i));
+      }
+    } catch (Throwable e) {
+      for (Request<D, R> request : group) {
+        request.future.setException(e);
+      }
+    }
+  }
+
+  /**
+   * Update the batch metrics.
+   *
+   * @param batchDocuments
+   *          the number of documents of the batch
+   * @param batchSentences
+   *          the number of sentences of the batch
+   */
+  private void recordBatch(final int batchDocuments, final int batchSentences) {
+    batches.incrementAndGet();
+    documents.addAndGet(batchDocuments);
+    sentences.addAndGet(batchSentences);
+    long currentMax;
+    do {
+      currentMax = maxBatch.get();
+    } while (batchSentences > currentMax
+        && !maxBatch.compareAndSet(currentMax, batchSentences));
+    int bucket = 31 - Integer.numberOfLeadingZeros(batchSentences);
+    batchSizes.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS - 1));
+  }
+
+  /**
+   * Get the metrics of the scheduler: number of batches, documents and
+   * sentences, mean and maximum batch size in sentences, mean queueing time
+   * and the histogram of batch sizes.
+   *
+   * @return the metrics by name
+   */
+  public final Map<String, Long> getMetrics() {
+    Map<String, Long> metrics = new LinkedHashMap<>();
+    long batchCount = batches.get();
+    metrics.put("batches", batchCount);
+    metrics.put("documents", documents.get());
+    metrics.put("sentences", sentences.get());
+    metrics.put("meanBatchSentences", batchCount == 0 ? 0 : sentences.get() / batchCount);
+    metrics.put("maxBatchSentences", maxBatch.get());
+    metrics.put("meanQueueMicros", documents.get() == 0 ? 0
+        : TimeUnit.NANOSECONDS.toMicros(queueTime.get() / documents.get()));
+    metrics.put("pending", (long) queue.size());
+    for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+      long count = batchSizes.get(i);
+      if (count > 0) {
+        metrics.put("batchSentences" + (1 << i) + "-" + ((1 << (i + 1)) - 1), count);
+      }
+    }
+    return metrics;
+  }
+}
@@ -21,36 +21,52 @@ import ixa.kaflib.KAFDocument;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.List;
 import java.util.Properties;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 import net.sourceforge.argparse4j.inf.Subparsers;
 import opennlp.tools.cmdline.CmdLineUtil;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.namefind.NameSample;
 import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.TrainingParameters;
+import opennlp.tools.util.eval.FMeasure;
 
 import org.jdom2.JDOMException;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.io.Files;
 
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
 import eus.ixa.ixa.pipe.nerc.eval.CrossValidator;
 import eus.ixa.ixa.pipe.nerc.eval.Evaluate;
+import eus.ixa.ixa.pipe.nerc.train.AbstractTrainer;
 import eus.ixa.ixa.pipe.nerc.train.FixedTrainer;
 import eus.ixa.ixa.pipe.nerc.train.Flags;
 import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
-import eus.ixa.ixa.pipe.nerc.train.Trainer;
+import eus.ixa.ixa.pipe.nerc.train.ModelCompressor;
+import eus.ixa.ixa.pipe.nerc.train.ModelRewriter;
+import eus.ixa.ixa.pipe.nerc.train.ModelUpdater;
+import eus.ixa.ixa.pipe.nerc.train.ParameterSweep;
 
 /**
  * Main class of ixa-pipe-nerc, the ixa pipes (ixa2.si.ehu.es/ixa-pipes) sequence
@@ -77,6 +93,12 @@ public class CLI {
    * Name space of the arguments provided at the CLI.
    */
   private Namespace parsedArguments = null;
+  /**
+   * The options of the sub-commands tagging with a statistical model which
+   * choose how the model is decoded.
+   */
+  private static final String[] DECODING_OPTIONS = { "inference", "adaptiveBeam",
+      "decoder", "sentenceFilter", "sentenceCache", "maxSentenceLength" };
   /**
    * Argument parser instance.
    */
@@ -109,6 +131,22 @@ public class CLI {
    * The parser that manages the cross validation sub-command.
    */
   private Subparser crossValidateParser;
+  /**
+   * The parser that manages the parameter sweep sub-command.
+   */
+  private Subparser sweepParser;
+  /**
+   * The parser that manages the model update sub-command.
+   */
+  private Subparser updateParser;
+  /**
+   * The parser that manages the model compression sub-command.
+   */
+  private Subparser compressParser;
+  /**
+   * The parser that manages the mapped weights export sub-command.
+   */
+  private Subparser exportParser;
   /**
    * Parser to start TCP socket for server-client functionality.
    */
@@ -133,6 +171,14 @@ public class CLI {
     loadEvalParameters();
     crossValidateParser = subParsers.addParser("cross").help("Cross validation CLI");
     loadCrossValidateParameters();
+    sweepParser = subParsers.addParser("sweep").help("Parameter sweep CLI");
+    loadSweepParameters();
+    updateParser = subParsers.addParser("update").help("Model update CLI");
+    loadUpdateParameters();
+    compressParser = subParsers.addParser("compress").help("Model compression CLI");
+    loadCompressParameters();
+    exportParser = subParsers.addParser("export").help("Mapped weights export CLI");
+    loadExportParameters();
     serverParser = subParsers.addParser("server").help("Start TCP socket server");
     loadServerParameters();
     clientParser = subParsers.addParser("client").help("Send queries to the TCP socket server");
@@ -179,6 +225,14 @@ public class CLI {
         train();
       } else if (args[0].equals("cross")) {
         crossValidate();
+      } else if (args[0].equals("sweep")) {
+        sweep();
+      } else if (args[0].equals("update")) {
+        update();
+      } else if (args[0].equals("compress")) {
+        compress();
+      } else if (args[0].equals("export")) {
+        export();
       } else if (args[0].equals("server")) {
         server();
       } else if (args[0].equals("client")) {
@@ -187,7 +241,7 @@ public class CLI {
     } catch (ArgumentParserException e) {
       argParser.handleError(e);
       System.out.println("Run java -jar target/ixa-pipe-nerc-" + version
-          + ".jar (tag|ote|train|eval|cross|server|client) -help for details");
+          + ".jar (tag|ote|train|eval|cross|sweep|update|compress|export|server|client) -help for details");
       System.exit(1);
     }
   }
@@ -206,12 +260,6 @@ public class CLI {
   public final void annotate(final InputStream inputStream,
       final OutputStream outputStream) throws IOException, JDOMException {
 
-    BufferedReader breader = new BufferedReader(new InputStreamReader(
-        inputStream, "UTF-8"));
-    BufferedWriter bwriter = new BufferedWriter(new OutputStreamWriter(
-        outputStream, "UTF-8"));
-    // read KAF document from inputstream
-    KAFDocument kaf = KAFDocument.createFromStream(breader);
     // load parameters into a properties
     String model = parsedArguments.getString("model");
     String outputFormat = parsedArguments.getString("outputFormat");
@@ -219,6 +267,29 @@ public class CLI {
     String dictTag = parsedArguments.getString("dictTag");
     String dictPath = parsedArguments.getString("dictPath");
     String clearFeatures = parsedArguments.getString("clearFeatures");
+    if (parsedArguments.getBoolean("stream")) {
+      if (!outputFormat.equalsIgnoreCase("naf")) {
+        System.err.println("Streaming annotation only supports NAF output!!");
+        System.exit(1);
+      }
+      Properties properties = setAnnotateProperties(model, "", lexer, dictTag, dictPath, clearFeatures);
+      setDecodingProperties(properties);
+      properties.remove("language");
+      if (parsedArguments.getString("language") != null) {
+        properties.setProperty("language", parsedArguments.getString("language"));
+      }
+      StreamingAnnotator streamer = new StreamingAnnotator(properties,
+          "ixa-pipe-nerc-" + Files.getNameWithoutExtension(model), version + "-" + commit);
+      streamer.annotate(inputStream, outputStream);
+      outputStream.flush();
+      return;
+    }
+    BufferedReader breader = new BufferedReader(new InputStreamReader(
+        inputStream, "UTF-8"));
+    BufferedWriter bwriter = new BufferedWriter(new OutputStreamWriter(
+        outputStream, "UTF-8"));
+    // read KAF document from inputstream
+    KAFDocument kaf = KAFDocument.createFromStream(breader);
     // language parameter
     String lang = null;
     if (parsedArguments.getString("language") != null) {
@@ -232,12 +303,15 @@ public class CLI {
       lang = kaf.getLang();
     }
     Properties properties = setAnnotateProperties(model, lang, lexer, dictTag, dictPath, clearFeatures);
+    setDecodingProperties(properties);
     KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
         "entities", "ixa-pipe-nerc-" + Files.getNameWithoutExtension(model), version + "-" + commit);
     newLp.setBeginTimestamp();
     Annotate annotator = new Annotate(properties);
     annotator.annotateNEs(kaf);
     newLp.setEndTimestamp();
+    printDecodingStatistics(annotator.getStatisticalNameFinder());
+    printChunkingStatistics(annotator.getSentenceChunker());
     String kafToString = null;
     if (outputFormat.equalsIgnoreCase("conll03")) {
       kafToString = annotator.annotateNEsToCoNLL2003(kaf);
@@ -290,12 +364,15 @@ public class CLI {
       lang = kaf.getLang();
     }
     Properties properties = setOteProperties(model, lang, clearFeatures);
+    setDecodingProperties(properties);
     KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
         "opinions", "ixa-pipe-nerc-" + Files.getNameWithoutExtension(model), version + "-" + commit);
     newLp.setBeginTimestamp();
     OpinionTargetExtractor oteExtractor = new OpinionTargetExtractor(properties);
     oteExtractor.annotateOTE(kaf);
     newLp.setEndTimestamp();
+    printDecodingStatistics(oteExtractor.getStatisticalNameFinder());
+    printChunkingStatistics(oteExtractor.getSentenceChunker());
     String kafToString = null;
     if (outputFormat.equalsIgnoreCase("opennlp")) {
       kafToString = oteExtractor.annotateOTEsToOpenNLP(kaf);
@@ -307,6 +384,40 @@ public class CLI {
     breader.close();
   }
 
+  /**
+   * Report how often the adaptive beam was widened, how many sentences the
+   * sentence filter skipped and the hit rate of the sentence cache, if they
+   * are used.
+   *
+   * @param nameFinder
+   *          the statistical name finder
+   */
+  private static void printDecodingStatistics(final StatisticalNameFinder nameFinder) {
+    if (nameFinder != null && nameFinder.getBeamStatistics() != null) {
+      System.err.println("-> Adaptive beam: " + nameFinder.getBeamStatistics());
+    }
+    if (nameFinder != null && nameFinder.getSentenceFilter() != null) {
+      System.err.println("-> Sentence filter: " + nameFinder.getSentenceFilter());
+    }
+    if (nameFinder != null && nameFinder.getSentenceCacheStats() != null) {
+      CacheStats stats = nameFinder.getSentenceCacheStats();
+      System.err.println(String.format("-> Sentence cache: %d hits of %d sentences (%.2f%%)",
+          stats.hitCount(), stats.requestCount(), 100 * stats.hitRate()));
+    }
+  }
+
+  /**
+   * Report how many long sentences were split into windows, if they are.
+   *
+   * @param chunker
+   *          the sentence chunker
+   */
+  private static void printChunkingStatistics(final SentenceChunker chunker) {
+    if (chunker != null) {
+      System.err.println("-> Sentence chunker: " + chunker);
+    }
+  }
+
   /**
    * Main access to the train functionalities.
    * 
@@ -327,9 +438,10 @@ public class CLI {
     else {
       outModel = Flags.getModel(params);
     }
-    Trainer nercTrainer = new FixedTrainer(params);
-    TokenNameFinderModel trainedModel = nercTrainer.train(params);
-    CmdLineUtil.writeModel("ixa-pipe-nerc", new File(outModel), trainedModel);
+    try (AbstractTrainer nercTrainer = new FixedTrainer(params)) {
+      TokenNameFinderModel trainedModel = nercTrainer.train(params);
+      CmdLineUtil.writeModel("ixa-pipe-nerc", new File(outModel), trainedModel);
+    }
   }
 
   /**
@@ -347,6 +459,8 @@ public class CLI {
     String netypes = parsedArguments.getString("types");
     String clearFeatures = parsedArguments.getString("clearFeatures");
     Properties props = setEvalProperties(lang, model, testset, corpusFormat, netypes, clearFeatures);
+    props.setProperty("threads", parsedArguments.getString("threads"));
+    setDecodingProperties(props);
     
       Evaluate evaluator = new Evaluate(props);
       if (parsedArguments.getString("evalReport") != null) {
@@ -380,7 +494,119 @@ public class CLI {
   }
   
   /**
-   * Set up the TCP socket for annotation.
+   * Main access to the parameter sweep.
+   * 
+   * @throws IOException
+   *           input output exception if problems with corpora
+   */
+  public final void sweep() throws IOException {
+
+    String paramFile = parsedArguments.getString("params");
+    TrainingParameters params = InputOutputUtils
+        .loadTrainingParameters(paramFile);
+    Properties grid = new Properties();
+    try (InputStream gridIn = new FileInputStream(parsedArguments.getString("grid"))) {
+      grid.load(gridIn);
+    }
+    ParameterSweep sweep = new ParameterSweep(params, grid,
+        Integer.parseInt(parsedArguments.getString("threads")),
+        Integer.parseInt(parsedArguments.getString("memoryBudget")),
+        Integer.parseInt(parsedArguments.getString("runMemory")));
+    List<ParameterSweep.Result> results = sweep.run();
+    StringWriter board = new StringWriter();
+    ParameterSweep.writeLeaderboard(results, board);
+    String leaderboard = parsedArguments.getString("output");
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(leaderboard), "UTF-8"))) {
+      writer.write(board.toString());
+    }
+    System.out.print(board);
+    System.err.println("-> Leaderboard written to " + leaderboard);
+  }
+
+  /**
+   * Main access to the update of a model with new annotated data.
+   *
+   * @throws IOException
+   *           input output exception if problems with corpora or models
+   */
+  public final void update() throws IOException {
+
+    String paramFile = parsedArguments.getString("params");
+    TrainingParameters params = InputOutputUtils
+        .loadTrainingParameters(paramFile);
+    String corpusFormat = Flags.getCorpusFormat(params);
+    ModelUpdater updater = new ModelUpdater(new File(parsedArguments.getString("model")));
+    ObjectStream<NameSample> newSamples = AbstractTrainer.getNameStream(
+        parsedArguments.getString("data"), Flags.getClearTrainingFeatures(params), corpusFormat);
+    PerceptronModel classifier = updater.update(newSamples,
+        Integer.parseInt(parsedArguments.getString("iterations")), Flags.getCutoff(params));
+    File outModel = new File(parsedArguments.getString("output"));
+    updater.write(classifier, outModel);
+    System.err.println("-> Updated model written to " + outModel);
+    String testSet = params.getSettings().get("TestSet");
+    if (testSet != null) {
+      ObjectStream<NameSample> testSamples = AbstractTrainer.getNameStream(testSet,
+          Flags.getClearEvaluationFeatures(params), corpusFormat);
+      FMeasure original = ModelRewriter.evaluate(updater.getModel(), testSamples);
+      FMeasure updated = ModelRewriter.evaluate(new TokenNameFinderModel(outModel), testSamples);
+      System.out.println("Original model: \n" + original);
+      System.out.println("Updated model: \n" + updated);
+      System.out.println(String.format("F1 change on %s: %+.4f", testSet,
+          updated.getFMeasure() - original.getFMeasure()));
+    }
+  }
+
+  /**
+   * Main access to the pruning and quantization of a model.
+   *
+   * @throws IOException
+   *           input output exception if problems with corpora or models
+   */
+  public final void compress() throws IOException {
+
+    File inModel = new File(parsedArguments.getString("model"));
+    File outModel = new File(parsedArguments.getString("output"));
+    ModelCompressor compressor = new ModelCompressor(inModel);
+    MaxentModel classifier = compressor.compress(
+        Double.parseDouble(parsedArguments.getString("threshold")),
+        parsedArguments.getString("quantization"));
+    compressor.write(classifier, outModel);
+    System.err.println("-> Pruned " + compressor.getPruned() + " of "
+        + compressor.getFeatures() + " features");
+    System.err.println("-> Compressed model written to " + outModel + ": "
+        + inModel.length() + " bytes -> " + outModel.length() + " bytes");
+    String testSet = parsedArguments.getString("testset");
+    if (testSet != null) {
+      ObjectStream<NameSample> testSamples = AbstractTrainer.getNameStream(testSet,
+          parsedArguments.getString("clearFeatures"), parsedArguments.getString("corpusFormat"));
+      FMeasure original = ModelRewriter.evaluate(compressor.getModel(), testSamples);
+      FMeasure compressed = ModelRewriter.evaluate(new TokenNameFinderModel(outModel), testSamples);
+      System.out.println("Original model: \n" + original);
+      System.out.println("Compressed model: \n" + compressed);
+      System.out.println(String.format("F1 change on %s: %+.4f", testSet,
+          compressed.getFMeasure() - original.getFMeasure()));
+    }
+  }
+
+  /**
+   * Main access to the export of a model with memory mapped weights.
+   *
+   * @throws IOException
+   *           input output exception if problems with the models
+   */
+  public final void export() throws IOException {
+
+    File inModel = new File(parsedArguments.getString("model"));
+    File outModel = new File(parsedArguments.getString("output"));
+    File weights = MappedWeights.export(inModel, outModel);
+    System.err.println("-> Exported model written to " + outModel + ": "
+        + outModel.length() + " bytes, mapping " + weights + ": "
+        + weights.length() + " bytes");
+  }
+  
+  /**
+   * Set up the TCP socket or the HTTP server for annotation.
    */
   public final void server() {
 
@@ -393,10 +619,47 @@ public class CLI {
     String dictPath = parsedArguments.getString("dictPath");
     String clearFeatures = parsedArguments.getString("clearFeatures");
     String outputFormat = parsedArguments.getString("outputFormat");
+    String models = parsedArguments.getString("models");
+    String watchModels = parsedArguments.getString("watchModels");
+    String protocol = parsedArguments.getString("protocol");
     // language parameter
     String lang = parsedArguments.getString("language");
+    if (models == null && (model == null || lang == null)) {
+      System.err.println("ERROR: Either --models or both --model and --language need to be provided!");
+      System.exit(1);
+    }
+    if (models != null && (task.equalsIgnoreCase("ote") || protocol.equalsIgnoreCase("http"))) {
+      System.err.println("ERROR: --models is only available for the ner task over TCP sockets!");
+      System.exit(1);
+    }
     Properties serverproperties = setNameServerProperties(port, model, lang, lexer, dictTag, dictPath, clearFeatures, outputFormat);
-    if (task.equalsIgnoreCase("ote")) {
+    if (models != null) {
+      serverproperties.setProperty("models", models);
+    }
+    serverproperties.setProperty("watchModels", watchModels);
+    serverproperties.setProperty("warmupIterations", parsedArguments.getString("warmupIterations"));
+    serverproperties.setProperty("warmupSeconds", parsedArguments.getString("warmupSeconds"));
+    if (parsedArguments.getString("warmupFile") != null) {
+      serverproperties.setProperty("warmupFile", parsedArguments.getString("warmupFile"));
+    }
+    serverproperties.setProperty("threads", parsedArguments.getString("threads"));
+    setDecodingProperties(serverproperties);
+    serverproperties.setProperty("batchLatency", parsedArguments.getString("batchLatency"));
+    serverproperties.setProperty("batchSize", parsedArguments.getString("batchSize"));
+    serverproperties.setProperty("connectionMode", parsedArguments.getString("connectionMode"));
+    if (protocol.equalsIgnoreCase("http")) {
+      serverproperties.setProperty("task", task);
+      if (parsedArguments.getString("oteModel") != null) {
+        serverproperties.setProperty("oteModel", parsedArguments.getString("oteModel"));
+      }
+      try {
+        new AnnotationHttpServer(serverproperties).start();
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.err.println("-> IOException due to failing to create the HTTP server or to wrongly provided model path.");
+        System.exit(1);
+      }
+    } else if (task.equalsIgnoreCase("ote")) {
       new TargetExtractorServer(serverproperties);
     } else {
       new NameFinderServer(serverproperties);
@@ -416,6 +679,9 @@ public class CLI {
 
     String host = parsedArguments.getString("host");
     String port = parsedArguments.getString("port");
+    String modelName = parsedArguments.getString("modelName");
+    String reload = parsedArguments.getString("reload");
+    boolean metrics = parsedArguments.getBoolean("metrics");
     try (Socket socketClient = new Socket(host, Integer.parseInt(port));
         BufferedReader inFromUser = new BufferedReader(new InputStreamReader(
             System.in, "UTF-8"));
@@ -428,6 +694,27 @@ public class CLI {
 
       // send data to server socket
       StringBuilder inText = new StringBuilder();
+      if (reload != null || metrics) {
+        if (metrics) {
+          inText.append(NameFinderServer.METRICS_HEADER).append("\n");
+        } else {
+          inText.append(NameFinderServer.RELOAD_HEADER).append(reload)
+              .append(NameFinderServer.RELOAD_HEADER_END).append("\n");
+        }
+        inText.append("<ENDOFDOCUMENT>").append("\n");
+        outToServer.write(inText.toString());
+        outToServer.flush();
+        String response;
+        while ((response = inFromServer.readLine()) != null) {
+          outToUser.write(response);
+          outToUser.newLine();
+        }
+        return;
+      }
+      if (modelName != null) {
+        inText.append(NameFinderServer.MODEL_HEADER).append(modelName)
+            .append(NameFinderServer.MODEL_HEADER_END).append("\n");
+      }
       String line;
       while ((line = inFromUser.readLine()) != null) {
         inText.append(line).append("\n");
@@ -480,6 +767,11 @@ public class CLI {
         .choices("conll03", "conll02", "naf", "opennlp")
         .setDefault(Flags.DEFAULT_OUTPUT_FORMAT)
         .help("Choose output format; it defaults to NAF.\n");
+    annotateParser.addArgument("--stream")
+        .action(Arguments.storeTrue())
+        .help("Tag the NAF document while it is read, sentence by sentence, and write it back with " +
+            "the entities layer appended, instead of loading the whole document in memory; " +
+            "only for NAF output.\n");
     annotateParser.addArgument("--lexer")
         .choices("numeric")
         .setDefault(Flags.DEFAULT_LEXER)
@@ -497,6 +789,45 @@ public class CLI {
         .setDefault(Flags.DEFAULT_DICT_PATH)
         .help("Provide the path to the dictionaries for direct dictionary tagging; it ONLY WORKS if --dictTag " +
         		"option is activated.\n");
+    annotateParser.addArgument("--inference")
+        .required(false)
+        .choices("opennlp", "compact")
+        .setDefault(Flags.DEFAULT_INFERENCE)
+        .help("Choose the inference engine; 'compact' compiles the classifier of the model into " +
+            "int feature ids and sparse per-feature rows of the non-zero outcome weights, " +
+            "giving the same entities faster; it defaults to 'opennlp'.\n");
+    annotateParser.addArgument("--decoder")
+        .required(false)
+        .choices("beam", "viterbi")
+        .setDefault(Flags.DEFAULT_DECODER)
+        .help("Choose the search of the best sequence of outcomes; 'viterbi' searches every " +
+            "valid BIO or BILOU transition instead of a beam; it defaults to 'beam'.\n");
+    annotateParser.addArgument("--sentenceFilter")
+        .required(false)
+        .choices("yes", "no")
+        .setDefault(Flags.DEFAULT_FILTER_SENTENCES)
+        .help("Skip the sentences which cannot contain names according to the token shapes " +
+            "learned with the model; it ONLY WORKS with models trained with SentenceFilter; " +
+            "it defaults to 'no'.\n");
+    annotateParser.addArgument("--maxSentenceLength")
+        .required(false)
+        .setDefault(Flags.DEFAULT_MAX_SENTENCE_LENGTH)
+        .help("Tag the sentences longer than this number of tokens, e.g., tables and lists, in " +
+            "overlapping windows of this length whose entities are merged back; e.g., 200; " +
+            "it defaults to 0, every sentence tagged at once.\n");
+    annotateParser.addArgument("--sentenceCache")
+        .required(false)
+        .setDefault(Flags.DEFAULT_SENTENCE_CACHE)
+        .help("Cache the entities of this number of sentences already tagged; it is only used " +
+            "if the features of the model do not depend on the previous sentences, e.g., " +
+            "with '--clearFeatures yes'; 0 decodes every sentence; it defaults to 10000.\n");
+    annotateParser.addArgument("--adaptiveBeam")
+        .required(false)
+        .setDefault(Flags.DEFAULT_ADAPTIVE_BEAM)
+        .help("Decode greedily and widen the beam to the beam size of the model only at the " +
+            "tokens where the margin between the probabilities of the two best outcomes is " +
+            "below this threshold, e.g., 0.3 for MAXENT and 0.15 for PERCEPTRON models; it " +
+            "defaults to 'off', a fixed beam.\n");
   }
   
   /**
@@ -522,6 +853,43 @@ public class CLI {
         .choices("naf", "opennlp")
         .setDefault(Flags.DEFAULT_OUTPUT_FORMAT)
         .help("Choose output format; it defaults to NAF.\n");
+    oteParser.addArgument("--inference")
+        .required(false)
+        .choices("opennlp", "compact")
+        .setDefault(Flags.DEFAULT_INFERENCE)
+        .help("Choose the inference engine; it defaults to 'opennlp'.\n");
+    oteParser.addArgument("--decoder")
+        .required(false)
+        .choices("beam", "viterbi")
+        .setDefault(Flags.DEFAULT_DECODER)
+        .help("Choose the search of the best sequence of outcomes; 'viterbi' searches every " +
+            "valid BIO or BILOU transition instead of a beam; it defaults to 'beam'.\n");
+    oteParser.addArgument("--sentenceFilter")
+        .required(false)
+        .choices("yes", "no")
+        .setDefault(Flags.DEFAULT_FILTER_SENTENCES)
+        .help("Skip the sentences which cannot contain names according to the token shapes " +
+            "learned with the model; it ONLY WORKS with models trained with SentenceFilter; " +
+            "it defaults to 'no'.\n");
+    oteParser.addArgument("--maxSentenceLength")
+        .required(false)
+        .setDefault(Flags.DEFAULT_MAX_SENTENCE_LENGTH)
+        .help("Tag the sentences longer than this number of tokens, e.g., tables and lists, in " +
+            "overlapping windows of this length whose entities are merged back; e.g., 200; " +
+            "it defaults to 0, every sentence tagged at once.\n");
+    oteParser.addArgument("--sentenceCache")
+        .required(false)
+        .setDefault(Flags.DEFAULT_SENTENCE_CACHE)
+        .help("Cache the entities of this number of sentences already tagged; it is only used " +
+            "if the features of the model do not depend on the previous sentences, e.g., " +
+            "with '--clearFeatures yes'; 0 decodes every sentence; it defaults to 10000.\n");
+    oteParser.addArgument("--adaptiveBeam")
+        .required(false)
+        .setDefault(Flags.DEFAULT_ADAPTIVE_BEAM)
+        .help("Decode greedily and widen the beam to the beam size of the model only at the " +
+            "tokens where the margin between the probabilities of the two best outcomes is " +
+            "below this threshold, e.g., 0.3 for MAXENT and 0.15 for PERCEPTRON models; it " +
+            "defaults to 'off', a fixed beam.\n");
   }
 
   /**
@@ -561,6 +929,38 @@ public class CLI {
         .required(false)
         .choices("brief", "detailed", "error")
         .help("Choose level of detail of evaluation report; it defaults to detailed evaluation.\n");
+    evalParser.addArgument("--threads")
+        .required(false)
+        .setDefault(Flags.DEFAULT_EVAL_THREADS)
+        .help("Number of threads decoding the test set; documents are split at the clear adaptive " +
+            "features marks, so use it with '--clearFeatures docstart' or 'yes'; it defaults to 1.\n");
+    evalParser.addArgument("--inference")
+        .required(false)
+        .choices("opennlp", "compact")
+        .setDefault(Flags.DEFAULT_INFERENCE)
+        .help("Choose the inference engine; 'compact' compiles the classifier of the model into " +
+            "int feature ids and sparse per-feature rows of the non-zero outcome weights, " +
+            "giving the same entities faster; it defaults to 'opennlp'.\n");
+    evalParser.addArgument("--decoder")
+        .required(false)
+        .choices("beam", "viterbi")
+        .setDefault(Flags.DEFAULT_DECODER)
+        .help("Choose the search of the best sequence of outcomes; 'viterbi' searches every " +
+            "valid BIO or BILOU transition instead of a beam; it defaults to 'beam'.\n");
+    evalParser.addArgument("--sentenceFilter")
+        .required(false)
+        .choices("yes", "no")
+        .setDefault(Flags.DEFAULT_FILTER_SENTENCES)
+        .help("Skip the sentences which cannot contain names according to the token shapes " +
+            "learned with the model; it ONLY WORKS with models trained with SentenceFilter; " +
+            "it defaults to 'no'.\n");
+    evalParser.addArgument("--adaptiveBeam")
+        .required(false)
+        .setDefault(Flags.DEFAULT_ADAPTIVE_BEAM)
+        .help("Decode greedily and widen the beam to the beam size of the model only at the " +
+            "tokens where the margin between the probabilities of the two best outcomes is " +
+            "below this threshold, e.g., 0.3 for MAXENT and 0.15 for PERCEPTRON models; it " +
+            "defaults to 'off', a fixed beam.\n");
     evalParser.addArgument("--types")
         .required(false)
         .setDefault(Flags.DEFAULT_NE_TYPES)
@@ -576,6 +976,103 @@ public class CLI {
     crossValidateParser.addArgument("-p", "--params").required(true)
         .help("Load the Cross validation parameters file\n");
   }
+
+  /**
+   * Create the main parameters available for updating a model.
+   */
+  private void loadUpdateParameters() {
+    updateParser.addArgument("-m", "--model").required(true)
+        .help("PERCEPTRON model to update\n");
+    updateParser.addArgument("-p", "--params").required(true)
+        .help("Load the training parameters file: its CorpusFormat and ClearTrainingFeatures apply to the " +
+            "new data, and the original and updated models are evaluated on its TestSet, if any.\n");
+    updateParser.addArgument("-d", "--data").required(true)
+        .help("New annotated data to update the model with\n");
+    updateParser.addArgument("-o", "--output").required(true)
+        .help("File to write the updated model\n");
+    updateParser.addArgument("--iterations")
+        .required(false)
+        .setDefault(Flags.DEFAULT_UPDATE_ITERATIONS)
+        .help("Number of averaged perceptron passes over the new data; it defaults to "
+            + Flags.DEFAULT_UPDATE_ITERATIONS + ".\n");
+  }
+
+  /**
+   * Create the main parameters available for compressing a model.
+   */
+  private void loadCompressParameters() {
+    compressParser.addArgument("-m", "--model").required(true)
+        .help("PERCEPTRON or MAXENT model to compress\n");
+    compressParser.addArgument("-o", "--output").required(true)
+        .help("File to write the compressed model\n");
+    compressParser.addArgument("--threshold")
+        .required(false)
+        .setDefault(Flags.DEFAULT_PRUNE_THRESHOLD)
+        .help("Prune the features whose weights are all below this absolute value; it defaults to "
+            + Flags.DEFAULT_PRUNE_THRESHOLD + ", pruning only the features quantized to zero.\n");
+    compressParser.addArgument("--quantization")
+        .required(false)
+        .choices(ModelCompressor.INT8, ModelCompressor.FLOAT16, ModelCompressor.NONE)
+        .setDefault(Flags.DEFAULT_QUANTIZATION)
+        .help("Choose the quantization of the weights; it defaults to " + Flags.DEFAULT_QUANTIZATION
+            + ", 8 bit levels scaled per outcome.\n");
+    compressParser.addArgument("-t", "--testset")
+        .required(false)
+        .help("Test set to compare the F1 of the original and the compressed model.\n");
+    compressParser.addArgument("--clearFeatures")
+        .required(false)
+        .choices("yes", "no", "docstart")
+        .setDefault(Flags.DEFAULT_FEATURE_FLAG)
+        .help("Reset the adaptive features of the test set; defaults to 'no'.\n");
+    compressParser.addArgument("-f","--corpusFormat")
+        .required(false)
+        .choices("conll02", "conll03", "opennlp")
+        .setDefault(Flags.DEFAULT_EVAL_FORMAT)
+        .help("Choose format of the test set; it defaults to conll02 format.\n");
+  }
+
+  /**
+   * Create the main parameters available for exporting a model with mapped
+   * weights.
+   */
+  private void loadExportParameters() {
+    exportParser.addArgument("-m", "--model").required(true)
+        .help("PERCEPTRON or MAXENT model to export\n");
+    exportParser.addArgument("-o", "--output").required(true)
+        .help("File to write the exported model; its weights are written next to it with the "
+            + MappedWeights.EXTENSION + " extension and are memory mapped by every process "
+            + "tagging with it.\n");
+  }
+
+  /**
+   * Create the main parameters available for the parameter sweep.
+   */
+  private void loadSweepParameters() {
+    sweepParser.addArgument("-p", "--params").required(true)
+        .help("Load the base training parameters file\n");
+    sweepParser.addArgument("-g", "--grid").required(true)
+        .help("Load the grid file: every line is a training parameter and its alternative values separated " +
+            "by '|', e.g., 'Window=1:1|2:2'; every combination is trained and evaluated on the TestSet.\n");
+    sweepParser.addArgument("-o", "--output")
+        .required(false)
+        .setDefault(Flags.DEFAULT_SWEEP_LEADERBOARD)
+        .help("File to write the leaderboard of F1 scores and timings; it defaults to "
+            + Flags.DEFAULT_SWEEP_LEADERBOARD + ".\n");
+    sweepParser.addArgument("--threads")
+        .required(false)
+        .setDefault("1")
+        .help("Number of trainings running concurrently; it defaults to 1.\n");
+    sweepParser.addArgument("--memoryBudget")
+        .required(false)
+        .setDefault("0")
+        .help("Memory in MB available for the concurrent trainings; it defaults to three quarters of the " +
+            "maximum heap.\n");
+    sweepParser.addArgument("--runMemory")
+        .required(false)
+        .setDefault("0")
+        .help("Memory in MB reserved by each training; it defaults to an estimate from the size of the " +
+            "TrainSet.\n");
+  }
   
 
   /**
@@ -592,8 +1089,97 @@ public class CLI {
         .required(true)
         .help("Port to be assigned to the server.\n");
     serverParser.addArgument("-m", "--model")
-        .required(true)
+        .required(false)
         .help("Pass the model to do the tagging as a parameter.\n");
+    serverParser.addArgument("--models")
+        .required(false)
+        .help("Properties file with the models to serve, every key prefixed by the model name, e.g., " +
+                "en-conll03.model=en.bin, en-conll03.language=en; it replaces --model and --language.\n");
+    serverParser.addArgument("--watchModels")
+        .required(false)
+        .choices("yes", "no")
+        .setDefault(Flags.DEFAULT_WATCH_MODELS)
+        .help("Reload a model in the background whenever its file is overwritten; defaults to 'no'.\n");
+    serverParser.addArgument("--protocol")
+        .required(false)
+        .choices("socket", "http")
+        .setDefault(Flags.DEFAULT_PROTOCOL)
+        .help("Serve the line based protocol over TCP sockets or JSON over HTTP at the /annotate " +
+                "and /ote endpoints; it defaults to socket.\n");
+    serverParser.addArgument("--threads")
+        .required(false)
+        .setDefault(Integer.toString(Runtime.getRuntime().availableProcessors()))
+        .help("Number of worker threads of the HTTP server, of the batching scheduler or tagging the " +
+                "documents of concurrent connections; it defaults to the number of processors.\n");
+    serverParser.addArgument("--batchLatency")
+        .required(false)
+        .setDefault(Flags.DEFAULT_BATCH_LATENCY)
+        .help("Gather the documents of concurrent requests into micro-batches, waiting at most these " +
+                "miliseconds for a batch to fill; it defaults to 0, no batching.\n");
+    serverParser.addArgument("--batchSize")
+        .required(false)
+        .setDefault(Flags.DEFAULT_BATCH_SIZE)
+        .help("Maximum number of sentences of a micro-batch; it defaults to 64.\n");
+    serverParser.addArgument("--connectionMode")
+        .required(false)
+        .choices("single", "thread", "virtual")
+        .setDefault(Flags.DEFAULT_CONNECTION_MODE)
+        .help("Handle the TCP connections in the accepting thread (single), in a thread per connection " +
+                "(thread) or in a virtual thread per connection (virtual, Java 21 or later); the tagging " +
+                "is then done by --threads threads; it defaults to single.\n");
+    serverParser.addArgument("--oteModel")
+        .required(false)
+        .help("Opinion Target Extraction model to serve at the /ote endpoint of the HTTP server.\n");
+    serverParser.addArgument("--warmupIterations")
+        .required(false)
+        .setDefault(Flags.DEFAULT_WARMUP)
+        .help("Annotate the warm-up sentences this number of times before opening the port; defaults to 0.\n");
+    serverParser.addArgument("--warmupSeconds")
+        .required(false)
+        .setDefault(Flags.DEFAULT_WARMUP)
+        .help("Annotate the warm-up sentences for at most this number of seconds before opening the port; " +
+                "defaults to 0.\n");
+    serverParser.addArgument("--warmupFile")
+        .required(false)
+        .help("NAF document or tokenized text (one sentence per line) for the warm-up; it defaults to " +
+                "a few synthetic sentences.\n");
+    serverParser.addArgument("--inference")
+        .required(false)
+        .choices("opennlp", "compact")
+        .setDefault(Flags.DEFAULT_INFERENCE)
+        .help("Choose the inference engine; it defaults to 'opennlp'.\n");
+    serverParser.addArgument("--decoder")
+        .required(false)
+        .choices("beam", "viterbi")
+        .setDefault(Flags.DEFAULT_DECODER)
+        .help("Choose the search of the best sequence of outcomes; 'viterbi' searches every " +
+            "valid BIO or BILOU transition instead of a beam; it defaults to 'beam'.\n");
+    serverParser.addArgument("--sentenceFilter")
+        .required(false)
+        .choices("yes", "no")
+        .setDefault(Flags.DEFAULT_FILTER_SENTENCES)
+        .help("Skip the sentences which cannot contain names according to the token shapes " +
+            "learned with the model; it ONLY WORKS with models trained with SentenceFilter; " +
+            "it defaults to 'no'.\n");
+    serverParser.addArgument("--adaptiveBeam")
+        .required(false)
+        .setDefault(Flags.DEFAULT_ADAPTIVE_BEAM)
+        .help("Decode greedily and widen the beam to the beam size of the model only at the " +
+            "tokens where the margin between the probabilities of the two best outcomes is " +
+            "below this threshold, e.g., 0.3 for MAXENT and 0.15 for PERCEPTRON models; it " +
+            "defaults to 'off', a fixed beam.\n");
+    serverParser.addArgument("--maxSentenceLength")
+        .required(false)
+        .setDefault(Flags.DEFAULT_MAX_SENTENCE_LENGTH)
+        .help("Tag the sentences longer than this number of tokens, e.g., tables and lists, in " +
+            "overlapping windows of this length whose entities are merged back; e.g., 200; " +
+            "it defaults to 0, every sentence tagged at once.\n");
+    serverParser.addArgument("--sentenceCache")
+        .required(false)
+        .setDefault(Flags.DEFAULT_SENTENCE_CACHE)
+        .help("Cache the entities of this number of sentences already tagged; it is only used " +
+            "if the features of the model do not depend on the previous sentences, e.g., " +
+            "with '--clearFeatures yes'; 0 decodes every sentence; it defaults to 10000.\n");
     serverParser.addArgument("--clearFeatures")
         .required(false)
         .choices("yes", "no", "docstart")
@@ -601,7 +1187,7 @@ public class CLI {
         .help("Reset the adaptive features every sentence; defaults to 'no'; if -DOCSTART- marks" +
                 " are present, choose 'docstart'.\n");
     serverParser.addArgument("-l","--language")
-        .required(true)
+        .required(false)
         .choices("de", "en", "es", "eu", "it", "nl")
         .help("Choose language.\n");
     serverParser.addArgument("-o","--outputFormat")
@@ -637,6 +1223,17 @@ public class CLI {
         .required(false)
         .setDefault(Flags.DEFAULT_HOSTNAME)
         .help("Hostname or IP where the TCP server is running.\n");
+    clientParser.addArgument("--modelName")
+        .required(false)
+        .help("Name of the model to use in a multi-model server; by default the server chooses " +
+                "the model for the language of the document.\n");
+    clientParser.addArgument("--reload")
+        .required(false)
+        .help("Ask the server to reload the model with this name from disk without restarting.\n");
+    clientParser.addArgument("--metrics")
+        .required(false)
+        .action(Arguments.storeTrue())
+        .help("Ask the server for its metrics.\n");
   }
 
   /**
@@ -695,11 +1292,30 @@ public class CLI {
     return evalProperties;
   }
   
+  /**
+   * Copy the decoding options given in the command line, i.e., the inference
+   * engine, the decoder, the adaptive beam, the sentence filter, the sentence
+   * cache and the maximum sentence length, into the properties of an
+   * annotator.
+   * @param properties the properties of the annotator
+   */
+  private void setDecodingProperties(Properties properties) {
+    for (String option : DECODING_OPTIONS) {
+      if (parsedArguments.getString(option) != null) {
+        properties.setProperty(option, parsedArguments.getString(option));
+      }
+    }
+  }
+
   private Properties setNameServerProperties(String port, String model, String language, String lexer, String dictTag, String dictPath, String clearFeatures, String outputFormat) {
     Properties serverProperties = new Properties();
     serverProperties.setProperty("port", port);
-    serverProperties.setProperty("model", model);
-    serverProperties.setProperty("language", language);
+    if (model != null) {
+      serverProperties.setProperty("model", model);
+    }
+    if (language != null) {
+      serverProperties.setProperty("language", language);
+    }
     serverProperties.setProperty("ruleBasedOption", lexer);
     serverProperties.setProperty("dictTag", dictTag);
     serverProperties.setProperty("dictPath", dictPath);
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the connections and the tagging of the socket servers. In
+ * the thread and virtual connection modes every accepted socket is read and
+ * answered by its own thread, while the CPU bound tagging is done by a
+ * bounded pool of platform threads. The virtual mode uses a virtual thread
+ * per connection, so that thousands of idle or slow clients do not exhaust
+ * the platform threads; since the sources are compiled for Java 7, virtual
+ * threads are looked up at runtime and the platform threads of the thread
+ * mode are used if the JVM does not provide them.
+ *
+ * @author ragerri
+ * @version 2016-07-25
+ */
+public final class ConnectionExecutors {
+
+  /**
+   * Every connection is handled by the thread accepting them.
+   */
+  public static final String SINGLE = "single";
+  /**
+   * A platform thread per connection.
+   */
+  public static final String THREAD = "thread";
+  /**
+   * A virtual thread per connection, if available.
+   */
+  public static final String VIRTUAL = "virtual";
+
+  /**
+   * This class is not to be instantiated.
+   */
+  private ConnectionExecutors() {
+  }
+
+  /**
+   * Create the executor of the connections for a connection mode.
+   *
+   * @param mode
+   *          the connection mode, one of single, thread or virtual
+   * @return the executor, or null in single mode
+   */
+  public static ExecutorService newConnectionExecutor(final String mode) {
+    if (VIRTUAL.equalsIgnoreCase(mode)) {
+      ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+      if (virtualThreads != null) {
+        System.err.println("-> Handling every connection in a virtual thread");
+        return virtualThreads;
+      }
+      System.err.println("-> WARNING: virtual threads require Java 21 or later;"
+          + " handling every connection in a platform thread");
+    } else if (!THREAD.equalsIgnoreCase(mode)) {
+      return null;
+    }
+    return Executors.newCachedThreadPool(daemonThreads("ixa-pipe-nerc-connection-"));
+  }
+
+  /**
+   * Create the bounded pool of platform threads for tagging.
+   *
+   * @param threads
+   *          the number of threads
+   * @return the pool
+   */
+  public static ExecutorService newTaggingPool(final int threads) {
+    return Executors.newFixedThreadPool(threads, daemonThreads("ixa-pipe-nerc-tagger-"));
+  }
+
+  /**
+   * Get a factory of named daemon threads.
+   *
+   * @param prefix
+   *          the prefix of the thread names
+   * @return the thread factory
+   */
+  static ThreadFactory daemonThreads(final String prefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Call Executors.newVirtualThreadPerTaskExecutor if the JVM provides it.
+   *
+   * @return the executor, or null if virtual threads are not available
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      // e.g., virtual threads are a preview feature not enabled in this JVM
+      return null;
+    }
+  }
+}
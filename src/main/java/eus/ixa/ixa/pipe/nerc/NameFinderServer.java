@@ -20,21 +20,131 @@ import ixa.kaflib.KAFDocument;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
 
 import org.jdom2.JDOMException;
 
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import eus.ixa.ixa.pipe.nerc.dict.ResourceRegistry;
+import eus.ixa.ixa.pipe.nerc.train.Flags;
 
+/**
+ * TCP server for Named Entity tagging. The server hosts one or more models,
+ * each of them with its own {@link Annotate} configuration. Models are
+ * configured either directly by the model and language properties or, to
+ * serve several models in the same JVM, by a models properties file in which
+ * every key is prefixed by the model name:
+ * 
+ * <pre>
+ * en-conll03.model=/path/to/en-conll03.bin
+ * en-conll03.language=en
+ * es-ancora.model=/path/to/es-ancora.bin
+ * es-ancora.language=es
+ * es-ancora.dictTag=post
+ * es-ancora.dictPath=/path/to/dicts
+ * default.es=es-ancora
+ * </pre>
+ * 
+ * Any property not set for a model is taken from the server properties. Each
+ * document is routed to the model named in a {@code <MODEL>name</MODEL>}
+ * header line sent before the document or, if no header is given, to the
+ * default model for the language of the NAF document. The default model of a
+ * language is set with {@code default.lang=name}; otherwise the first model
+ * (in alphabetical order) for that language is used. Models and the resources
+ * they contain are loaded only once per JVM, identical resources packaged in
+ * different models being shared via the {@link ResourceRegistry}.
+ * <p>
+ * A model can be replaced without restarting the server, either by sending a
+ * {@code <RELOAD>name</RELOAD>} admin line or, if the watchModels property is
+ * set to yes, by overwriting the model file, once the file has stopped
+ * changing. The new model is read and, only if it is valid, warmed up in
+ * the background and then swapped in atomically: the documents
+ * already being processed finish with the previous model, which is released
+ * once no longer referenced.
+ * <p>
+ * Before the port is opened every model can be warmed up, see {@link WarmUp}.
+ * <p>
+ * If the batchLatency property is set, documents are not annotated by the
+ * thread accepting the connections but gathered into micro-batches by a
+ * {@link BatchScheduler} and annotated by a pool of worker threads, the
+ * documents of a batch routed to the same model being tagged in one pass of
+ * one of its annotators. The {@code <METRICS>} admin line returns the
+ * batching metrics.
+ * <p>
+ * By default the thread accepting the connections reads and answers every
+ * client. With the connectionMode property set to thread or virtual, every
+ * connection is handled by its own thread, see {@link ConnectionExecutors},
+ * and the tagging is done by a bounded pool of threads.
+ * 
+ * @author ragerri
+ * @version 2016-07-21
+ */
 public class NameFinderServer {
   
+  /**
+   * The header line to choose the model of a document.
+   */
+  public static final String MODEL_HEADER = "<MODEL>";
+  /**
+   * The closing tag of the model header line.
+   */
+  public static final String MODEL_HEADER_END = "</MODEL>";
+  /**
+   * The admin line to reload a model.
+   */
+  public static final String RELOAD_HEADER = "<RELOAD>";
+  /**
+   * The closing tag of the admin reload line.
+   */
+  public static final String RELOAD_HEADER_END = "</RELOAD>";
+  /**
+   * The admin line to get the server metrics.
+   */
+  public static final String METRICS_HEADER = "<METRICS>";
+  /**
+   * Time during which a changed model file must keep its size and
+   * modification time before it is reloaded, so that the copy of the new
+   * model is finished.
+   */
+  private static final long RELOAD_QUIET_PERIOD = 2000;
   /**
    * Get dynamically the version of ixa-pipe-nerc by looking at the MANIFEST
    * file.
@@ -46,15 +156,89 @@ public class NameFinderServer {
    */
   private final String commit = CLI.class.getPackage().getSpecificationVersion();
   /**
-   * The model.
+   * The models, keyed by model name. Each reference is swapped when the
+   * model is reloaded.
+   */
+  private final Map<String, AtomicReference<ModelInstance>> annotators = new LinkedHashMap<>();
+  /**
+   * The models waiting to be reloaded.
+   */
+  private final Set<String> pendingReloads = Collections.synchronizedSet(new HashSet<String>());
+  /**
+   * The background thread loading new models.
+   */
+  private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(runnable, "ixa-pipe-nerc-reload");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  /**
+   * The model paths, keyed by model name.
+   */
+  private final Map<String, String> modelPaths = new LinkedHashMap<>();
+  /**
+   * The default model name for each language.
+   */
+  private final Map<String, String> languageModels = new LinkedHashMap<>();
+  /**
+   * The warm-up run on every model before it serves documents.
+   */
+  private WarmUp warmUp;
+  /**
+   * The micro-batching scheduler, if documents are annotated in batches.
+   */
+  private BatchScheduler<KAFDocument, String> scheduler;
+  /**
+   * The executor of the connections, unless they are all handled by the
+   * accepting thread.
    */
-  private String model = null;
+  private ExecutorService connectionExecutor;
+  /**
+   * The bounded pool tagging the documents of concurrent connections when
+   * there is no batching.
+   */
+  private ExecutorService taggingPool;
   /**
    * The annotation output format, one of NAF (default), CoNLL 2002, CoNLL 2003
    * and OpenNLP.
    */
   private String outputFormat = null;
   
+  /**
+   * A loaded model: its annotation properties, its model and the pool of its
+   * idle annotators, since the annotators are not thread safe. Each document
+   * borrows an annotator and gives it back, so that the annotators belong
+   * to the instance and not to the threads: once an instance is swapped out
+   * and its documents are done, its annotators and model can be released.
+   * The annotators are always built with the model of the instance, never
+   * with the model loaded in this JVM for the model path, which a reload
+   * replaces.
+   */
+  private static final class ModelInstance {
+    private final Properties properties;
+    private final TokenNameFinderModel nerModel;
+    private final Queue<Annotate> idleAnnotators = new ConcurrentLinkedQueue<>();
+
+    ModelInstance(final Properties properties, final Annotate first) {
+      this.properties = properties;
+      StatisticalNameFinder nameFinder = first.getStatisticalNameFinder();
+      this.nerModel = nameFinder == null ? null : nameFinder.getModel();
+      idleAnnotators.add(first);
+    }
+
+    Annotate borrowAnnotator() throws IOException {
+      Annotate annotator = idleAnnotators.poll();
+      return annotator == null ? new Annotate(properties, nerModel) : annotator;
+    }
+
+    void releaseAnnotator(final Annotate annotator) {
+      idleAnnotators.add(annotator);
+    }
+  }
+
   /**
    * Construct a NameFinder server.
    * 
@@ -64,47 +248,60 @@ public class NameFinderServer {
   public NameFinderServer(Properties properties) {
 
     Integer port = Integer.parseInt(properties.getProperty("port"));
-    model = properties.getProperty("model");
     outputFormat = properties.getProperty("outputFormat");
     
-    String kafToString;
     ServerSocket socketServer = null;
-    Socket activeSocket;
-    BufferedReader inFromClient = null;
-    BufferedWriter outToClient = null;
 
     try {
-      Annotate annotator = new Annotate(properties);
+      loadAnnotators(properties);
+      warmUp = new WarmUp(properties);
+      if (warmUp.isActive()) {
+        for (Map.Entry<String, AtomicReference<ModelInstance>> entry : annotators.entrySet()) {
+          System.err.println("-> Warming up model " + entry.getKey());
+          ModelInstance instance = entry.getValue().get();
+          warmUp.warmUp(WarmUp.newAnnotator(instance.properties, instance.nerModel),
+              instance.properties.getProperty("language"));
+        }
+      }
+      int threads = Integer.parseInt(properties.getProperty("threads",
+          Integer.toString(Runtime.getRuntime().availableProcessors())));
+      int batchLatency = Integer.parseInt(properties.getProperty("batchLatency", Flags.DEFAULT_BATCH_LATENCY));
+      if (batchLatency > 0) {
+        int batchSize = Integer.parseInt(properties.getProperty("batchSize", Flags.DEFAULT_BATCH_SIZE));
+        scheduler = new BatchScheduler<KAFDocument, String>(
+            new BatchScheduler.Processor<KAFDocument, String>() {
+              @Override
+              public List<String> process(final String modelName,
+                  final List<KAFDocument> documents) throws IOException {
+                return annotate(modelName, documents);
+              }
+            }, batchSize, batchLatency, threads);
+        System.err.println("-> Batching up to " + batchSize + " sentences within "
+            + batchLatency + " miliseconds on " + threads + " threads");
+      }
+      connectionExecutor = ConnectionExecutors.newConnectionExecutor(
+          properties.getProperty("connectionMode", Flags.DEFAULT_CONNECTION_MODE));
+      if (connectionExecutor != null && scheduler == null) {
+        taggingPool = ConnectionExecutors.newTaggingPool(threads);
+      }
+      if ("yes".equalsIgnoreCase(properties.getProperty("watchModels"))) {
+        watchModels();
+      }
       System.out.println("-> Trying to listen port... " + port);
       socketServer = new ServerSocket(port);
       System.out.println("-> Connected and listening to port " + port);
       while (true) {
-        try {
-          activeSocket = socketServer.accept();
-          inFromClient = new BufferedReader(new InputStreamReader(activeSocket.getInputStream(), "UTF-8"));
-          outToClient = new BufferedWriter(new OutputStreamWriter(activeSocket.getOutputStream(), "UTF-8"));
-          //get data from client
-          String stringFromClient = getClientData(inFromClient);
-          // annotate
-          kafToString = getAnnotations(annotator, stringFromClient);
-        } catch (JDOMException e) {
-          kafToString = "\n-> ERROR: Badly formatted NAF document!!\n";
-          sendDataToClient(outToClient, kafToString);
-          continue;
-        } catch (UnsupportedEncodingException e) {
-          kafToString = "\n-> ERROR: UTF-8 not supported!!\n";
-          sendDataToClient(outToClient, kafToString);
-          continue;
-        } catch (IOException e) {
-          kafToString = "\n -> ERROR: Input data not correct!!\n";
-          sendDataToClient(outToClient, kafToString);
-          continue;
+        final Socket activeSocket = socketServer.accept();
+        if (connectionExecutor == null) {
+          handleConnection(activeSocket);
+        } else {
+          connectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              handleConnection(activeSocket);
+            }
+          });
         }
-        //send data to server after all exceptions and close the outToClient
-        sendDataToClient(outToClient, kafToString);
-        //close the resources
-        inFromClient.close();
-        activeSocket.close();
       } //end of processing block
     } catch (IOException e) {
       e.printStackTrace();
@@ -112,12 +309,288 @@ public class NameFinderServer {
     } finally {
       System.out.println("closing tcp socket...");
       try {
-        socketServer.close();
+        if (socketServer != null) {
+          socketServer.close();
+        }
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
   }
+
+  /**
+   * Read a document from a client, annotate it and send back the result.
+   * In single connection mode with batching, the result is sent by the
+   * worker thread once the document has been annotated.
+   * 
+   * @param activeSocket
+   *          the client socket
+   */
+  private void handleConnection(final Socket activeSocket) {
+    String kafToString;
+    BufferedWriter outToClient = null;
+    try {
+      BufferedReader inFromClient = new BufferedReader(new InputStreamReader(activeSocket.getInputStream(), "UTF-8"));
+      outToClient = new BufferedWriter(new OutputStreamWriter(activeSocket.getOutputStream(), "UTF-8"));
+      //get data from client
+      String stringFromClient = getClientData(inFromClient);
+      // annotate
+      if (isAdminRequest(stringFromClient)) {
+        kafToString = getAnnotations(stringFromClient);
+      } else if (connectionExecutor != null) {
+        kafToString = getAnnotationsFromPool(stringFromClient);
+      } else if (scheduler != null) {
+        submitAnnotations(stringFromClient, activeSocket, outToClient);
+        return;
+      } else {
+        kafToString = getAnnotations(stringFromClient);
+      }
+    } catch (JDOMException e) {
+      kafToString = "\n-> ERROR: Badly formatted NAF document!!\n";
+    } catch (UnsupportedEncodingException e) {
+      kafToString = "\n-> ERROR: UTF-8 not supported!!\n";
+    } catch (IOException e) {
+      kafToString = "\n -> ERROR: Input data not correct!!\n";
+    } catch (IllegalArgumentException e) {
+      kafToString = "\n-> ERROR: " + e.getMessage() + "\n";
+    }
+    try {
+      //send data to server after all exceptions and close the resources
+      if (outToClient != null) {
+        sendDataToClient(outToClient, kafToString);
+      }
+      activeSocket.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Load an annotator for every model configured in the server properties.
+   * 
+   * @param properties
+   *          the server properties
+   * @throws IOException
+   *           if a model or the models file cannot be read
+   */
+  private void loadAnnotators(final Properties properties) throws IOException {
+    String modelsFile = properties.getProperty("models");
+    if (modelsFile == null) {
+      String model = properties.getProperty("model");
+      addAnnotator(Files.getNameWithoutExtension(model), properties);
+    } else {
+      Properties modelsProperties = new Properties();
+      try (InputStream modelsStream = new FileInputStream(modelsFile)) {
+        modelsProperties.load(modelsStream);
+      }
+      List<String> modelNames = new ArrayList<>();
+      for (String key : modelsProperties.stringPropertyNames()) {
+        String modelName = key.substring(0, Math.max(key.indexOf('.'), 0));
+        if (!modelName.isEmpty() && !modelName.equals("default")
+            && !modelNames.contains(modelName)) {
+          modelNames.add(modelName);
+        }
+      }
+      Collections.sort(modelNames);
+      for (String modelName : modelNames) {
+        Properties modelProperties = new Properties();
+        modelProperties.putAll(properties);
+        modelProperties.remove("models");
+        for (String key : modelsProperties.stringPropertyNames()) {
+          if (key.startsWith(modelName + ".")) {
+            modelProperties.setProperty(key.substring(modelName.length() + 1),
+                modelsProperties.getProperty(key));
+          }
+        }
+        if (modelProperties.getProperty("model") == null
+            || modelProperties.getProperty("language") == null) {
+          throw new IOException("Model " + modelName
+              + " needs both model and language properties in " + modelsFile);
+        }
+        addAnnotator(modelName, modelProperties);
+      }
+      for (String key : modelsProperties.stringPropertyNames()) {
+        if (key.startsWith("default.")) {
+          String modelName = modelsProperties.getProperty(key);
+          if (!annotators.containsKey(modelName)) {
+            throw new IOException("Default model " + modelName
+                + " is not defined in " + modelsFile);
+          }
+          languageModels.put(key.substring("default.".length()), modelName);
+        }
+      }
+    }
+    System.err.println("-> Serving " + annotators.size() + " models "
+        + annotators.keySet() + " sharing " + ResourceRegistry.size()
+        + " resources");
+  }
+
+  /**
+   * Create the annotator of a model and register it.
+   * 
+   * @param modelName
+   *          the name of the model
+   * @param modelProperties
+   *          the annotation properties of the model
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  private void addAnnotator(final String modelName,
+      final Properties modelProperties) throws IOException {
+    Annotate annotator = new Annotate(modelProperties);
+    annotators.put(modelName, new AtomicReference<ModelInstance>(
+        new ModelInstance(modelProperties, annotator)));
+    modelPaths.put(modelName, modelProperties.getProperty("model"));
+    String lang = modelProperties.getProperty("language");
+    if (lang != null && !languageModels.containsKey(lang)) {
+      languageModels.put(lang, modelName);
+    }
+  }
+  
+  /**
+   * Reload a model in the background. The new model is read from its path,
+   * warmed up and then swapped in for the next documents. If loading fails
+   * the current model keeps serving.
+   * 
+   * @param modelName
+   *          the name of the model
+   * @param quietPeriod
+   *          the milliseconds the model file must stay unchanged before
+   *          reading it
+   */
+  private void scheduleReload(final String modelName, final long quietPeriod) {
+    if (!pendingReloads.add(modelName)) {
+      return;
+    }
+    reloadExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          waitUntilStable(new File(modelPaths.get(modelName)), quietPeriod);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        pendingReloads.remove(modelName);
+        reload(modelName);
+      }
+    });
+  }
+
+  /**
+   * Wait until a file keeps its size and modification time for a quiet
+   * period, i.e., until it is no longer being written.
+   * 
+   * @param file
+   *          the file
+   * @param quietPeriod
+   *          the milliseconds without changes
+   * @throws InterruptedException
+   *           if the thread is interrupted
+   */
+  private static void waitUntilStable(final File file, final long quietPeriod)
+      throws InterruptedException {
+    if (quietPeriod <= 0) {
+      return;
+    }
+    long length;
+    long lastModified;
+    do {
+      length = file.length();
+      lastModified = file.lastModified();
+      Thread.sleep(quietPeriod);
+    } while (file.length() != length || file.lastModified() != lastModified);
+  }
+
+  /**
+   * Load, warm up and swap in a new instance of a model. The new instance
+   * tags with the model just read, and the model loaded in this JVM for the
+   * model path is only replaced once the new instance has been warmed up and
+   * swapped in; if anything fails the previous instance and model are kept.
+   * 
+   * @param modelName
+   *          the name of the model
+   */
+  private void reload(final String modelName) {
+    Properties modelProperties = annotators.get(modelName).get().properties;
+    String model = modelProperties.getProperty("model");
+    long lStartTime = System.currentTimeMillis();
+    TokenNameFinderModel nerModel;
+    try (InputStream modelStream = new FileInputStream(model)) {
+      nerModel = new TokenNameFinderModel(modelStream);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      System.err.println("-> ERROR: Could not read model " + modelName
+          + ", keeping the previous one!!");
+      return;
+    }
+    try {
+      Annotate warmUpAnnotator = WarmUp.newAnnotator(modelProperties, nerModel);
+      if (warmUp.isActive()) {
+        warmUp.warmUp(warmUpAnnotator, modelProperties.getProperty("language"));
+      } else {
+        WarmUp.prime(warmUpAnnotator, modelProperties.getProperty("language"));
+      }
+      Annotate annotator = new Annotate(modelProperties, nerModel);
+      annotators.get(modelName).set(new ModelInstance(modelProperties, annotator));
+      StatisticalNameFinder.replaceModel(model, nerModel);
+      long difference = System.currentTimeMillis() - lStartTime;
+      System.err.println("-> Model " + modelName + " reloaded from " + model
+          + " in " + difference + " miliseconds");
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      System.err.println("-> ERROR: Could not reload model " + modelName
+          + ", keeping the previous one!!");
+    }
+  }
+
+  /**
+   * Start a daemon thread watching the directories of the models and
+   * reloading a model whenever its file is created or modified.
+   * 
+   * @throws IOException
+   *           if the directories cannot be watched
+   */
+  private void watchModels() throws IOException {
+    final WatchService watchService = FileSystems.getDefault().newWatchService();
+    Set<Path> directories = new HashSet<>();
+    for (String model : modelPaths.values()) {
+      Path directory = new File(model).getAbsoluteFile().toPath().getParent();
+      if (directories.add(directory)) {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+      }
+    }
+    Thread watcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          WatchKey key;
+          try {
+            key = watchService.take();
+          } catch (InterruptedException e) {
+            return;
+          }
+          Path directory = (Path) key.watchable();
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              continue;
+            }
+            Path changed = directory.resolve((Path) event.context());
+            for (Map.Entry<String, String> entry : modelPaths.entrySet()) {
+              if (new File(entry.getValue()).getAbsoluteFile().toPath().equals(changed)) {
+                scheduleReload(entry.getKey(), RELOAD_QUIET_PERIOD);
+              }
+            }
+          }
+          key.reset();
+        }
+      }
+    }, "ixa-pipe-nerc-watch");
+    watcher.setDaemon(true);
+    watcher.start();
+    System.err.println("-> Watching " + directories + " for model changes");
+  }
   
   /**
    * Read data from the client and output to a String.
@@ -153,26 +626,247 @@ public class NameFinderServer {
     outToClient.write(kafToString);
     outToClient.close();
   }
+
+  /**
+   * Choose the model for a document: the model of the header, if any, or the
+   * default model for the document language.
+   * 
+   * @param modelName
+   *          the model name from the header, or null
+   * @param lang
+   *          the language of the document
+   * @return the name of the model
+   */
+  private String routeDocument(final String modelName, final String lang) {
+    if (modelName != null) {
+      if (!annotators.containsKey(modelName)) {
+        throw new IllegalArgumentException("Model " + modelName
+            + " not available!!");
+      }
+      return modelName;
+    }
+    if (lang != null && languageModels.containsKey(lang)) {
+      return languageModels.get(lang);
+    }
+    if (annotators.size() == 1) {
+      return annotators.keySet().iterator().next();
+    }
+    throw new IllegalArgumentException("No model available for language "
+        + lang + "!!");
+  }
+  
+  /**
+   * Check whether the data from the client is an admin command.
+   * @param stringFromClient the data from the client
+   * @return true if it is an admin command
+   */
+  private boolean isAdminRequest(String stringFromClient) {
+    return stringFromClient.startsWith(RELOAD_HEADER)
+        || stringFromClient.startsWith(METRICS_HEADER);
+  }
+
+  /**
+   * Get the metrics of the server.
+   * @return the metrics, one per line
+   */
+  private String getMetrics() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("models\t").append(annotators.keySet()).append("\n");
+    sb.append("sharedResources\t").append(ResourceRegistry.size()).append("\n");
+    if (scheduler != null) {
+      for (Map.Entry<String, Long> metric : scheduler.getMetrics().entrySet()) {
+        sb.append(metric.getKey()).append("\t").append(metric.getValue()).append("\n");
+      }
+    }
+    for (Map.Entry<String, Long> metric : StatisticalNameFinder.getSentenceCacheMetrics().entrySet()) {
+      sb.append(metric.getKey()).append("\t").append(metric.getValue()).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Parse a document on the accepting thread and submit its annotation to
+   * the scheduler; the response is sent by the worker once it is done.
+   * @param stringFromClient the string to be annotated
+   * @param activeSocket the client socket
+   * @param outToClient the outputstream to the client
+   * @throws IOException if io error
+   * @throws JDOMException if xml error
+   */
+  private void submitAnnotations(final String stringFromClient,
+      final Socket activeSocket, final BufferedWriter outToClient)
+      throws JDOMException, IOException {
+    BufferedReader clientReader = new BufferedReader(new StringReader(stringFromClient));
+    final String modelName = readModelHeader(stringFromClient, clientReader);
+    KAFDocument kaf = KAFDocument.createFromStream(clientReader);
+    ListenableFuture<String> annotation = scheduler.submit(
+        routeDocument(modelName, kaf.getLang()), kaf, kaf.getSentences().size());
+    Futures.addCallback(annotation, new FutureCallback<String>() {
+      @Override
+      public void onSuccess(final String kafToString) {
+        respond(kafToString);
+      }
+
+      @Override
+      public void onFailure(final Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+          respond("\n-> ERROR: " + e.getMessage() + "\n");
+        } else {
+          e.printStackTrace();
+          respond("\n -> ERROR: Input data not correct!!\n");
+        }
+      }
+
+      private void respond(final String kafToString) {
+        try {
+          sendDataToClient(outToClient, kafToString);
+          activeSocket.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Parse a document on the connection thread and annotate it on the
+   * tagging pool or the batching workers, waiting for the result.
+   * @param stringFromClient the string to be annotated
+   * @return the annotation result
+   * @throws IOException if io error
+   * @throws JDOMException if xml error
+   */
+  private String getAnnotationsFromPool(final String stringFromClient)
+      throws JDOMException, IOException {
+    BufferedReader clientReader = new BufferedReader(new StringReader(stringFromClient));
+    final String modelName = readModelHeader(stringFromClient, clientReader);
+    final KAFDocument kaf = KAFDocument.createFromStream(clientReader);
+    final String routedModel = routeDocument(modelName, kaf.getLang());
+    Future<String> annotation;
+    if (scheduler != null) {
+      annotation = scheduler.submit(routedModel, kaf, kaf.getSentences().size());
+    } else {
+      annotation = taggingPool.submit(new Callable<String>() {
+        @Override
+        public String call() throws IOException {
+          return annotate(routedModel, kaf);
+        }
+      });
+    }
+    try {
+      return annotation.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Read the model header line, if any.
+   * @param stringFromClient the string from the client
+   * @param clientReader the reader of the string, positioned at its start
+   * @return the model name or null if there is no header
+   * @throws IOException if io error
+   */
+  private String readModelHeader(String stringFromClient,
+      BufferedReader clientReader) throws IOException {
+    if (stringFromClient.startsWith(MODEL_HEADER)) {
+      String header = clientReader.readLine();
+      return header.substring(MODEL_HEADER.length())
+          .replace(MODEL_HEADER_END, "").trim();
+    }
+    return null;
+  }
   
   /**
    * Named Entity annotator.
-   * @param annotator the annotator
    * @param stringFromClient the string to be annotated
    * @return the annotation result
    * @throws IOException if io error
    * @throws JDOMException if xml error
    */
-  private String getAnnotations(Annotate annotator, String stringFromClient) throws JDOMException, IOException {
+  private String getAnnotations(String stringFromClient) throws JDOMException, IOException {
     //get a breader from the string coming from the client
     BufferedReader clientReader = new BufferedReader(new StringReader(stringFromClient));
+    if (stringFromClient.startsWith(METRICS_HEADER)) {
+      return getMetrics();
+    }
+    if (stringFromClient.startsWith(RELOAD_HEADER)) {
+      String reloadName = clientReader.readLine().substring(RELOAD_HEADER.length())
+          .replace(RELOAD_HEADER_END, "").trim();
+      if (!annotators.containsKey(reloadName)) {
+        throw new IllegalArgumentException("Model " + reloadName
+            + " not available!!");
+      }
+      scheduleReload(reloadName, 0);
+      return "-> Reloading model " + reloadName + " in the background\n";
+    }
+    String modelName = readModelHeader(stringFromClient, clientReader);
     KAFDocument kaf = KAFDocument.createFromStream(clientReader);
-    KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
-          "entities",
-          "ixa-pipe-nerc-" + Files.getNameWithoutExtension(model), version
-              + "-" + commit);
-    newLp.setBeginTimestamp();
-    annotator.annotateNEs(kaf);
-    newLp.setEndTimestamp();
+    return annotate(routeDocument(modelName, kaf.getLang()), kaf);
+  }
+
+  /**
+   * Annotate a document with a model and serialize it in the output format.
+   * @param modelName the name of the model
+   * @param kaf the document
+   * @return the annotation result
+   * @throws IOException if io error
+   */
+  private String annotate(String modelName, KAFDocument kaf) throws IOException {
+    return annotate(modelName, Collections.singletonList(kaf)).get(0);
+  }
+
+  /**
+   * Annotate the documents of a batch in one pass of an annotator of a model
+   * and serialize each of them in the output format.
+   * @param modelName the name of the model
+   * @param documents the documents
+   * @return the annotation result of every document
+   * @throws IOException if io error
+   */
+  private List<String> annotate(String modelName, List<KAFDocument> documents)
+      throws IOException {
+    // keep the current instance even if the model is swapped meanwhile
+    ModelInstance instance = annotators.get(modelName).get();
+    Annotate annotator = instance.borrowAnnotator();
+    try {
+      List<KAFDocument.LinguisticProcessor> newLps = new ArrayList<>();
+      for (KAFDocument kaf : documents) {
+        KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+            "entities",
+            "ixa-pipe-nerc-" + Files.getNameWithoutExtension(modelPaths.get(modelName)), version
+                + "-" + commit);
+        newLp.setBeginTimestamp();
+        newLps.add(newLp);
+      }
+      annotator.annotateNEs(documents);
+      List<String> results = new ArrayList<>();
+      for (int i = 0; i < documents.size(); i++) {
+        newLps.get(i).setEndTimestamp();
+        results.add(serialize(annotator, documents.get(i)));
+      }
+      return results;
+    } finally {
+      instance.releaseAnnotator(annotator);
+    }
+  }
+
+  /**
+   * Serialize an annotated document in the output format.
+   * @param annotator the annotator of the document
+   * @param kaf the document
+   * @return the annotation result
+   */
+  private String serialize(Annotate annotator, KAFDocument kaf) {
     // get outputFormat
     String kafToString = null;
     if (outputFormat.equalsIgnoreCase("conll03")) {
@@ -29,6 +29,7 @@ import java.util.Properties;
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.NameSample;
 import opennlp.tools.util.Span;
+import eus.ixa.ixa.pipe.nerc.train.Flags;
 
 /**
  * Annotation class for Opinion Target Extraction (OTE).
@@ -51,15 +52,38 @@ public class OpinionTargetExtractor {
    * Clear features after every sentence or when a -DOCSTART- mark appears.
    */
   private String clearFeatures;
+  /**
+   * The splitting of the sentences longer than the maxSentenceLength
+   * property, null if every sentence is tagged at once.
+   */
+  private SentenceChunker sentenceChunker;
 
   
   public OpinionTargetExtractor(final Properties properties) throws IOException {
 
     this.clearFeatures = properties.getProperty("clearFeatures");
+    this.sentenceChunker = SentenceChunker.getSentenceChunker(properties.getProperty(
+        "maxSentenceLength", Flags.DEFAULT_MAX_SENTENCE_LENGTH));
     nameFactory = new NameFactory();
     oteExtractor = new StatisticalNameFinder(properties, nameFactory);
   }
   
+  /**
+   * Get the statistical namefinder.
+   * @return the statistical namefinder
+   */
+  public StatisticalNameFinder getStatisticalNameFinder() {
+    return oteExtractor;
+  }
+
+  /**
+   * Get the splitting of the long sentences.
+   * @return the sentence chunker, null if every sentence is tagged at once
+   */
+  public SentenceChunker getSentenceChunker() {
+    return sentenceChunker;
+  }
+
   /**
    * Extract Opinion Targets.
    * @param kaf the KAFDocument
@@ -76,10 +100,7 @@ public class OpinionTargetExtractor {
         tokens[i] = sentence.get(i).getForm();
         tokenIds[i] = sentence.get(i).getId();
       }
-      if (clearFeatures.equalsIgnoreCase("docstart") && tokens[0].startsWith("-DOCSTART-")) {
-        oteExtractor.clearAdaptiveData();
-      }
-      List<Name> names = oteExtractor.getNames(tokens);
+      List<Name> names = extractTargets(tokens);
       for (Name name : names) {
         Integer startIndex = name.getSpan().getStart();
         Integer endIndex = name.getSpan().getEnd();
@@ -89,10 +110,50 @@ public class OpinionTargetExtractor {
         Opinion opinion = kaf.newOpinion();
         opinion.createOpinionTarget(neSpan);
       }
-      if (clearFeatures.equalsIgnoreCase("yes")) {
-        oteExtractor.clearAdaptiveData();
-      }
     }
+    clearAdaptiveData();
+  }
+
+  /**
+   * Extract the opinion targets of a tokenized sentence, clearing the
+   * adaptive features according to the clearFeatures option.
+   * @param tokens the tokens of the sentence
+   * @return the opinion targets found
+   */
+  public final List<Name> extractTargets(final String[] tokens) {
+    if (clearFeatures.equalsIgnoreCase("docstart") && tokens[0].startsWith("-DOCSTART-")) {
+      oteExtractor.clearAdaptiveData();
+    }
+    Span[] targetSpans = NameFinderME.dropOverlappingSpans(getSpans(tokens));
+    List<Name> names = oteExtractor.getNamesFromSpans(targetSpans, tokens);
+    if (clearFeatures.equalsIgnoreCase("yes")) {
+      oteExtractor.clearAdaptiveData();
+    }
+    return names;
+  }
+
+  /**
+   * Get the spans of the opinion targets of a sentence, window by window if
+   * it is longer than the maximum sentence length.
+   * @param tokens the tokens of the sentence
+   * @return the spans
+   */
+  private Span[] getSpans(final String[] tokens) {
+    if (sentenceChunker == null) {
+      return oteExtractor.nercToSpans(tokens);
+    }
+    return sentenceChunker.tag(tokens, new SentenceChunker.Tagger() {
+      @Override
+      public Span[] tag(final String[] windowTokens) {
+        return oteExtractor.nercToSpans(windowTokens);
+      }
+    });
+  }
+
+  /**
+   * Clear the adaptive features, e.g., at the end of each document.
+   */
+  public final void clearAdaptiveData() {
     oteExtractor.clearAdaptiveData();
   }
 
@@ -127,7 +188,7 @@ public class OpinionTargetExtractor {
       if (clearFeatures.equalsIgnoreCase("docstart") && tokens[0].startsWith("-DOCSTART-")) {
         oteExtractor.clearAdaptiveData();
       }
-      Span[] statSpans = oteExtractor.nercToSpans(tokens);
+      Span[] statSpans = getSpans(tokens);
       boolean isClearAdaptiveData = false;
       if (clearFeatures.equalsIgnoreCase("yes")) {
         isClearAdaptiveData = true;
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import opennlp.tools.util.Span;
+
+/**
+ * Splits the sentences longer than a maximum length, e.g., tables and lists,
+ * into overlapping windows tagged independently, so that the cost of the
+ * dictionary features and of the decoding of a sentence is bounded. Each
+ * window overlaps the next by a quarter of the maximum length.
+ * <p>
+ * The spans of the windows are merged back preferring, among overlapping
+ * spans, the one whose centre is farthest from the cut edges of its window,
+ * i.e., the one tagged with the most context on both sides. A name crossing the cut of a
+ * window is thus taken from the next window, which sees it whole, and the
+ * names found twice in an overlap are kept once.
+ *
+ * @author ragerri
+ * @version 2016-08-14
+ */
+public final class SentenceChunker {
+
+  /**
+   * The tagging of a sentence or window.
+   */
+  public interface Tagger {
+
+    /**
+     * @param tokens
+     *          the tokens of a sentence or window
+     * @return the spans found
+     */
+    Span[] tag(String[] tokens);
+  }
+
+  private final int maxLength;
+  private final int stride;
+  private final AtomicLong sentences = new AtomicLong();
+  private final AtomicLong windows = new AtomicLong();
+
+  /**
+   * Construct a chunker.
+   *
+   * @param maxLength
+   *          the maximum number of tokens tagged at once, at least 2
+   */
+  public SentenceChunker(final int maxLength) {
+    if (maxLength < 2) {
+      throw new IllegalArgumentException("The maximum sentence length must be at least 2");
+    }
+    this.maxLength = maxLength;
+    this.stride = maxLength - maxLength / 4;
+  }
+
+  /**
+   * Get the chunker of the maxSentenceLength property.
+   *
+   * @param maxSentenceLength
+   *          the maximum sentence length, 0 or less for no maximum
+   * @return the chunker, null if the sentences are never split
+   */
+  public static SentenceChunker getSentenceChunker(final String maxSentenceLength) {
+    int maxLength = Integer.parseInt(maxSentenceLength);
+    return maxLength > 0 ? new SentenceChunker(maxLength) : null;
+  }
+
+  /**
+   * Get the windows of a sentence: a single window if the sentence is not
+   * longer than the maximum length.
+   *
+   * @param length
+   *          the number of tokens of the sentence
+   * @return the windows, in order
+   */
+  public List<Span> getWindows(final int length) {
+    List<Span> spans = new ArrayList<Span>();
+    int start = 0;
+    while (start + maxLength < length) {
+      spans.add(new Span(start, start + maxLength));
+      start += stride;
+    }
+    spans.add(new Span(start, length));
+    return spans;
+  }
+
+  /**
+   * Tag a sentence, window by window if it is longer than the maximum
+   * length, counting the sentences split.
+   *
+   * @param tokens
+   *          the tokens of the sentence
+   * @param tagger
+   *          the tagging of every window
+   * @return the spans of the sentence, without overlaps
+   */
+  public Span[] tag(final String[] tokens, final Tagger tagger) {
+    if (tokens.length <= maxLength) {
+      return tagger.tag(tokens);
+    }
+    List<Span> windowSpans = getWindows(tokens.length);
+    sentences.incrementAndGet();
+    windows.addAndGet(windowSpans.size());
+    final List<Span> candidates = new ArrayList<Span>();
+    final List<Integer> margins = new ArrayList<Integer>();
+    for (Span window : windowSpans) {
+      String[] windowTokens = Arrays.copyOfRange(tokens, window.getStart(), window.getEnd());
+      for (Span span : tagger.tag(windowTokens)) {
+        Span shifted = new Span(span, window.getStart());
+        candidates.add(shifted);
+        margins.add(getMargin(shifted, window, tokens.length));
+      }
+    }
+    return reconcile(candidates, margins, tokens.length);
+  }
+
+  /**
+   * Twice the distance between the centre of a span and the cut edges of its
+   * window; the edges of the sentence are not cuts.
+   */
+  private static int getMargin(final Span span, final Span window, final int length) {
+    int centre = span.getStart() + span.getEnd();
+    int left = window.getStart() == 0 ? Integer.MAX_VALUE
+        : centre - 2 * window.getStart();
+    int right = window.getEnd() == length ? Integer.MAX_VALUE
+        : 2 * window.getEnd() - centre;
+    return Math.min(left, right);
+  }
+
+  /**
+   * Keep the spans of the windows with the largest margins, dropping those
+   * overlapping a span already kept.
+   */
+  private static Span[] reconcile(final List<Span> candidates, final List<Integer> margins,
+      final int length) {
+    Integer[] order = new Integer[candidates.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer a, final Integer b) {
+        return margins.get(b).compareTo(margins.get(a));
+      }
+    });
+    List<Span> kept = new ArrayList<Span>();
+    boolean[] tagged = new boolean[length];
+    for (Integer i : order) {
+      Span candidate = candidates.get(i);
+      boolean overlaps = false;
+      for (int token = candidate.getStart(); token < candidate.getEnd(); token++) {
+        overlaps |= tagged[token];
+      }
+      if (!overlaps) {
+        Arrays.fill(tagged, candidate.getStart(), candidate.getEnd(), true);
+        kept.add(candidate);
+      }
+    }
+    Collections.sort(kept);
+    return kept.toArray(new Span[kept.size()]);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("split %d sentences longer than %d tokens into %d windows",
+        sentences.get(), maxLength, windows.get());
+  }
+}
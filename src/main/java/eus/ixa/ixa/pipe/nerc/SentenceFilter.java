@@ -0,0 +1,269 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinder;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.Span;
+import opennlp.tools.util.featuregen.FeatureGeneratorUtil;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+/**
+ * Cheap filter of the sentences which cannot contain names, e.g., lowercase,
+ * punctuation or numeric lines, to skip their feature extraction and decoding.
+ * A sentence passes the filter if any of its tokens has one of the token
+ * shapes of the filter, as given by {@link FeatureGeneratorUtil#tokenFeature}.
+ * <p>
+ * The shapes are learned with the model: they are a greedy cover of the names
+ * of the training data, each name covered by the shape of any of its tokens,
+ * choosing first the shapes seldom seen outside the names. They are stored in
+ * the manifest of the model.
+ *
+ * @author ragerri
+ * @version 2016-08-12
+ */
+public final class SentenceFilter {
+
+  /**
+   * The manifest property with the shapes of the filter.
+   */
+  public static final String MANIFEST_PROPERTY = "SentenceFilterShapes";
+
+  private final Set<String> shapes;
+  private final AtomicLong sentences = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+
+  /**
+   * Construct a filter.
+   *
+   * @param someShapes
+   *          the token shapes of the sentences which may contain names
+   */
+  public SentenceFilter(final Set<String> someShapes) {
+    this.shapes = new HashSet<String>(someShapes);
+  }
+
+  /**
+   * Get the filter learned with a model.
+   *
+   * @param nerModel
+   *          the model
+   * @return the filter or null if the model has none
+   */
+  public static SentenceFilter getSentenceFilter(final TokenNameFinderModel nerModel) {
+    String shapes = nerModel.getManifestProperty(MANIFEST_PROPERTY);
+    if (shapes == null) {
+      return null;
+    }
+    return new SentenceFilter(new HashSet<String>(Splitter.on(',')
+        .omitEmptyStrings().splitToList(shapes)));
+  }
+
+  /**
+   * Learn a filter from the training samples.
+   *
+   * @param samples
+   *          the training samples, reset afterwards
+   * @param coverage
+   *          the minimum fraction of the training names the shapes cover
+   * @return the filter
+   * @throws IOException
+   *           if the samples cannot be read
+   */
+  public static SentenceFilter train(final ObjectStream<NameSample> samples,
+      final double coverage) throws IOException {
+    List<Set<String>> names = new ArrayList<Set<String>>();
+    Map<String, Integer> outside = new HashMap<String, Integer>();
+    NameSample sample;
+    while ((sample = samples.read()) != null) {
+      String[] tokens = sample.getSentence();
+      boolean[] inName = new boolean[tokens.length];
+      for (Span name : sample.getNames()) {
+        Set<String> nameShapes = new HashSet<String>();
+        for (int i = name.getStart(); i < name.getEnd(); i++) {
+          nameShapes.add(FeatureGeneratorUtil.tokenFeature(tokens[i]));
+          inName[i] = true;
+        }
+        names.add(nameShapes);
+      }
+      for (int i = 0; i < tokens.length; i++) {
+        if (!inName[i]) {
+          String shape = FeatureGeneratorUtil.tokenFeature(tokens[i]);
+          Integer count = outside.get(shape);
+          outside.put(shape, count == null ? 1 : count + 1);
+        }
+      }
+    }
+    samples.reset();
+    Set<String> shapes = new TreeSet<String>();
+    boolean[] covered = new boolean[names.size()];
+    int target = (int) Math.ceil(coverage * names.size());
+    int coveredNames = 0;
+    while (coveredNames < target) {
+      // the shape with the least occurrences outside the names per newly
+      // covered name
+      Map<String, Integer> gains = new HashMap<String, Integer>();
+      for (int n = 0; n < names.size(); n++) {
+        if (!covered[n]) {
+          for (String shape : names.get(n)) {
+            Integer gain = gains.get(shape);
+            gains.put(shape, gain == null ? 1 : gain + 1);
+          }
+        }
+      }
+      String best = null;
+      double bestCost = Double.MAX_VALUE;
+      for (Map.Entry<String, Integer> gain : gains.entrySet()) {
+        Integer occurrences = outside.get(gain.getKey());
+        double cost = (occurrences == null ? 0 : occurrences) / (double) gain.getValue();
+        if (cost < bestCost || cost == bestCost && gain.getValue() > gains.get(best)) {
+          best = gain.getKey();
+          bestCost = cost;
+        }
+      }
+      if (best == null) {
+        break;
+      }
+      shapes.add(best);
+      for (int n = 0; n < names.size(); n++) {
+        if (!covered[n] && names.get(n).contains(best)) {
+          covered[n] = true;
+          coveredNames++;
+        }
+      }
+    }
+    System.err.println("-> Sentence filter shapes " + shapes + " cover "
+        + String.format("%.2f%%", percent(coveredNames, names.size())) + " of the "
+        + names.size() + " training names");
+    return new SentenceFilter(shapes);
+  }
+
+  /**
+   * @param tokens
+   *          the tokens of a sentence
+   * @return true if the sentence may contain names
+   */
+  public boolean accepts(final String[] tokens) {
+    for (String token : tokens) {
+      if (shapes.contains(FeatureGeneratorUtil.tokenFeature(token))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Filter a sentence, counting the sentences skipped.
+   *
+   * @param tokens
+   *          the tokens of a sentence
+   * @return true if the sentence cannot contain names and is skipped
+   */
+  public boolean skip(final String[] tokens) {
+    sentences.incrementAndGet();
+    if (accepts(tokens)) {
+      return false;
+    }
+    skipped.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Wrap a name finder so that it only decodes the sentences the filter
+   * accepts.
+   *
+   * @param nameFinder
+   *          the name finder
+   * @return the filtered name finder
+   */
+  public TokenNameFinder filter(final TokenNameFinder nameFinder) {
+    return new TokenNameFinder() {
+      @Override
+      public Span[] find(final String[] tokens) {
+        return skip(tokens) ? new Span[0] : nameFinder.find(tokens);
+      }
+
+      @Override
+      public void clearAdaptiveData() {
+        nameFinder.clearAdaptiveData();
+      }
+    };
+  }
+
+  /**
+   * Evaluate the filter against the names of some samples: its precision is
+   * the fraction of the accepted sentences with names, its recall the
+   * fraction of the sentences with names accepted.
+   *
+   * @param samples
+   *          the samples, reset afterwards
+   * @return the report of the evaluation
+   * @throws IOException
+   *           if the samples cannot be read
+   */
+  public String evaluate(final ObjectStream<NameSample> samples) throws IOException {
+    long total = 0;
+    long accepted = 0;
+    long withNames = 0;
+    long acceptedWithNames = 0;
+    NameSample sample;
+    while ((sample = samples.read()) != null) {
+      boolean accept = accepts(sample.getSentence());
+      boolean hasNames = sample.getNames().length > 0;
+      total++;
+      accepted += accept ? 1 : 0;
+      withNames += hasNames ? 1 : 0;
+      acceptedWithNames += accept && hasNames ? 1 : 0;
+    }
+    samples.reset();
+    return String.format("precision %.4f, recall %.4f, skipping %.2f%% of %d sentences",
+        accepted == 0 ? 0 : (double) acceptedWithNames / accepted,
+        withNames == 0 ? 1 : (double) acceptedWithNames / withNames,
+        percent(total - accepted, total), total);
+  }
+
+  /**
+   * @return the shapes of the filter, as stored in the manifest
+   */
+  public String getManifestValue() {
+    return Joiner.on(',').join(new TreeSet<String>(shapes));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("skipped %d of %d sentences (%.2f%%)", skipped.get(),
+        sentences.get(), percent(skipped.get(), sentences.get()));
+  }
+
+  private static double percent(final long part, final long total) {
+    return total == 0 ? 0 : 100.0 * part / total;
+  }
+}
@@ -21,15 +21,35 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import opennlp.tools.ml.model.MaxentModel;
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.TokenNameFinder;
 import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.Span;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+
+import eus.ixa.ixa.pipe.nerc.decode.AdaptiveBeamSearch;
+import eus.ixa.ixa.pipe.nerc.decode.CompactModel;
+import eus.ixa.ixa.pipe.nerc.decode.CompactNameFinder;
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+import eus.ixa.ixa.pipe.nerc.decode.ViterbiSearch;
+import eus.ixa.ixa.pipe.nerc.features.Prev2MapFeatureGenerator;
+import eus.ixa.ixa.pipe.nerc.features.PreviousMapFeatureGenerator;
+import eus.ixa.ixa.pipe.nerc.features.PreviousMapTokenFeatureGenerator;
+import eus.ixa.ixa.pipe.nerc.train.Flags;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+
 /**
  * Statistical Sequence Labeling based on Apache OpenNLP Machine Learning API.
  *
@@ -41,15 +61,63 @@ import opennlp.tools.util.Span;
 public class StatisticalNameFinder implements NameFinder {
 
   /**
-   * The models to use for every language. The keys of the hash are the
-   * language codes, the values the models.
+   * The models loaded in this JVM. The keys of the hash are the model paths,
+   * the values the models, so that several models for the same language can
+   * be served at once.
    */
   private static ConcurrentHashMap<String, TokenNameFinderModel> nercModels =
       new ConcurrentHashMap<String, TokenNameFinderModel>();
+  /**
+   * The compiled classifiers of the models used in this JVM, by model
+   * instance, so that a reloaded model never shares the classifier of the
+   * model it replaces; released with the model.
+   */
+  private static ConcurrentMap<TokenNameFinderModel, CompactModel> compactModels =
+      CacheBuilder.newBuilder().weakKeys().<TokenNameFinderModel, CompactModel> build().asMap();
+  /**
+   * The caches of the spans of the sentences decoded in this JVM, by model
+   * instance and then by decoding options, shared by every finder of the
+   * same model; released with the model.
+   */
+  private static ConcurrentMap<TokenNameFinderModel, ConcurrentHashMap<String, Cache<List<String>, Span[]>>> sentenceCaches =
+      CacheBuilder.newBuilder().weakKeys()
+          .<TokenNameFinderModel, ConcurrentHashMap<String, Cache<List<String>, Span[]>>> build().asMap();
+  /**
+   * The adaptive feature generators of the feature descriptors, whose
+   * features depend on the previous sentences: the prevmap element and the
+   * generators with a non-empty updateAdaptiveData, of OpenNLP or of the
+   * features package.
+   */
+  private static final String[] ADAPTIVE_GENERATORS = { "<prevmap",
+      PreviousMapFeatureGenerator.class.getSimpleName(),
+      Prev2MapFeatureGenerator.class.getSimpleName(),
+      PreviousMapTokenFeatureGenerator.class.getSimpleName() };
+  /**
+   * The model of the name finder.
+   */
+  private TokenNameFinderModel nerModel;
   /**
    * The name finder.
    */
   private NameFinderME nameFinder;
+  /**
+   * The widening statistics of the adaptive beam, null if the beam is fixed.
+   */
+  private AdaptiveBeamSearch.Statistics beamStatistics;
+  /**
+   * The filter of the sentences without names, null if every sentence is
+   * decoded.
+   */
+  private SentenceFilter sentenceFilter;
+  /**
+   * The cache of the spans of the sentences already decoded, null if every
+   * sentence is decoded.
+   */
+  private Cache<List<String>, Span[]> sentenceCache;
+  /**
+   * Whether the spans of a sentence only depend on its tokens.
+   */
+  private boolean independentSentences;
   /**
    * The name factory.
    */
@@ -57,13 +125,19 @@ public class StatisticalNameFinder implements NameFinder {
 
   /**
    * Construct a probabilistic name finder specifying lang, model and beamsize.
+   * If the inference property is "compact", the classifier of the model is
+   * compiled into a {@link CompactModel} to tag; if the decoder property is
+   * "viterbi", the best sequence is searched over every valid transition; if
+   * the adaptiveBeam property is a margin, the beam is widened only where the
+   * model is not confident; if the sentenceFilter property is "yes", the
+   * sentences the {@link SentenceFilter} of the model rejects are not decoded;
+   * the spans of the sentences already decoded are cached if it is safe, see
+   * {@link #createSentenceCache}.
    * @param props the properties to be loaded
    */
   public StatisticalNameFinder(final Properties props) {
-    String lang = props.getProperty("language");
-    String model = props.getProperty("model");
-    TokenNameFinderModel nerModel = loadModel(lang, model);
-    nameFinder = new NameFinderME(nerModel);
+    this(props, null, loadModel(props.getProperty("language"),
+        props.getProperty("model")));
   }
 
   /**
@@ -75,12 +149,30 @@ public class StatisticalNameFinder implements NameFinder {
    * @param aNameFactory the name factory to construct Name objects
    */
   public StatisticalNameFinder(final Properties props, final NameFactory aNameFactory) {
+    this(props, aNameFactory, loadModel(props.getProperty("language"),
+        props.getProperty("model")));
+  }
+
+  /**
+   * Construct a StatisticalNameFinder with a model already read, e.g., a
+   * model being reloaded which is not yet published to the models loaded
+   * in this JVM, see {@link #replaceModel(String, TokenNameFinderModel)}.
+   *
+   * @param props the properties
+   * @param aNameFactory the name factory to construct Name objects
+   * @param nerModel the model
+   */
+  public StatisticalNameFinder(final Properties props, final NameFactory aNameFactory,
+      final TokenNameFinderModel nerModel) {
 
-    String lang = props.getProperty("language");
     String model = props.getProperty("model");
     this.nameFactory = aNameFactory;
-    TokenNameFinderModel nerModel = loadModel(lang, model);
-    nameFinder = new NameFinderME(nerModel);
+    this.nerModel = nerModel;
+    nameFinder = createNameFinder(model, nerModel, props);
+    sentenceFilter = createSentenceFilter(nerModel, props);
+    independentSentences = "yes".equalsIgnoreCase(props.getProperty("clearFeatures"))
+        || !hasAdaptiveFeatures(nerModel);
+    sentenceCache = createSentenceCache(nerModel, props, independentSentences);
   }
 
   
@@ -118,7 +210,21 @@ public class StatisticalNameFinder implements NameFinder {
    * @return an list of {@link Span}s of Named Entities
    */
   public final Span[] nercToSpans(final String[] tokens) {
+    if (sentenceFilter != null && sentenceFilter.skip(tokens)) {
+      return new Span[0];
+    }
+    List<String> key = null;
+    if (sentenceCache != null) {
+      key = ImmutableList.copyOf(tokens);
+      Span[] cached = sentenceCache.getIfPresent(key);
+      if (cached != null) {
+        return cached.clone();
+      }
+    }
     Span[] annotatedText = nameFinder.find(tokens);
+    if (key != null) {
+      sentenceCache.put(key, annotatedText.clone());
+    }
     List<Span> probSpans = new ArrayList<Span>(Arrays.asList(annotatedText));
     return probSpans.toArray(new Span[probSpans.size()]);
   }
@@ -155,20 +261,300 @@ public class StatisticalNameFinder implements NameFinder {
     nameFinder.clearAdaptiveData();
   }
 
+  /**
+   * Remove a model from the models loaded in this JVM, so that the next
+   * finder constructed for that path reads the model again from disk. The
+   * finders already using the model keep their reference to it.
+   *
+   * @param model the path of the model
+   */
+  public static void evictModel(final String model) {
+    nercModels.remove(model);
+  }
+
+  /**
+   * Replace a model loaded in this JVM by a model already read, so that the
+   * next finders constructed for that path use it. The finders already using
+   * the previous model keep their reference to it.
+   *
+   * @param model the path of the model
+   * @param nerModel the new model
+   * @return the previous model, or null if it was not loaded
+   */
+  public static TokenNameFinderModel replaceModel(final String model,
+      final TokenNameFinderModel nerModel) {
+    TokenNameFinderModel previous;
+    synchronized (nercModels) {
+      previous = nercModels.put(model, nerModel);
+    }
+    return previous;
+  }
+
+  /**
+   * Whether the spans of a sentence only depend on its tokens, that is, if
+   * the adaptive features are cleared after every sentence or if the feature
+   * descriptor of the model has no adaptive generator. Models without
+   * descriptor use the default generator of OpenNLP, which is adaptive.
+   * @return true if the sentences can be tagged in any order
+   */
+  public final boolean hasIndependentSentences() {
+    return independentSentences;
+  }
+
+  /**
+   * @return the statistics of the sentence cache of this finder, shared by
+   *         the finders of the same model, null if every sentence is decoded
+   */
+  public final CacheStats getSentenceCacheStats() {
+    return sentenceCache == null ? null : sentenceCache.stats();
+  }
+
+  /**
+   * Get the metrics of the sentence caches of every model loaded in this
+   * JVM: requests, hits, evictions and cached sentences.
+   *
+   * @return the metrics by name
+   */
+  public static Map<String, Long> getSentenceCacheMetrics() {
+    long requests = 0;
+    long hits = 0;
+    long evictions = 0;
+    long size = 0;
+    for (Map<String, Cache<List<String>, Span[]>> caches : sentenceCaches.values()) {
+      for (Cache<List<String>, Span[]> cache : caches.values()) {
+        CacheStats stats = cache.stats();
+        requests += stats.requestCount();
+        hits += stats.hitCount();
+        evictions += stats.evictionCount();
+        size += cache.size();
+      }
+    }
+    Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+    metrics.put("sentenceCacheRequests", requests);
+    metrics.put("sentenceCacheHits", hits);
+    metrics.put("sentenceCacheEvictions", evictions);
+    metrics.put("sentenceCacheSize", size);
+    return metrics;
+  }
+
+  /**
+   * @return the model of this finder
+   */
+  public final TokenNameFinderModel getModel() {
+    return nerModel;
+  }
+
+  /**
+   * @return the filter of the sentences without names, null if every
+   *         sentence is decoded
+   */
+  public final SentenceFilter getSentenceFilter() {
+    return sentenceFilter;
+  }
+
+  /**
+   * @return the widening statistics of the adaptive beam, null if the beam
+   *         is fixed
+   */
+  public final AdaptiveBeamSearch.Statistics getBeamStatistics() {
+    return beamStatistics;
+  }
+
+  /**
+   * Create the name finder of a model. The compact inference tags with the
+   * compiled classifier of the model; models exported by {@link MappedWeights}
+   * always tag with their mapped weights. The viterbi decoder searches with a
+   * {@link ViterbiSearch}, unless the model has SuperSense features. With an
+   * adaptive beam, the search is
+   * an {@link AdaptiveBeamSearch} with the beam size of the model as its
+   * widest beam. Sequence models are always tagged with the
+   * {@link NameFinderME}.
+   *
+   * @param model the path of the model
+   * @param nerModel the model
+   * @param props the properties
+   * @return the name finder
+   */
+  private NameFinderME createNameFinder(final String model,
+      final TokenNameFinderModel nerModel, final Properties props) {
+    boolean mapped = MappedWeights.isExported(nerModel);
+    String inference = props.getProperty("inference", Flags.DEFAULT_INFERENCE);
+    String adaptiveBeam = props.getProperty("adaptiveBeam", Flags.DEFAULT_ADAPTIVE_BEAM);
+    boolean adaptive = !adaptiveBeam.equalsIgnoreCase(Flags.DEFAULT_ADAPTIVE_BEAM);
+    boolean viterbi = props.getProperty("decoder", Flags.DEFAULT_DECODER).equalsIgnoreCase("viterbi");
+    if (viterbi && !ViterbiSearch.isSupported(nerModel)) {
+      System.err.println("-> The SuperSense features are cached per token, "
+          + "decoding with the beam search");
+      viterbi = false;
+    }
+    CompactModel compactModel = null;
+    if (mapped || inference.equalsIgnoreCase("compact")) {
+      compactModel = getCompactModel(model, nerModel, mapped);
+    }
+    if (viterbi || adaptive) {
+      MaxentModel classifier = compactModel != null ? compactModel
+          : InputOutputUtils.getClassifier(nerModel);
+      if (classifier == null) {
+        System.err.println("-> The " + (viterbi ? "Viterbi decoder" : "adaptive beam")
+            + " needs a PERCEPTRON or MAXENT model, decoding with a fixed beam");
+        return new NameFinderME(nerModel);
+      }
+      if (viterbi) {
+        return new CompactNameFinder(nerModel, new ViterbiSearch(
+            CompactNameFinder.getBeamSize(nerModel), classifier));
+      }
+      beamStatistics = new AdaptiveBeamSearch.Statistics();
+      return new CompactNameFinder(nerModel, new AdaptiveBeamSearch(
+          CompactNameFinder.getBeamSize(nerModel), classifier,
+          Double.parseDouble(adaptiveBeam), beamStatistics));
+    }
+    return compactModel != null ? new CompactNameFinder(nerModel, compactModel)
+        : new NameFinderME(nerModel);
+  }
+
+  /**
+   * Get the sentence filter of a model if the sentenceFilter property is
+   * "yes".
+   *
+   * @param nerModel the model
+   * @param props the properties
+   * @return the sentence filter, null if every sentence is decoded
+   */
+  private static SentenceFilter createSentenceFilter(final TokenNameFinderModel nerModel,
+      final Properties props) {
+    if (!props.getProperty("sentenceFilter", Flags.DEFAULT_FILTER_SENTENCES)
+        .equalsIgnoreCase("yes")) {
+      return null;
+    }
+    SentenceFilter filter = SentenceFilter.getSentenceFilter(nerModel);
+    if (filter == null) {
+      System.err.println("-> The model was trained without SentenceFilter, "
+          + "decoding every sentence");
+    }
+    return filter;
+  }
+
+  /**
+   * Get the cache of the spans of the sentences decoded with a model, if the
+   * sentenceCache property is a positive size. The cache is only safe if the
+   * spans of a sentence only depend on its tokens, see
+   * {@link #hasIndependentSentences()}. The cache is bounded,
+   * evicting the least recently used sentences, and shared by every finder
+   * of the same model and decoding options.
+   *
+   * @param nerModel the model
+   * @param props the properties
+   * @param independentSentences whether the spans only depend on the tokens
+   * @return the sentence cache, null if every sentence is decoded
+   */
+  private static Cache<List<String>, Span[]> createSentenceCache(final TokenNameFinderModel nerModel,
+      final Properties props, final boolean independentSentences) {
+    int size = Integer.parseInt(props.getProperty("sentenceCache",
+        Flags.DEFAULT_SENTENCE_CACHE));
+    if (size <= 0) {
+      return null;
+    }
+    if (!independentSentences) {
+      if (!props.getProperty("sentenceCache", Flags.DEFAULT_SENTENCE_CACHE)
+          .equals(Flags.DEFAULT_SENTENCE_CACHE)) {
+        System.err.println("-> The model has adaptive features not cleared every "
+            + "sentence, decoding every sentence without cache");
+      }
+      return null;
+    }
+    ConcurrentHashMap<String, Cache<List<String>, Span[]>> caches = sentenceCaches.get(nerModel);
+    if (caches == null) {
+      caches = new ConcurrentHashMap<String, Cache<List<String>, Span[]>>();
+      ConcurrentHashMap<String, Cache<List<String>, Span[]>> previous =
+          sentenceCaches.putIfAbsent(nerModel, caches);
+      if (previous != null) {
+        caches = previous;
+      }
+    }
+    String key = props.getProperty("decoder", Flags.DEFAULT_DECODER)
+        + "|" + props.getProperty("adaptiveBeam", Flags.DEFAULT_ADAPTIVE_BEAM);
+    Cache<List<String>, Span[]> cache = caches.get(key);
+    if (cache == null) {
+      cache = CacheBuilder.newBuilder().maximumSize(size).recordStats().build();
+      Cache<List<String>, Span[]> previous = caches.putIfAbsent(key, cache);
+      if (previous != null) {
+        cache = previous;
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @param nerModel the model
+   * @return true if the features of the model depend on the previous
+   *         sentences
+   */
+  private static boolean hasAdaptiveFeatures(final TokenNameFinderModel nerModel) {
+    return hasAdaptiveFeatures(InputOutputUtils.getFeatureDescriptor(nerModel));
+  }
+
+  /**
+   * @param descriptor the XML feature descriptor of a model, null for the
+   *          default generator of OpenNLP
+   * @return true if the features of the descriptor depend on the previous
+   *         sentences
+   */
+  public static boolean hasAdaptiveFeatures(final String descriptor) {
+    if (descriptor == null) {
+      return true;
+    }
+    for (String generator : ADAPTIVE_GENERATORS) {
+      if (descriptor.contains(generator)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the compiled or mapped classifier of a model, compiled or mapped once
+   * per model instance.
+   *
+   * @param model the path of the model
+   * @param nerModel the model
+   * @param mapped whether the model is exported with mapped weights
+   * @return the classifier or null if the model cannot be compiled
+   */
+  private static CompactModel getCompactModel(final String model,
+      final TokenNameFinderModel nerModel, final boolean mapped) {
+    CompactModel classifier = compactModels.get(nerModel);
+    if (classifier == null) {
+      try {
+        classifier = mapped ? MappedWeights.load(model, nerModel)
+            : CompactModel.compile(InputOutputUtils.getClassifier(nerModel));
+      } catch (IllegalArgumentException e) {
+        System.err.println("-> " + e.getMessage() + ", tagging with OpenNLP inference");
+        return null;
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      CompactModel previous = compactModels.putIfAbsent(nerModel, classifier);
+      if (previous != null) {
+        classifier = previous;
+      }
+    }
+    return classifier;
+  }
+
   /**
    * Loads statically the probabilistic model. Every instance of this finder
-   * will share the same model.
+   * using the same model path will share the same model.
    *
    * @param lang the language
    * @param model the model to be loaded
    * @return the model as a {@link TokenNameFinder} object
    */
-  private final TokenNameFinderModel loadModel(final String lang, final String model) {
+  private static TokenNameFinderModel loadModel(final String lang, final String model) {
     long lStartTime = new Date().getTime();
     try {
       synchronized (nercModels) {
-        if (!nercModels.containsKey(lang)) {
-          nercModels.put(lang, new TokenNameFinderModel(new FileInputStream(model)));
+        if (!nercModels.containsKey(model)) {
+          nercModels.put(model, new TokenNameFinderModel(new FileInputStream(model)));
         }
       }
     } catch (IOException e) {
@@ -178,6 +564,6 @@ public class StatisticalNameFinder implements NameFinder {
     long difference = lEndTime - lStartTime;
     System.err.println("ixa-pipe-nerc model loaded in: " + difference
         + " miliseconds ... [DONE]");
-    return nercModels.get(lang);
+    return nercModels.get(model);
   }
 }
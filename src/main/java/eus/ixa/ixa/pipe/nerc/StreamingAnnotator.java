@@ -0,0 +1,537 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Streaming Named Entity tagging of NAF documents. Unlike
+ * {@link Annotate#annotateNEs(ixa.kaflib.KAFDocument)}, which requires the
+ * whole document to be parsed into memory and serialized again, the document
+ * is read with StAX and written back event by event as it is read: every
+ * sentence of the text layer is tagged as soon as its last word form has been
+ * read, the terms layer is used to map the word forms of the names to terms,
+ * and the entities are appended to the existing entities layer or, if there
+ * is none, in a new entities layer at the end of the document. The memory
+ * used is thus bounded by the size of a sentence plus the entities found,
+ * regardless of the size of the document.
+ * <p>
+ * If an existing entities layer precedes the terms layer, the new entities
+ * are written in a second entities layer at the end of the document.
+ * <p>
+ * The linguistic processor of the entities layer in the header carries the
+ * time the tagging ended, which is only known once the entities layer is
+ * closed: the document after the header is therefore spooled to a temporary
+ * file, and written after the header once the document has been tagged.
+ *
+ * @author ragerri
+ * @version 2016-07-26
+ */
+public class StreamingAnnotator {
+
+  private static final String NAF_ROOT = "NAF";
+  private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+  private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+  private static final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+  static {
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  /**
+   * The properties to build the annotator.
+   */
+  private final Properties properties;
+  /**
+   * The name of the linguistic processor of the entities layer.
+   */
+  private final String lpName;
+  /**
+   * The version of the linguistic processor of the entities layer.
+   */
+  private final String lpVersion;
+  /**
+   * The annotator, built when the language of the first document is known.
+   */
+  private Annotate annotator;
+  /**
+   * The language of the annotator.
+   */
+  private String annotatorLang;
+
+  /**
+   * A name found in the text layer, waiting for the terms of its word forms.
+   */
+  private static class PendingEntity {
+    private final String type;
+    private final String text;
+    private final String[] wfIds;
+
+    PendingEntity(final String type, final String text, final String[] wfIds) {
+      this.type = type;
+      this.text = text;
+      this.wfIds = wfIds;
+    }
+  }
+
+  /**
+   * The output of a document, written through until the linguistic processor
+   * of the header and then spooled to a temporary file until it is released.
+   */
+  private static class SpoolingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private OutputStream target;
+    private File spool = null;
+
+    SpoolingOutputStream(final OutputStream out) {
+      this.out = out;
+      this.target = out;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      target.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      target.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target.flush();
+    }
+
+    /**
+     * Spool the rest of the output.
+     */
+    void spool() throws IOException {
+      spool = File.createTempFile("ixa-pipe-nerc", ".naf");
+      spool.deleteOnExit();
+      target = new BufferedOutputStream(new FileOutputStream(spool));
+    }
+
+    /**
+     * Write some bytes and then the spooled output.
+     *
+     * @param insertion
+     *          the bytes written before the spooled output
+     */
+    void release(final byte[] insertion) throws IOException {
+      if (spool == null) {
+        return;
+      }
+      target.close();
+      target = out;
+      out.write(insertion);
+      Files.copy(spool.toPath(), out);
+      discard();
+    }
+
+    /**
+     * Delete the spooled output, if any.
+     */
+    void discard() throws IOException {
+      if (spool != null) {
+        target.close();
+        Files.delete(spool.toPath());
+        spool = null;
+        target = out;
+      }
+    }
+  }
+
+  /**
+   * Construct a streaming annotator. If the language property is not set,
+   * the language of the first document annotated is used.
+   *
+   * @param properties
+   *          the properties of the {@link Annotate}
+   * @param lpName
+   *          the name of the linguistic processor
+   * @param lpVersion
+   *          the version of the linguistic processor
+   */
+  public StreamingAnnotator(final Properties properties, final String lpName,
+      final String lpVersion) {
+    this.properties = properties;
+    this.lpName = lpName;
+    this.lpVersion = lpVersion;
+  }
+
+  /**
+   * Annotate the Named Entities of a NAF document.
+   *
+   * @param inputStream
+   *          the NAF document
+   * @param outputStream
+   *          the NAF document with the entities, encoded in UTF-8
+   * @throws IOException
+   *           if the document is not well formed NAF or annotation fails
+   */
+  public final void annotate(final InputStream inputStream,
+      final OutputStream outputStream) throws IOException {
+    SpoolingOutputStream output = new SpoolingOutputStream(outputStream);
+    try {
+      XMLEventReader reader = inputFactory.createXMLEventReader(inputStream);
+      XMLEventWriter writer = outputFactory.createXMLEventWriter(output, "UTF-8");
+      new Document(reader, writer, output).stream();
+    } catch (XMLStreamException e) {
+      throw new IOException("Badly formatted NAF document: " + e.getMessage(), e);
+    } finally {
+      output.discard();
+    }
+  }
+
+  /**
+   * Get the annotator for the language of a document.
+   *
+   * @param lang
+   *          the language of the document
+   * @return the annotator
+   * @throws IOException
+   *           if the annotator cannot be built or the language does not match
+   */
+  private Annotate getAnnotator(final String lang) throws IOException {
+    String expected = annotatorLang != null ? annotatorLang : properties.getProperty("language");
+    if (expected != null && lang != null && !expected.equalsIgnoreCase(lang)) {
+      throw new IOException("Language parameter in NAF and CLI do not match!!");
+    }
+    if (annotator == null) {
+      annotatorLang = expected != null ? expected : lang;
+      if (annotatorLang == null) {
+        throw new IOException("No language in the NAF document nor in the CLI");
+      }
+      Properties annotateProperties = new Properties();
+      annotateProperties.putAll(properties);
+      annotateProperties.setProperty("language", annotatorLang);
+      annotator = new Annotate(annotateProperties);
+    }
+    return annotator;
+  }
+
+  /**
+   * The state of the streaming of one document.
+   */
+  private class Document {
+    private final XMLEventReader reader;
+    private final XMLEventWriter writer;
+    private final SpoolingOutputStream output;
+    private String beginTimestamp = null;
+    private final List<String> path = new ArrayList<>();
+    private Annotate documentAnnotator;
+    private boolean headerWritten = false;
+    private boolean termsSeen = false;
+    private boolean entitiesWritten = false;
+    // current sentence of the text layer
+    private String currentSent = null;
+    private final List<String> sentenceTokens = new ArrayList<>();
+    private final List<String> sentenceIds = new ArrayList<>();
+    private String wfId = null;
+    private StringBuilder wfForm = null;
+    // names and the terms of their word forms
+    private final List<PendingEntity> pending = new ArrayList<>();
+    // the word forms of the names, mapped to their terms once known
+    private final Map<String, String> wfToTerm = new HashMap<>();
+    private String termId = null;
+    private final Set<String> existingEntityIds = new HashSet<>();
+    private XMLEvent previous = null;
+
+    Document(final XMLEventReader reader, final XMLEventWriter writer,
+        final SpoolingOutputStream output) {
+      this.reader = reader;
+      this.writer = writer;
+      this.output = output;
+    }
+
+    /**
+     * Copy the document to the writer, tagging it on the way.
+     */
+    void stream() throws XMLStreamException, IOException {
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (event.isStartDocument()) {
+          StartDocument start = (StartDocument) event;
+          writer.add(eventFactory.createStartDocument("UTF-8", start.getVersion()));
+          writeCharacters("\n");
+          continue;
+        }
+        if (event.isStartElement()) {
+          startElement(event.asStartElement());
+        } else if (event.isCharacters()) {
+          if (wfForm != null) {
+            wfForm.append(event.asCharacters().getData());
+          }
+        } else if (event.isEndElement()) {
+          endElement(event.asEndElement().getName().getLocalPart());
+        }
+        writer.add(event);
+        previous = event;
+      }
+      writer.flush();
+      if (beginTimestamp != null) {
+        output.release(getLinguisticProcessor());
+      }
+    }
+
+    private void startElement(final StartElement element)
+        throws XMLStreamException, IOException {
+      String name = element.getName().getLocalPart();
+      String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+      if (parent == null) {
+        if (!name.equals(NAF_ROOT)) {
+          throw new IOException("Streaming annotation requires a NAF document, found "
+              + name);
+        }
+        Attribute lang = element.getAttributeByName(new QName(XMLConstants.XML_NS_URI, "lang"));
+        documentAnnotator = getAnnotator(lang == null ? null : lang.getValue());
+      } else if (parent.equals(NAF_ROOT) && !headerWritten && !name.equals("nafHeader")) {
+        writer.add(eventFactory.createStartElement("", "", "nafHeader"));
+        writeLinguisticProcessor("\n    ");
+        writeCharacters("\n  ");
+        writer.add(eventFactory.createEndElement("", "", "nafHeader"));
+        writeCharacters("\n  ");
+        headerWritten = true;
+      } else if (name.equals("wf") && parent.equals("text")) {
+        String sent = getAttribute(element, "sent");
+        if (currentSent != null && !currentSent.equals(sent)) {
+          tagSentence();
+        }
+        currentSent = sent;
+        wfId = getAttribute(element, "id");
+        wfForm = new StringBuilder();
+      } else if (name.equals("term") && parent.equals("terms")) {
+        termId = getAttribute(element, "id");
+      } else if (name.equals("target") && termId != null
+          && path.size() >= 2 && parent.equals("span")
+          && path.get(path.size() - 2).equals("term")) {
+        String target = getAttribute(element, "id");
+        if (wfToTerm.containsKey(target) && wfToTerm.get(target) == null) {
+          wfToTerm.put(target, termId);
+        }
+      } else if (name.equals("entity") && parent.equals("entities")) {
+        existingEntityIds.add(getAttribute(element, "id"));
+      }
+      path.add(name);
+    }
+
+    private void endElement(final String name) throws XMLStreamException, IOException {
+      path.remove(path.size() - 1);
+      if (name.equals("wf") && wfForm != null) {
+        sentenceTokens.add(wfForm.toString().trim());
+        sentenceIds.add(wfId);
+        wfForm = null;
+      } else if (name.equals("text") && path.size() == 1) {
+        tagSentence();
+        documentAnnotator.clearAdaptiveData();
+      } else if (name.equals("term")) {
+        termId = null;
+      } else if (name.equals("terms") && path.size() == 1) {
+        termsSeen = true;
+      } else if (name.equals("nafHeader") && path.size() == 1) {
+        // an empty header element has no indentation before its end
+        writeLinguisticProcessor(previous.isStartElement() ? "\n    " : "  ");
+        writeCharacters("\n  ");
+        headerWritten = true;
+      } else if (name.equals("entities") && path.size() == 1 && termsSeen
+          && !entitiesWritten) {
+        writeEntities("  ");
+        writeCharacters("\n  ");
+        entitiesWritten = true;
+      } else if (name.equals(NAF_ROOT) && path.isEmpty() && !entitiesWritten
+          && hasEntities()) {
+        writeCharacters("  ");
+        writer.add(eventFactory.createStartElement("", "", "entities"));
+        writeEntities("\n    ");
+        writeCharacters("\n  ");
+        writer.add(eventFactory.createEndElement("", "", "entities"));
+        writeCharacters("\n");
+        entitiesWritten = true;
+      }
+    }
+
+    /**
+     * Tag the sentence read so far and keep its names until their terms are
+     * known.
+     */
+    private void tagSentence() {
+      if (sentenceTokens.isEmpty()) {
+        return;
+      }
+      String[] tokens = sentenceTokens.toArray(new String[sentenceTokens.size()]);
+      List<Name> names = documentAnnotator.annotateTokens(tokens);
+      for (Name name : names) {
+        String[] wfIds = sentenceIds.subList(name.getSpan().getStart(),
+            name.getSpan().getEnd()).toArray(new String[0]);
+        pending.add(new PendingEntity(name.getType(), name.value(), wfIds));
+        for (String wf : wfIds) {
+          wfToTerm.put(wf, null);
+        }
+      }
+      sentenceTokens.clear();
+      sentenceIds.clear();
+      currentSent = null;
+    }
+
+    private boolean hasEntities() {
+      for (PendingEntity entity : pending) {
+        if (isResolved(entity)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean isResolved(final PendingEntity entity) {
+      for (String wf : entity.wfIds) {
+        if (wfToTerm.get(wf) == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Write the entities whose word forms are all covered by terms, as
+     * {@link Annotate#annotateNEs(ixa.kaflib.KAFDocument)} does.
+     *
+     * @param firstIndent
+     *          the characters before the first entity
+     */
+    private void writeEntities(final String firstIndent) throws XMLStreamException {
+      int counter = existingEntityIds.size();
+      String indent = firstIndent;
+      for (PendingEntity entity : pending) {
+        if (!isResolved(entity)) {
+          continue;
+        }
+        Set<String> termIds = new LinkedHashSet<>();
+        for (String wf : entity.wfIds) {
+          termIds.add(wfToTerm.get(wf));
+        }
+        String id;
+        do {
+          id = "e" + ++counter;
+        } while (existingEntityIds.contains(id));
+        writeCharacters(indent);
+        indent = "\n    ";
+        writer.add(eventFactory.createStartElement("", "", "entity"));
+        writer.add(eventFactory.createAttribute("id", id));
+        writer.add(eventFactory.createAttribute("type", entity.type));
+        writeCharacters("\n      ");
+        writer.add(eventFactory.createStartElement("", "", "references"));
+        writeCharacters("\n        ");
+        writer.add(eventFactory.createComment(entity.text.replace("--", "- -")));
+        writeCharacters("\n        ");
+        writer.add(eventFactory.createStartElement("", "", "span"));
+        for (String term : termIds) {
+          writeCharacters("\n          ");
+          writer.add(eventFactory.createStartElement("", "", "target"));
+          writer.add(eventFactory.createAttribute("id", term));
+          writer.add(eventFactory.createEndElement("", "", "target"));
+        }
+        writeCharacters("\n        ");
+        writer.add(eventFactory.createEndElement("", "", "span"));
+        writeCharacters("\n      ");
+        writer.add(eventFactory.createEndElement("", "", "references"));
+        writeCharacters("\n    ");
+        writer.add(eventFactory.createEndElement("", "", "entity"));
+      }
+    }
+
+    /**
+     * Leave the place of the linguistic processor of the entities layer,
+     * spooling the rest of the document until its end timestamp is known.
+     *
+     * @param indent
+     *          the characters before the linguistic processor
+     */
+    private void writeLinguisticProcessor(final String indent)
+        throws XMLStreamException, IOException {
+      writeCharacters(indent);
+      writer.flush();
+      beginTimestamp = getTimestamp();
+      output.spool();
+    }
+
+    /**
+     * Serialize the linguistic processor of the entities layer, ended now.
+     *
+     * @return the linguistic processor in UTF-8
+     */
+    private byte[] getLinguisticProcessor() throws XMLStreamException {
+      ByteArrayOutputStream lp = new ByteArrayOutputStream();
+      XMLEventWriter lpWriter = outputFactory.createXMLEventWriter(lp, "UTF-8");
+      lpWriter.add(eventFactory.createStartElement("", "", "linguisticProcessors"));
+      lpWriter.add(eventFactory.createAttribute("layer", "entities"));
+      lpWriter.add(eventFactory.createCharacters("\n      "));
+      lpWriter.add(eventFactory.createStartElement("", "", "lp"));
+      lpWriter.add(eventFactory.createAttribute("name", lpName));
+      lpWriter.add(eventFactory.createAttribute("beginTimestamp", beginTimestamp));
+      lpWriter.add(eventFactory.createAttribute("endTimestamp", getTimestamp()));
+      lpWriter.add(eventFactory.createAttribute("version", lpVersion));
+      lpWriter.add(eventFactory.createEndElement("", "", "lp"));
+      lpWriter.add(eventFactory.createCharacters("\n    "));
+      lpWriter.add(eventFactory.createEndElement("", "", "linguisticProcessors"));
+      lpWriter.flush();
+      return lp.toByteArray();
+    }
+
+    private String getTimestamp() {
+      return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date());
+    }
+
+    private void writeCharacters(final String characters) throws XMLStreamException {
+      writer.add(eventFactory.createCharacters(characters));
+    }
+  }
+
+  private static String getAttribute(final StartElement element, final String name) {
+    Attribute attribute = element.getAttributeByName(new QName(name));
+    return attribute == null ? null : attribute.getValue();
+  }
+}
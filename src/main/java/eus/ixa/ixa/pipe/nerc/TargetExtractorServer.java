@@ -27,11 +27,16 @@ import java.io.StringReader;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import org.jdom2.JDOMException;
 
 import com.google.common.io.Files;
 
+import eus.ixa.ixa.pipe.nerc.train.Flags;
+
 public class TargetExtractorServer {
 
   /**
@@ -53,6 +58,19 @@ public class TargetExtractorServer {
    * and OpenNLP.
    */
   private String outputFormat = null;
+  /**
+   * The OTE annotator of each thread tagging documents.
+   */
+  private ThreadLocal<OpinionTargetExtractor> annotators;
+  /**
+   * The executor of the connections, unless they are all handled by the
+   * accepting thread.
+   */
+  private ExecutorService connectionExecutor;
+  /**
+   * The bounded pool tagging the documents of concurrent connections.
+   */
+  private ExecutorService taggingPool;
   
   /**
    * Construct an OTE server.
@@ -68,37 +86,92 @@ public class TargetExtractorServer {
     ServerSocket socketServer = null;
 
     try {
-      OpinionTargetExtractor annotator = new OpinionTargetExtractor(properties);
+      final Properties annotatorProperties = properties;
+      annotators = new ThreadLocal<OpinionTargetExtractor>() {
+        @Override
+        protected OpinionTargetExtractor initialValue() {
+          try {
+            return new OpinionTargetExtractor(annotatorProperties);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      // load the model before accepting connections
+      annotators.get();
+      connectionExecutor = ConnectionExecutors.newConnectionExecutor(
+          properties.getProperty("connectionMode", Flags.DEFAULT_CONNECTION_MODE));
+      if (connectionExecutor != null) {
+        taggingPool = ConnectionExecutors.newTaggingPool(Integer.parseInt(
+            properties.getProperty("threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors()))));
+      }
       System.out.println("-> Trying to listen port... " + port);
       socketServer = new ServerSocket(port);
 
       while (true) {
         System.out.println("-> Connected and listening to port " + port);
-        try (Socket activeSocket = socketServer.accept();
-            DataInputStream inFromClient = new DataInputStream(
-                activeSocket.getInputStream());
-            DataOutputStream outToClient = new DataOutputStream(new BufferedOutputStream(
-                activeSocket.getOutputStream()));) {
-          System.out.println("-> Received a  connection from: " + activeSocket);
-          //get data from client
-          String stringFromClient = getClientData(inFromClient);
-          // annotate
-          String kafToString = getAnnotations(annotator, stringFromClient);
-          // send to server
-          sendDataToServer(outToClient, kafToString);
+        final Socket activeSocket = socketServer.accept();
+        if (connectionExecutor == null) {
+          handleConnection(activeSocket);
+        } else {
+          connectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              handleConnection(activeSocket);
+            }
+          });
         }
       }
-    } catch (IOException | JDOMException e) {
+    } catch (IOException e) {
       e.printStackTrace();
     } finally {
       System.out.println("closing tcp socket...");
       try {
-        socketServer.close();
+        if (socketServer != null) {
+          socketServer.close();
+        }
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
   }
+
+  /**
+   * Read a document from a client, annotate it and send back the result.
+   * @param socket the client socket
+   */
+  private void handleConnection(final Socket socket) {
+    try (Socket activeSocket = socket;
+        DataInputStream inFromClient = new DataInputStream(
+            activeSocket.getInputStream());
+        DataOutputStream outToClient = new DataOutputStream(new BufferedOutputStream(
+            activeSocket.getOutputStream()));) {
+      System.out.println("-> Received a  connection from: " + activeSocket);
+      //get data from client
+      final String stringFromClient = getClientData(inFromClient);
+      // annotate
+      String kafToString;
+      if (taggingPool == null) {
+        kafToString = getAnnotations(annotators.get(), stringFromClient);
+      } else {
+        kafToString = taggingPool.submit(new Callable<String>() {
+          @Override
+          public String call() throws IOException, JDOMException {
+            return getAnnotations(annotators.get(), stringFromClient);
+          }
+        }).get();
+      }
+      // send to server
+      sendDataToServer(outToClient, kafToString);
+    } catch (IOException | JDOMException e) {
+      e.printStackTrace();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
   
   /**
    * Read data from the client and output to a String.
@@ -0,0 +1,273 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.WF;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+
+import org.jdom2.JDOMException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import eus.ixa.ixa.pipe.nerc.train.Flags;
+
+/**
+ * Warm-up of an {@link Annotate} before it serves real documents. The maxent
+ * evaluation and the feature generators run several times slower until the
+ * JIT compiles them, and the lazy resources are only parsed on first use, so
+ * the first documents annotated by a cold server pay for both. The warm-up
+ * annotates synthetic or user supplied sentences via
+ * {@link Annotate#annotateNEs(KAFDocument)} for a number of iterations or
+ * seconds, and reports the throughput curve so that it can be checked that
+ * the plateau is reached.
+ *
+ * @author ragerri
+ * @version 2016-07-22
+ */
+public class WarmUp {
+
+  private static final Pattern spacePattern = Pattern.compile("\\s+");
+  /**
+   * Synthetic sentences used when no warm-up file is provided.
+   */
+  private static final String[][] SYNTHETIC_SENTENCES = {
+      { "John", "Smith", "works", "for", "Acme", "Corporation", "in", "New", "York", "." },
+      { "The", "European", "Union", "met", "in", "Brussels", "on", "Monday", "." },
+      { "Maria", "Garcia", "visited", "Paris", "and", "London", "last", "year", "." },
+      { "Shares", "of", "General", "Motors", "rose", "3", "%", "after", "the", "report", "." } };
+
+  /**
+   * The sentences to annotate in every iteration.
+   */
+  private final List<String[]> sentences;
+  /**
+   * The number of iterations.
+   */
+  private final int iterations;
+  /**
+   * The maximum number of seconds.
+   */
+  private final int seconds;
+  /**
+   * The number of tokens of every iteration.
+   */
+  private final int tokens;
+
+  /**
+   * Construct a warm-up from the properties warmupIterations, warmupSeconds
+   * and warmupFile. The file contains either a NAF document or tokenized
+   * text, one sentence per line; if not given, synthetic sentences are used.
+   *
+   * @param properties
+   *          the properties
+   * @throws IOException
+   *           if the warm-up file cannot be read
+   */
+  public WarmUp(final Properties properties) throws IOException {
+    this.iterations = Integer.parseInt(properties.getProperty(
+        "warmupIterations", Flags.DEFAULT_WARMUP));
+    this.seconds = Integer.parseInt(properties.getProperty("warmupSeconds",
+        Flags.DEFAULT_WARMUP));
+    String warmupFile = properties.getProperty("warmupFile");
+    if (warmupFile == null) {
+      this.sentences = new ArrayList<>();
+      for (String[] sentence : SYNTHETIC_SENTENCES) {
+        sentences.add(sentence);
+      }
+    } else {
+      this.sentences = readSentences(new File(warmupFile));
+    }
+    int count = 0;
+    for (String[] sentence : sentences) {
+      count += sentence.length;
+    }
+    this.tokens = count;
+  }
+
+  /**
+   * Check whether any warm-up has been configured.
+   *
+   * @return true if warm-up iterations or seconds are set
+   */
+  public final boolean isActive() {
+    return iterations > 0 || seconds > 0;
+  }
+
+  /**
+   * Warm up an annotator, built by {@link #newAnnotator}. It stops after the configured iterations or
+   * seconds, whichever comes first; if only one of them is set, that one
+   * applies.
+   *
+   * @param annotator
+   *          the annotator
+   * @param lang
+   *          the language of the warm-up documents
+   * @throws IOException
+   *           if annotation fails
+   */
+  public final void warmUp(final Annotate annotator, final String lang)
+      throws IOException {
+    long maxIterations = iterations > 0 ? iterations : Long.MAX_VALUE;
+    long deadline = seconds > 0 ? System.nanoTime() + seconds * 1000000000L
+        : Long.MAX_VALUE;
+    long lStartTime = System.currentTimeMillis();
+    // report the throughput of windows doubling in size: 1, 2-3, 4-7...
+    long nextReport = 1;
+    long iteration = 0;
+    long windowIterations = 0;
+    long windowTime = 0;
+    while (iteration < maxIterations && System.nanoTime() < deadline) {
+      KAFDocument kaf = toKAF(sentences, lang);
+      long start = System.nanoTime();
+      annotator.annotateNEs(kaf);
+      windowTime += System.nanoTime() - start;
+      windowIterations++;
+      iteration++;
+      if (iteration == nextReport) {
+        System.err.println("-> warm-up iterations " + (iteration - windowIterations + 1)
+            + "-" + iteration + ": "
+            + (long) (windowIterations * tokens * 1e9 / Math.max(windowTime, 1))
+            + " tokens/sec");
+        nextReport = nextReport * 2 + 1;
+        windowIterations = 0;
+        windowTime = 0;
+      }
+    }
+    long difference = System.currentTimeMillis() - lStartTime;
+    System.err.println("-> warm-up done: " + iteration + " iterations of "
+        + tokens + " tokens in " + difference + " miliseconds");
+  }
+
+  /**
+   * Build the annotator to warm up a model. Its sentence cache is disabled:
+   * the warm-up annotates the same sentences again and again, so with the
+   * cache every iteration after the first one would only time cache lookups
+   * and would leave the decoding cold.
+   *
+   * @param properties
+   *          the annotation properties of the model
+   * @param nerModel
+   *          the model, null to use the model loaded for the model path
+   * @return the annotator
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  public static Annotate newAnnotator(final Properties properties,
+      final TokenNameFinderModel nerModel) throws IOException {
+    Properties warmUpProperties = new Properties();
+    warmUpProperties.putAll(properties);
+    warmUpProperties.setProperty("sentenceCache", "0");
+    return new Annotate(warmUpProperties, nerModel);
+  }
+
+  /**
+   * Annotate the synthetic sentences once with an annotator built by
+   * {@link #newAnnotator}, e.g., to parse the resources of a freshly loaded
+   * model before swapping it in.
+   *
+   * @param annotator
+   *          the annotator
+   * @param lang
+   *          the language
+   * @throws IOException
+   *           if annotation fails
+   */
+  public static void prime(final Annotate annotator, final String lang)
+      throws IOException {
+    List<String[]> sentences = new ArrayList<>();
+    for (String[] sentence : SYNTHETIC_SENTENCES) {
+      sentences.add(sentence);
+    }
+    annotator.annotateNEs(toKAF(sentences, lang));
+  }
+
+  /**
+   * Build a NAF document with text and terms layers from tokenized sentences.
+   *
+   * @param sentences
+   *          the sentences
+   * @param lang
+   *          the language
+   * @return the NAF document
+   */
+  private static KAFDocument toKAF(final List<String[]> sentences,
+      final String lang) {
+    KAFDocument kaf = new KAFDocument(lang, "v1.naf");
+    int offset = 0;
+    for (int i = 0; i < sentences.size(); i++) {
+      for (String token : sentences.get(i)) {
+        WF wf = kaf.newWF(offset, token, i + 1);
+        List<WF> wfs = new ArrayList<>();
+        wfs.add(wf);
+        kaf.newTerm(KAFDocument.newWFSpan(wfs));
+        offset += token.length() + 1;
+      }
+    }
+    return kaf;
+  }
+
+  /**
+   * Read the warm-up sentences from a NAF document or from tokenized text.
+   *
+   * @param file
+   *          the file
+   * @return the sentences
+   * @throws IOException
+   *           if the file cannot be read or parsed
+   */
+  private static List<String[]> readSentences(final File file)
+      throws IOException {
+    String content = Files.toString(file, Charsets.UTF_8);
+    List<String[]> sentences = new ArrayList<>();
+    if (content.trim().startsWith("<")) {
+      try {
+        KAFDocument kaf = KAFDocument.createFromStream(new BufferedReader(
+            new StringReader(content)));
+        for (List<WF> sentence : kaf.getSentences()) {
+          String[] tokens = new String[sentence.size()];
+          for (int i = 0; i < sentence.size(); i++) {
+            tokens[i] = sentence.get(i).getForm();
+          }
+          sentences.add(tokens);
+        }
+      } catch (JDOMException e) {
+        throw new IOException("Badly formatted NAF warm-up file " + file, e);
+      }
+    } else {
+      for (String line : content.split("\n")) {
+        if (!line.trim().isEmpty()) {
+          sentences.add(spacePattern.split(line.trim()));
+        }
+      }
+    }
+    if (sentences.isEmpty()) {
+      throw new IOException("No sentences in warm-up file " + file);
+    }
+    return sentences;
+  }
+}
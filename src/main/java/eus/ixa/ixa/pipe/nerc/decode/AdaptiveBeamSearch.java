@@ -0,0 +1,309 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
+/**
+ * Beam search whose width adapts to every token. The search is greedy, a
+ * single sequence, while the model is confident; at the tokens where the
+ * margin between the probabilities of the two best valid outcomes of the best
+ * sequence falls below a threshold, the beam is widened to the full beam
+ * size, and it goes back to greedy at the next confident token. Most
+ * sentences are thus decoded with a single evaluation per token.
+ * <p>
+ * A hypothesis is extended as in the {@link BeamSearch}: with the valid
+ * outcomes among the best outcomes of the width of the beam or, if no
+ * hypothesis was extended yet, with every valid outcome, and never with an
+ * invalid outcome. The widest beam thus finds the sequence of the fixed beam.
+ * The n-best sequences are searched with a fixed beam.
+ *
+ * @author ragerri
+ * @version 2016-08-10
+ */
+public class AdaptiveBeamSearch implements SequenceClassificationModel<String> {
+
+  private static final Object[] EMPTY_ADDITIONAL_CONTEXT = new Object[0];
+  /**
+   * The minimum score of a sequence, as in the {@link BeamSearch}.
+   */
+  private static final double ZERO_LOG = -100000;
+
+  /**
+   * The widest beam.
+   */
+  private final int beamSize;
+  /**
+   * The classifier.
+   */
+  private final MaxentModel model;
+  /**
+   * The margin below which the beam is widened.
+   */
+  private final double threshold;
+  /**
+   * The search for the n-best sequences.
+   */
+  private final BeamSearch<String> fixedBeam;
+  /**
+   * The widening statistics, possibly shared by several searches.
+   */
+  private final Statistics statistics;
+  private final double[] probs;
+  /**
+   * The sorted scores of a hypothesis, to find the scores in the beam.
+   */
+  private final double[] sortedScores;
+  /**
+   * The indexes of the two best valid outcomes of the best sequence, for the
+   * margin.
+   */
+  private final int[] best = new int[2];
+
+  /**
+   * Construct an adaptive beam search.
+   *
+   * @param beamSize
+   *          the widest beam
+   * @param model
+   *          the classifier
+   * @param threshold
+   *          the margin between the two best outcomes below which the beam
+   *          is widened; 0 is always greedy and 1 always widens. The
+   *          perceptron probabilities are much flatter than the maxent ones,
+   *          so the threshold depends on the model
+   * @param statistics
+   *          the statistics to record the widenings
+   */
+  public AdaptiveBeamSearch(final int beamSize, final MaxentModel model,
+      final double threshold, final Statistics statistics) {
+    this.beamSize = beamSize;
+    this.model = model;
+    this.threshold = threshold;
+    this.statistics = statistics;
+    this.fixedBeam = new BeamSearch<String>(beamSize, model);
+    this.probs = new double[model.getNumOutcomes()];
+    this.sortedScores = new double[model.getNumOutcomes()];
+  }
+
+  @Override
+  public final Sequence bestSequence(final String[] sequence,
+      final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    Object[] context = additionalContext == null ? EMPTY_ADDITIONAL_CONTEXT
+        : additionalContext;
+    List<Sequence> beam = new ArrayList<Sequence>();
+    beam.add(new Sequence());
+    List<Sequence> next = new ArrayList<Sequence>();
+    int widened = 0;
+    for (int i = 0; i < sequence.length; i++) {
+      int width = 1;
+      for (int h = 0; h < beam.size(); h++) {
+        Sequence top = beam.get(h);
+        List<String> tmpOutcomes = top.getOutcomes();
+        String[] outcomes = tmpOutcomes.toArray(new String[tmpOutcomes.size()]);
+        String[] contexts = contextGenerator.getContext(i, sequence, outcomes, context);
+        double[] scores = model.eval(contexts, probs);
+        if (h == 0) {
+          // the margin of the best sequence decides the width at this token
+          int valid = selectBest(i, sequence, outcomes, scores, validator);
+          double second = valid > 1 ? scores[best[1]] : 0;
+          if (valid > 0 && scores[best[0]] - second < threshold) {
+            width = beamSize;
+            widened++;
+          }
+        }
+        extend(top, i, sequence, outcomes, scores, validator, width, next);
+      }
+      Collections.sort(next);
+      List<Sequence> swap = beam;
+      beam = next;
+      next = swap;
+      next.clear();
+      if (beam.size() > width) {
+        beam.subList(width, beam.size()).clear();
+      }
+    }
+    statistics.add(sequence.length, widened);
+    // as in the beam search, no sequence if every hypothesis was dropped
+    return beam.isEmpty() ? null : beam.get(0);
+  }
+
+  /**
+   * Select the two best valid outcomes of a hypothesis into {@code best}.
+   *
+   * @return the number of outcomes selected
+   */
+  private int selectBest(final int i, final String[] sequence,
+      final String[] outcomes, final double[] scores,
+      final SequenceValidator<String> validator) {
+    int selected = 0;
+    for (int o = 0; o < scores.length; o++) {
+      if (!validator.validSequence(i, sequence, outcomes, model.getOutcome(o))) {
+        continue;
+      }
+      if (selected == 0 || scores[o] > scores[best[0]]) {
+        best[1] = best[0];
+        best[0] = o;
+      } else if (selected == 1 || scores[o] > scores[best[1]]) {
+        best[1] = o;
+      }
+      selected = Math.min(selected + 1, 2);
+    }
+    return selected;
+  }
+
+  /**
+   * Extend a hypothesis as the beam search does: with its valid outcomes
+   * among the best outcomes of the width of the beam, or with all its valid
+   * outcomes if no hypothesis was extended at this token yet.
+   */
+  private void extend(final Sequence top, final int i, final String[] sequence,
+      final String[] outcomes, final double[] scores,
+      final SequenceValidator<String> validator, final int width,
+      final List<Sequence> next) {
+    System.arraycopy(scores, 0, sortedScores, 0, scores.length);
+    Arrays.sort(sortedScores);
+    double min = sortedScores[Math.max(0, scores.length - width)];
+    for (int o = 0; o < scores.length; o++) {
+      if (scores[o] >= min) {
+        add(top, i, sequence, outcomes, o, scores[o], validator, next);
+      }
+    }
+    if (next.isEmpty()) {
+      for (int o = 0; o < scores.length; o++) {
+        add(top, i, sequence, outcomes, o, scores[o], validator, next);
+      }
+    }
+  }
+
+  private void add(final Sequence top, final int i, final String[] sequence,
+      final String[] outcomes, final int outcome, final double score,
+      final SequenceValidator<String> validator, final List<Sequence> next) {
+    String out = model.getOutcome(outcome);
+    if (validator.validSequence(i, sequence, outcomes, out)) {
+      Sequence extended = new Sequence(top, out, score);
+      if (extended.getScore() > ZERO_LOG) {
+        next.add(extended);
+      }
+    }
+  }
+
+  @Override
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final double minSequenceScore,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    return fixedBeam.bestSequences(numSequences, sequence, additionalContext,
+        minSequenceScore, contextGenerator, validator);
+  }
+
+  @Override
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    return fixedBeam.bestSequences(numSequences, sequence, additionalContext,
+        contextGenerator, validator);
+  }
+
+  @Override
+  public final String[] getOutcomes() {
+    return fixedBeam.getOutcomes();
+  }
+
+  /**
+   * How often the beam was widened. The counters are atomic, so that the
+   * searches of several threads can share them.
+   */
+  public static class Statistics {
+
+    private final AtomicLong sentences = new AtomicLong();
+    private final AtomicLong widenedSentences = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong widenedTokens = new AtomicLong();
+
+    /**
+     * Record a decoded sentence.
+     *
+     * @param length
+     *          the number of tokens of the sentence
+     * @param widened
+     *          the number of tokens where the beam was widened
+     */
+    final void add(final int length, final int widened) {
+      sentences.incrementAndGet();
+      tokens.addAndGet(length);
+      if (widened > 0) {
+        widenedSentences.incrementAndGet();
+        widenedTokens.addAndGet(widened);
+      }
+    }
+
+    /**
+     * @return the number of decoded sentences
+     */
+    public final long getSentences() {
+      return sentences.get();
+    }
+
+    /**
+     * @return the number of sentences where the beam was widened
+     */
+    public final long getWidenedSentences() {
+      return widenedSentences.get();
+    }
+
+    /**
+     * @return the number of decoded tokens
+     */
+    public final long getTokens() {
+      return tokens.get();
+    }
+
+    /**
+     * @return the number of tokens where the beam was widened
+     */
+    public final long getWidenedTokens() {
+      return widenedTokens.get();
+    }
+
+    @Override
+    public final String toString() {
+      return String.format("beam widened at %d of %d tokens (%.2f%%), in %d of %d sentences (%.2f%%)",
+          getWidenedTokens(), getTokens(), percent(getWidenedTokens(), getTokens()),
+          getWidenedSentences(), getSentences(), percent(getWidenedSentences(), getSentences()));
+    }
+
+    private static double percent(final long part, final long total) {
+      return total == 0 ? 0 : 100.0 * part / total;
+    }
+  }
+}
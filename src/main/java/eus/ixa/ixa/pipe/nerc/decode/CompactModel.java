@@ -0,0 +1,425 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+
+/**
+ * Compiled version of the classifier of a trained model. The feature strings
+ * are mapped to int ids by a {@link FeatureDictionary}, the weights are stored
+ * in compressed sparse rows, the outcome ids and weights of every feature
+ * contiguous and in the order of its outcome pattern, and the outcomes are
+ * resolved to their ids once, when the model is compiled. The probabilities
+ * are computed with the same operations in the same order as the
+ * {@link PerceptronModel} and {@link GISModel} classifiers, so both give
+ * exactly the same results. The weights of the active features are added by
+ * a {@link ScoringKernel}.
+ * <p>
+ * The index and the weights are either on the heap or in a file mapped by
+ * {@link MappedWeights}. The model is thread safe: every thread evaluates
+ * with its own scratch buffers.
+ *
+ * @author ragerri
+ * @version 2016-08-07
+ */
+public class CompactModel implements MaxentModel {
+
+  /**
+   * The features of the model.
+   */
+  private final FeatureIndex features;
+  /**
+   * The start of the row of every feature in the outcome ids and weights,
+   * and the end of the last row, null if the weights are mapped.
+   */
+  private final int[] rowOffsets;
+  /**
+   * The outcome ids of the weights, null if the weights are mapped.
+   */
+  private final int[] outcomeIds;
+  /**
+   * The weights, null if the weights are mapped.
+   */
+  private final double[] weights;
+  /**
+   * The mapped rows, outcome ids and weights, null if the weights are on the
+   * heap.
+   */
+  private final IntBuffer mappedRowOffsets;
+  private final IntBuffer mappedOutcomeIds;
+  private final DoubleBuffer mappedWeights;
+  /**
+   * The outcomes, by outcome id.
+   */
+  private final String[] outcomes;
+  private final int numOutcomes;
+  /**
+   * Whether the probabilities are those of a perceptron model.
+   */
+  private final boolean perceptron;
+  /**
+   * The uniform log prior of the outcomes of a maxent model.
+   */
+  private final double prior;
+  private final double constantInverse;
+  private final double correctionConstant;
+  private final double correctionParam;
+  /**
+   * Whether the number of active weights of every outcome is needed, by the
+   * correction feature of maxent models.
+   */
+  private final boolean correction;
+  /**
+   * The kernel adding the weights of the active features.
+   */
+  private final ScoringKernel kernel;
+  /**
+   * The scratch buffers of every thread.
+   */
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch(numOutcomes);
+    }
+  };
+
+  /**
+   * The buffers reused by every evaluation of a thread.
+   */
+  private static class Scratch {
+    private int[] ids = new int[64];
+    private final int[] numFeatures;
+
+    Scratch(final int numOutcomes) {
+      this.numFeatures = new int[numOutcomes];
+    }
+
+    int[] ids(final int length) {
+      if (ids.length < length) {
+        ids = new int[Math.max(length, ids.length * 2)];
+      }
+      return ids;
+    }
+  }
+
+  private CompactModel(final Context[] parameters, final String[] predicates,
+      final String[] outcomes, final boolean perceptron,
+      final double correctionConstant, final double correctionParam,
+      final ScoringKernel kernel) {
+    this.kernel = kernel;
+    this.features = new FeatureDictionary(predicates);
+    this.outcomes = outcomes;
+    this.numOutcomes = outcomes.length;
+    this.perceptron = perceptron;
+    this.rowOffsets = new int[parameters.length + 1];
+    for (int p = 0; p < parameters.length; p++) {
+      rowOffsets[p + 1] = rowOffsets[p] + parameters[p].getOutcomes().length;
+    }
+    this.outcomeIds = new int[rowOffsets[parameters.length]];
+    this.weights = new double[outcomeIds.length];
+    for (int p = 0; p < parameters.length; p++) {
+      int[] outcomePattern = parameters[p].getOutcomes();
+      System.arraycopy(outcomePattern, 0, outcomeIds, rowOffsets[p], outcomePattern.length);
+      System.arraycopy(parameters[p].getParameters(), 0, weights, rowOffsets[p],
+          outcomePattern.length);
+    }
+    this.mappedRowOffsets = null;
+    this.mappedOutcomeIds = null;
+    this.mappedWeights = null;
+    this.correction = hasCorrection(perceptron, correctionParam);
+    this.prior = Math.log(1.0 / numOutcomes);
+    this.correctionConstant = correctionConstant;
+    this.constantInverse = 1.0 / correctionConstant;
+    this.correctionParam = correctionParam;
+  }
+
+  /**
+   * Construct a model whose index and weights are mapped from a file.
+   */
+  CompactModel(final FeatureIndex features, final IntBuffer rowOffsets,
+      final IntBuffer outcomeIds, final DoubleBuffer weights,
+      final String[] outcomes, final boolean perceptron,
+      final double correctionConstant, final double correctionParam,
+      final ScoringKernel kernel) {
+    this.kernel = kernel;
+    this.features = features;
+    this.outcomes = outcomes;
+    this.numOutcomes = outcomes.length;
+    this.perceptron = perceptron;
+    this.rowOffsets = null;
+    this.outcomeIds = null;
+    this.weights = null;
+    this.mappedRowOffsets = rowOffsets;
+    this.mappedOutcomeIds = outcomeIds;
+    this.mappedWeights = weights;
+    this.correction = hasCorrection(perceptron, correctionParam);
+    this.prior = Math.log(1.0 / numOutcomes);
+    this.correctionConstant = correctionConstant;
+    this.constantInverse = 1.0 / correctionConstant;
+    this.correctionParam = correctionParam;
+  }
+
+  /**
+   * @return whether the model needs the number of active weights of every
+   *         outcome
+   */
+  private static boolean hasCorrection(final boolean perceptron,
+      final double correctionParam) {
+    return !perceptron && correctionParam != 0;
+  }
+
+  /**
+   * Compile the classifier of a trained model, scoring with the kernel chosen
+   * by the {@code ixa.pipe.nerc.kernel} system property.
+   *
+   * @param classifier
+   *          the classifier, a PERCEPTRON or MAXENT model
+   * @return the compiled classifier
+   * @throws IllegalArgumentException
+   *           if the classifier cannot be compiled
+   */
+  public static CompactModel compile(final MaxentModel classifier) {
+    return compile(classifier, ScoringKernel.getDefault());
+  }
+
+  /**
+   * Compile the classifier of a trained model.
+   *
+   * @param classifier
+   *          the classifier, a PERCEPTRON or MAXENT model
+   * @param kernel
+   *          the kernel to score with
+   * @return the compiled classifier
+   * @throws IllegalArgumentException
+   *           if the classifier cannot be compiled
+   */
+  public static CompactModel compile(final MaxentModel classifier,
+      final ScoringKernel kernel) {
+    Object[] data = getDataStructures(classifier);
+    Context[] parameters = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    String[] predicates = pmap.toArray(new String[pmap.size()]);
+    String[] outcomes = (String[]) data[2];
+    return new CompactModel(parameters, predicates, outcomes,
+        classifier instanceof PerceptronModel, (Integer) data[3],
+        (Double) data[4], kernel);
+  }
+
+  /**
+   * Get the parameters, predicates, outcomes and correction constant and
+   * parameter of a classifier.
+   *
+   * @param classifier
+   *          the classifier, a PERCEPTRON or MAXENT model
+   * @return the data structures of the classifier
+   * @throws IllegalArgumentException
+   *           if the classifier cannot be compiled
+   */
+  static Object[] getDataStructures(final MaxentModel classifier) {
+    if (!(classifier instanceof PerceptronModel || classifier instanceof GISModel)) {
+      throw new IllegalArgumentException(
+          "Only PERCEPTRON and MAXENT models can be compiled, the model is "
+              + (classifier == null ? "a sequence model"
+                  : ((AbstractModel) classifier).getModelType()));
+    }
+    return ((AbstractModel) classifier).getDataStructures();
+  }
+
+  /**
+   * Resolve the features of a context to their ids.
+   *
+   * @param context
+   *          the features
+   * @param ids
+   *          the array to store the ids, -1 for unknown features
+   * @return the ids
+   */
+  public final int[] index(final String[] context, final int[] ids) {
+    for (int i = 0; i < context.length; i++) {
+      ids[i] = features.get(context[i]);
+    }
+    return ids;
+  }
+
+  /**
+   * Compute the probabilities of the outcomes for a context of feature ids.
+   *
+   * @param ids
+   *          the feature ids, -1 for unknown features
+   * @param length
+   *          the number of feature ids of the context
+   * @param values
+   *          the feature values, null if every value is 1
+   * @param probs
+   *          the array to store the probabilities
+   * @return the probabilities of the outcomes
+   */
+  public final double[] eval(final int[] ids, final int length,
+      final float[] values, final double[] probs) {
+    Arrays.fill(probs, perceptron ? 0 : prior);
+    if (weights != null) {
+      kernel.accumulate(rowOffsets, outcomeIds, weights, ids, values, length, probs);
+    } else {
+      kernel.accumulate(mappedRowOffsets, mappedOutcomeIds, mappedWeights, ids,
+          values, length, probs);
+    }
+    int[] numFeatures = null;
+    if (correction) {
+      numFeatures = scratch.get().numFeatures;
+      Arrays.fill(numFeatures, 0);
+      for (int i = 0; i < length; i++) {
+        if (ids[i] < 0) {
+          continue;
+        }
+        if (weights != null) {
+          for (int j = rowOffsets[ids[i]]; j < rowOffsets[ids[i] + 1]; j++) {
+            numFeatures[outcomeIds[j]]++;
+          }
+        } else {
+          int end = mappedRowOffsets.get(ids[i] + 1);
+          for (int j = mappedRowOffsets.get(ids[i]); j < end; j++) {
+            numFeatures[mappedOutcomeIds.get(j)]++;
+          }
+        }
+      }
+    }
+    return perceptron ? normalizePerceptron(probs) : normalizeMaxent(probs, numFeatures);
+  }
+
+  private double[] normalizePerceptron(final double[] probs) {
+    double maxPrior = 1;
+    for (int o = 0; o < numOutcomes; o++) {
+      if (maxPrior < Math.abs(probs[o])) {
+        maxPrior = Math.abs(probs[o]);
+      }
+    }
+    double normal = 0;
+    for (int o = 0; o < numOutcomes; o++) {
+      probs[o] = Math.exp(probs[o] / maxPrior);
+      normal += probs[o];
+    }
+    for (int o = 0; o < numOutcomes; o++) {
+      probs[o] /= normal;
+    }
+    return probs;
+  }
+
+  private double[] normalizeMaxent(final double[] probs, final int[] numFeatures) {
+    double normal = 0;
+    for (int o = 0; o < numOutcomes; o++) {
+      if (numFeatures != null) {
+        probs[o] = Math.exp(probs[o] * constantInverse
+            + (1.0 - numFeatures[o] / correctionConstant) * correctionParam);
+      } else {
+        probs[o] = Math.exp(probs[o] * constantInverse);
+      }
+      normal += probs[o];
+    }
+    for (int o = 0; o < numOutcomes; o++) {
+      probs[o] /= normal;
+    }
+    return probs;
+  }
+
+  /**
+   * Compute the probabilities of the outcomes for a context.
+   *
+   * @param context
+   *          the features
+   * @param values
+   *          the feature values, null if every value is 1
+   * @param probs
+   *          the array to store the probabilities
+   * @return the probabilities of the outcomes
+   */
+  public final double[] eval(final String[] context, final float[] values,
+      final double[] probs) {
+    int[] ids = index(context, scratch.get().ids(context.length));
+    return eval(ids, context.length, values, probs);
+  }
+
+  @Override
+  public final double[] eval(final String[] context) {
+    return eval(context, null, new double[numOutcomes]);
+  }
+
+  @Override
+  public final double[] eval(final String[] context, final double[] probs) {
+    return eval(context, null, probs);
+  }
+
+  @Override
+  public final double[] eval(final String[] context, final float[] values) {
+    return eval(context, values, new double[numOutcomes]);
+  }
+
+  @Override
+  public final String getBestOutcome(final double[] probs) {
+    int best = 0;
+    for (int o = 1; o < probs.length; o++) {
+      if (probs[o] > probs[best]) {
+        best = o;
+      }
+    }
+    return outcomes[best];
+  }
+
+  @Override
+  public final String getAllOutcomes(final double[] probs) {
+    if (probs.length != numOutcomes) {
+      return "The double array sent as a parameter to CompactModel.getAllOutcomes() "
+          + "must not have been produced by this model.";
+    }
+    DecimalFormat format = new DecimalFormat("0.0000");
+    StringBuilder sb = new StringBuilder(probs.length * 2);
+    for (int o = 0; o < numOutcomes; o++) {
+      sb.append(outcomes[o]).append("[").append(format.format(probs[o])).append("]  ");
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public final String getOutcome(final int outcome) {
+    return outcomes[outcome];
+  }
+
+  @Override
+  public final int getIndex(final String outcome) {
+    for (int o = 0; o < numOutcomes; o++) {
+      if (outcomes[o].equals(outcome)) {
+        return o;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public final int getNumOutcomes() {
+    return numOutcomes;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+
+/**
+ * Name finder decoding with a {@link CompactModel} instead of the classifier
+ * of the model. The feature generation, the sequence validation and the
+ * decoding of the outcomes into spans are those of the {@link NameFinderME},
+ * so the spans found are exactly the same, only the scoring of every beam
+ * candidate changes. The search itself can also be replaced, e.g., by an
+ * {@link AdaptiveBeamSearch}.
+ *
+ * @author ragerri
+ * @version 2016-08-07
+ */
+public class CompactNameFinder extends NameFinderME {
+
+  /**
+   * The manifest property with the beam size of a model.
+   */
+  public static final String BEAM_SIZE = "BeamSize";
+
+  /**
+   * Construct a name finder with a compiled classifier.
+   *
+   * @param model
+   *          the model, providing the features and the sequence codec
+   * @param classifier
+   *          the compiled classifier of the model
+   */
+  public CompactNameFinder(final TokenNameFinderModel model,
+      final CompactModel classifier) {
+    this(model, new BeamSearch<String>(getBeamSize(model), classifier));
+  }
+
+  /**
+   * Construct a name finder with another search.
+   *
+   * @param model
+   *          the model, providing the features and the sequence codec
+   * @param search
+   *          the search of the best sequence of outcomes
+   */
+  public CompactNameFinder(final TokenNameFinderModel model,
+      final SequenceClassificationModel<String> search) {
+    super(model);
+    this.model = search;
+  }
+
+  /**
+   * @param model
+   *          the model
+   * @return the beam size the model was trained with
+   */
+  public static int getBeamSize(final TokenNameFinderModel model) {
+    String beamSize = model.getManifestProperty(BEAM_SIZE);
+    return beamSize == null ? NameFinderME.DEFAULT_BEAM_SIZE : Integer.parseInt(beamSize);
+  }
+}
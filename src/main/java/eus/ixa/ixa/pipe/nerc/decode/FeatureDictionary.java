@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+/**
+ * Read only dictionary from feature strings to their int ids. The keys and
+ * the ids live in two parallel arrays addressed by linear probing, so that a
+ * lookup neither allocates nor boxes its result.
+ *
+ * @author ragerri
+ * @version 2016-08-07
+ */
+final class FeatureDictionary implements FeatureIndex {
+
+  private final String[] keys;
+  private final int[] ids;
+  private final int mask;
+
+  /**
+   * Build the dictionary of a list of features.
+   *
+   * @param features
+   *          the features, the id of each feature is its position
+   */
+  FeatureDictionary(final String[] features) {
+    int capacity = capacity(features.length);
+    this.keys = new String[capacity];
+    this.ids = new int[capacity];
+    this.mask = capacity - 1;
+    for (int id = 0; id < features.length; id++) {
+      int slot = slot(features[id]);
+      while (keys[slot] != null && !keys[slot].equals(features[id])) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = features[id];
+      ids[slot] = id;
+    }
+  }
+
+  private int slot(final String key) {
+    return slot(key.hashCode(), mask);
+  }
+
+  /**
+   * @param features
+   *          the number of features
+   * @return the number of slots of a table for the features, a power of two
+   */
+  static int capacity(final int features) {
+    return Integer.highestOneBit(Math.max(2, features * 2 - 1)) << 1;
+  }
+
+  /**
+   * @param hashCode
+   *          the hash code of a feature
+   * @param mask
+   *          the number of slots minus one
+   * @return the first slot to probe for the feature
+   */
+  static int slot(final int hashCode, final int mask) {
+    int hash = hashCode * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public int get(final String feature) {
+    int slot = slot(feature);
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.equals(feature)) {
+        return ids[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+}
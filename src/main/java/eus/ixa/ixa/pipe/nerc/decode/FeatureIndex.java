@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+/**
+ * Index from feature strings to their int ids.
+ *
+ * @author ragerri
+ * @version 2016-08-09
+ */
+interface FeatureIndex {
+
+  /**
+   * @param feature
+   *          the feature
+   * @return the id of the feature or -1 if the feature is unknown
+   */
+  int get(String feature);
+}
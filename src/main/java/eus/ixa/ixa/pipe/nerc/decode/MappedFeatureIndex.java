@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Feature index read from a mapped weights file. The table has the layout of
+ * the {@link FeatureDictionary}, four ints per slot: the hash code of the
+ * feature, the offset and the length of its characters, -1 for empty slots,
+ * and its id. The hash code of a string is the same in every JVM, so a
+ * lookup compares the characters of the feature only with those of the
+ * features with its hash code.
+ *
+ * @author ragerri
+ * @version 2016-08-09
+ */
+final class MappedFeatureIndex implements FeatureIndex {
+
+  /**
+   * The ints of every slot.
+   */
+  static final int SLOT_INTS = 4;
+
+  private final IntBuffer slots;
+  private final CharBuffer chars;
+  private final int mask;
+
+  /**
+   * @param slots
+   *          the table, a power of two slots
+   * @param chars
+   *          the characters of the features
+   */
+  MappedFeatureIndex(final IntBuffer slots, final CharBuffer chars) {
+    this.slots = slots;
+    this.chars = chars;
+    this.mask = slots.capacity() / SLOT_INTS - 1;
+  }
+
+  @Override
+  public int get(final String feature) {
+    int hashCode = feature.hashCode();
+    int slot = FeatureDictionary.slot(hashCode, mask);
+    while (true) {
+      int base = slot * SLOT_INTS;
+      int offset = slots.get(base + 1);
+      if (offset < 0) {
+        return -1;
+      }
+      if (slots.get(base) == hashCode && slots.get(base + 2) == feature.length()
+          && matches(feature, offset)) {
+        return slots.get(base + 3);
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private boolean matches(final String feature, final int offset) {
+    for (int i = 0; i < feature.length(); i++) {
+      if (chars.get(offset + i) != feature.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+import eus.ixa.ixa.pipe.nerc.train.ModelRewriter;
+
+/**
+ * Export the classifier of a model to a weights file which is memory mapped
+ * read only to tag. Every JVM tagging with the exported model maps the same
+ * file, so the weights are loaded almost instantly and the page cache holds a
+ * single physical copy of them for all the processes of a host.
+ * <p>
+ * The exported model is a copy of the model whose classifier is replaced by a
+ * stub with the same outcomes and whose manifest points to the weights file,
+ * which is written next to it. An exported model can only be tagged or
+ * evaluated with its mapped weights. The weights file contains, in this
+ * order:
+ * <ol>
+ * <li>the header: the magic number, the version, whether the classifier is a
+ * perceptron, the number of outcomes, features, index slots, feature
+ * characters and weights, and the correction constant and parameter of
+ * maxent models.
+ * <li>the feature index, as read by the {@link MappedFeatureIndex}.
+ * <li>the start of the row of every feature and the end of the last row.
+ * <li>the outcome ids of the weights.
+ * <li>the weights, the compressed sparse rows of the {@link CompactModel}.
+ * <li>the characters of the features.
+ * <li>the outcomes, their length and their characters.
+ * </ol>
+ * Every section is mapped on its own, so only a section, not the whole
+ * file, has to fit in the 2GB of a mapping.
+ *
+ * @author ragerri
+ * @version 2016-08-09
+ */
+public final class MappedWeights {
+
+  /**
+   * The manifest property with the weights file of an exported model.
+   */
+  public static final String MANIFEST_PROPERTY = "MappedWeights";
+  /**
+   * The extension of the weights file of an exported model.
+   */
+  public static final String EXTENSION = ".weights";
+  private static final int MAGIC = 0x49584157;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 8 * 4 + 2 * 8;
+  /**
+   * The only feature of the stub classifier of an exported model.
+   */
+  private static final String STUB_FEATURE = "mappedWeights";
+
+  /**
+   * Private constructor. This class should only be used statically.
+   */
+  private MappedWeights() {
+
+  }
+
+  /**
+   * @param model
+   *          the model
+   * @return whether the model is exported with mapped weights, i.e., its
+   *         classifier is a stub
+   */
+  public static boolean isExported(final TokenNameFinderModel model) {
+    return model.getManifestProperty(MANIFEST_PROPERTY) != null;
+  }
+
+  /**
+   * Export a model: write its weights file and a copy of the model pointing
+   * to it.
+   *
+   * @param modelFile
+   *          the model
+   * @param output
+   *          the exported model; the weights are written to the same path
+   *          with the {@code .weights} extension
+   * @return the weights file
+   * @throws IOException
+   *           if the model cannot be read or written
+   * @throws IllegalArgumentException
+   *           if the classifier is not a PERCEPTRON or MAXENT model
+   */
+  public static File export(final File modelFile, final File output)
+      throws IOException {
+    TokenNameFinderModel model;
+    try (InputStream in = new FileInputStream(modelFile)) {
+      model = new TokenNameFinderModel(in);
+    }
+    if (isExported(model)) {
+      throw new IllegalArgumentException(modelFile + " is already exported");
+    }
+    MaxentModel classifier = InputOutputUtils.getClassifier(model);
+    Object[] data = CompactModel.getDataStructures(classifier);
+    File weightsFile = new File(output.getPath() + EXTENSION);
+    write(classifier, weightsFile);
+
+    // the model writers drop the features without non zero weights
+    Context[] stubParameters = {new Context(new int[] {0}, new double[] {1})};
+    String[] stubPredicates = {STUB_FEATURE};
+    String[] outcomes = (String[]) data[2];
+    MaxentModel stub = classifier instanceof PerceptronModel
+        ? new PerceptronModel(stubParameters, stubPredicates, outcomes)
+        : new GISModel(stubParameters, stubPredicates, outcomes,
+            (Integer) data[3], (Double) data[4]);
+    ModelRewriter.rewrite(modelFile, stub,
+        Collections.singletonMap(MANIFEST_PROPERTY, weightsFile.getName()), output);
+    return weightsFile;
+  }
+
+  /**
+   * Write the weights file of a classifier.
+   *
+   * @param classifier
+   *          the classifier, a PERCEPTRON or MAXENT model
+   * @param weightsFile
+   *          the weights file
+   * @throws IOException
+   *           if the weights file cannot be written
+   * @throws IllegalArgumentException
+   *           if the classifier is not a PERCEPTRON or MAXENT model or a
+   *           section of its weights file does not fit in a mapping
+   */
+  public static void write(final MaxentModel classifier, final File weightsFile)
+      throws IOException {
+    Object[] data = CompactModel.getDataStructures(classifier);
+    boolean perceptron = classifier instanceof PerceptronModel;
+    Context[] parameters = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    String[] predicates = pmap.toArray(new String[pmap.size()]);
+    String[] outcomes = (String[]) data[2];
+
+    int capacity = FeatureDictionary.capacity(predicates.length);
+    int mask = capacity - 1;
+    int[] slots = new int[capacity * MappedFeatureIndex.SLOT_INTS];
+    for (int slot = 0; slot < capacity; slot++) {
+      slots[slot * MappedFeatureIndex.SLOT_INTS + 1] = -1;
+    }
+    long totalChars = 0;
+    for (int id = 0; id < predicates.length; id++) {
+      int slot = FeatureDictionary.slot(predicates[id].hashCode(), mask);
+      while (slots[slot * MappedFeatureIndex.SLOT_INTS + 1] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      int base = slot * MappedFeatureIndex.SLOT_INTS;
+      slots[base] = predicates[id].hashCode();
+      slots[base + 1] = (int) totalChars;
+      slots[base + 2] = predicates[id].length();
+      slots[base + 3] = id;
+      totalChars += predicates[id].length();
+    }
+    long numWeights = 0;
+    for (Context context : parameters) {
+      numWeights += context.getOutcomes().length;
+    }
+    if (slots.length * 4L > Integer.MAX_VALUE || numWeights * 8 > Integer.MAX_VALUE
+        || totalChars * 2 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A section of the weights does not fit in a mapping of 2GB");
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(weightsFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(perceptron ? 1 : 0);
+      out.writeInt(outcomes.length);
+      out.writeInt(predicates.length);
+      out.writeInt(capacity);
+      out.writeInt((int) totalChars);
+      out.writeInt((int) numWeights);
+      out.writeDouble((Integer) data[3]);
+      out.writeDouble((Double) data[4]);
+      for (int value : slots) {
+        out.writeInt(value);
+      }
+      int rowOffset = 0;
+      out.writeInt(rowOffset);
+      for (Context context : parameters) {
+        rowOffset += context.getOutcomes().length;
+        out.writeInt(rowOffset);
+      }
+      for (Context context : parameters) {
+        for (int outcome : context.getOutcomes()) {
+          out.writeInt(outcome);
+        }
+      }
+      for (Context context : parameters) {
+        for (double weight : context.getParameters()) {
+          out.writeDouble(weight);
+        }
+      }
+      for (String predicate : predicates) {
+        out.writeChars(predicate);
+      }
+      for (String outcome : outcomes) {
+        out.writeInt(outcome.length());
+        out.writeChars(outcome);
+      }
+    }
+  }
+
+  /**
+   * Map the weights file of an exported model, if the model is exported.
+   *
+   * @param modelPath
+   *          the path of the model; the weights file is relative to it
+   * @param model
+   *          the model
+   * @return the classifier reading the mapped weights or null if the model is
+   *         not exported
+   * @throws IOException
+   *           if the weights file cannot be mapped
+   */
+  public static CompactModel load(final String modelPath,
+      final TokenNameFinderModel model) throws IOException {
+    String weights = model.getManifestProperty(MANIFEST_PROPERTY);
+    if (weights == null) {
+      return null;
+    }
+    File weightsFile = new File(weights);
+    if (!weightsFile.isAbsolute()) {
+      weightsFile = new File(new File(modelPath).getAbsoluteFile().getParentFile(), weights);
+    }
+    return map(weightsFile, ScoringKernel.getDefault());
+  }
+
+  /**
+   * Map a weights file read only.
+   *
+   * @param weightsFile
+   *          the weights file
+   * @param kernel
+   *          the kernel to score with
+   * @return the classifier reading the mapped weights
+   * @throws IOException
+   *           if the weights file cannot be mapped or is not a weights file
+   */
+  public static CompactModel map(final File weightsFile,
+      final ScoringKernel kernel) throws IOException {
+    // the mappings stay valid after the channel is closed
+    try (RandomAccessFile file = new RandomAccessFile(weightsFile, "r");
+        FileChannel channel = file.getChannel()) {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException(weightsFile + " is not a weights file");
+      }
+      ByteBuffer header = section(channel, 0, HEADER_BYTES);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        throw new IOException(weightsFile + " is not a weights file of version " + VERSION);
+      }
+      boolean perceptron = header.getInt(8) == 1;
+      int numOutcomes = header.getInt(12);
+      int numPredicates = header.getInt(16);
+      int capacity = header.getInt(20);
+      int totalChars = header.getInt(24);
+      int numWeights = header.getInt(28);
+      double correctionConstant = header.getDouble(32);
+      double correctionParam = header.getDouble(40);
+
+      long slotsOffset = HEADER_BYTES;
+      long rowsOffset = slotsOffset + (long) capacity * MappedFeatureIndex.SLOT_INTS * 4;
+      long outcomeIdsOffset = rowsOffset + (numPredicates + 1L) * 4;
+      long weightsOffset = outcomeIdsOffset + numWeights * 4L;
+      long charsOffset = weightsOffset + numWeights * 8L;
+      long outcomesOffset = charsOffset + totalChars * 2L;
+      if (outcomesOffset > channel.size()) {
+        throw new IOException(weightsFile + " is truncated");
+      }
+      ByteBuffer outcomesSection = section(channel, outcomesOffset,
+          channel.size() - outcomesOffset);
+      String[] outcomes = new String[numOutcomes];
+      try {
+        for (int o = 0; o < numOutcomes; o++) {
+          int length = outcomesSection.getInt();
+          char[] outcome = new char[length];
+          outcomesSection.asCharBuffer().get(outcome);
+          outcomesSection.position(outcomesSection.position() + length * 2);
+          outcomes[o] = new String(outcome);
+        }
+      } catch (RuntimeException e) {
+        throw new IOException(weightsFile + " is truncated", e);
+      }
+      if (outcomesSection.hasRemaining()) {
+        throw new IOException(weightsFile + " is not a weights file");
+      }
+      FeatureIndex features = new MappedFeatureIndex(
+          section(channel, slotsOffset, rowsOffset - slotsOffset).asIntBuffer(),
+          section(channel, charsOffset, outcomesOffset - charsOffset).asCharBuffer());
+      return new CompactModel(features,
+          section(channel, rowsOffset, outcomeIdsOffset - rowsOffset).asIntBuffer(),
+          section(channel, outcomeIdsOffset, weightsOffset - outcomeIdsOffset).asIntBuffer(),
+          section(channel, weightsOffset, charsOffset - weightsOffset).asDoubleBuffer(),
+          outcomes, perceptron, correctionConstant, correctionParam, kernel);
+    }
+  }
+
+  /**
+   * @return a read only mapping of a section of the file
+   */
+  private static ByteBuffer section(final FileChannel channel, final long offset,
+      final long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("A section of the weights file is larger than 2GB");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+  }
+}
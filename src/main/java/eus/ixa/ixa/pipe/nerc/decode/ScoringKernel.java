@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Kernel accumulating the weights of the active features of a context into
+ * the scores of the outcomes. Every kernel adds the weights of each outcome
+ * in feature order, so all of them give exactly the same scores.
+ * <p>
+ * The kernel used by the {@link CompactModel} is chosen with the
+ * {@code ixa.pipe.nerc.kernel} system property:
+ * <ol>
+ * <li>scalar: one weight at a time; the default.
+ * <li>vector: four weights of the sparse row of a feature at a time; the
+ * outcomes of a row are distinct, so the four updates do not depend on each
+ * other and the CPU overlaps them.
+ * </ol>
+ * The weights mapped from a file are added one weight at a time by every
+ * kernel.
+ *
+ * @author ragerri
+ * @version 2016-08-08
+ */
+public abstract class ScoringKernel {
+
+  /**
+   * The system property to choose the kernel.
+   */
+  public static final String KERNEL_PROPERTY = "ixa.pipe.nerc.kernel";
+  /**
+   * One weight at a time.
+   */
+  public static final ScoringKernel SCALAR = new ScoringKernel() {
+    @Override
+    public void accumulate(final int[] rowOffsets, final int[] outcomeIds,
+        final double[] weights, final int[] ids, final float[] values,
+        final int length, final double[] scores) {
+      for (int i = 0; i < length; i++) {
+        if (ids[i] >= 0) {
+          double value = values == null ? 1 : values[i];
+          accumulateRow(outcomeIds, weights, rowOffsets[ids[i]],
+              rowOffsets[ids[i] + 1], value, scores);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "scalar";
+    }
+  };
+  /**
+   * Four weights of a sparse row at a time.
+   */
+  public static final ScoringKernel VECTOR = new ScoringKernel() {
+    @Override
+    public void accumulate(final int[] rowOffsets, final int[] outcomeIds,
+        final double[] weights, final int[] ids, final float[] values,
+        final int length, final double[] scores) {
+      for (int i = 0; i < length; i++) {
+        if (ids[i] < 0) {
+          continue;
+        }
+        double value = values == null ? 1 : values[i];
+        int j = rowOffsets[ids[i]];
+        int end = rowOffsets[ids[i] + 1];
+        for (; j + 4 <= end; j += 4) {
+          scores[outcomeIds[j]] += weights[j] * value;
+          scores[outcomeIds[j + 1]] += weights[j + 1] * value;
+          scores[outcomeIds[j + 2]] += weights[j + 2] * value;
+          scores[outcomeIds[j + 3]] += weights[j + 3] * value;
+        }
+        accumulateRow(outcomeIds, weights, j, end, value, scores);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "vector";
+    }
+  };
+
+  /**
+   * Add the weights of the active features of a context to the scores.
+   *
+   * @param rowOffsets
+   *          the start of the row of every feature, and the end of the last
+   *          row
+   * @param outcomeIds
+   *          the outcome ids of the weights
+   * @param weights
+   *          the weights, in compressed sparse rows
+   * @param ids
+   *          the feature ids of the context, -1 for unknown features
+   * @param values
+   *          the feature values, null if every value is 1
+   * @param length
+   *          the number of feature ids of the context
+   * @param scores
+   *          the scores of the outcomes
+   */
+  public abstract void accumulate(int[] rowOffsets, int[] outcomeIds,
+      double[] weights, int[] ids, float[] values, int length, double[] scores);
+
+  /**
+   * Add the mapped weights of the active features of a context to the scores.
+   *
+   * @param rowOffsets
+   *          the start of the row of every feature, and the end of the last
+   *          row
+   * @param outcomeIds
+   *          the outcome ids of the weights
+   * @param weights
+   *          the mapped weights, in compressed sparse rows
+   * @param ids
+   *          the feature ids of the context, -1 for unknown features
+   * @param values
+   *          the feature values, null if every value is 1
+   * @param length
+   *          the number of feature ids of the context
+   * @param scores
+   *          the scores of the outcomes
+   */
+  public void accumulate(final IntBuffer rowOffsets, final IntBuffer outcomeIds,
+      final DoubleBuffer weights, final int[] ids, final float[] values,
+      final int length, final double[] scores) {
+    for (int i = 0; i < length; i++) {
+      if (ids[i] < 0) {
+        continue;
+      }
+      double value = values == null ? 1 : values[i];
+      int end = rowOffsets.get(ids[i] + 1);
+      for (int j = rowOffsets.get(ids[i]); j < end; j++) {
+        scores[outcomeIds.get(j)] += weights.get(j) * value;
+      }
+    }
+  }
+
+  /**
+   * Add the weights of a range of a sparse row, one weight at a time.
+   */
+  private static void accumulateRow(final int[] outcomeIds,
+      final double[] weights, final int from, final int to, final double value,
+      final double[] scores) {
+    for (int j = from; j < to; j++) {
+      scores[outcomeIds[j]] += weights[j] * value;
+    }
+  }
+
+  /**
+   * Get a kernel by name.
+   *
+   * @param name
+   *          the name of the kernel, scalar or vector
+   * @return the kernel, the scalar kernel if the name is unknown
+   */
+  public static ScoringKernel getKernel(final String name) {
+    if (name == null || name.equalsIgnoreCase(SCALAR.toString())) {
+      return SCALAR;
+    } else if (name.equalsIgnoreCase(VECTOR.toString())) {
+      return VECTOR;
+    }
+    System.err.println("-> Unknown scoring kernel " + name + ", using the scalar kernel");
+    return SCALAR;
+  }
+
+  /**
+   * @return the kernel chosen with the {@code ixa.pipe.nerc.kernel} system
+   *         property
+   */
+  public static ScoringKernel getDefault() {
+    return getKernel(System.getProperty(KERNEL_PROPERTY));
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.decode;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+import eus.ixa.ixa.pipe.nerc.features.SuperSenseFeatureGenerator;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+
+/**
+ * Viterbi search over the lattice of outcomes. The BIO and BILOU sequence
+ * validators only look at the previous outcome, so they are compiled once
+ * into a transition mask: which outcomes may start a sentence, follow each
+ * outcome and end a sentence. Invalid transitions are never scored, and the
+ * best path is found among every valid one, not only among those surviving
+ * in a beam.
+ * <p>
+ * The states of the lattice are the previous outcome, so the search is exact
+ * for the features of the previous outcome. The older outcomes a context
+ * generator may look at, e.g., the {@code ppo} feature, are those of the
+ * best path into each state. The states are evaluated best first, so that
+ * the cached features of every token are those of the best path, as in the
+ * beam search, and a state is skipped if its score is already below the best
+ * paths into every outcome it may be followed by.
+ * <p>
+ * The n-best sequences are searched with a beam.
+ *
+ * @author ragerri
+ * @version 2016-08-11
+ */
+public class ViterbiSearch implements SequenceClassificationModel<String> {
+
+  private static final Object[] EMPTY_ADDITIONAL_CONTEXT = new Object[0];
+
+  /**
+   * The classifier.
+   */
+  private final MaxentModel model;
+  /**
+   * The search for the n-best sequences.
+   */
+  private final BeamSearch<String> beam;
+  private final String[] outcomes;
+  private final double[] probs;
+  /**
+   * The validator the masks were compiled from.
+   */
+  private SequenceValidator<String> maskValidator;
+  /**
+   * The outcomes valid at the start of a sentence.
+   */
+  private boolean[] startMask;
+  /**
+   * The valid transitions, from the previous outcome to the current one.
+   */
+  private boolean[][] transitionMask;
+  /**
+   * The outcomes valid at the end of a sentence.
+   */
+  private boolean[] endMask;
+
+  /**
+   * Construct a Viterbi search.
+   *
+   * @param beamSize
+   *          the beam size of the n-best search
+   * @param model
+   *          the classifier
+   */
+  public ViterbiSearch(final int beamSize, final MaxentModel model) {
+    this.model = model;
+    this.beam = new BeamSearch<String>(beamSize, model);
+    this.outcomes = new String[model.getNumOutcomes()];
+    for (int o = 0; o < outcomes.length; o++) {
+      outcomes[o] = model.getOutcome(o);
+    }
+    this.probs = new double[outcomes.length];
+  }
+
+  /**
+   * Whether a model can be decoded with the Viterbi search. The features of
+   * the {@link SuperSenseFeatureGenerator} depend on the previous outcome but
+   * are cached per token, so every state would see those of the first one.
+   *
+   * @param nerModel
+   *          the model
+   * @return true if the features of the model allow the Viterbi search
+   */
+  public static boolean isSupported(final TokenNameFinderModel nerModel) {
+    String descriptor = InputOutputUtils.getFeatureDescriptor(nerModel);
+    return descriptor == null
+        || !descriptor.contains(SuperSenseFeatureGenerator.class.getName());
+  }
+
+  /**
+   * Compile the masks of a validator, given that it only looks at the
+   * previous outcome. The end mask allows the outcomes that may be followed
+   * by the other outcome, e.g., not the start of a BILOU name.
+   */
+  private void compileMasks(final SequenceValidator<String> validator) {
+    int numOutcomes = outcomes.length;
+    String[] tokens = new String[] { "", "", "" };
+    startMask = new boolean[numOutcomes];
+    transitionMask = new boolean[numOutcomes][numOutcomes];
+    endMask = new boolean[numOutcomes];
+    for (int cur = 0; cur < numOutcomes; cur++) {
+      startMask[cur] = validator.validSequence(0, tokens, new String[0], outcomes[cur]);
+    }
+    boolean hasOther = model.getIndex(NameFinderME.OTHER) >= 0;
+    for (int prev = 0; prev < numOutcomes; prev++) {
+      String[] history = new String[] { outcomes[prev], outcomes[prev] };
+      for (int cur = 0; cur < numOutcomes; cur++) {
+        transitionMask[prev][cur] = validator.validSequence(2, tokens, history,
+            outcomes[cur]);
+      }
+      endMask[prev] = !hasOther
+          || validator.validSequence(2, tokens, history, NameFinderME.OTHER);
+    }
+    maskValidator = validator;
+  }
+
+  @Override
+  public final Sequence bestSequence(final String[] sequence,
+      final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    if (validator != maskValidator) {
+      compileMasks(validator);
+    }
+    Object[] context = additionalContext == null ? EMPTY_ADDITIONAL_CONTEXT
+        : additionalContext;
+    int length = sequence.length;
+    int numOutcomes = outcomes.length;
+    if (length == 0) {
+      return new Sequence();
+    }
+    // best log score of a path ending in each outcome, with its last
+    // probability and the previous outcome of the path
+    double[] delta = new double[numOutcomes];
+    double[] next = new double[numOutcomes];
+    double[][] lastProbs = new double[length][numOutcomes];
+    int[][] back = new int[length][numOutcomes];
+    Integer[] order = new Integer[numOutcomes];
+
+    String[] contexts = contextGenerator.getContext(0, sequence, new String[0], context);
+    double[] scores = model.eval(contexts, probs);
+    boolean[] valid = startMask;
+    if (!any(valid)) {
+      valid = allOutcomes(numOutcomes);
+    }
+    for (int cur = 0; cur < numOutcomes; cur++) {
+      delta[cur] = valid[cur] ? Math.log(scores[cur]) : Double.NEGATIVE_INFINITY;
+      lastProbs[0][cur] = scores[cur];
+      back[0][cur] = -1;
+    }
+    for (int i = 1; i < length; i++) {
+      Arrays.fill(next, Double.NEGATIVE_INFINITY);
+      int states = sortStates(delta, order);
+      String[] history = new String[i];
+      for (int k = 0; k < states; k++) {
+        int prev = order[k];
+        boolean[] transitions = transitionMask[prev];
+        if (k > 0 && !improves(delta[prev], transitions, next)) {
+          continue;
+        }
+        fillHistory(history, back, prev);
+        contexts = contextGenerator.getContext(i, sequence, history, context);
+        scores = model.eval(contexts, probs);
+        for (int cur = 0; cur < numOutcomes; cur++) {
+          if (transitions[cur]) {
+            double score = delta[prev] + Math.log(scores[cur]);
+            if (score > next[cur]) {
+              next[cur] = score;
+              lastProbs[i][cur] = scores[cur];
+              back[i][cur] = prev;
+            }
+          }
+        }
+        if (!any(transitions)) {
+          // no valid transition, take every outcome rather than drop the path
+          for (int cur = 0; cur < numOutcomes; cur++) {
+            double score = delta[prev] + Math.log(scores[cur]);
+            if (score > next[cur]) {
+              next[cur] = score;
+              lastProbs[i][cur] = scores[cur];
+              back[i][cur] = prev;
+            }
+          }
+        }
+      }
+      double[] swap = delta;
+      delta = next;
+      next = swap;
+    }
+    int last = best(delta, endMask);
+    if (last < 0) {
+      last = best(delta, allOutcomes(numOutcomes));
+    }
+    int[] path = new int[length];
+    path[length - 1] = last;
+    for (int i = length - 1; i > 0; i--) {
+      path[i - 1] = back[i][path[i]];
+    }
+    Sequence best = new Sequence();
+    for (int i = 0; i < length; i++) {
+      best = new Sequence(best, outcomes[path[i]], lastProbs[i][path[i]]);
+    }
+    return best;
+  }
+
+  /**
+   * Sort the reachable states by their descending score.
+   *
+   * @return the number of reachable states
+   */
+  private static int sortStates(final double[] delta, final Integer[] order) {
+    int states = 0;
+    for (int s = 0; s < delta.length; s++) {
+      if (delta[s] != Double.NEGATIVE_INFINITY) {
+        order[states++] = s;
+      }
+    }
+    Arrays.sort(order, 0, states, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer a, final Integer b) {
+        return Double.compare(delta[b], delta[a]);
+      }
+    });
+    return states;
+  }
+
+  /**
+   * Whether a state may improve the best path into any of the outcomes it
+   * can be followed by. The log probabilities are not positive, so a state
+   * whose score is not above those paths cannot improve them, and it is not
+   * evaluated at all.
+   */
+  private static boolean improves(final double score, final boolean[] transitions,
+      final double[] next) {
+    boolean any = false;
+    for (int cur = 0; cur < next.length; cur++) {
+      if (transitions[cur]) {
+        any = true;
+        if (score > next[cur]) {
+          return true;
+        }
+      }
+    }
+    return !any;
+  }
+
+  /**
+   * Write the outcomes of the best path into a state.
+   */
+  private void fillHistory(final String[] history, final int[][] back,
+      final int state) {
+    int outcome = state;
+    for (int i = history.length - 1; i >= 0; i--) {
+      history[i] = outcomes[outcome];
+      outcome = back[i][outcome];
+    }
+  }
+
+  private static int best(final double[] delta, final boolean[] mask) {
+    int best = -1;
+    for (int s = 0; s < delta.length; s++) {
+      if (mask[s] && delta[s] != Double.NEGATIVE_INFINITY
+          && (best < 0 || delta[s] > delta[best])) {
+        best = s;
+      }
+    }
+    return best;
+  }
+
+  private static boolean any(final boolean[] mask) {
+    for (boolean allowed : mask) {
+      if (allowed) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean[] allOutcomes(final int numOutcomes) {
+    boolean[] mask = new boolean[numOutcomes];
+    Arrays.fill(mask, true);
+    return mask;
+  }
+
+  @Override
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final double minSequenceScore,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    return beam.bestSequences(numSequences, sequence, additionalContext,
+        minSequenceScore, contextGenerator, validator);
+  }
+
+  @Override
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    return beam.bestSequences(numSequences, sequence, additionalContext,
+        contextGenerator, validator);
+  }
+
+  @Override
+  public final String[] getOutcomes() {
+    return beam.getOutcomes();
+  }
+}
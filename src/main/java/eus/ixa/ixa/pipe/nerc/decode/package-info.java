@@ -0,0 +1,6 @@
+/**
+ * Classes to tag with compiled versions of the trained NERC models.
+ * @author ragerri
+ *
+ */
+package eus.ixa.ixa.pipe.nerc.decode;
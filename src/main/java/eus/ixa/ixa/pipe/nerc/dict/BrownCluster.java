@@ -45,7 +45,7 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2014/09/29
  * 
  */
-public class BrownCluster implements SerializableArtifact {
+public class BrownCluster extends LazyResource implements SerializableArtifact {
   
   private static final Pattern tabPattern = Pattern.compile("\t");
 
@@ -53,7 +53,7 @@ public class BrownCluster implements SerializableArtifact {
 
     public BrownCluster create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new BrownCluster(in);
+      return ResourceRegistry.share(new BrownCluster(in));
     }
 
     public void serialize(BrownCluster artifact, OutputStream out)
@@ -64,13 +64,24 @@ public class BrownCluster implements SerializableArtifact {
   
   private Map<String, String> tokenToClusterMap = new HashMap<>();
 
+  /**
+   * Reads the Brown cluster input file; the token to cluster map is built on
+   * the first look-up.
+   * @param in the inputstream
+   * @throws IOException the io exception
+   */
+  public BrownCluster(InputStream in) throws IOException {
+    super(in);
+  }
+
   /**
    * Generates the token to cluster map from Brown cluster input file.
    * NOTE: we only add those tokens with frequency larger than 5.
    * @param in the inputstream
    * @throws IOException the io exception
    */
-  public BrownCluster(InputStream in) throws IOException {
+  @Override
+  protected void load(InputStream in) throws IOException {
 
     BufferedReader breader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
     String line;
@@ -96,10 +107,17 @@ public class BrownCluster implements SerializableArtifact {
    * @return the brown class if such token is in the brown cluster map
    */
   public String lookupToken(String string) {
+    ensureLoaded();
     return tokenToClusterMap.get(string);
   }
 
+  @Override
+  protected int countEntries() {
+    return tokenToClusterMap.size();
+  }
+
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
 
     for (Map.Entry<String, String> entry : tokenToClusterMap.entrySet()) {
@@ -46,7 +46,7 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2014/07/29
  * 
  */
-public class ClarkCluster implements SerializableArtifact {
+public class ClarkCluster extends LazyResource implements SerializableArtifact {
 
   private static final Pattern spacePattern = Pattern.compile(" ");
   /**
@@ -58,7 +58,7 @@ public class ClarkCluster implements SerializableArtifact {
 
     public ClarkCluster create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new ClarkCluster(in);
+      return ResourceRegistry.share(new ClarkCluster(in));
     }
 
     public void serialize(ClarkCluster artifact, OutputStream out)
@@ -69,7 +69,18 @@ public class ClarkCluster implements SerializableArtifact {
   
   private Map<String, String> tokenToClusterMap = new HashMap<>();
 
+  /**
+   * Reads the cluster lexicon; the token to cluster map is built on the
+   * first look-up.
+   * @param in the input stream
+   * @throws IOException the io exception
+   */
   public ClarkCluster(InputStream in) throws IOException {
+    super(in);
+  }
+
+  @Override
+  protected void load(InputStream in) throws IOException {
 
     BufferedReader breader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
     String line;
@@ -87,14 +98,22 @@ public class ClarkCluster implements SerializableArtifact {
   }
 
   public String lookupToken(String string) {
+    ensureLoaded();
     return tokenToClusterMap.get(string);
   }
   
   public Map<String, String> getMap() {
+    ensureLoaded();
     return tokenToClusterMap;
   }
 
+  @Override
+  protected int countEntries() {
+    return tokenToClusterMap.size();
+  }
+
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
 
     for (Map.Entry<String, String> entry : tokenToClusterMap.entrySet()) {
@@ -45,35 +45,47 @@ public class Dictionaries {
   private static final Pattern tabPattern = Pattern.compile("\t");
 
   public static boolean DEBUG = false;
+  /**
+   * The instance which loaded the directory, registered in the
+   * {@link ResourceRegistry}; it is referenced by every instance sharing its
+   * dictionaries, so that it is released once none of them is used.
+   */
+  private Dictionaries loaded;
   /**
    * The list of dictionary names.
    */
-  private static List<String> dictNames;
+  private List<String> dictNames;
   /**
    * The list of dictionaries as HashMap<String, String>.
    */
-  private static List<Map<String, String>> dictionaries;
+  private List<Map<String, String>> dictionaries;
   /**
    * The list of lowercase dictionaries as HashMap<String, String>.
    */
-  private static List<Map<String, String>> dictionariesIgnoreCase;
+  private List<Map<String, String>> dictionariesIgnoreCase;
 
   /**
-   * Construct the dictionaries from the input directory path.
+   * Construct the dictionaries from the input directory path. A directory
+   * is only loaded once while any model uses it, through the
+   * {@link ResourceRegistry}.
    * 
    * @param inputDir
    *          the input directory
+   * @throws IOException
+   *           if the dictionaries cannot be read; nothing is registered
    */
-  public Dictionaries(final String inputDir) {
-    if (dictNames == null && dictionaries == null
-        && dictionariesIgnoreCase == null) {
-      try {
+  public Dictionaries(final String inputDir) throws IOException {
+    String key = Dictionaries.class.getName() + "@" + new File(inputDir).getCanonicalPath();
+    synchronized (Dictionaries.class) {
+      loaded = ResourceRegistry.get(key, Dictionaries.class);
+      if (loaded == null) {
         loadDictionaries(inputDir);
-      } catch (IOException e) {
-        e.getMessage();
+        loaded = ResourceRegistry.share(key, this);
       }
     }
-
+    dictNames = loaded.dictNames;
+    dictionaries = loaded.dictionaries;
+    dictionariesIgnoreCase = loaded.dictionariesIgnoreCase;
   }
 
   /**
@@ -45,7 +45,7 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2015-03-30
  * 
  */
-public class Dictionary implements SerializableArtifact {
+public class Dictionary extends LazyResource implements SerializableArtifact {
   
   private static final Pattern tabPattern = Pattern.compile("\t");
 
@@ -53,7 +53,7 @@ public class Dictionary implements SerializableArtifact {
 
     public Dictionary create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new Dictionary(in);
+      return ResourceRegistry.share(new Dictionary(in));
     }
 
     public void serialize(Dictionary artifact, OutputStream out)
@@ -64,7 +64,17 @@ public class Dictionary implements SerializableArtifact {
   
   private Map<String, String> dictionary = new HashMap<>();
 
+  /**
+   * Reads the dictionary; the look-up map is built on the first look-up.
+   * @param in the input stream
+   * @throws IOException the io exception
+   */
   public Dictionary(InputStream in) throws IOException {
+    super(in);
+  }
+
+  @Override
+  protected void load(InputStream in) throws IOException {
 
     BufferedReader breader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
     String line;
@@ -84,6 +94,7 @@ public class Dictionary implements SerializableArtifact {
    * @return the string found
    */
   public String lookup(String string) {
+    ensureLoaded();
     return dictionary.get(string);
   }
   
@@ -92,6 +103,12 @@ public class Dictionary implements SerializableArtifact {
    * @return maximum token count in the dictionary
    */
   public int getMaxTokenCount() {
+    ensureLoaded();
+    return dictionary.size();
+  }
+
+  @Override
+  protected int countEntries() {
     return dictionary.size();
   }
   
@@ -100,6 +117,7 @@ public class Dictionary implements SerializableArtifact {
    * @return the dictionary map
    */
   public final Map<String, String> getDict() {
+    ensureLoaded();
     return dictionary;
   }
   
@@ -214,6 +232,7 @@ public class Dictionary implements SerializableArtifact {
   }
 
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
     for (Entry<String, String> entry : dictionary.entrySet()) {
         writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
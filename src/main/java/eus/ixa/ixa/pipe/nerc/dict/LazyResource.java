@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc.dict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Base class for the resources used by the feature generators. The artifact
+ * is only read as raw bytes when it is created; the look-up structures are
+ * built on the first call to any of the look-up methods. Resources that a
+ * given run never queries thus cost no more than their raw size, and loading
+ * a model or starting a trainer does not wait for every lexicon to be parsed.
+ *
+ * @author ragerri
+ * @version 2016-07-20
+ */
+public abstract class LazyResource {
+
+  /**
+   * Rough per entry overhead of a HashMap entry holding two Strings.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+  /**
+   * The raw content of the resource until it is parsed.
+   */
+  private byte[] rawData;
+  /**
+   * The size in bytes of the raw content.
+   */
+  private final long rawSize;
+  /**
+   * The digest of the raw content, used to share identical resources.
+   */
+  private final String digest;
+  /**
+   * Whether the raw content has already been parsed.
+   */
+  private volatile boolean loaded = false;
+
+  /**
+   * Read the raw content of a resource; parsing is delayed until the
+   * first look-up.
+   * @param in the input stream
+   * @throws IOException if io errors
+   */
+  protected LazyResource(final InputStream in) throws IOException {
+    this.rawData = ByteStreams.toByteArray(in);
+    this.rawSize = rawData.length;
+    this.digest = Hashing.murmur3_128().hashBytes(rawData).toString();
+  }
+
+  /**
+   * Parse the raw content of the resource.
+   * @param in the input stream of the raw content
+   * @throws IOException if io errors
+   */
+  protected abstract void load(InputStream in) throws IOException;
+
+  /**
+   * Get the number of entries in the resource once parsed.
+   * @return the number of entries
+   */
+  protected abstract int countEntries();
+
+  /**
+   * Parse the resource if it has not been done yet. Every look-up method of
+   * the subclasses needs to call this method first.
+   */
+  protected final void ensureLoaded() {
+    if (!loaded) {
+      synchronized (this) {
+        if (!loaded) {
+          long lStartTime = System.currentTimeMillis();
+          try {
+            load(new ByteArrayInputStream(rawData));
+          } catch (IOException e) {
+            throw new IllegalStateException("Could not parse resource "
+                + getClass().getSimpleName(), e);
+          }
+          rawData = null;
+          loaded = true;
+          long difference = System.currentTimeMillis() - lStartTime;
+          System.err.println("-> " + getClass().getSimpleName() + " parsed in "
+              + difference + " miliseconds");
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if the resource has already been parsed.
+   * @return true if the look-up structures have been built
+   */
+  public final boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Get the size of the raw content of the resource.
+   * @return the size in bytes
+   */
+  public final long getRawSize() {
+    return rawSize;
+  }
+
+  /**
+   * Get the digest of the raw content of the resource.
+   * @return the digest as an hexadecimal string
+   */
+  public final String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Get the number of entries of the resource; zero until it is parsed.
+   * @return the number of entries
+   */
+  public final int getEntries() {
+    return loaded ? countEntries() : 0;
+  }
+
+  /**
+   * Estimate the heap used by the resource. Before parsing this is the raw
+   * content; afterwards it is a rough estimate of the look-up structures,
+   * namely a fixed overhead per entry plus the characters of the content.
+   * @return the estimated memory in bytes
+   */
+  public long getMemoryEstimate() {
+    if (!loaded) {
+      return rawSize;
+    }
+    return (long) countEntries() * ENTRY_OVERHEAD + 2 * rawSize;
+  }
+
+  /**
+   * Print the memory accounting of every lazy resource in a resources map.
+   * @param resources the map from resource id to resource
+   * @return the report, one line per resource
+   */
+  public static String getMemoryReport(final Map<String, Object> resources) {
+    StringBuilder sb = new StringBuilder();
+    long total = 0;
+    for (Map.Entry<String, Object> entry : resources.entrySet()) {
+      if (entry.getValue() instanceof LazyResource) {
+        LazyResource resource = (LazyResource) entry.getValue();
+        long memory = resource.getMemoryEstimate();
+        total += memory;
+        sb.append(entry.getKey()).append("\t")
+            .append(resource.getClass().getSimpleName()).append("\t")
+            .append(resource.isLoaded() ? "loaded" : "pending").append("\t")
+            .append(resource.getEntries()).append(" entries\t")
+            .append(memory / 1024).append(" KB\n");
+      }
+    }
+    sb.append("total\t").append(total / 1024).append(" KB\n");
+    return sb.toString();
+  }
+}
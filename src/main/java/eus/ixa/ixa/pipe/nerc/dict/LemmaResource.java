@@ -40,7 +40,7 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2015-03-11
  * 
  */
-public class LemmaResource implements SerializableArtifact {
+public class LemmaResource extends LazyResource implements SerializableArtifact {
 
   private static final Pattern spacePattern = Pattern.compile("\t");
   
@@ -48,7 +48,7 @@ public class LemmaResource implements SerializableArtifact {
 
     public LemmaResource create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new LemmaResource(in);
+      return ResourceRegistry.share(new LemmaResource(in));
     }
 
     public void serialize(LemmaResource artifact, OutputStream out)
@@ -63,11 +63,21 @@ public class LemmaResource implements SerializableArtifact {
   private HashMap<List<String>, String> dictMap;
   
   /**
-   * Build the Lemma Dictionary.
+   * Read the Lemma Dictionary; it is built on the first look-up.
    * @param in the input stream
    * @throws IOException the io exception
    */
   public LemmaResource(InputStream in) throws IOException {
+    super(in);
+  }
+
+  /**
+   * Build the Lemma Dictionary.
+   * @param in the input stream
+   * @throws IOException the io exception
+   */
+  @Override
+  protected void load(InputStream in) throws IOException {
     dictMap = new HashMap<>();
     BufferedReader breader = new BufferedReader(new InputStreamReader(
         in));
@@ -89,6 +99,7 @@ public class LemmaResource implements SerializableArtifact {
    * @return the lemma
    */
   public String lookUpLemma(String word, String postag) {
+    ensureLoaded();
     String lemma = null;
     String constantTag = "NNP";
     List<String> keys = this.getDictKeys(word, postag);
@@ -143,7 +154,13 @@ public class LemmaResource implements SerializableArtifact {
     return keys;
   }
   
+  @Override
+  protected int countEntries() {
+    return dictMap.size();
+  }
+
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
 
     for (Map.Entry<List<String>, String> entry : dictMap.entrySet()) {
@@ -49,7 +49,7 @@ import com.google.common.collect.TreeMultimap;
  * @version 2015-03-30
  * 
  */
-public class MFSResource implements SerializableArtifact {
+public class MFSResource extends LazyResource implements SerializableArtifact {
 
   private static final Pattern spacePattern = Pattern.compile("\t");
   
@@ -57,7 +57,7 @@ public class MFSResource implements SerializableArtifact {
 
     public MFSResource create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new MFSResource(in);
+      return ResourceRegistry.share(new MFSResource(in));
     }
 
     public void serialize(MFSResource artifact, OutputStream out)
@@ -72,11 +72,21 @@ public class MFSResource implements SerializableArtifact {
   private ListMultimap<String, String> multiMap = ArrayListMultimap.create();
   
   /**
-   * Build the MFS Dictionary.
+   * Read the MFS Dictionary; it is built on the first look-up.
    * @param in the input stream
    * @throws IOException the io exception
    */
   public MFSResource(InputStream in) throws IOException {
+    super(in);
+  }
+
+  /**
+   * Build the MFS Dictionary.
+   * @param in the input stream
+   * @throws IOException the io exception
+   */
+  @Override
+  protected void load(InputStream in) throws IOException {
     BufferedReader breader = new BufferedReader(new InputStreamReader(
         in));
     String line;
@@ -242,6 +252,7 @@ public class MFSResource implements SerializableArtifact {
    * @return the ordered multimap of senses
    */
   public TreeMultimap<Integer, String> getOrderedMap(String lemmaPOSClass) {
+    ensureLoaded();
     List<String> mfsList = multiMap.get(lemmaPOSClass);
     TreeMultimap<Integer, String> mfsMap = TreeMultimap.create(Ordering.natural().reverse(), Ordering.natural());
     if (!mfsList.isEmpty()) {
@@ -291,12 +302,18 @@ public class MFSResource implements SerializableArtifact {
   }
  
   
+  @Override
+  protected int countEntries() {
+    return multiMap.size();
+  }
+
   /**
    * Serialize the lexicon in the original format.
    * @param out the output stream
    * @throws IOException if io errors
    */
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
 
     for (Map.Entry<String, String> entry : multiMap.entries()) {
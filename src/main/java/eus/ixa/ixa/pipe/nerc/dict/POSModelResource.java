@@ -17,11 +17,13 @@
 package eus.ixa.ixa.pipe.nerc.dict;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.zip.ZipInputStream;
 
 import opennlp.tools.postag.POSModel;
 import opennlp.tools.postag.POSTaggerME;
@@ -29,6 +31,7 @@ import opennlp.tools.util.InvalidFormatException;
 import opennlp.tools.util.model.ArtifactSerializer;
 import opennlp.tools.util.model.SerializableArtifact;
 
+import com.google.common.io.ByteStreams;
 
 
 /**
@@ -40,13 +43,13 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2015-10-03
  * 
  */
-public class POSModelResource implements SerializableArtifact {
+public class POSModelResource extends LazyResource implements SerializableArtifact {
   
   public static class POSModelResourceSerializer implements ArtifactSerializer<POSModelResource> {
 
     public POSModelResource create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new POSModelResource(in);
+      return ResourceRegistry.share(new POSModelResource(in));
     }
 
     public void serialize(POSModelResource artifact, OutputStream out)
@@ -60,18 +63,69 @@ public class POSModelResource implements SerializableArtifact {
    */
   private POSModel posModel;
   /**
-   * The POS tagger.
+   * The uncompressed size of the serialized POS model.
    */
-  private POSTaggerME posTagger;
+  private long modelSize;
+  /**
+   * The POS tagger of each thread; the model is shared by every model using
+   * this resource but {@link POSTaggerME} is not thread safe.
+   */
+  private final ThreadLocal<POSTaggerME> posTagger = new ThreadLocal<POSTaggerME>() {
+    @Override
+    protected POSTaggerME initialValue() {
+      return new POSTaggerME(posModel);
+    }
+  };
   
   /**
-   * Construct the POSModelResource from the inputstream.
+   * Construct the POSModelResource from the inputstream. The POS model is
+   * deserialized on the first call to {@link #posTag(String[])}.
    * @param in the input stream
    * @throws IOException io exception
    */
   public POSModelResource(InputStream in) throws IOException {
-    posModel = new POSModel(in);
-    posTagger = new POSTaggerME(posModel);
+    super(in);
+  }
+
+  @Override
+  protected void load(InputStream in) throws IOException {
+    byte[] model = ByteStreams.toByteArray(in);
+    modelSize = getUncompressedSize(model);
+    posModel = new POSModel(new ByteArrayInputStream(model));
+  }
+
+  /**
+   * Get the size of the artifacts of a serialized model once uncompressed.
+   * @param model the serialized model
+   * @return the size in bytes
+   * @throws IOException if io errors
+   */
+  private static long getUncompressedSize(byte[] model) throws IOException {
+    long size = 0;
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(model))) {
+      while (zip.getNextEntry() != null) {
+        size += ByteStreams.copy(zip, ByteStreams.nullOutputStream());
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Get the number of POS tags of the model.
+   */
+  @Override
+  protected int countEntries() {
+    return posModel.getPosSequenceModel().getOutcomes().length;
+  }
+
+  /**
+   * Estimate the heap used by the POS model from its serialized size: the
+   * parsed model takes about the size of its uncompressed artifacts, which
+   * the estimate per entry of the lexicons does not describe.
+   */
+  @Override
+  public long getMemoryEstimate() {
+    return isLoaded() ? Math.max(modelSize, getRawSize()) : getRawSize();
   }
   
   /**
@@ -80,7 +134,8 @@ public class POSModelResource implements SerializableArtifact {
    * @return the array containing the pos tags
    */
   public String[] posTag(String[] tokens) {
-    String[] posTags = posTagger.tag(tokens);
+    ensureLoaded();
+    String[] posTags = posTagger.get().tag(tokens);
     return posTags;
   }
   
@@ -90,6 +145,7 @@ public class POSModelResource implements SerializableArtifact {
    * @throws IOException io exception
    */
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
     posModel.serialize(out);
 
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc.dict;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the resources loaded in this JVM. Resources with identical
+ * content, e.g., the same Brown cluster file packaged in several models, are
+ * deduplicated so that every model shares a single instance; resources read
+ * from disk, e.g., the {@link Dictionaries} of a directory, are shared by
+ * location. The registry only keeps weak references: a resource is released
+ * once no model uses it.
+ *
+ * @author ragerri
+ * @version 2016-07-21
+ */
+public final class ResourceRegistry {
+
+  /**
+   * The shared resources, keyed by resource class and content digest.
+   */
+  private static final Map<String, WeakReference<Object>> resources = new ConcurrentHashMap<>();
+
+  /**
+   * This class is not to be instantiated.
+   */
+  private ResourceRegistry() {
+  }
+
+  /**
+   * Get the shared instance of a resource. If a resource of the same class
+   * and content has already been registered, that instance is returned;
+   * otherwise the given resource is registered and returned.
+   *
+   * @param resource
+   *          the freshly read resource
+   * @param <T>
+   *          the resource type
+   * @return the shared resource
+   */
+  public static <T extends LazyResource> T share(final T resource) {
+    return share(resource.getClass().getName() + "@" + resource.getDigest(), resource);
+  }
+
+  /**
+   * Get the shared instance of a resource registered under a key, e.g., its
+   * location. If a resource has already been registered under that key, that
+   * instance is returned; otherwise the given resource is registered and
+   * returned.
+   *
+   * @param key
+   *          the key of the resource
+   * @param resource
+   *          the freshly read resource
+   * @param <T>
+   *          the resource type
+   * @return the shared resource
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T share(final String key, final T resource) {
+    synchronized (resources) {
+      WeakReference<Object> reference = resources.get(key);
+      Object shared = reference == null ? null : reference.get();
+      if (shared != null) {
+        return (T) shared;
+      }
+      resources.put(key, new WeakReference<Object>(resource));
+      purge();
+    }
+    return resource;
+  }
+
+  /**
+   * Get the resource registered under a key, if it is still in use.
+   *
+   * @param key
+   *          the key of the resource
+   * @param type
+   *          the resource type
+   * @param <T>
+   *          the resource type
+   * @return the shared resource or null if there is none
+   */
+  public static <T> T get(final String key, final Class<T> type) {
+    synchronized (resources) {
+      WeakReference<Object> reference = resources.get(key);
+      return reference == null ? null : type.cast(reference.get());
+    }
+  }
+
+  /**
+   * Get the number of resources currently shared.
+   * @return the number of live resources
+   */
+  public static int size() {
+    synchronized (resources) {
+      purge();
+      return resources.size();
+    }
+  }
+
+  /**
+   * Remove the entries of the resources already garbage collected.
+   */
+  private static void purge() {
+    Iterator<WeakReference<Object>> iterator = resources.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().get() == null) {
+        iterator.remove();
+      }
+    }
+  }
+}
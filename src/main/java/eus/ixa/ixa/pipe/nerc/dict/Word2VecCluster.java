@@ -47,7 +47,7 @@ import opennlp.tools.util.model.SerializableArtifact;
  * @version 2014/07/29
  * 
  */
-public class Word2VecCluster implements SerializableArtifact {
+public class Word2VecCluster extends LazyResource implements SerializableArtifact {
 
   private static final Pattern spacePattern = Pattern.compile(" ");
   
@@ -55,7 +55,7 @@ public class Word2VecCluster implements SerializableArtifact {
 
     public Word2VecCluster create(InputStream in) throws IOException,
         InvalidFormatException {
-      return new Word2VecCluster(in);
+      return ResourceRegistry.share(new Word2VecCluster(in));
     }
 
     public void serialize(Word2VecCluster artifact, OutputStream out)
@@ -66,7 +66,18 @@ public class Word2VecCluster implements SerializableArtifact {
   
   private Map<String, String> tokenToClusterMap = new HashMap<>();
   
+  /**
+   * Reads the cluster lexicon; the token to cluster map is built on the
+   * first look-up.
+   * @param in the input stream
+   * @throws IOException the io exception
+   */
   public Word2VecCluster(InputStream in) throws IOException {
+    super(in);
+  }
+
+  @Override
+  protected void load(InputStream in) throws IOException {
 
     BufferedReader breader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
     String line;
@@ -80,14 +91,22 @@ public class Word2VecCluster implements SerializableArtifact {
   }
   
   public String lookupToken(String string) {
+    ensureLoaded();
     return tokenToClusterMap.get(string);
   }
   
   public Map<String, String> getMap() {
+    ensureLoaded();
     return tokenToClusterMap;
   }
 
+  @Override
+  protected int countEntries() {
+    return tokenToClusterMap.size();
+  }
+
   public void serialize(OutputStream out) throws IOException {
+    ensureLoaded();
     Writer writer = new BufferedWriter(new OutputStreamWriter(out));
 
     for (Map.Entry<String, String> entry : tokenToClusterMap.entrySet()) {
@@ -18,25 +18,38 @@ package eus.ixa.ixa.pipe.nerc.eval;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import opennlp.tools.cmdline.namefind.NameEvaluationErrorListener;
 import opennlp.tools.cmdline.namefind.TokenNameFinderDetailedFMeasureListener;
 import opennlp.tools.namefind.BilouCodec;
 import opennlp.tools.namefind.BioCodec;
+import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.NameSample;
 import opennlp.tools.namefind.NameSampleTypeFilter;
 import opennlp.tools.namefind.TokenNameFinderCrossValidator;
 import opennlp.tools.namefind.TokenNameFinderEvaluationMonitor;
+import opennlp.tools.namefind.TokenNameFinderEvaluator;
 import opennlp.tools.namefind.TokenNameFinderFactory;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.CollectionObjectStream;
 import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.SequenceCodec;
+import opennlp.tools.util.Span;
 import opennlp.tools.util.TrainingParameters;
 import opennlp.tools.util.eval.EvaluationMonitor;
+import opennlp.tools.util.eval.FMeasure;
 import eus.ixa.ixa.pipe.nerc.features.XMLFeatureDescriptor;
 import eus.ixa.ixa.pipe.nerc.train.AbstractTrainer;
+import eus.ixa.ixa.pipe.nerc.train.EventCache;
 import eus.ixa.ixa.pipe.nerc.train.FixedTrainer;
 import eus.ixa.ixa.pipe.nerc.train.Flags;
 
@@ -68,6 +81,10 @@ public class CrossValidator {
    * The folds value for cross validation.
    */
   private int folds;
+  /**
+   * The number of folds trained and evaluated concurrently.
+   */
+  private int foldThreads;
   /**
    * The sequence encoding of the named entity spans, e.g., BIO or BILOU.
    */
@@ -80,6 +97,18 @@ public class CrossValidator {
    * features needs to be implemented by any class extending this one.
    */
   private TokenNameFinderFactory nameClassifierFactory;
+  /**
+   * The feature descriptor, to create a factory for each parallel fold.
+   */
+  private byte[] featureGeneratorBytes;
+  /**
+   * The resources, loaded once and shared by every fold.
+   */
+  private Map<String, Object> resources;
+  /**
+   * The cache of the training events of the folds, or null.
+   */
+  private EventCache eventCache;
   /**
    * The evaluation listeners.
    */
@@ -93,9 +122,11 @@ public class CrossValidator {
     String clearFeatures = Flags.getClearTrainingFeatures(params);
     this.corpusFormat = Flags.getCorpusFormat(params);
     this.trainData = params.getSettings().get("TrainSet");
-    trainSamples = AbstractTrainer.getNameStream(trainData, clearFeatures, corpusFormat);
+    trainSamples = AbstractTrainer.getNameStream(trainData, clearFeatures, corpusFormat,
+        Flags.isCorpusIndex(params));
     this.beamSize = Flags.getBeamsize(params);
     this.folds = Flags.getFolds(params);
+    this.foldThreads = Flags.getFoldThreads(params);
     this.sequenceCodec =  TokenNameFinderFactory.instantiateSequenceCodec(getSequenceCodec(Flags.getSequenceCodec(params)));
     if (params.getSettings().get("Types") != null) {
       String netypes = params.getSettings().get("Types");
@@ -110,12 +141,16 @@ public class CrossValidator {
     String featureDescription = XMLFeatureDescriptor
         .createXMLFeatureDescriptor(params);
     System.err.println(featureDescription);
-    byte[] featureGeneratorBytes = featureDescription.getBytes(Charset
+    featureGeneratorBytes = featureDescription.getBytes(Charset
         .forName("UTF-8"));
-    Map<String, Object> resources = FixedTrainer.loadResources(params, featureGeneratorBytes);
+    resources = FixedTrainer.loadResources(params, featureGeneratorBytes);
     this.nameClassifierFactory = TokenNameFinderFactory.create(
         TokenNameFinderFactory.class.getName(), featureGeneratorBytes,
         resources, sequenceCodec);
+    if (Flags.isEventCache(params)) {
+      eventCache = new EventCache(Flags.getEventCache(params), featureGeneratorBytes,
+          resources, getSequenceCodec(Flags.getSequenceCodec(params)));
+    }
   }
   
   private void getEvalListeners(TrainingParameters params) {
@@ -133,12 +168,17 @@ public class CrossValidator {
       throw new IllegalStateException(
           "Classes derived from AbstractNameFinderTrainer must create and fill the AdaptiveFeatureGenerator features!");
     }
-    TokenNameFinderCrossValidator validator = null;
+    FMeasure fmeasure = null;
     try {
-      validator = new TokenNameFinderCrossValidator(lang,
-          null, params, nameClassifierFactory,
-          listeners.toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]));
-      validator.evaluate(trainSamples, folds);
+      if (foldThreads > 1 || eventCache != null) {
+        fmeasure = parallelEvaluate(params);
+      } else {
+        TokenNameFinderCrossValidator validator = new TokenNameFinderCrossValidator(lang,
+            null, params, nameClassifierFactory,
+            listeners.toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]));
+        validator.evaluate(trainSamples, folds);
+        fmeasure = validator.getFMeasure();
+      }
     } catch (IOException e) {
       System.err.println("IO error while loading training set!");
       e.printStackTrace();
@@ -151,12 +191,134 @@ public class CrossValidator {
       }
     }
     if (detailedFListener == null) {
-      System.out.println(validator.getFMeasure());
+      System.out.println(fmeasure);
     } else {
       System.out.println(detailedFListener.toString());
     }
   }
   
+  /**
+   * Train and evaluate the folds concurrently. As in
+   * {@link TokenNameFinderCrossValidator}, the samples are grouped into
+   * documents at the clear adaptive data marks and the n-th document is
+   * tested in fold n modulo the number of folds. Each fold records the names
+   * predicted for its test samples; once every fold is done, the predictions
+   * are replayed fold by fold through the evaluator and the listeners, so
+   * that the results and the listener output do not depend on the order in
+   * which the folds finish. It is also used with a single thread when the
+   * training events are cached, since {@link TokenNameFinderCrossValidator}
+   * always builds them.
+   * 
+   * @param params
+   *          the training parameters
+   * @return the F measure of every fold merged
+   * @throws IOException
+   *           if the samples cannot be read or a fold fails
+   */
+  private FMeasure parallelEvaluate(final TrainingParameters params)
+      throws IOException {
+    final List<List<NameSample>> documents = new ArrayList<>();
+    NameSample sample;
+    while ((sample = trainSamples.read()) != null) {
+      if (sample.isClearAdaptiveDataSet() || documents.isEmpty()) {
+        documents.add(new ArrayList<NameSample>());
+      }
+      documents.get(documents.size() - 1).add(sample);
+    }
+    ExecutorService foldPool = Executors.newFixedThreadPool(Math.min(foldThreads, folds));
+    List<Future<List<Span[]>>> predictions = new ArrayList<>();
+    for (int fold = 0; fold < folds; fold++) {
+      final int testFold = fold;
+      predictions.add(foldPool.submit(new Callable<List<Span[]>>() {
+        @Override
+        public List<Span[]> call() throws IOException {
+          return runFold(params, documents, testFold);
+        }
+      }));
+    }
+    foldPool.shutdown();
+    FMeasure fmeasure = new FMeasure();
+    TokenNameFinderEvaluationMonitor[] monitors = listeners
+        .toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]);
+    try {
+      for (int fold = 0; fold < folds; fold++) {
+        TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(
+            new RecordedNameFinder(predictions.get(fold).get()), monitors);
+        evaluator.evaluate(new CollectionObjectStream<>(getFoldSamples(
+            documents, fold, true)));
+        fmeasure.mergeInto(evaluator.getFMeasure());
+        System.err.println("-> fold " + (fold + 1) + " of " + folds + ": "
+            + evaluator.getFMeasure().getFMeasure());
+      }
+    } catch (InterruptedException e) {
+      foldPool.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IOException("Cross validation interrupted", e);
+    } catch (ExecutionException e) {
+      foldPool.shutdownNow();
+      throw new IOException("Cross validation fold failed: " + e.getCause(), e.getCause());
+    }
+    return fmeasure;
+  }
+
+  /**
+   * Train a fold and predict the names of its test samples.
+   * 
+   * @param params
+   *          the training parameters
+   * @param documents
+   *          the documents of the training data
+   * @param testFold
+   *          the fold to test
+   * @return the names predicted for every test sample
+   * @throws IOException
+   *           if training fails
+   */
+  private List<Span[]> runFold(final TrainingParameters params,
+      final List<List<NameSample>> documents, final int testFold)
+      throws IOException {
+    // the factory is initialized by the model, so each fold needs its own
+    TokenNameFinderFactory foldFactory = TokenNameFinderFactory.create(
+        TokenNameFinderFactory.class.getName(), featureGeneratorBytes,
+        resources, sequenceCodec);
+    ObjectStream<NameSample> foldSamples = new CollectionObjectStream<>(
+        getFoldSamples(documents, testFold, false));
+    TokenNameFinderModel model = eventCache == null
+        ? NameFinderME.train(lang, null, foldSamples, params, foldFactory)
+        : eventCache.train(lang, foldSamples, params, foldFactory);
+    NameFinderME nameFinder = new NameFinderME(model);
+    List<Span[]> predicted = new ArrayList<>();
+    for (NameSample testSample : getFoldSamples(documents, testFold, true)) {
+      if (testSample.isClearAdaptiveDataSet()) {
+        nameFinder.clearAdaptiveData();
+      }
+      predicted.add(nameFinder.find(testSample.getSentence()));
+    }
+    return predicted;
+  }
+
+  /**
+   * Get the test or the training samples of a fold.
+   * 
+   * @param documents
+   *          the documents
+   * @param fold
+   *          the fold
+   * @param test
+   *          whether to get the test samples or the training samples
+   * @return the samples
+   */
+  private List<NameSample> getFoldSamples(final List<List<NameSample>> documents,
+      final int fold, final boolean test) {
+    List<NameSample> samples = new ArrayList<>();
+    for (int i = 0; i < documents.size(); i++) {
+      if ((i % folds == fold) == test) {
+        samples.addAll(documents.get(i));
+      }
+    }
+    return samples;
+  }
+
   /**
    * Get the Sequence codec.
    * @param seqCodecOption the codec chosen
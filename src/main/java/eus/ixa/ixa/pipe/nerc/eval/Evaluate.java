@@ -17,32 +17,65 @@ package eus.ixa.ixa.pipe.nerc.eval;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import opennlp.tools.cmdline.namefind.NameEvaluationErrorListener;
 import opennlp.tools.cmdline.namefind.TokenNameFinderDetailedFMeasureListener;
+import opennlp.tools.ml.model.MaxentModel;
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.NameSample;
 import opennlp.tools.namefind.NameSampleTypeFilter;
+import opennlp.tools.namefind.TokenNameFinder;
 import opennlp.tools.namefind.TokenNameFinderEvaluationMonitor;
 import opennlp.tools.namefind.TokenNameFinderEvaluator;
 import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.FilterObjectStream;
 import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.Span;
 import opennlp.tools.util.eval.EvaluationMonitor;
+import opennlp.tools.util.eval.FMeasure;
+import eus.ixa.ixa.pipe.nerc.SentenceFilter;
+import eus.ixa.ixa.pipe.nerc.decode.AdaptiveBeamSearch;
+import eus.ixa.ixa.pipe.nerc.decode.CompactModel;
+import eus.ixa.ixa.pipe.nerc.decode.CompactNameFinder;
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+import eus.ixa.ixa.pipe.nerc.decode.ViterbiSearch;
 import eus.ixa.ixa.pipe.nerc.train.AbstractTrainer;
 import eus.ixa.ixa.pipe.nerc.train.Flags;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
 
 /**
- * Evaluation class mostly using {@link TokenNameFinderEvaluator}.
+ * Evaluation class mostly using {@link TokenNameFinderEvaluator}. With more
+ * than one thread, the test samples are read in shards of whole documents,
+ * cut at the clear adaptive data marks, which are decoded concurrently by a
+ * name finder per thread; the predictions of the shards are then replayed in
+ * order through the evaluator and its listeners, so that the F measure and
+ * the detailed or error reports are exactly those of a single thread. If the
+ * test set has no clear adaptive data marks, it is a single document and is
+ * decoded by one thread.
  *
  * @author ragerri
  * @version 2015-02-24
  */
 public class Evaluate {
 
+  /**
+   * The minimum number of sentences of a shard.
+   */
+  private static final int SHARD_SENTENCES = 500;
+
   /**
    * The reference corpus to evaluate against.
    */
@@ -50,10 +83,41 @@ public class Evaluate {
   /**
    * An instance of the probabilistic {@link NameFinderME}.
    */
-  private NameFinderME nameFinder;
+  private TokenNameFinder nameFinder;
+  /**
+   * The model to evaluate.
+   */
+  private TokenNameFinderModel nameFinderModel;
+  /**
+   * The compiled or mapped classifier of the model, null unless the compact
+   * inference is used or the model is exported with mapped weights.
+   */
+  private CompactModel compactModel;
   /**
-   * The models to use for every language. The keys of the hash are the
-   * language codes, the values the models.
+   * The margin below which the adaptive beam is widened, negative if the beam
+   * is fixed.
+   */
+  private double adaptiveBeam = -1;
+  /**
+   * The widening statistics of the adaptive beam, shared by every thread.
+   */
+  private AdaptiveBeamSearch.Statistics beamStatistics;
+  /**
+   * Whether to decode with the {@link ViterbiSearch}.
+   */
+  private boolean viterbi;
+  /**
+   * The filter of the sentences without names, shared by every thread, or
+   * null.
+   */
+  private SentenceFilter sentenceFilter;
+  /**
+   * The number of decoding threads.
+   */
+  private int threads;
+  /**
+   * The models already loaded. The keys of the hash are the model paths,
+   * the values the models.
    */
   private static ConcurrentHashMap<String, TokenNameFinderModel> nercModels =
       new ConcurrentHashMap<>();
@@ -74,14 +138,89 @@ public class Evaluate {
     String testSet = props.getProperty("testset");
     String corpusFormat = props.getProperty("corpusFormat");
     String netypes = props.getProperty("types");
+    threads = Integer.parseInt(props.getProperty("threads", Flags.DEFAULT_EVAL_THREADS));
     
     testSamples = AbstractTrainer.getNameStream(testSet, clearFeatures, corpusFormat);
     if (netypes != Flags.DEFAULT_NE_TYPES) {
       String[] neTypes = netypes.split(",");
       testSamples = new NameSampleTypeFilter(neTypes, testSamples);
     }
-    nercModels.putIfAbsent(lang, new TokenNameFinderModel(new FileInputStream(model)));
-    nameFinder = new NameFinderME(nercModels.get(lang));
+    synchronized (nercModels) {
+      if (!nercModels.containsKey(model)) {
+        nercModels.put(model, new TokenNameFinderModel(new FileInputStream(model)));
+      }
+    }
+    nameFinderModel = nercModels.get(model);
+    // the classifier of an exported model is a stub, only its mapped weights
+    // can be evaluated
+    if (MappedWeights.isExported(nameFinderModel)) {
+      compactModel = MappedWeights.load(model, nameFinderModel);
+    } else if (props.getProperty("inference", Flags.DEFAULT_INFERENCE).equalsIgnoreCase("compact")) {
+      compactModel = CompactModel.compile(InputOutputUtils.getClassifier(nameFinderModel));
+    }
+    viterbi = props.getProperty("decoder", Flags.DEFAULT_DECODER).equalsIgnoreCase("viterbi");
+    if (viterbi) {
+      if (compactModel == null && InputOutputUtils.getClassifier(nameFinderModel) == null) {
+        System.err.println("-> The Viterbi decoder needs a PERCEPTRON or MAXENT model, "
+            + "decoding with a fixed beam");
+        viterbi = false;
+      } else if (!ViterbiSearch.isSupported(nameFinderModel)) {
+        System.err.println("-> The SuperSense features are cached per token, "
+            + "decoding with the beam search");
+        viterbi = false;
+      }
+    }
+    String beam = props.getProperty("adaptiveBeam", Flags.DEFAULT_ADAPTIVE_BEAM);
+    if (!viterbi && !beam.equalsIgnoreCase(Flags.DEFAULT_ADAPTIVE_BEAM)) {
+      if (compactModel == null && InputOutputUtils.getClassifier(nameFinderModel) == null) {
+        System.err.println("-> The adaptive beam needs a PERCEPTRON or MAXENT model, "
+            + "decoding with a fixed beam");
+      } else {
+        adaptiveBeam = Double.parseDouble(beam);
+        beamStatistics = new AdaptiveBeamSearch.Statistics();
+      }
+    }
+    if (props.getProperty("sentenceFilter", Flags.DEFAULT_FILTER_SENTENCES)
+        .equalsIgnoreCase("yes")) {
+      sentenceFilter = SentenceFilter.getSentenceFilter(nameFinderModel);
+      if (sentenceFilter == null) {
+        System.err.println("-> The model was trained without SentenceFilter, "
+            + "decoding every sentence");
+      } else {
+        System.err.println("-> Sentence filter on the test set: "
+            + sentenceFilter.evaluate(testSamples));
+      }
+    }
+    nameFinder = createNameFinder();
+  }
+
+  /**
+   * @return a name finder of the model, with the compact inference if the
+   *         classifier of the model was compiled and with the Viterbi or the
+   *         adaptive beam search if chosen, filtered by the sentence filter
+   */
+  private TokenNameFinder createNameFinder() {
+    NameFinderME finder = createSearch();
+    return sentenceFilter == null ? finder : sentenceFilter.filter(finder);
+  }
+
+  /**
+   * @return the name finder of the model with the chosen search
+   */
+  private NameFinderME createSearch() {
+    MaxentModel classifier = compactModel == null
+        ? InputOutputUtils.getClassifier(nameFinderModel) : compactModel;
+    if (viterbi) {
+      return new CompactNameFinder(nameFinderModel, new ViterbiSearch(
+          CompactNameFinder.getBeamSize(nameFinderModel), classifier));
+    }
+    if (beamStatistics != null) {
+      return new CompactNameFinder(nameFinderModel, new AdaptiveBeamSearch(
+          CompactNameFinder.getBeamSize(nameFinderModel), classifier, adaptiveBeam,
+          beamStatistics));
+    }
+    return compactModel == null ? new NameFinderME(nameFinderModel)
+        : new CompactNameFinder(nameFinderModel, compactModel);
   }
 
   /**
@@ -89,9 +228,7 @@ public class Evaluate {
    * @throws IOException if test corpus not loaded
    */
   public final void evaluate() throws IOException {
-    TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(nameFinder);
-    evaluator.evaluate(testSamples);
-    System.out.println(evaluator.getFMeasure());
+    System.out.println(evaluate(new TokenNameFinderEvaluationMonitor[0]));
   }
   /**
    * Evaluate and print the precision, recall and F measure per
@@ -103,9 +240,7 @@ public class Evaluate {
     List<EvaluationMonitor<NameSample>> listeners = new LinkedList<>();
     TokenNameFinderDetailedFMeasureListener detailedFListener = new TokenNameFinderDetailedFMeasureListener();
     listeners.add(detailedFListener);
-    TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(nameFinder,
-        listeners.toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]));
-    evaluator.evaluate(testSamples);
+    evaluate(listeners.toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]));
     System.out.println(detailedFListener.toString());
   }
   /**
@@ -115,10 +250,147 @@ public class Evaluate {
   public final void evalError() throws IOException {
     List<EvaluationMonitor<NameSample>> listeners = new LinkedList<>();
     listeners.add(new NameEvaluationErrorListener());
-    TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(nameFinder,
-        listeners.toArray(new TokenNameFinderEvaluationMonitor[listeners.size()]));
-    evaluator.evaluate(testSamples);
-    System.out.println(evaluator.getFMeasure());
+    System.out.println(evaluate(listeners
+        .toArray(new TokenNameFinderEvaluationMonitor[listeners.size()])));
+  }
+
+  /**
+   * Evaluate the test samples and report the throughput.
+   * @param listeners the evaluation listeners
+   * @return the F measure
+   * @throws IOException if test corpus not loaded
+   */
+  private FMeasure evaluate(final TokenNameFinderEvaluationMonitor[] listeners)
+      throws IOException {
+    long start = System.nanoTime();
+    final long[] tokens = new long[1];
+    FMeasure fmeasure;
+    if (threads > 1) {
+      fmeasure = parallelEvaluate(listeners, tokens);
+    } else {
+      TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(nameFinder, listeners);
+      evaluator.evaluate(new FilterObjectStream<NameSample, NameSample>(testSamples) {
+        @Override
+        public NameSample read() throws IOException {
+          NameSample sample = samples.read();
+          if (sample != null) {
+            tokens[0] += sample.getSentence().length;
+          }
+          return sample;
+        }
+      });
+      fmeasure = evaluator.getFMeasure();
+    }
+    long elapsed = Math.max(System.nanoTime() - start, 1);
+    System.err.println("-> Evaluated " + tokens[0] + " tokens in " + elapsed / 1000000
+        + " miliseconds with " + threads + " threads: "
+        + (long) (tokens[0] * 1e9 / elapsed) + " tokens/sec");
+    if (beamStatistics != null) {
+      System.err.println("-> Adaptive beam: " + beamStatistics);
+    }
+    if (sentenceFilter != null) {
+      System.err.println("-> Sentence filter: " + sentenceFilter);
+    }
+    return fmeasure;
+  }
+
+  /**
+   * Decode the shards of the test samples concurrently and replay their
+   * predictions in order. At most two shards per thread are held in memory.
+   * @param listeners the evaluation listeners
+   * @param tokens the number of tokens read, updated
+   * @return the F measure
+   * @throws IOException if test corpus not loaded or decoding fails
+   */
+  private FMeasure parallelEvaluate(final TokenNameFinderEvaluationMonitor[] listeners,
+      final long[] tokens) throws IOException {
+    final ThreadLocal<TokenNameFinder> nameFinders = new ThreadLocal<TokenNameFinder>() {
+      @Override
+      protected TokenNameFinder initialValue() {
+        return createNameFinder();
+      }
+    };
+    ExecutorService decoders = Executors.newFixedThreadPool(threads);
+    Deque<List<NameSample>> shards = new ArrayDeque<>();
+    Deque<Future<List<Span[]>>> predictions = new ArrayDeque<>();
+    FMeasure fmeasure = new FMeasure();
+    try {
+      List<NameSample> shard = new ArrayList<>();
+      NameSample sample;
+      while (true) {
+        sample = testSamples.read();
+        if (sample == null || (sample.isClearAdaptiveDataSet() && shard.size() >= SHARD_SENTENCES)) {
+          if (!shard.isEmpty()) {
+            if (shards.size() >= 2 * threads) {
+              replay(shards.poll(), predictions.poll().get(), listeners, fmeasure);
+            }
+            shards.add(shard);
+            predictions.add(decoders.submit(decode(shard, nameFinders)));
+            shard = new ArrayList<>();
+          }
+          if (sample == null) {
+            break;
+          }
+        }
+        shard.add(sample);
+        tokens[0] += sample.getSentence().length;
+      }
+      while (!shards.isEmpty()) {
+        replay(shards.poll(), predictions.poll().get(), listeners, fmeasure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Evaluation interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Evaluation failed: " + e.getCause(), e.getCause());
+    } finally {
+      decoders.shutdownNow();
+    }
+    return fmeasure;
+  }
+
+  /**
+   * Decode a shard with the name finder of the thread.
+   * @param shard the samples of the shard
+   * @param nameFinders the name finder of each thread
+   * @return the job predicting the names of every sample
+   */
+  private static Callable<List<Span[]>> decode(final List<NameSample> shard,
+      final ThreadLocal<TokenNameFinder> nameFinders) {
+    return new Callable<List<Span[]>>() {
+      @Override
+      public List<Span[]> call() {
+        TokenNameFinder shardFinder = nameFinders.get();
+        // a shard starts a new document
+        shardFinder.clearAdaptiveData();
+        List<Span[]> predicted = new ArrayList<>(shard.size());
+        for (NameSample sample : shard) {
+          if (sample.isClearAdaptiveDataSet()) {
+            shardFinder.clearAdaptiveData();
+          }
+          predicted.add(shardFinder.find(sample.getSentence()));
+        }
+        return predicted;
+      }
+    };
+  }
+
+  /**
+   * Replay the predictions of a shard through the evaluator and the
+   * listeners.
+   * @param shard the samples of the shard
+   * @param predicted the names predicted for every sample
+   * @param listeners the evaluation listeners
+   * @param fmeasure the F measure to update
+   * @throws IOException if evaluation fails
+   */
+  private static void replay(final List<NameSample> shard, final List<Span[]> predicted,
+      final TokenNameFinderEvaluationMonitor[] listeners, final FMeasure fmeasure)
+      throws IOException {
+    TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(
+        new RecordedNameFinder(predicted), listeners);
+    evaluator.evaluate(new CollectionObjectStream<>(shard));
+    fmeasure.mergeInto(evaluator.getFMeasure());
   }
 
 }
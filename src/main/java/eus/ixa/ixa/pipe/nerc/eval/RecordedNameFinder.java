@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.nerc.eval;
+
+import java.util.List;
+
+import opennlp.tools.namefind.TokenNameFinder;
+import opennlp.tools.util.Span;
+
+/**
+ * Name finder answering, sample after sample, with the names previously
+ * predicted by another name finder. It is used to replay in order through a
+ * {@link opennlp.tools.namefind.TokenNameFinderEvaluator} and its listeners
+ * the predictions computed concurrently by other threads.
+ *
+ * @author ragerri
+ * @version 2016-07-27
+ */
+class RecordedNameFinder implements TokenNameFinder {
+
+  /**
+   * The predicted names of every sample, in order.
+   */
+  private final List<Span[]> predicted;
+  /**
+   * The index of the next sample.
+   */
+  private int next = 0;
+
+  /**
+   * Construct a name finder replaying predictions.
+   *
+   * @param predicted
+   *          the names predicted for every sample
+   */
+  RecordedNameFinder(final List<Span[]> predicted) {
+    this.predicted = predicted;
+  }
+
+  @Override
+  public Span[] find(final String[] tokens) {
+    return predicted.get(next++);
+  }
+
+  @Override
+  public void clearAdaptiveData() {
+    // the adaptive data were cleared when the names were predicted
+  }
+}
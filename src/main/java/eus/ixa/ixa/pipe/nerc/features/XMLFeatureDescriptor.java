@@ -93,12 +93,20 @@ public final class XMLFeatureDescriptor {
   
   /**
    * Generate the XML feature descriptor from the TrainingParameters prop file.
+   * The window and character ngram lengths are kept in static fields, so
+   * they are reset for every descriptor, and the descriptors of trainers
+   * running concurrently are created one at a time.
    * @param params the properties file
    * @return the XML feature descriptor
    * @throws IOException if input output fails
    */
-  public static String createXMLFeatureDescriptor(TrainingParameters params) throws IOException {
+  public static synchronized String createXMLFeatureDescriptor(TrainingParameters params) throws IOException {
     
+    // the ranges of a previous descriptor do not apply to these parameters
+    leftWindow = -1;
+    rightWindow = -1;
+    minCharNgram = -1;
+    maxCharNgram = -1;
     Element aggGenerators = new Element("generators");
     Document doc = new Document(aggGenerators);
     
@@ -89,29 +89,36 @@ public class CoNLL03Format implements ObjectStream<NameSample>{
     List<String> neTypes = new ArrayList<String>();
     boolean isClearAdaptiveData = false;
 
-    // Empty line indicates end of sentence
     String line;
-    while ((line = lineStream.read()) != null && !StringUtil.isEmpty(line)) {
-      //clear adaptive data if document mark appears following
-      //CoNLL03 conventions
-      if (clearFeatures.equalsIgnoreCase("docstart") 
-          && line.startsWith("-DOCSTART-")) {
-        isClearAdaptiveData = true;
-        String emptyLine = lineStream.read();
-        if (!StringUtil.isEmpty(emptyLine))
-          throw new IOException("Empty line after -DOCSTART- not empty: '" + emptyLine +"'!");
-        continue;
-      }
-      String[] fields = line.split("\t");
-      if (fields.length == 2) {
-        tokens.add(fields[0]);
-        neTypes.add(fields[1]);
-      } else {
-        throw new IOException(
-            "Expected two fields per line in training data, got "
-                + fields.length + " for line '" + line + "'!");
+    // Empty line indicates end of sentence, runs of them are skipped
+    do {
+      while ((line = lineStream.read()) != null && !StringUtil.isEmpty(line)) {
+        //clear adaptive data if document mark appears following
+        //CoNLL03 conventions
+        if (clearFeatures.equalsIgnoreCase("docstart") 
+            && line.startsWith("-DOCSTART-")) {
+          isClearAdaptiveData = true;
+          String emptyLine = lineStream.read();
+          if (!StringUtil.isEmpty(emptyLine))
+            throw new IOException("Empty line after -DOCSTART- not empty: '" + emptyLine +"'!");
+          continue;
+        }
+        // trailing tabs do not make a field, as with String.split
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == '\t') {
+          end--;
+        }
+        int tab = line.indexOf('\t');
+        if (tab != -1 && tab < end && line.lastIndexOf('\t', end - 1) == tab) {
+          tokens.add(line.substring(0, tab));
+          neTypes.add(line.substring(tab + 1, end));
+        } else {
+          throw new IOException(
+              "Expected two fields per line in training data, got "
+                  + line.split("\t").length + " for line '" + line + "'!");
+        }
       }
-    }
+    } while (tokens.isEmpty() && line != null);
     // if no -DOCSTART- mark, check if we need to clear features every sentence
     if (clearFeatures.equalsIgnoreCase("yes")) {
       isClearAdaptiveData = true;
@@ -168,12 +175,7 @@ public class CoNLL03Format implements ObjectStream<NameSample>{
         names.add(extract(beginIndex, endIndex, neTypes.get(beginIndex)));
 
       return new NameSample(tokens.toArray(new String[tokens.size()]), names.toArray(new Span[names.size()]), isClearAdaptiveData);
-    }
-    else if (line != null) {
-      // Just filter out empty events, if two lines in a row are empty
-      return read();
-    }
-    else {
+    } else {
       // source stream is not returning anymore lines
       return null;
     }
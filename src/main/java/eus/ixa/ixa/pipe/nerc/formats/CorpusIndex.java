@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.formats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.ObjectStream;
+
+/**
+ * Index of the sentences and documents of a CoNLL corpus: the byte offset of
+ * every sentence in the corpus file and the sentences starting a document,
+ * that is, those clearing the adaptive features. The corpus is parsed once
+ * to build the index, which is then saved in a side file next to the corpus
+ * with the .idx extension and loaded by later trainings as long as the
+ * corpus, the format and the clear features option are unchanged.
+ *
+ * @author ragerri
+ * @version 2016-07-30
+ */
+public class CorpusIndex {
+
+  /**
+   * The extension of the index files.
+   */
+  public static final String EXTENSION = ".idx";
+  private static final int MAGIC = 0x49584958;
+  private static final int VERSION = 1;
+
+  /**
+   * The offsets of the sentences in the corpus.
+   */
+  private final long[] offsets;
+  /**
+   * The indexes of the first sentence of every document, plus the number of
+   * sentences.
+   */
+  private final int[] documents;
+
+  private CorpusIndex(final long[] offsets, final int[] documents) {
+    this.offsets = offsets;
+    this.documents = documents;
+  }
+
+  /**
+   * Load the index of a corpus, building it if the side file does not exist
+   * or is stale. If the side file cannot be written the index is used
+   * without saving it.
+   *
+   * @param corpus
+   *          the corpus file
+   * @param corpusFormat
+   *          the corpus format, conll02 or conll03
+   * @param clearFeatures
+   *          the clear features option of the corpus
+   * @return the index
+   * @throws IOException
+   *           if the corpus cannot be read
+   */
+  public static CorpusIndex load(final File corpus, final String corpusFormat,
+      final String clearFeatures) throws IOException {
+    File indexFile = new File(corpus.getPath() + EXTENSION);
+    if (indexFile.isFile()) {
+      CorpusIndex index = read(indexFile, corpus, corpusFormat, clearFeatures);
+      if (index != null) {
+        return index;
+      }
+    }
+    long start = System.currentTimeMillis();
+    CorpusIndex index = build(corpus, corpusFormat, clearFeatures);
+    try {
+      index.write(indexFile, corpus, corpusFormat, clearFeatures);
+      System.err.println("-> Indexed " + index.getSentences() + " sentences and "
+          + index.getDocuments() + " documents of " + corpus + " in "
+          + (System.currentTimeMillis() - start) + " miliseconds");
+    } catch (IOException e) {
+      System.err.println("-> WARNING: cannot write corpus index " + indexFile
+          + ": " + e.getMessage());
+    }
+    return index;
+  }
+
+  /**
+   * Build the index of a corpus.
+   */
+  private static CorpusIndex build(final File corpus, final String corpusFormat,
+      final String clearFeatures) throws IOException {
+    long[] offsets = new long[1024];
+    int[] documents = new int[64];
+    int sentences = 0;
+    int docs = 0;
+    MappedLineStream lines = new MappedLineStream(corpus);
+    try {
+      ObjectStream<NameSample> samples = IndexedNameSampleStream.createFormat(
+          corpusFormat, clearFeatures, lines);
+      long offset = lines.position();
+      NameSample sample;
+      while ((sample = samples.read()) != null) {
+        if (sentences == offsets.length) {
+          offsets = Arrays.copyOf(offsets, sentences * 2);
+        }
+        if (sentences == 0 || sample.isClearAdaptiveDataSet()) {
+          if (docs == documents.length) {
+            documents = Arrays.copyOf(documents, docs * 2);
+          }
+          documents[docs++] = sentences;
+        }
+        offsets[sentences++] = offset;
+        offset = lines.position();
+      }
+    } finally {
+      lines.close();
+    }
+    documents = Arrays.copyOf(documents, docs + 1);
+    documents[docs] = sentences;
+    return new CorpusIndex(Arrays.copyOf(offsets, sentences), documents);
+  }
+
+  /**
+   * Read an index file.
+   *
+   * @return the index, or null if it is not the index of the corpus
+   */
+  private static CorpusIndex read(final File indexFile, final File corpus,
+      final String corpusFormat, final String clearFeatures) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readLong() != corpus.length()
+          || in.readLong() != corpus.lastModified()
+          || !in.readUTF().equalsIgnoreCase(corpusFormat)
+          || !in.readUTF().equalsIgnoreCase(clearFeatures)) {
+        return null;
+      }
+      long[] offsets = new long[in.readInt()];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = in.readLong();
+      }
+      int[] documents = new int[in.readInt()];
+      for (int i = 0; i < documents.length; i++) {
+        documents[i] = in.readInt();
+      }
+      return new CorpusIndex(offsets, documents);
+    }
+  }
+
+  /**
+   * Write the index file, under a temporary name renamed when complete.
+   */
+  private void write(final File indexFile, final File corpus,
+      final String corpusFormat, final String clearFeatures) throws IOException {
+    File tmpFile = new File(indexFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmpFile), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(corpus.length());
+      out.writeLong(corpus.lastModified());
+      out.writeUTF(corpusFormat);
+      out.writeUTF(clearFeatures);
+      out.writeInt(offsets.length);
+      for (long offset : offsets) {
+        out.writeLong(offset);
+      }
+      out.writeInt(documents.length);
+      for (int document : documents) {
+        out.writeInt(document);
+      }
+    }
+    indexFile.delete();
+    if (!tmpFile.renameTo(indexFile)) {
+      tmpFile.delete();
+      throw new IOException("cannot rename " + tmpFile);
+    }
+  }
+
+  /**
+   * @return the number of sentences
+   */
+  public final int getSentences() {
+    return offsets.length;
+  }
+
+  /**
+   * @return the number of documents
+   */
+  public final int getDocuments() {
+    return documents.length - 1;
+  }
+
+  /**
+   * Get the offset of a sentence in the corpus file.
+   *
+   * @param sentence
+   *          the index of the sentence
+   * @return the byte offset
+   */
+  public final long getOffset(final int sentence) {
+    return offsets[sentence];
+  }
+
+  /**
+   * Get the first sentence of a document.
+   *
+   * @param document
+   *          the index of the document, or the number of documents for the
+   *          end of the last one
+   * @return the index of the sentence
+   */
+  public final int getDocumentStart(final int document) {
+    return documents[document];
+  }
+}
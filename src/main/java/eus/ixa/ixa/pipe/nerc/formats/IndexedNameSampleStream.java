@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.formats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.ObjectStream;
+
+/**
+ * Name samples of a CoNLL corpus read through its {@link CorpusIndex}. A
+ * reset only rewinds the index, and the samples can be read in a different
+ * random order of documents after every reset, or restricted to a shard of
+ * the documents for parallel jobs, without reading the rest of the corpus.
+ * Shuffling and sharding keep the sentences of a document together, so that
+ * the adaptive features are cleared as in the corpus.
+ *
+ * @author ragerri
+ * @version 2016-07-30
+ */
+public class IndexedNameSampleStream implements ObjectStream<NameSample> {
+
+  private final File corpus;
+  private final String corpusFormat;
+  private final String clearFeatures;
+  private final CorpusIndex index;
+  private final MappedLineStream lines;
+  private final ObjectStream<NameSample> samples;
+  /**
+   * The documents of the stream, in reading order.
+   */
+  private final int[] documents;
+  /**
+   * The random order of the documents, or null to read them in order.
+   */
+  private Random shuffle;
+  /**
+   * The position of the current document in reading order.
+   */
+  private int document;
+  /**
+   * The next sentence of the current document.
+   */
+  private int sentence;
+
+  /**
+   * Construct a stream of the samples of a corpus, loading or building its
+   * index.
+   *
+   * @param corpus
+   *          the corpus file
+   * @param corpusFormat
+   *          the corpus format, conll02 or conll03
+   * @param clearFeatures
+   *          the clear features option
+   * @throws IOException
+   *           if the corpus cannot be read
+   */
+  public IndexedNameSampleStream(final File corpus, final String corpusFormat,
+      final String clearFeatures) throws IOException {
+    this(corpus, corpusFormat, clearFeatures,
+        CorpusIndex.load(corpus, corpusFormat, clearFeatures), 0, 1);
+  }
+
+  private IndexedNameSampleStream(final File corpus, final String corpusFormat,
+      final String clearFeatures, final CorpusIndex index, final int shard,
+      final int shards) throws IOException {
+    this.corpus = corpus;
+    this.corpusFormat = corpusFormat;
+    this.clearFeatures = clearFeatures;
+    this.index = index;
+    this.lines = new MappedLineStream(corpus);
+    this.samples = createFormat(corpusFormat, clearFeatures, lines);
+    int first = (int) ((long) index.getDocuments() * shard / shards);
+    int last = (int) ((long) index.getDocuments() * (shard + 1) / shards);
+    this.documents = new int[last - first];
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = first + i;
+    }
+    rewind();
+  }
+
+  /**
+   * Create the name sample stream of a corpus format.
+   *
+   * @param corpusFormat
+   *          the corpus format, conll02 or conll03
+   * @param clearFeatures
+   *          the clear features option
+   * @param lines
+   *          the lines of the corpus
+   * @return the name sample stream
+   */
+  static ObjectStream<NameSample> createFormat(final String corpusFormat,
+      final String clearFeatures, final ObjectStream<String> lines) {
+    if (corpusFormat.equalsIgnoreCase("conll03")) {
+      return new CoNLL03Format(clearFeatures, lines);
+    } else if (corpusFormat.equalsIgnoreCase("conll02")) {
+      return new CoNLL02Format(clearFeatures, lines);
+    } else {
+      throw new IllegalArgumentException("Corpus format " + corpusFormat
+          + " cannot be indexed");
+    }
+  }
+
+  /**
+   * Get a stream of a shard of the documents of this stream's corpus. The
+   * documents are split in contiguous shards of equal size.
+   *
+   * @param shard
+   *          the index of the shard
+   * @param shards
+   *          the number of shards
+   * @return the stream of the shard
+   * @throws IOException
+   *           if the corpus cannot be read
+   */
+  public final IndexedNameSampleStream shard(final int shard, final int shards)
+      throws IOException {
+    if (shard < 0 || shard >= shards) {
+      throw new IllegalArgumentException("Shard " + shard + " not in 0.."
+          + (shards - 1));
+    }
+    return new IndexedNameSampleStream(corpus, corpusFormat, clearFeatures,
+        index, shard, shards);
+  }
+
+  /**
+   * Read the documents in a random order, drawn anew on every reset.
+   *
+   * @param seed
+   *          the seed of the random order
+   */
+  public final void shuffle(final long seed) {
+    this.shuffle = new Random(seed);
+    rewind();
+  }
+
+  /**
+   * @return the number of sentences of the stream
+   */
+  public final int getSentences() {
+    int count = 0;
+    for (int doc : documents) {
+      count += index.getDocumentStart(doc + 1) - index.getDocumentStart(doc);
+    }
+    return count;
+  }
+
+  public NameSample read() throws IOException {
+    while (document < documents.length) {
+      if (sentence < index.getDocumentStart(documents[document] + 1)) {
+        lines.seek(index.getOffset(sentence++));
+        return samples.read();
+      }
+      document++;
+      if (document < documents.length) {
+        sentence = index.getDocumentStart(documents[document]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Go back to the first document, drawing a new order if shuffling.
+   */
+  private void rewind() {
+    if (shuffle != null) {
+      for (int i = documents.length - 1; i > 0; i--) {
+        int j = shuffle.nextInt(i + 1);
+        int swap = documents[i];
+        documents[i] = documents[j];
+        documents[j] = swap;
+      }
+    }
+    document = 0;
+    sentence = documents.length > 0 ? index.getDocumentStart(documents[0]) : 0;
+  }
+
+  public void reset() throws IOException {
+    rewind();
+  }
+
+  public void close() throws IOException {
+    lines.close();
+  }
+}
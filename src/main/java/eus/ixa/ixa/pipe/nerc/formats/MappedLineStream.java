@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.formats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import opennlp.tools.util.ObjectStream;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The lines of a UTF-8 file read from a memory mapping of the file. The file
+ * is mapped in regions, so that files larger than 2GB can be read, and the
+ * bytes of every line are decoded once into a string, without the
+ * intermediate char buffers of a reader. Lines end with '\n' or "\r\n".
+ *
+ * @author ragerri
+ * @version 2016-07-30
+ */
+public class MappedLineStream implements ObjectStream<String> {
+
+  /**
+   * The default size of the mapped regions.
+   */
+  public static final int DEFAULT_REGION_SIZE = 1 << 28;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int regionSize;
+  /**
+   * The file position of the next region to map.
+   */
+  private long nextRegion;
+  /**
+   * The file position of the current region.
+   */
+  private long regionStart;
+  private MappedByteBuffer region;
+  /**
+   * The bytes of the line being read.
+   */
+  private byte[] line = new byte[256];
+
+  /**
+   * Construct a line stream of a file.
+   *
+   * @param inputFile
+   *          the file
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public MappedLineStream(final File inputFile) throws IOException {
+    this(inputFile, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Construct a line stream of a file.
+   *
+   * @param inputFile
+   *          the file
+   * @param regionSize
+   *          the number of bytes mapped at a time
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public MappedLineStream(final File inputFile, final int regionSize)
+      throws IOException {
+    this.file = new RandomAccessFile(inputFile, "r");
+    this.channel = file.getChannel();
+    this.regionSize = regionSize;
+  }
+
+  public String read() throws IOException {
+    int length = 0;
+    boolean found = false;
+    while (region != null && region.hasRemaining() || mapNextRegion()) {
+      found = true;
+      int start = region.position();
+      int limit = region.limit();
+      int end = start;
+      while (end < limit && region.get(end) != '\n') {
+        end++;
+      }
+      length = append(start, end, length);
+      if (end < limit) {
+        region.position(end + 1);
+        return decode(length);
+      }
+      region.position(limit);
+    }
+    // last line without a line break
+    return found ? decode(length) : null;
+  }
+
+  /**
+   * Map the next region of the file.
+   *
+   * @return false if the end of the file has been reached
+   * @throws IOException
+   *           if the file cannot be mapped
+   */
+  private boolean mapNextRegion() throws IOException {
+    long size = channel.size();
+    if (nextRegion >= size) {
+      return false;
+    }
+    long regionLength = Math.min(regionSize, size - nextRegion);
+    region = channel.map(FileChannel.MapMode.READ_ONLY, nextRegion, regionLength);
+    regionStart = nextRegion;
+    nextRegion += regionLength;
+    return true;
+  }
+
+  /**
+   * Append bytes of the current region to the line.
+   */
+  private int append(final int start, final int end, final int length) {
+    int newLength = length + end - start;
+    if (newLength > line.length) {
+      line = Arrays.copyOf(line, Math.max(newLength, line.length * 2));
+    }
+    region.position(start);
+    region.get(line, length, end - start);
+    return newLength;
+  }
+
+  private String decode(int length) {
+    if (length > 0 && line[length - 1] == '\r') {
+      length--;
+    }
+    return new String(line, 0, length, Charsets.UTF_8);
+  }
+
+  /**
+   * Get the file position of the next line.
+   *
+   * @return the byte offset of the next line in the file
+   */
+  public final long position() {
+    return region == null ? nextRegion : regionStart + region.position();
+  }
+
+  /**
+   * Set the file position of the next line; the current region is kept if
+   * the position is in it.
+   *
+   * @param position
+   *          the byte offset of a line in the file
+   */
+  public final void seek(final long position) {
+    if (region != null && position >= regionStart
+        && position < regionStart + region.limit()) {
+      region.position((int) (position - regionStart));
+    } else {
+      region = null;
+      nextRegion = position;
+    }
+  }
+
+  public void reset() throws IOException {
+    seek(0);
+  }
+
+  public void close() throws IOException {
+    region = null;
+    channel.close();
+    file.close();
+  }
+}
@@ -16,7 +16,11 @@
 
 package eus.ixa.ixa.pipe.nerc.train;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 import opennlp.tools.namefind.BilouCodec;
 import opennlp.tools.namefind.BioCodec;
@@ -29,8 +33,12 @@ import opennlp.tools.namefind.TokenNameFinderFactory;
 import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.TrainingParameters;
+import opennlp.tools.util.eval.FMeasure;
+import eus.ixa.ixa.pipe.nerc.SentenceFilter;
 import eus.ixa.ixa.pipe.nerc.formats.CoNLL02Format;
 import eus.ixa.ixa.pipe.nerc.formats.CoNLL03Format;
+import eus.ixa.ixa.pipe.nerc.formats.IndexedNameSampleStream;
+import eus.ixa.ixa.pipe.nerc.formats.MappedLineStream;
 
 /**
  * Abstract class for common training functionalities. Every other trainer class
@@ -38,7 +46,7 @@ import eus.ixa.ixa.pipe.nerc.formats.CoNLL03Format;
  * @author ragerri
  * @version 2015-02-25
  */
-public abstract class AbstractTrainer implements Trainer {
+public abstract class AbstractTrainer implements Trainer, Closeable {
   
   /**
    * The language.
@@ -84,6 +92,23 @@ public abstract class AbstractTrainer implements Trainer {
    * features needs to be implemented by any class extending this one.
    */
   private TokenNameFinderFactory nameClassifierFactory;
+  /**
+   * The F measure of the trained model on the test data.
+   */
+  private FMeasure fmeasure;
+  /**
+   * The cache of the training events, or null.
+   */
+  private EventCache eventCache;
+  /**
+   * The pruning of rare features before training, or null.
+   */
+  private FeaturePrepass prepass;
+  /**
+   * The feature descriptor and resources, to build the model when pruning.
+   */
+  private byte[] featureDescriptor;
+  private Map<String, Object> resources;
 
   /**
    * Construct a trainer with training and test data, and with options for
@@ -100,8 +125,9 @@ public abstract class AbstractTrainer implements Trainer {
     this.corpusFormat = Flags.getCorpusFormat(params);
     this.trainData = params.getSettings().get("TrainSet");
     this.testData = params.getSettings().get("TestSet");
-    trainSamples = getNameStream(trainData, clearTrainingFeatures, corpusFormat);
-    testSamples = getNameStream(testData, clearEvaluationFeatures, corpusFormat);
+    boolean indexed = Flags.isCorpusIndex(params);
+    trainSamples = getNameStream(trainData, clearTrainingFeatures, corpusFormat, indexed);
+    testSamples = getNameStream(testData, clearEvaluationFeatures, corpusFormat, indexed);
     this.beamSize = Flags.getBeamsize(params);
     this.sequenceCodec = Flags.getSequenceCodec(params);
     if (params.getSettings().get("Types") != null) {
@@ -118,28 +144,73 @@ public abstract class AbstractTrainer implements Trainer {
    * es.ehu.si.ixa.pipe.nerc.train.Trainer#train(opennlp.tools.util
    * .TrainingParameters)
    */
-  public final TokenNameFinderModel train(final TrainingParameters params) {
+  public final TokenNameFinderModel train(final TrainingParameters params)
+      throws IOException {
     if (getNameClassifierFactory() == null) {
       throw new IllegalStateException(
           "Classes derived from AbstractNameFinderTrainer must create and fill the AdaptiveFeatureGenerator features!");
     }
     TokenNameFinderModel trainedModel = null;
-    TokenNameFinderEvaluator nerEvaluator = null;
-    try {
+    if (eventCache != null) {
+      trainedModel = eventCache.train(lang, trainSamples, params,
+          nameClassifierFactory);
+    } else if (prepass != null) {
+      trainedModel = prepass.train(lang, trainSamples, params,
+          nameClassifierFactory, featureDescriptor, resources);
+    } else {
       trainedModel = NameFinderME.train(lang, null, trainSamples, params,
           nameClassifierFactory);
-      NameFinderME nerTagger = new NameFinderME(trainedModel);
-      nerEvaluator = new TokenNameFinderEvaluator(nerTagger);
-      nerEvaluator.evaluate(testSamples);
-    } catch (IOException e) {
-      System.err.println("IO error while loading traing and test sets!");
-      e.printStackTrace();
-      System.exit(1);
     }
-    System.out.println("Final Result: \n" + nerEvaluator.getFMeasure());
+    if (Flags.isSentenceFilter(params)) {
+      trainedModel = addSentenceFilter(trainedModel,
+          Double.parseDouble(Flags.getSentenceFilter(params)));
+    }
+    NameFinderME nerTagger = new NameFinderME(trainedModel);
+    TokenNameFinderEvaluator nerEvaluator = new TokenNameFinderEvaluator(nerTagger);
+    nerEvaluator.evaluate(testSamples);
+    fmeasure = nerEvaluator.getFMeasure();
+    System.out.println("Final Result: \n" + fmeasure);
     return trainedModel;
   }
 
+  /**
+   * Close the training and test data.
+   * @throws IOException if the data cannot be closed
+   */
+  @Override
+  public final void close() throws IOException {
+    try {
+      trainSamples.close();
+    } finally {
+      testSamples.close();
+    }
+  }
+
+  /**
+   * Learn the {@link SentenceFilter} of the training data, report its
+   * precision and recall on the test data and store it in the manifest.
+   * @param trainedModel the trained model
+   * @param coverage the minimum fraction of the training names to cover
+   * @return the model with the filter
+   * @throws IOException if the samples cannot be read
+   */
+  private TokenNameFinderModel addSentenceFilter(final TokenNameFinderModel trainedModel,
+      final double coverage) throws IOException {
+    trainSamples.reset();
+    SentenceFilter filter = SentenceFilter.train(trainSamples, coverage);
+    System.err.println("-> Sentence filter on the test set: " + filter.evaluate(testSamples));
+    return ModelRewriter.addManifestProperties(trainedModel, Collections.singletonMap(
+        SentenceFilter.MANIFEST_PROPERTY, filter.getManifestValue()));
+  }
+
+  /**
+   * Get the F measure of the last trained model on the test data.
+   * @return the F measure, or null if no model has been trained
+   */
+  public final FMeasure getFMeasure() {
+    return fmeasure;
+  }
+
   /**
    * Getting the stream with the right corpus format.
    * @param inputData
@@ -153,12 +224,35 @@ public abstract class AbstractTrainer implements Trainer {
    */
   public static ObjectStream<NameSample> getNameStream(final String inputData,
       final String clearFeatures, final String aCorpusFormat) throws IOException {
+    return getNameStream(inputData, clearFeatures, aCorpusFormat, false);
+  }
+
+  /**
+   * Getting the stream with the right corpus format, read through a corpus
+   * index if required and the format is conll02 or conll03.
+   * @param inputData
+   *          the input data
+   * @param clearFeatures clear the features
+   * @param aCorpusFormat
+   *          the corpus format
+   * @param indexed whether to read the corpus through its index
+   * @return the stream from the several corpus formats
+   * @throws IOException
+   *           the io exception
+   */
+  public static ObjectStream<NameSample> getNameStream(final String inputData,
+      final String clearFeatures, final String aCorpusFormat,
+      final boolean indexed) throws IOException {
     ObjectStream<NameSample> samples = null;
-    if (aCorpusFormat.equalsIgnoreCase("conll03")) {
-      ObjectStream<String> nameStream = InputOutputUtils.readFileIntoMarkableStreamFactory(inputData);
+    if (indexed && (aCorpusFormat.equalsIgnoreCase("conll03")
+        || aCorpusFormat.equalsIgnoreCase("conll02"))) {
+      samples = new IndexedNameSampleStream(new File(inputData), aCorpusFormat,
+          clearFeatures);
+    } else if (aCorpusFormat.equalsIgnoreCase("conll03")) {
+      ObjectStream<String> nameStream = new MappedLineStream(new File(inputData));
       samples = new CoNLL03Format(clearFeatures, nameStream);
     } else if (aCorpusFormat.equalsIgnoreCase("conll02")) {
-      ObjectStream<String> nameStream = InputOutputUtils.readFileIntoMarkableStreamFactory(inputData);
+      ObjectStream<String> nameStream = new MappedLineStream(new File(inputData));
       samples = new CoNLL02Format(clearFeatures, nameStream);
     } else if (aCorpusFormat.equalsIgnoreCase("opennlp")) {
       ObjectStream<String> nameStream = InputOutputUtils.readFileIntoMarkableStreamFactory(inputData);
@@ -184,6 +278,27 @@ public abstract class AbstractTrainer implements Trainer {
     return nameClassifierFactory;
   }
   
+  /**
+   * Set the cache of the training events.
+   * @param anEventCache the event cache, or null to build the events
+   */
+  public final void setEventCache(final EventCache anEventCache) {
+    this.eventCache = anEventCache;
+  }
+
+  /**
+   * Set the pruning of rare features before training.
+   * @param aPrepass the feature pruning, or null to keep every feature
+   * @param aFeatureDescriptor the XML feature descriptor
+   * @param someResources the resources of the features
+   */
+  public final void setPrepass(final FeaturePrepass aPrepass,
+      final byte[] aFeatureDescriptor, final Map<String, Object> someResources) {
+    this.prepass = aPrepass;
+    this.featureDescriptor = aFeatureDescriptor;
+    this.resources = someResources;
+  }
+
   /**
    * Get the language.
    * @return the language
@@ -0,0 +1,393 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import opennlp.tools.ml.EventTrainer;
+import opennlp.tools.ml.TrainerFactory;
+import opennlp.tools.ml.TrainerFactory.TrainerType;
+import opennlp.tools.ml.model.Event;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.namefind.NameFinderEventStream;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderFactory;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.Span;
+import opennlp.tools.util.TrainingParameters;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import eus.ixa.ixa.pipe.nerc.dict.LazyResource;
+
+/**
+ * Cache of the training events of the name finder. Building the events runs
+ * every feature generator over every token of the training data, e.g., POS
+ * tagging for the morphological features, and it is the same work for every
+ * training with the same data and features. The events are written once to a
+ * compact binary file, and later trainings, cross validation folds or sweep
+ * runs with the same data and features train directly from it.
+ * <p>
+ * The cache file is named by a SHA-256 key over the training samples, the
+ * XML feature descriptor, the sequence codec and the digests of the
+ * resources. The training algorithm parameters, e.g., Cutoff or Iterations,
+ * are not part of the key, since they apply to the events as read. Only the
+ * event based trainers (MAXENT and PERCEPTRON) are supported; the sequence
+ * trainers train as usual. The cached events keep every feature; the
+ * {@link FeaturePrepass} pruning, if any, is applied as they are read.
+ * <p>
+ * Strings are stored once: every outcome and context feature is written as a
+ * variable length integer, the first occurrence of a string being followed by
+ * the string itself.
+ *
+ * @author ragerri
+ * @version 2016-07-29
+ */
+public class EventCache {
+
+  private static final int MAGIC = 0x49584556;
+  private static final int VERSION = 1;
+
+  /**
+   * The directory of the cache files.
+   */
+  private final File directory;
+  /**
+   * The key of the features, the part of the cache key common to every
+   * training of a trainer.
+   */
+  private final String featuresKey;
+  /**
+   * The feature descriptor.
+   */
+  private final byte[] featureDescriptor;
+  /**
+   * The resources of the features.
+   */
+  private final Map<String, Object> resources;
+  /**
+   * The pruning of rare features, or null.
+   */
+  private FeaturePrepass prepass;
+
+  /**
+   * Construct an event cache for a feature set.
+   * @param cacheDir the directory of the cache files
+   * @param featureDescriptor the XML feature descriptor
+   * @param resources the resources of the features
+   * @param sequenceCodec the class name of the sequence codec
+   * @throws IOException if the directory cannot be created
+   */
+  public EventCache(final String cacheDir, final byte[] featureDescriptor,
+      final Map<String, Object> resources, final String sequenceCodec)
+      throws IOException {
+    this.directory = new File(cacheDir);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create event cache directory " + cacheDir);
+    }
+    this.featureDescriptor = featureDescriptor;
+    this.resources = resources;
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(VERSION);
+    hasher.putBytes(featureDescriptor);
+    hasher.putString(String.valueOf(sequenceCodec), Charsets.UTF_8);
+    for (Map.Entry<String, Object> resource : new TreeMap<String, Object>(resources).entrySet()) {
+      hasher.putString(resource.getKey(), Charsets.UTF_8);
+      Object value = resource.getValue();
+      if (value instanceof LazyResource) {
+        hasher.putString(((LazyResource) value).getDigest(), Charsets.UTF_8);
+      } else {
+        hasher.putString(value.getClass().getName(), Charsets.UTF_8);
+      }
+    }
+    this.featuresKey = hasher.hash().toString();
+  }
+
+  /**
+   * Prune the rare features of the cached events before training.
+   * @param prepass the feature pruning
+   */
+  public final void setPrepass(final FeaturePrepass prepass) {
+    this.prepass = prepass;
+  }
+
+  /**
+   * Train a name finder model as {@link NameFinderME} does, taking the
+   * events from the cache if they are there and writing them to it if not.
+   * The samples are read twice if the events are not cached, so the stream
+   * must support reset.
+   * @param lang the language
+   * @param samples the training samples
+   * @param params the training parameters
+   * @param factory the name finder factory
+   * @return the trained model
+   * @throws IOException if the samples or the cache cannot be read
+   */
+  public final TokenNameFinderModel train(final String lang,
+      final ObjectStream<NameSample> samples, final TrainingParameters params,
+      final TokenNameFinderFactory factory) throws IOException {
+    if (!TrainerType.EVENT_MODEL_TRAINER.equals(TrainerFactory
+        .getTrainerType(params.getSettings()))) {
+      System.err.println("-> Event cache only supports event trainers, training without it");
+      return NameFinderME.train(lang, null, samples, params, factory);
+    }
+    File cacheFile = new File(directory, getKey(samples) + ".events");
+    samples.reset();
+    if (cacheFile.exists()) {
+      System.err.println("-> Training events read from cache " + cacheFile);
+    } else {
+      long start = System.currentTimeMillis();
+      long events = write(new NameFinderEventStream(samples, null,
+          factory.createContextGenerator(), factory.createSequenceCodec()), cacheFile);
+      System.err.println("-> " + events + " training events written to cache " + cacheFile
+          + " in " + (System.currentTimeMillis() - start) + " miliseconds");
+    }
+    try (CachedEventStream events = new CachedEventStream(cacheFile)) {
+      ObjectStream<Event> trainEvents = events;
+      if (prepass != null) {
+        prepass.count(events);
+        events.reset();
+        trainEvents = prepass.prune(events);
+      }
+      return trainModel(lang, trainEvents, params, factory, featureDescriptor,
+          resources);
+    }
+  }
+
+  /**
+   * Train a name finder model from its events.
+   * @param lang the language
+   * @param events the training events
+   * @param params the training parameters
+   * @param factory the name finder factory
+   * @param featureDescriptor the XML feature descriptor
+   * @param resources the resources of the features
+   * @return the trained model
+   * @throws IOException if the events cannot be read
+   */
+  static TokenNameFinderModel trainModel(final String lang,
+      final ObjectStream<Event> events, final TrainingParameters params,
+      final TokenNameFinderFactory factory, final byte[] featureDescriptor,
+      final Map<String, Object> resources) throws IOException {
+    int beamSize = NameFinderME.DEFAULT_BEAM_SIZE;
+    String beamSizeString = params.getSettings().get("BeamSize");
+    if (beamSizeString != null) {
+      beamSize = Integer.parseInt(beamSizeString);
+    }
+    Map<String, String> manifestInfoEntries = new HashMap<String, String>();
+    EventTrainer trainer = TrainerFactory.getEventTrainer(params.getSettings(),
+        manifestInfoEntries);
+    MaxentModel nameFinderModel = trainer.train(events);
+    return new TokenNameFinderModel(lang, nameFinderModel, beamSize,
+        featureDescriptor, resources, manifestInfoEntries,
+        factory.createSequenceCodec(), factory);
+  }
+
+  /**
+   * Compute the cache key of the training samples with the features.
+   * @param samples the samples
+   * @return the key
+   * @throws IOException if the samples cannot be read
+   */
+  private String getKey(final ObjectStream<NameSample> samples) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(featuresKey, Charsets.UTF_8);
+    NameSample sample;
+    while ((sample = samples.read()) != null) {
+      hasher.putBoolean(sample.isClearAdaptiveDataSet());
+      String[] tokens = sample.getSentence();
+      hasher.putInt(tokens.length);
+      for (String token : tokens) {
+        hasher.putString(token, Charsets.UTF_8).putByte((byte) 0);
+      }
+      Span[] names = sample.getNames();
+      hasher.putInt(names.length);
+      for (Span name : names) {
+        hasher.putInt(name.getStart()).putInt(name.getEnd());
+        hasher.putString(String.valueOf(name.getType()), Charsets.UTF_8).putByte((byte) 0);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Write the events to a cache file. The file is written under a temporary
+   * name and renamed when complete, so that an interrupted training leaves
+   * no partial cache file.
+   * @param events the events
+   * @param cacheFile the cache file
+   * @return the number of events
+   * @throws IOException if writing fails
+   */
+  private static long write(final ObjectStream<Event> events, final File cacheFile)
+      throws IOException {
+    File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+    long count = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmpFile), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      Event event;
+      while ((event = events.read()) != null) {
+        out.writeBoolean(true);
+        writeString(out, event.getOutcome(), ids);
+        String[] context = event.getContext();
+        float[] values = event.getValues();
+        writeVarInt(out, context.length);
+        for (String feature : context) {
+          writeString(out, feature, ids);
+        }
+        out.writeBoolean(values != null);
+        if (values != null) {
+          for (float value : values) {
+            out.writeFloat(value);
+          }
+        }
+        count++;
+      }
+      out.writeBoolean(false);
+    } catch (IOException | RuntimeException e) {
+      tmpFile.delete();
+      throw e;
+    }
+    if (!tmpFile.renameTo(cacheFile)) {
+      tmpFile.delete();
+      if (!cacheFile.exists()) {
+        throw new IOException("Cannot write event cache " + cacheFile);
+      }
+    }
+    return count;
+  }
+
+  private static void writeString(final DataOutputStream out, final String string,
+      final Map<String, Integer> ids) throws IOException {
+    Integer id = ids.get(string);
+    if (id == null) {
+      writeVarInt(out, ids.size());
+      out.writeUTF(string);
+      ids.put(string, ids.size());
+    } else {
+      writeVarInt(out, id);
+    }
+  }
+
+  private static void writeVarInt(final DataOutputStream out, int value)
+      throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * The events of a cache file.
+   */
+  private static class CachedEventStream implements ObjectStream<Event> {
+
+    private final File cacheFile;
+    private DataInputStream in;
+    private List<String> strings;
+
+    CachedEventStream(final File cacheFile) throws IOException {
+      this.cacheFile = cacheFile;
+      open();
+    }
+
+    private void open() throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16));
+      strings = new ArrayList<String>();
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        in.close();
+        throw new IOException("Not an event cache file: " + cacheFile);
+      }
+    }
+
+    @Override
+    public Event read() throws IOException {
+      try {
+        if (!in.readBoolean()) {
+          return null;
+        }
+        String outcome = readString();
+        String[] context = new String[readVarInt()];
+        for (int i = 0; i < context.length; i++) {
+          context[i] = readString();
+        }
+        float[] values = null;
+        if (in.readBoolean()) {
+          values = new float[context.length];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = in.readFloat();
+          }
+        }
+        return new Event(outcome, context, values);
+      } catch (EOFException e) {
+        throw new IOException("Truncated event cache file: " + cacheFile, e);
+      }
+    }
+
+    private String readString() throws IOException {
+      int id = readVarInt();
+      if (id == strings.size()) {
+        strings.add(in.readUTF());
+      }
+      return strings.get(id);
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = in.readByte();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      in.close();
+      open();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import opennlp.tools.ml.TrainerFactory;
+import opennlp.tools.ml.TrainerFactory.TrainerType;
+import opennlp.tools.ml.model.Event;
+import opennlp.tools.namefind.NameFinderEventStream;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderFactory;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.FilterObjectStream;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.TrainingParameters;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.filter.ElementFilter;
+import org.jdom2.input.SAXBuilder;
+
+/**
+ * Pruning of the rare features before training. A first pass over the
+ * training events counts the occurrences of every feature, and the events
+ * given to the trainer only keep the features occurring at least as many
+ * times as the cutoff of their type:
+ * <ol>
+ * <li>dictionary: the features of the dictionaries.
+ * <li>cluster: the features of the Brown, Clark and Word2Vec clusters.
+ * <li>token: every other feature.
+ * </ol>
+ * Unlike the Cutoff training parameter, applied by the OpenNLP indexers
+ * once every event has been built with all its features, the pruned features
+ * never reach the trainer, so that both the training memory and the model
+ * are smaller. The features are counted by their 64 bit hash in an open
+ * addressing table, or, for huge corpora, in a count-min sketch of fixed
+ * size which may only overestimate the counts.
+ *
+ * @author ragerri
+ * @version 2016-08-01
+ */
+public class FeaturePrepass {
+
+  /**
+   * The feature types.
+   */
+  public static final String TOKEN = "token";
+  public static final String CLUSTER = "cluster";
+  public static final String DICTIONARY = "dictionary";
+  private static final String[] TYPES = { TOKEN, CLUSTER, DICTIONARY };
+  private static final int SKETCH_DEPTH = 4;
+
+  /**
+   * The cutoff of every feature type, indexed as {@link #TYPES}.
+   */
+  private final int[] cutoffs = new int[TYPES.length];
+  /**
+   * The resource ids of the dictionaries.
+   */
+  private final List<String> dictionaries = new ArrayList<String>();
+  /**
+   * The resource ids of the clusters.
+   */
+  private final List<String> clusters = new ArrayList<String>();
+  /**
+   * The width of the count-min sketch, or 0 to count exactly.
+   */
+  private final int sketchWidth;
+  private FeatureCounter counter;
+  /**
+   * The feature occurrences kept and pruned of every type.
+   */
+  private final long[] kept = new long[TYPES.length];
+  private final long[] pruned = new long[TYPES.length];
+
+  /**
+   * Construct a prepass.
+   * @param cutoffs the cutoffs, a number for every type or a comma separated
+   *          list of type:number, e.g., token:2,cluster:1,dictionary:1
+   * @param sketchWidth the width of the count-min sketch, or 0 to count
+   *          exactly
+   * @param featureDescriptor the XML feature descriptor
+   */
+  public FeaturePrepass(final String cutoffs, final int sketchWidth,
+      final byte[] featureDescriptor) {
+    this.sketchWidth = sketchWidth;
+    for (String cutoff : cutoffs.split(",")) {
+      String[] typeCutoff = cutoff.trim().split(":");
+      if (typeCutoff.length == 1) {
+        Arrays.fill(this.cutoffs, Integer.parseInt(typeCutoff[0]));
+      } else {
+        int type = Arrays.asList(TYPES).indexOf(typeCutoff[0].trim());
+        if (type == -1) {
+          throw new IllegalArgumentException("Unknown feature type "
+              + typeCutoff[0] + " in PrepassCutoff, choose token, cluster or dictionary");
+        }
+        this.cutoffs[type] = Integer.parseInt(typeCutoff[1].trim());
+      }
+    }
+    try {
+      Document descriptor = new SAXBuilder().build(new ByteArrayInputStream(featureDescriptor));
+      for (Element element : descriptor.getRootElement().getDescendants(
+          new ElementFilter("custom"))) {
+        String className = element.getAttributeValue("class", "");
+        String resource = element.getAttributeValue("dict");
+        if (resource == null) {
+          continue;
+        }
+        if (className.endsWith(".DictionaryFeatureGenerator")) {
+          dictionaries.add(resource);
+        } else if (className.contains(".Brown") || className.contains(".Clark")
+            || className.contains(".Word2Vec")) {
+          clusters.add(resource);
+        }
+      }
+    } catch (JDOMException | IOException e) {
+      throw new IllegalArgumentException("Cannot read the feature descriptor", e);
+    }
+  }
+
+  /**
+   * Train a name finder model as {@link NameFinderME} does, pruning the rare
+   * features of its events. The samples are read twice, so the stream must
+   * support reset.
+   * @param lang the language
+   * @param samples the training samples
+   * @param params the training parameters
+   * @param factory the name finder factory
+   * @param featureDescriptor the XML feature descriptor
+   * @param resources the resources of the features
+   * @return the trained model
+   * @throws IOException if the samples cannot be read
+   */
+  public final TokenNameFinderModel train(final String lang,
+      final ObjectStream<NameSample> samples, final TrainingParameters params,
+      final TokenNameFinderFactory factory, final byte[] featureDescriptor,
+      final Map<String, Object> resources) throws IOException {
+    if (!TrainerType.EVENT_MODEL_TRAINER.equals(TrainerFactory
+        .getTrainerType(params.getSettings()))) {
+      System.err.println("-> Feature prepass only supports event trainers, training without it");
+      return NameFinderME.train(lang, null, samples, params, factory);
+    }
+    // every pass builds its own feature generators, so that the adaptive
+    // features of the first one do not leak into the second
+    count(new NameFinderEventStream(samples, null,
+        factory.createContextGenerator(), factory.createSequenceCodec()));
+    samples.reset();
+    return EventCache.trainModel(lang, prune(new NameFinderEventStream(samples,
+        null, factory.createContextGenerator(), factory.createSequenceCodec())),
+        params, factory, featureDescriptor, resources);
+  }
+
+  /**
+   * Count the features of the training events.
+   * @param events the events, read to the end
+   * @throws IOException if the events cannot be read
+   */
+  public final void count(final ObjectStream<Event> events) throws IOException {
+    long start = System.currentTimeMillis();
+    counter = sketchWidth > 0 ? new SketchCounter(sketchWidth) : new HashCounter();
+    long occurrences = 0;
+    Event event;
+    while ((event = events.read()) != null) {
+      for (String feature : event.getContext()) {
+        counter.add(hash(feature));
+      }
+      occurrences += event.getContext().length;
+    }
+    System.err.println("-> Prepass counted " + occurrences + " feature occurrences"
+        + (sketchWidth > 0 ? " in a " + SKETCH_DEPTH + "x" + sketchWidth + " count-min sketch"
+            : ", " + ((HashCounter) counter).size + " distinct features")
+        + " in " + (System.currentTimeMillis() - start) + " miliseconds");
+  }
+
+  /**
+   * Prune the rare features of the training events, as counted by
+   * {@link #count(ObjectStream)}.
+   * @param events the events
+   * @return the events without the rare features
+   */
+  public final ObjectStream<Event> prune(final ObjectStream<Event> events) {
+    if (counter == null) {
+      throw new IllegalStateException("Features must be counted before pruning");
+    }
+    Arrays.fill(kept, 0);
+    Arrays.fill(pruned, 0);
+    return new FilterObjectStream<Event, Event>(events) {
+      private boolean reported;
+
+      @Override
+      public Event read() throws IOException {
+        Event event = samples.read();
+        if (event == null) {
+          if (!reported) {
+            report();
+            reported = true;
+          }
+          return null;
+        }
+        String[] context = event.getContext();
+        float[] values = event.getValues();
+        String[] keptContext = new String[context.length];
+        float[] keptValues = values == null ? null : new float[values.length];
+        int count = 0;
+        for (int i = 0; i < context.length; i++) {
+          int type = getType(context[i]);
+          if (counter.get(hash(context[i])) >= cutoffs[type]) {
+            kept[type]++;
+            if (keptValues != null) {
+              keptValues[count] = values[i];
+            }
+            keptContext[count++] = context[i];
+          } else {
+            pruned[type]++;
+          }
+        }
+        if (count == context.length) {
+          return event;
+        }
+        return new Event(event.getOutcome(), Arrays.copyOf(keptContext, count),
+            keptValues == null ? null : Arrays.copyOf(keptValues, count));
+      }
+
+      @Override
+      public void reset() throws IOException {
+        super.reset();
+        Arrays.fill(kept, 0);
+        Arrays.fill(pruned, 0);
+        reported = false;
+      }
+    };
+  }
+
+  private void report() {
+    StringBuilder report = new StringBuilder("-> Prepass pruned");
+    for (int type = 0; type < TYPES.length; type++) {
+      report.append(type == 0 ? " " : ", ").append(TYPES[type]).append(": ")
+          .append(pruned[type]).append(" of ").append(kept[type] + pruned[type])
+          .append(" (cutoff ").append(cutoffs[type]).append(")");
+    }
+    System.err.println(report.append(" feature occurrences"));
+  }
+
+  /**
+   * Get the type of a feature from the resource ids it contains.
+   * @param feature the feature
+   * @return the index of the type
+   */
+  private int getType(final String feature) {
+    for (String dictionary : dictionaries) {
+      if (feature.contains(dictionary)) {
+        return 2;
+      }
+    }
+    for (String cluster : clusters) {
+      if (feature.contains(cluster)) {
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * 64 bit FNV-1a hash of a feature, with a final mix of the bits.
+   * @param feature the feature
+   * @return the hash, never 0
+   */
+  static long hash(final String feature) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < feature.length(); i++) {
+      hash ^= feature.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * A counter of feature hashes.
+   */
+  private interface FeatureCounter {
+    void add(long hash);
+    int get(long hash);
+  }
+
+  /**
+   * Exact counts in an open addressing table of hashes.
+   */
+  private static class HashCounter implements FeatureCounter {
+    private long[] keys = new long[1 << 16];
+    private int[] counts = new int[1 << 16];
+    private int size;
+
+    @Override
+    public void add(final long hash) {
+      int slot = find(keys, hash);
+      if (keys[slot] == 0) {
+        keys[slot] = hash;
+        if (++size * 2 > keys.length) {
+          grow();
+          slot = find(keys, hash);
+        }
+      }
+      if (counts[slot] < Integer.MAX_VALUE) {
+        counts[slot]++;
+      }
+    }
+
+    @Override
+    public int get(final long hash) {
+      int slot = find(keys, hash);
+      return keys[slot] == 0 ? 0 : counts[slot];
+    }
+
+    private static int find(final long[] keys, final long hash) {
+      int mask = keys.length - 1;
+      int slot = (int) hash & mask;
+      while (keys[slot] != 0 && keys[slot] != hash) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[oldKeys.length * 2];
+      counts = new int[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          int slot = find(keys, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Approximate counts in a count-min sketch: the count of a feature is the
+   * minimum of its counters in every row, so that it is never underestimated.
+   */
+  private static class SketchCounter implements FeatureCounter {
+    private final int[][] rows;
+    private final int width;
+
+    SketchCounter(final int width) {
+      this.width = width;
+      this.rows = new int[SKETCH_DEPTH][width];
+    }
+
+    private int column(final long hash, final int row) {
+      long combined = hash + row * (hash >>> 32 | 1);
+      return (int) ((combined & Long.MAX_VALUE) % width);
+    }
+
+    @Override
+    public void add(final long hash) {
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        int column = column(hash, row);
+        if (rows[row][column] < Integer.MAX_VALUE) {
+          rows[row][column]++;
+        }
+      }
+    }
+
+    @Override
+    public int get(final long hash) {
+      int min = Integer.MAX_VALUE;
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        min = Math.min(min, rows[row][column(hash, row)]);
+      }
+      return min;
+    }
+  }
+}
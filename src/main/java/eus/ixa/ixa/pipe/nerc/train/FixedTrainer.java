@@ -35,6 +35,7 @@ import eus.ixa.ixa.pipe.nerc.StringUtils;
 import eus.ixa.ixa.pipe.nerc.dict.BrownCluster;
 import eus.ixa.ixa.pipe.nerc.dict.ClarkCluster;
 import eus.ixa.ixa.pipe.nerc.dict.Dictionary;
+import eus.ixa.ixa.pipe.nerc.dict.LazyResource;
 import eus.ixa.ixa.pipe.nerc.dict.LemmaResource;
 import eus.ixa.ixa.pipe.nerc.dict.MFSResource;
 import eus.ixa.ixa.pipe.nerc.dict.POSModelResource;
@@ -86,6 +87,19 @@ public class FixedTrainer extends AbstractTrainer {
     createTrainer(params);
   }
 
+  /**
+   * Construct a trainer taking the resources from a cache shared with other
+   * trainers, e.g., in a parameter sweep.
+   * @param params the training parameters
+   * @param resourceCache the resources already loaded, by serializer and path
+   * @throws IOException if io errors
+   */
+  public FixedTrainer(final TrainingParameters params,
+      final Map<String, Object> resourceCache) throws IOException {
+    super(params);
+    createTrainer(params, resourceCache);
+  }
+
   /**
    * Create {@code TokenNameFinderFactory} with custom features.
    * 
@@ -94,6 +108,21 @@ public class FixedTrainer extends AbstractTrainer {
    * @throws IOException if io error
    */
   public void createTrainer(TrainingParameters params) throws IOException {
+    createTrainer(params, null);
+  }
+
+  /**
+   * Create {@code TokenNameFinderFactory} with custom features, reusing the
+   * resources of a cache.
+   * 
+   * @param params
+   *          the parameter training file
+   * @param resourceCache
+   *          the resources already loaded, or null to load every resource
+   * @throws IOException if io error
+   */
+  public void createTrainer(TrainingParameters params,
+      Map<String, Object> resourceCache) throws IOException {
     String seqCodec = getSequenceCodec();
     SequenceCodec<String> sequenceCodec = TokenNameFinderFactory
         .instantiateSequenceCodec(seqCodec);
@@ -102,7 +131,20 @@ public class FixedTrainer extends AbstractTrainer {
     System.err.println(featureDescription);
     byte[] featureGeneratorBytes = featureDescription.getBytes(Charset
         .forName("UTF-8"));
-    Map<String, Object> resources = loadResources(params, featureGeneratorBytes);
+    Map<String, Object> resources = loadResources(params, featureGeneratorBytes, resourceCache);
+    System.err.print(LazyResource.getMemoryReport(resources));
+    FeaturePrepass prepass = null;
+    if (Flags.isPrepassCutoff(params)) {
+      prepass = new FeaturePrepass(Flags.getPrepassCutoff(params),
+          Flags.getPrepassSketchWidth(params), featureGeneratorBytes);
+      setPrepass(prepass, featureGeneratorBytes, resources);
+    }
+    if (Flags.isEventCache(params)) {
+      EventCache eventCache = new EventCache(Flags.getEventCache(params),
+          featureGeneratorBytes, resources, seqCodec);
+      eventCache.setPrepass(prepass);
+      setEventCache(eventCache);
+    }
     setNameClassifierFactory(TokenNameFinderFactory.create(
         TokenNameFinderFactory.class.getName(), featureGeneratorBytes,
         resources, sequenceCodec));
@@ -110,6 +152,8 @@ public class FixedTrainer extends AbstractTrainer {
 
   /**
    * Load the external resources such as gazetters and clustering lexicons.
+   * The resources are only read here; each of them is parsed on its first
+   * look-up (see {@link LazyResource}).
    * @param params the training parameters
    * @param featureGenDescriptor the feature generator descriptor
    * @return the map contanining and id and the resource
@@ -117,6 +161,20 @@ public class FixedTrainer extends AbstractTrainer {
    */
   public static Map<String, Object> loadResources(TrainingParameters params,
       byte[] featureGenDescriptor) throws IOException {
+    return loadResources(params, featureGenDescriptor, null);
+  }
+
+  /**
+   * Load the external resources, taking from a cache those already loaded
+   * and adding to it those which are not.
+   * @param params the training parameters
+   * @param featureGenDescriptor the feature generator descriptor
+   * @param resourceCache the resources by serializer and path, or null
+   * @return the map contanining and id and the resource
+   * @throws IOException if io error
+   */
+  public static Map<String, Object> loadResources(TrainingParameters params,
+      byte[] featureGenDescriptor, Map<String, Object> resourceCache) throws IOException {
     Map<String, Object> resources = new HashMap<String, Object>();
     @SuppressWarnings("rawtypes")
     Map<String, ArtifactSerializer> artifactSerializers = TokenNameFinderModel.createArtifactSerializers();
@@ -128,7 +186,7 @@ public class FixedTrainer extends AbstractTrainer {
       for (File brownClusterFile : brownClusterFiles) {
         String brownFilePath = brownClusterFile.getCanonicalPath();
         artifactSerializers.put(serializerId, new BrownCluster.BrownClusterSerializer());
-        loadResource(serializerId, artifactSerializers, brownFilePath, featureGenDescriptor, resources);
+        loadResource(serializerId, artifactSerializers, brownFilePath, featureGenDescriptor, resources, resourceCache);
       }
     }
     if (Flags.isClarkFeatures(params)) {
@@ -138,7 +196,7 @@ public class FixedTrainer extends AbstractTrainer {
       for (File clarkClusterFile: clarkClusterFiles) {
         String clarkFilePath = clarkClusterFile.getCanonicalPath();
         artifactSerializers.put(serializerId, new ClarkCluster.ClarkClusterSerializer());
-        loadResource(serializerId, artifactSerializers, clarkFilePath, featureGenDescriptor, resources);
+        loadResource(serializerId, artifactSerializers, clarkFilePath, featureGenDescriptor, resources, resourceCache);
       }
     }
     if (Flags.isWord2VecClusterFeatures(params)) {
@@ -148,7 +206,7 @@ public class FixedTrainer extends AbstractTrainer {
       for (File word2vecClusterFile : word2vecClusterFiles) {
         String word2vecFilePath = word2vecClusterFile.getCanonicalPath();
         artifactSerializers.put(serializerId, new Word2VecCluster.Word2VecClusterSerializer());
-        loadResource(serializerId, artifactSerializers, word2vecFilePath, featureGenDescriptor, resources);
+        loadResource(serializerId, artifactSerializers, word2vecFilePath, featureGenDescriptor, resources, resourceCache);
       }
     }
     if (Flags.isDictionaryFeatures(params)) {
@@ -158,7 +216,7 @@ public class FixedTrainer extends AbstractTrainer {
       for (File dictFile : fileList) {
         String dictionaryPath = dictFile.getCanonicalPath();
         artifactSerializers.put(serializerId, new Dictionary.DictionarySerializer());
-        loadResource(serializerId, artifactSerializers, dictionaryPath, featureGenDescriptor, resources);
+        loadResource(serializerId, artifactSerializers, dictionaryPath, featureGenDescriptor, resources, resourceCache);
       }
     }
     if (Flags.isMorphoFeatures(params)) {
@@ -167,9 +225,9 @@ public class FixedTrainer extends AbstractTrainer {
       String posSerializerId = "postagserializer";
       String lemmaSerializerId = "lemmaserializer";
       artifactSerializers.put(posSerializerId, new POSModelResource.POSModelResourceSerializer());
-      loadResource(posSerializerId, artifactSerializers, morphoResources[0], featureGenDescriptor, resources);
+      loadResource(posSerializerId, artifactSerializers, morphoResources[0], featureGenDescriptor, resources, resourceCache);
       artifactSerializers.put(lemmaSerializerId, new LemmaResource.LemmaResourceSerializer());
-      loadResource(lemmaSerializerId, artifactSerializers, morphoResources[1], featureGenDescriptor, resources);
+      loadResource(lemmaSerializerId, artifactSerializers, morphoResources[1], featureGenDescriptor, resources, resourceCache);
     }
     if (Flags.isSuperSenseFeatures(params)) {
       String mfsResourcesPath = Flags.getSuperSenseFeatures(params);
@@ -178,11 +236,11 @@ public class FixedTrainer extends AbstractTrainer {
       String lemmaSerializerId = "lemmaserializer";
       String mfsSerializerId = "mfsserializer";
       artifactSerializers.put(posSerializerId, new POSModelResource.POSModelResourceSerializer());
-      loadResource(posSerializerId, artifactSerializers, mfsResources[0], featureGenDescriptor, resources);
+      loadResource(posSerializerId, artifactSerializers, mfsResources[0], featureGenDescriptor, resources, resourceCache);
       artifactSerializers.put(lemmaSerializerId, new LemmaResource.LemmaResourceSerializer());
-      loadResource(lemmaSerializerId, artifactSerializers, mfsResources[1], featureGenDescriptor, resources);
+      loadResource(lemmaSerializerId, artifactSerializers, mfsResources[1], featureGenDescriptor, resources, resourceCache);
       artifactSerializers.put(mfsSerializerId, new MFSResource.MFSResourceSerializer());
-      loadResource(mfsSerializerId, artifactSerializers, mfsResources[2], featureGenDescriptor, resources);
+      loadResource(mfsSerializerId, artifactSerializers, mfsResources[2], featureGenDescriptor, resources, resourceCache);
     }
     if (Flags.isMFSFeatures(params)) {
       String mfsResourcesPath = Flags.getMFSFeatures(params);
@@ -191,11 +249,11 @@ public class FixedTrainer extends AbstractTrainer {
       String lemmaSerializerId = "lemmaserializer";
       String mfsSerializerId = "mfsserializer";
       artifactSerializers.put(posSerializerId, new POSModelResource.POSModelResourceSerializer());
-      loadResource(posSerializerId, artifactSerializers, mfsResources[0], featureGenDescriptor, resources);
+      loadResource(posSerializerId, artifactSerializers, mfsResources[0], featureGenDescriptor, resources, resourceCache);
       artifactSerializers.put(lemmaSerializerId, new LemmaResource.LemmaResourceSerializer());
-      loadResource(lemmaSerializerId, artifactSerializers, mfsResources[1], featureGenDescriptor, resources);
+      loadResource(lemmaSerializerId, artifactSerializers, mfsResources[1], featureGenDescriptor, resources, resourceCache);
       artifactSerializers.put(mfsSerializerId, new MFSResource.MFSResourceSerializer());
-      loadResource(mfsSerializerId, artifactSerializers, mfsResources[2], featureGenDescriptor, resources);
+      loadResource(mfsSerializerId, artifactSerializers, mfsResources[2], featureGenDescriptor, resources, resourceCache);
     }
     return resources;
   }
@@ -210,7 +268,37 @@ public class FixedTrainer extends AbstractTrainer {
    */
   public static void loadResource(String serializerId, @SuppressWarnings("rawtypes") Map<String, ArtifactSerializer> artifactSerializers, String resourcePath,
       byte[] featureGenDescriptor, Map<String, Object> resources) {
+    loadResource(serializerId, artifactSerializers, resourcePath, featureGenDescriptor, resources, null);
+  }
 
+  /**
+   * Load a resource by resourceId, unless it is already in the cache.
+   * @param serializerId the serializer id
+   * @param artifactSerializers the serializers in which to put the resource
+   * @param resourcePath the canonical path of the resource
+   * @param featureGenDescriptor the feature descriptor
+   * @param resources the map in which to put the resource
+   * @param resourceCache the resources by serializer and path, or null
+   */
+  public static void loadResource(String serializerId, @SuppressWarnings("rawtypes") Map<String, ArtifactSerializer> artifactSerializers, String resourcePath,
+      byte[] featureGenDescriptor, Map<String, Object> resources, Map<String, Object> resourceCache) {
+
+    if (resourceCache != null) {
+      String cacheKey = serializerId + ":" + resourcePath;
+      synchronized (resourceCache) {
+        if (!resourceCache.containsKey(cacheKey)) {
+          Map<String, Object> loaded = new HashMap<String, Object>();
+          loadResource(serializerId, artifactSerializers, resourcePath, featureGenDescriptor, loaded);
+          if (loaded.isEmpty()) {
+            return;
+          }
+          resourceCache.put(cacheKey, loaded.values().iterator().next());
+        }
+        String resourceId = InputOutputUtils.normalizeLexiconName(new File(resourcePath).getName());
+        resources.put(resourceId, resourceCache.get(cacheKey));
+      }
+      return;
+    }
     File resourceFile = new File(resourcePath);
     if (resourceFile != null) {
       String resourceId = InputOutputUtils.normalizeLexiconName(resourceFile.getName());
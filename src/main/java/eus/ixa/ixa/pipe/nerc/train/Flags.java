@@ -36,17 +36,41 @@ public class Flags {
    * Default beam size for decoding.
    */
   public static final int DEFAULT_BEAM_SIZE = 3;
+  public static final int DEFAULT_CUTOFF = 5;
   public static final int DEFAULT_FOLDS_VALUE = 10;
+  public static final int DEFAULT_FOLD_THREADS = 1;
+  public static final String DEFAULT_EVAL_THREADS = "1";
+  public static final String DEFAULT_SWEEP_LEADERBOARD = "sweep-leaderboard.tsv";
+  public static final String DEFAULT_EVENT_CACHE = "off";
+  public static final String DEFAULT_CORPUS_INDEX = "no";
+  public static final String DEFAULT_PREPASS_CUTOFF = "off";
+  public static final int DEFAULT_PREPASS_SKETCH_WIDTH = 0;
+  public static final String DEFAULT_SENTENCE_FILTER = "off";
+  public static final String DEFAULT_UPDATE_ITERATIONS = "5";
+  public static final String DEFAULT_PRUNE_THRESHOLD = "0";
+  public static final String DEFAULT_QUANTIZATION = "int8";
   public static final String DEFAULT_EVALUATE_MODEL = "off";
   public static final String DEFAULT_NE_TYPES = "off";
   public static final String DEFAULT_LEXER = "off";
   public static final String DEFAULT_DICT_OPTION = "off";
   public static final String DEFAULT_DICT_PATH = "off";
   public static final String DEFAULT_OUTPUT_FORMAT = "naf";
+  public static final String DEFAULT_INFERENCE = "opennlp";
+  public static final String DEFAULT_ADAPTIVE_BEAM = "off";
+  public static final String DEFAULT_DECODER = "beam";
+  public static final String DEFAULT_FILTER_SENTENCES = "no";
+  public static final String DEFAULT_SENTENCE_CACHE = "10000";
+  public static final String DEFAULT_MAX_SENTENCE_LENGTH = "0";
   public static final String DEFAULT_SEQUENCE_CODEC = "BILOU";
   public static final String DEFAULT_EVAL_FORMAT = "conll02";
   public static final String DEFAULT_TASK = "ner";
   public static final String DEFAULT_HOSTNAME= "localhost";
+  public static final String DEFAULT_WATCH_MODELS = "no";
+  public static final String DEFAULT_WARMUP = "0";
+  public static final String DEFAULT_PROTOCOL = "socket";
+  public static final String DEFAULT_BATCH_LATENCY = "0";
+  public static final String DEFAULT_BATCH_SIZE = "64";
+  public static final String DEFAULT_CONNECTION_MODE = "single";
 
   private Flags() {
 
@@ -115,6 +139,16 @@ public class Flags {
     return beamsize;
   }
 
+  public static Integer getCutoff(TrainingParameters params) {
+    Integer cutoff = null;
+    if (params.getSettings().get("Cutoff") == null) {
+      cutoff = Flags.DEFAULT_CUTOFF;
+    } else {
+      cutoff = Integer.parseInt(params.getSettings().get("Cutoff"));
+    }
+    return cutoff;
+  }
+
   public static Integer getFolds(TrainingParameters params) {
     Integer beamsize = null;
     if (params.getSettings().get("Folds") == null) {
@@ -125,6 +159,76 @@ public class Flags {
     return beamsize;
   }
 
+  public static Integer getFoldThreads(TrainingParameters params) {
+    Integer foldThreads = null;
+    if (params.getSettings().get("FoldThreads") == null) {
+      foldThreads = Flags.DEFAULT_FOLD_THREADS;
+    } else {
+      foldThreads = Integer.parseInt(params.getSettings().get("FoldThreads"));
+    }
+    return foldThreads;
+  }
+
+  public static String getEventCache(TrainingParameters params) {
+    String eventCache = null;
+    if (params.getSettings().get("EventCache") == null) {
+      eventCache = Flags.DEFAULT_EVENT_CACHE;
+    } else {
+      eventCache = params.getSettings().get("EventCache");
+    }
+    return eventCache;
+  }
+
+  public static boolean isEventCache(TrainingParameters params) {
+    return !getEventCache(params).equalsIgnoreCase(Flags.DEFAULT_EVENT_CACHE);
+  }
+
+  public static String getPrepassCutoff(TrainingParameters params) {
+    String prepassCutoff = null;
+    if (params.getSettings().get("PrepassCutoff") == null) {
+      prepassCutoff = Flags.DEFAULT_PREPASS_CUTOFF;
+    } else {
+      prepassCutoff = params.getSettings().get("PrepassCutoff");
+    }
+    return prepassCutoff;
+  }
+
+  public static boolean isPrepassCutoff(TrainingParameters params) {
+    return !getPrepassCutoff(params).equalsIgnoreCase(Flags.DEFAULT_PREPASS_CUTOFF);
+  }
+
+  public static Integer getPrepassSketchWidth(TrainingParameters params) {
+    Integer sketchWidth = null;
+    if (params.getSettings().get("PrepassSketchWidth") == null) {
+      sketchWidth = Flags.DEFAULT_PREPASS_SKETCH_WIDTH;
+    } else {
+      sketchWidth = Integer.parseInt(params.getSettings().get("PrepassSketchWidth"));
+    }
+    return sketchWidth;
+  }
+
+  public static String getSentenceFilter(TrainingParameters params) {
+    String sentenceFilter = null;
+    if (params.getSettings().get("SentenceFilter") == null) {
+      sentenceFilter = Flags.DEFAULT_SENTENCE_FILTER;
+    } else {
+      sentenceFilter = params.getSettings().get("SentenceFilter");
+    }
+    return sentenceFilter;
+  }
+
+  public static boolean isSentenceFilter(TrainingParameters params) {
+    return !getSentenceFilter(params).equalsIgnoreCase(Flags.DEFAULT_SENTENCE_FILTER);
+  }
+
+  public static boolean isCorpusIndex(TrainingParameters params) {
+    String corpusIndex = params.getSettings().get("CorpusIndex");
+    if (corpusIndex == null) {
+      corpusIndex = Flags.DEFAULT_CORPUS_INDEX;
+    }
+    return corpusIndex.equalsIgnoreCase("yes");
+  }
+
   public static String getSequenceCodec(TrainingParameters params) {
     String seqCodec = null;
     if (params.getSettings().get("SequenceCodec") == null) {
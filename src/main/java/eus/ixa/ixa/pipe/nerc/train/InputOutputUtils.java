@@ -22,12 +22,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import opennlp.tools.cmdline.CmdLineUtil;
 import opennlp.tools.cmdline.TerminateToolException;
 import opennlp.tools.ml.TrainerFactory;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.InputStreamFactory;
 import opennlp.tools.util.MarkableFileInputStreamFactory;
 import opennlp.tools.util.ObjectStream;
@@ -40,6 +43,15 @@ import opennlp.tools.util.TrainingParameters;
  */
 public final class InputOutputUtils {
 
+  /**
+   * The artifact of a model with its feature descriptor.
+   */
+  private static final String FEATURE_DESCRIPTOR = "generator.featuregen";
+  /**
+   * The artifact of a model with its classifier.
+   */
+  private static final String CLASSIFIER = "nameFinder.model";
+
   /**
    * Private constructor. This class should only be used statically.
    */
@@ -208,4 +220,29 @@ public final class InputOutputUtils {
     }
     return lineStream;
   }
-}
\ No newline at end of file
+
+  /**
+   * Get the XML feature descriptor of a trained model.
+   *
+   * @param nerModel
+   *          the model
+   * @return the descriptor, or null if the model has none
+   */
+  public static String getFeatureDescriptor(final TokenNameFinderModel nerModel) {
+    byte[] descriptor = nerModel.getArtifact(FEATURE_DESCRIPTOR);
+    return descriptor == null ? null : new String(descriptor, Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Get the classifier of a trained model, as the deprecated
+   * {@code TokenNameFinderModel#getNameFinderModel()} does.
+   *
+   * @param nerModel
+   *          the model
+   * @return the classifier, or null if the model is a sequence model
+   */
+  public static MaxentModel getClassifier(final TokenNameFinderModel nerModel) {
+    Object classifier = nerModel.getArtifact(CLASSIFIER);
+    return classifier instanceof MaxentModel ? (MaxentModel) classifier : null;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.namefind.TokenNameFinderModel;
+
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+
+/**
+ * Compress the classifier of a trained model: the features whose weights
+ * are all below a threshold are pruned, and the remaining weights are
+ * quantized. The int8 quantization rounds every weight to one of 255 levels
+ * scaled by the largest weight of its outcome; the float16 quantization
+ * rounds it to the precision of a half precision float.
+ * <p>
+ * The compressed model keeps the standard OpenNLP model format, so it is
+ * loaded as any other model: fewer features make it smaller and faster to
+ * load, and the few distinct quantized values make its classifier entry
+ * compress much better in the model zip.
+ *
+ * @author ragerri
+ * @version 2016-07-31
+ */
+public class ModelCompressor {
+
+  /**
+   * Quantization to 8 bit integers with a scale per outcome.
+   */
+  public static final String INT8 = "int8";
+  /**
+   * Quantization to half precision floats.
+   */
+  public static final String FLOAT16 = "float16";
+  /**
+   * No quantization.
+   */
+  public static final String NONE = "none";
+  private static final int INT8_LEVELS = 127;
+  private static final float FLOAT16_MAX = 65504f;
+  private static final float FLOAT16_MIN_NORMAL = 6.1035156e-5f;
+
+  /**
+   * The model file.
+   */
+  private final File modelFile;
+  /**
+   * The model to compress.
+   */
+  private final TokenNameFinderModel model;
+  /**
+   * The number of features of the last compressed classifier.
+   */
+  private int features;
+  /**
+   * The number of features pruned from the last compressed classifier.
+   */
+  private int pruned;
+
+  /**
+   * Load a model to compress.
+   *
+   * @param modelFile
+   *          the model file
+   * @throws IOException
+   *           if the model cannot be loaded
+   * @throws IllegalArgumentException
+   *           if the model is exported with mapped weights
+   */
+  public ModelCompressor(final File modelFile) throws IOException {
+    this.modelFile = modelFile;
+    try (InputStream in = new FileInputStream(modelFile)) {
+      this.model = new TokenNameFinderModel(in);
+    }
+    if (MappedWeights.isExported(model)) {
+      throw new IllegalArgumentException(modelFile
+          + " is exported with mapped weights, compress the original model");
+    }
+  }
+
+  /**
+   * @return the model to compress
+   */
+  public final TokenNameFinderModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return the number of features of the last compressed classifier
+   */
+  public final int getFeatures() {
+    return features;
+  }
+
+  /**
+   * @return the number of features pruned from the last compressed classifier
+   */
+  public final int getPruned() {
+    return pruned;
+  }
+
+  /**
+   * Prune and quantize the classifier of the model.
+   *
+   * @param threshold
+   *          the features whose weights are all below this absolute value
+   *          are pruned
+   * @param quantization
+   *          the quantization, int8, float16 or none
+   * @return the compressed classifier
+   */
+  public final MaxentModel compress(final double threshold,
+      final String quantization) {
+    MaxentModel classifier = InputOutputUtils.getClassifier(model);
+    if (!(classifier instanceof PerceptronModel || classifier instanceof GISModel)) {
+      throw new IllegalArgumentException(
+          "Only PERCEPTRON and MAXENT models can be compressed, " + modelFile
+              + " is " + (classifier == null ? "a sequence model"
+                  : ((AbstractModel) classifier).getModelType()));
+    }
+    Object[] data = ((AbstractModel) classifier).getDataStructures();
+    Context[] parameters = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    String[] predicates = pmap.toArray(new String[pmap.size()]);
+    String[] outcomes = (String[]) data[2];
+
+    double[] scales = new double[outcomes.length];
+    for (Context context : parameters) {
+      int[] outcomePattern = context.getOutcomes();
+      double[] params = context.getParameters();
+      for (int i = 0; i < params.length; i++) {
+        scales[outcomePattern[i]] = Math.max(scales[outcomePattern[i]], Math.abs(params[i]));
+      }
+    }
+    for (int o = 0; o < scales.length; o++) {
+      scales[o] /= INT8_LEVELS;
+    }
+
+    List<String> keptPredicates = new ArrayList<String>();
+    List<Context> keptParameters = new ArrayList<Context>();
+    for (int p = 0; p < parameters.length; p++) {
+      int[] outcomePattern = parameters[p].getOutcomes();
+      double[] params = parameters[p].getParameters();
+      int[] newPattern = new int[params.length];
+      double[] newParams = new double[params.length];
+      int kept = 0;
+      boolean aboveThreshold = false;
+      for (int i = 0; i < params.length; i++) {
+        aboveThreshold |= Math.abs(params[i]) >= threshold;
+        double value = quantize(params[i], scales[outcomePattern[i]], quantization);
+        if (value != 0) {
+          newPattern[kept] = outcomePattern[i];
+          newParams[kept++] = value;
+        }
+      }
+      if (aboveThreshold && kept > 0) {
+        keptPredicates.add(predicates[p]);
+        keptParameters.add(new Context(Arrays.copyOf(newPattern, kept),
+            Arrays.copyOf(newParams, kept)));
+      }
+    }
+    if (keptPredicates.isEmpty()) {
+      throw new IllegalArgumentException("The threshold " + threshold
+          + " prunes every feature of " + modelFile);
+    }
+    features = parameters.length;
+    pruned = parameters.length - keptPredicates.size();
+    Context[] newParameters = keptParameters.toArray(new Context[keptParameters.size()]);
+    String[] newPredicates = keptPredicates.toArray(new String[keptPredicates.size()]);
+    if (classifier instanceof PerceptronModel) {
+      return new PerceptronModel(newParameters, newPredicates, outcomes);
+    } else {
+      return new GISModel(newParameters, newPredicates, outcomes,
+          (Integer) data[3], (Double) data[4]);
+    }
+  }
+
+  /**
+   * Quantize a weight.
+   *
+   * @param value
+   *          the weight
+   * @param scale
+   *          the int8 scale of the outcome of the weight
+   * @param quantization
+   *          the quantization
+   * @return the quantized weight
+   */
+  static double quantize(final double value, final double scale,
+      final String quantization) {
+    if (INT8.equalsIgnoreCase(quantization)) {
+      return scale == 0 ? 0 : Math.round(value / scale) * scale;
+    } else if (FLOAT16.equalsIgnoreCase(quantization)) {
+      float single = Math.max(-FLOAT16_MAX, Math.min(FLOAT16_MAX, (float) value));
+      if (Math.abs(single) < FLOAT16_MIN_NORMAL) {
+        return 0;
+      }
+      // round the 23 bit mantissa to 10 bits, half to even
+      int bits = Float.floatToIntBits(single);
+      bits = (bits + 0xFFF + ((bits >>> 13) & 1)) & 0xFFFFE000;
+      return Float.intBitsToFloat(bits);
+    } else {
+      return value;
+    }
+  }
+
+  /**
+   * Write the compressed model: a copy of the original model file with the
+   * classifier replaced.
+   *
+   * @param classifier
+   *          the compressed classifier
+   * @param output
+   *          the file of the compressed model
+   * @throws IOException
+   *           if the model cannot be written
+   */
+  public final void write(final MaxentModel classifier, final File output)
+      throws IOException {
+    ModelRewriter.rewrite(modelFile, classifier, output);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderEvaluator;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.eval.FMeasure;
+import opennlp.tools.util.model.ModelUtil;
+
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+
+/**
+ * Utility functions to rewrite the classifier or the manifest of a trained
+ * model and to compare the original and the rewritten models.
+ * @author ragerri
+ * @version 2016-07-31
+ */
+public final class ModelRewriter {
+
+  /**
+   * The entry of the classifier in the model zip.
+   */
+  public static final String MODEL_ENTRY = "nameFinder.model";
+  /**
+   * The entry of the manifest in the model zip.
+   */
+  public static final String MANIFEST_ENTRY = "manifest.properties";
+
+  /**
+   * Private constructor. This class should only be used statically.
+   */
+  private ModelRewriter() {
+
+  }
+
+  /**
+   * Write a copy of a model file with its classifier replaced. Every other
+   * entry, e.g., the manifest, the feature descriptor and the resources, is
+   * copied as it is.
+   *
+   * @param modelFile
+   *          the original model
+   * @param classifier
+   *          the new classifier
+   * @param output
+   *          the file of the new model
+   * @throws IOException
+   *           if the model cannot be read or written
+   */
+  public static void rewrite(final File modelFile, final MaxentModel classifier,
+      final File output) throws IOException {
+    rewrite(modelFile, classifier, Collections.<String, String> emptyMap(), output);
+  }
+
+  /**
+   * Write a copy of a model file with its classifier replaced and some
+   * manifest properties added. Every other entry is copied as it is.
+   *
+   * @param modelFile
+   *          the original model
+   * @param classifier
+   *          the new classifier
+   * @param manifestProperties
+   *          the properties to add to the manifest
+   * @param output
+   *          the file of the new model
+   * @throws IOException
+   *           if the model cannot be read or written
+   */
+  public static void rewrite(final File modelFile, final MaxentModel classifier,
+      final Map<String, String> manifestProperties, final File output)
+      throws IOException {
+    ByteArrayOutputStream classifierBytes = new ByteArrayOutputStream();
+    ModelUtil.writeModel(classifier, classifierBytes);
+    try (ZipInputStream in = new ZipInputStream(new FileInputStream(modelFile));
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(output))) {
+      copy(in, classifierBytes, manifestProperties, out);
+    }
+  }
+
+  /**
+   * Add some manifest properties to a model, e.g., those learned after
+   * training its classifier. Every other entry is copied as it is.
+   *
+   * @param nameFinderModel
+   *          the model
+   * @param manifestProperties
+   *          the properties to add to the manifest
+   * @return the model with the properties
+   * @throws IOException
+   *           if the model cannot be serialized
+   */
+  public static TokenNameFinderModel addManifestProperties(
+      final TokenNameFinderModel nameFinderModel,
+      final Map<String, String> manifestProperties) throws IOException {
+    ByteArrayOutputStream modelBytes = new ByteArrayOutputStream();
+    nameFinderModel.serialize(modelBytes);
+    ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(modelBytes.toByteArray()));
+        ZipOutputStream out = new ZipOutputStream(rewritten)) {
+      copy(in, null, manifestProperties, out);
+    }
+    return new TokenNameFinderModel(new ByteArrayInputStream(rewritten.toByteArray()));
+  }
+
+  /**
+   * Copy the entries of a model zip.
+   *
+   * @param in
+   *          the original model
+   * @param classifierBytes
+   *          the new classifier, or null to copy the original one
+   * @param manifestProperties
+   *          the properties to add to the manifest
+   * @param out
+   *          the new model
+   * @throws IOException
+   *           if the model cannot be read or written
+   */
+  private static void copy(final ZipInputStream in,
+      final ByteArrayOutputStream classifierBytes,
+      final Map<String, String> manifestProperties, final ZipOutputStream out)
+      throws IOException {
+    ZipEntry entry;
+    while ((entry = in.getNextEntry()) != null) {
+      out.putNextEntry(new ZipEntry(entry.getName()));
+      if (entry.getName().equals(MODEL_ENTRY) && classifierBytes != null) {
+        classifierBytes.writeTo(out);
+      } else if (entry.getName().equals(MANIFEST_ENTRY)
+          && !manifestProperties.isEmpty()) {
+        Properties manifest = new Properties();
+        manifest.load(new ByteArrayInputStream(ModelUtil.read(in)));
+        manifest.putAll(manifestProperties);
+        manifest.store(out, null);
+      } else {
+        out.write(ModelUtil.read(in));
+      }
+      out.closeEntry();
+    }
+  }
+
+  /**
+   * Evaluate a model on a test set, resetting the test set afterwards.
+   *
+   * @param nameFinderModel
+   *          the model
+   * @param testSamples
+   *          the test samples
+   * @return the F measure
+   * @throws IOException
+   *           if the test samples cannot be read
+   * @throws IllegalArgumentException
+   *           if the model is exported with mapped weights
+   */
+  public static FMeasure evaluate(final TokenNameFinderModel nameFinderModel,
+      final ObjectStream<NameSample> testSamples) throws IOException {
+    if (MappedWeights.isExported(nameFinderModel)) {
+      throw new IllegalArgumentException(
+          "The classifier of a model exported with mapped weights cannot be evaluated");
+    }
+    TokenNameFinderEvaluator evaluator = new TokenNameFinderEvaluator(
+        new NameFinderME(nameFinderModel));
+    evaluator.evaluate(testSamples);
+    testSamples.reset();
+    return evaluator.getFMeasure();
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.Event;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.namefind.NameFinderEventStream;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderFactory;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
+
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+
+/**
+ * Update a perceptron name finder model with new annotated samples, without
+ * training on the whole corpus again. The weights of the model are the
+ * starting point of additional averaged perceptron passes over the events of
+ * the new samples only; features and outcomes not seen before are added to
+ * the model. The updated model keeps every other artifact of the original
+ * one, e.g., the feature descriptor and the clusters and dictionaries, so
+ * only its classifier entry is rewritten.
+ *
+ * @author ragerri
+ * @version 2016-07-31
+ */
+public class ModelUpdater {
+
+  /**
+   * The model to update.
+   */
+  private final TokenNameFinderModel model;
+  /**
+   * The model file.
+   */
+  private final File modelFile;
+  /**
+   * The predicates of the model, in parameter order.
+   */
+  private final List<String> predicates = new ArrayList<String>();
+  private final Map<String, Integer> predicateIndex = new HashMap<String, Integer>();
+  /**
+   * The outcomes of the model, in parameter order.
+   */
+  private final List<String> outcomes = new ArrayList<String>();
+  private final Map<String, Integer> outcomeIndex = new HashMap<String, Integer>();
+  /**
+   * The weights of the model, by predicate and outcome.
+   */
+  private final Context[] parameters;
+
+  /**
+   * Load a model to update.
+   *
+   * @param modelFile
+   *          the model file
+   * @throws IOException
+   *           if the model cannot be loaded
+   * @throws IllegalArgumentException
+   *           if the model is not a PERCEPTRON model or is exported with
+   *           mapped weights
+   */
+  public ModelUpdater(final File modelFile) throws IOException {
+    this.modelFile = modelFile;
+    try (InputStream in = new FileInputStream(modelFile)) {
+      this.model = new TokenNameFinderModel(in);
+    }
+    if (MappedWeights.isExported(model)) {
+      throw new IllegalArgumentException(modelFile
+          + " is exported with mapped weights, update the original model");
+    }
+    MaxentModel classifier = InputOutputUtils.getClassifier(model);
+    if (!(classifier instanceof PerceptronModel)) {
+      throw new IllegalArgumentException("Only PERCEPTRON models can be updated, "
+          + modelFile + " is " + (classifier == null ? "a sequence model"
+              : ((AbstractModel) classifier).getModelType()));
+    }
+    Object[] data = ((AbstractModel) classifier).getDataStructures();
+    this.parameters = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    for (String predicate : pmap.toArray(new String[pmap.size()])) {
+      addIndex(predicate, predicates, predicateIndex);
+    }
+    for (String outcome : (String[]) data[2]) {
+      addIndex(outcome, outcomes, outcomeIndex);
+    }
+  }
+
+  private static int addIndex(final String key, final List<String> keys,
+      final Map<String, Integer> index) {
+    Integer i = index.get(key);
+    if (i == null) {
+      i = keys.size();
+      keys.add(key);
+      index.put(key, i);
+    }
+    return i;
+  }
+
+  /**
+   * @return the model to update
+   */
+  public final TokenNameFinderModel getModel() {
+    return model;
+  }
+
+  /**
+   * Run averaged perceptron passes over the events of new samples, starting
+   * from the weights of the model. Only the predicates seen in the new
+   * samples are updated, keeping the sparse outcome patterns of the model:
+   * every other predicate keeps its original weights and a predicate only
+   * gets weights for the outcomes it was updated with. New features occurring
+   * less than cutoff times in the new samples are ignored, as the trainers
+   * do, and so are the new features that never got a weight.
+   *
+   * @param samples
+   *          the new samples
+   * @param iterations
+   *          the number of passes over the new samples
+   * @param cutoff
+   *          the minimum number of occurrences of a new feature
+   * @return the updated classifier
+   * @throws IOException
+   *           if the samples cannot be read
+   */
+  public final PerceptronModel update(final ObjectStream<NameSample> samples,
+      final int iterations, final int cutoff) throws IOException {
+    TokenNameFinderFactory factory = model.getFactory();
+    ObjectStream<Event> eventStream = new NameFinderEventStream(samples, null,
+        factory.createContextGenerator(), factory.createSequenceCodec());
+    List<Event> events = new ArrayList<Event>();
+    Map<String, Integer> newPredicateCounts = new HashMap<String, Integer>();
+    Event event;
+    while ((event = eventStream.read()) != null) {
+      events.add(event);
+      for (String predicate : event.getContext()) {
+        if (!predicateIndex.containsKey(predicate)) {
+          Integer count = newPredicateCounts.get(predicate);
+          newPredicateCounts.put(predicate, count == null ? 1 : count + 1);
+        }
+      }
+    }
+    List<String> updatedPredicates = new ArrayList<String>(predicates);
+    Map<String, Integer> updatedPredicateIndex = new HashMap<String, Integer>(predicateIndex);
+    List<String> updatedOutcomes = new ArrayList<String>(outcomes);
+    Map<String, Integer> updatedOutcomeIndex = new HashMap<String, Integer>(outcomeIndex);
+    List<int[]> contexts = new ArrayList<int[]>(events.size());
+    List<float[]> values = new ArrayList<float[]>(events.size());
+    int[] golds = new int[events.size()];
+    for (int e = 0; e < events.size(); e++) {
+      String[] context = events.get(e).getContext();
+      float[] featureValues = events.get(e).getValues();
+      int[] indexes = new int[context.length];
+      float[] keptValues = featureValues == null ? null : new float[context.length];
+      int kept = 0;
+      for (int i = 0; i < context.length; i++) {
+        Integer count = newPredicateCounts.get(context[i]);
+        if (count == null || count >= cutoff) {
+          if (keptValues != null) {
+            keptValues[kept] = featureValues[i];
+          }
+          indexes[kept++] = addIndex(context[i], updatedPredicates, updatedPredicateIndex);
+        }
+      }
+      contexts.add(kept == indexes.length ? indexes : Arrays.copyOf(indexes, kept));
+      values.add(keptValues == null || kept == keptValues.length ? keptValues
+          : Arrays.copyOf(keptValues, kept));
+      golds[e] = addIndex(events.get(e).getOutcome(), updatedOutcomes, updatedOutcomeIndex);
+    }
+    System.err.println("-> Updating with " + events.size() + " events, "
+        + (updatedPredicates.size() - predicates.size()) + " new features and "
+        + (updatedOutcomes.size() - outcomes.size()) + " new outcomes");
+    events = null;
+
+    // the predicates updated so far, copied from the model when first updated
+    SparseRow[] rows = new SparseRow[updatedPredicates.size()];
+    long steps = 1;
+    double[] scores = new double[updatedOutcomes.size()];
+    for (int iteration = 1; iteration <= iterations; iteration++) {
+      int correct = 0;
+      for (int e = 0; e < contexts.size(); e++) {
+        int[] context = contexts.get(e);
+        float[] featureValues = values.get(e);
+        Arrays.fill(scores, 0);
+        for (int i = 0; i < context.length; i++) {
+          double value = featureValues == null ? 1 : featureValues[i];
+          int p = context[i];
+          if (rows[p] != null) {
+            rows[p].score(scores, value);
+          } else if (p < parameters.length) {
+            int[] outcomePattern = parameters[p].getOutcomes();
+            double[] params = parameters[p].getParameters();
+            for (int o = 0; o < outcomePattern.length; o++) {
+              scores[outcomePattern[o]] += params[o] * value;
+            }
+          }
+        }
+        int best = 0;
+        for (int o = 1; o < scores.length; o++) {
+          if (scores[o] > scores[best]) {
+            best = o;
+          }
+        }
+        int gold = golds[e];
+        if (best == gold) {
+          correct++;
+        } else {
+          for (int i = 0; i < context.length; i++) {
+            double value = featureValues == null ? 1 : featureValues[i];
+            int p = context[i];
+            if (rows[p] == null) {
+              rows[p] = p < parameters.length ? new SparseRow(parameters[p]) : new SparseRow();
+            }
+            rows[p].update(gold, value, steps * value);
+            rows[p].update(best, -value, -steps * value);
+          }
+        }
+        steps++;
+      }
+      System.err.println("-> Iteration " + iteration + ": training accuracy "
+          + String.format("%.5f", (double) correct / Math.max(1, contexts.size())));
+    }
+
+    List<Context> averaged = new ArrayList<Context>(rows.length);
+    List<String> averagedPredicates = new ArrayList<String>(rows.length);
+    for (int p = 0; p < rows.length; p++) {
+      Context context = null;
+      if (rows[p] != null) {
+        context = rows[p].average(steps);
+      } else if (p < parameters.length) {
+        context = parameters[p];
+      }
+      // new features without weights are left out of the model
+      if (p < parameters.length || context != null && context.getOutcomes().length > 0) {
+        averaged.add(context);
+        averagedPredicates.add(updatedPredicates.get(p));
+      }
+    }
+    return new PerceptronModel(averaged.toArray(new Context[averaged.size()]),
+        averagedPredicates.toArray(new String[averagedPredicates.size()]),
+        updatedOutcomes.toArray(new String[updatedOutcomes.size()]));
+  }
+
+  /**
+   * The weights of a predicate being updated, for the outcomes it has a
+   * weight for, and the sum of its updates weighted by the step they were
+   * made at, for the averaged weights of every step: weights - updates /
+   * steps.
+   */
+  private static class SparseRow {
+    private int[] outcomes;
+    private double[] weights;
+    private double[] updates;
+    private int size;
+
+    SparseRow() {
+      this.outcomes = new int[2];
+      this.weights = new double[2];
+      this.updates = new double[2];
+    }
+
+    SparseRow(final Context context) {
+      this.size = context.getOutcomes().length;
+      this.outcomes = Arrays.copyOf(context.getOutcomes(), size + 2);
+      this.weights = Arrays.copyOf(context.getParameters(), size + 2);
+      this.updates = new double[size + 2];
+    }
+
+    void score(final double[] scores, final double value) {
+      for (int i = 0; i < size; i++) {
+        scores[outcomes[i]] += weights[i] * value;
+      }
+    }
+
+    void update(final int outcome, final double weight, final double update) {
+      int i = 0;
+      while (i < size && outcomes[i] != outcome) {
+        i++;
+      }
+      if (i == size) {
+        if (size == outcomes.length) {
+          outcomes = Arrays.copyOf(outcomes, size * 2);
+          weights = Arrays.copyOf(weights, size * 2);
+          updates = Arrays.copyOf(updates, size * 2);
+        }
+        outcomes[i] = outcome;
+        size++;
+      }
+      weights[i] += weight;
+      updates[i] += update;
+    }
+
+    /**
+     * @return the averaged weights, for the outcomes with a non-zero weight
+     */
+    Context average(final long steps) {
+      int[] averagedOutcomes = new int[size];
+      double[] averagedWeights = new double[size];
+      int nonZero = 0;
+      for (int i = 0; i < size; i++) {
+        double weight = weights[i] - updates[i] / steps;
+        if (weight != 0) {
+          averagedOutcomes[nonZero] = outcomes[i];
+          averagedWeights[nonZero++] = weight;
+        }
+      }
+      return new Context(Arrays.copyOf(averagedOutcomes, nonZero),
+          Arrays.copyOf(averagedWeights, nonZero));
+    }
+  }
+
+  /**
+   * Write the updated model: a copy of the original model file with the
+   * classifier replaced.
+   *
+   * @param classifier
+   *          the updated classifier
+   * @param output
+   *          the file of the updated model
+   * @throws IOException
+   *           if the model cannot be written
+   */
+  public final void write(final MaxentModel classifier, final File output)
+      throws IOException {
+    ModelRewriter.rewrite(modelFile, classifier, output);
+  }
+}
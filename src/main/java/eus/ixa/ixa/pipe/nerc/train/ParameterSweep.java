@@ -0,0 +1,307 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.nerc.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import opennlp.tools.util.TrainingParameters;
+import opennlp.tools.util.eval.FMeasure;
+
+/**
+ * Sweep over a grid of training parameters. The grid is a properties file in
+ * which every key is a training parameter and its value the alternatives to
+ * try, separated by '|'; e.g., {@code Window=1:1|2:2} and
+ * {@code Cutoff=0|2} produce four trainings. Each training takes the base
+ * training parameters with the overrides of its grid point, and trains and
+ * evaluates a model as the train subcommand does, without writing it.
+ * <p>
+ * Every distinct resource (clusters, dictionaries, etc.) is loaded once and
+ * shared by all the trainings using it. The trainings run concurrently on a
+ * number of threads, but a training only starts when its estimated memory
+ * fits in the memory budget left by the trainings running. The results are
+ * written as a leaderboard sorted by F1.
+ *
+ * @author ragerri
+ * @version 2016-07-28
+ */
+public class ParameterSweep {
+
+  /**
+   * Separator of the alternative values of a grid parameter.
+   */
+  private static final String VALUE_SEPARATOR = "\\|";
+  /**
+   * Minimum memory estimate of a training, in MB.
+   */
+  private static final int MIN_RUN_MEMORY = 64;
+  /**
+   * Memory estimate of a training per MB of training data.
+   */
+  private static final int TRAINING_MEMORY_FACTOR = 16;
+  private static final int MB = 1024 * 1024;
+
+  /**
+   * The base training parameters.
+   */
+  private final TrainingParameters baseParams;
+  /**
+   * The parameter overrides of every grid point.
+   */
+  private final List<Map<String, String>> grid;
+  /**
+   * The number of trainings running concurrently.
+   */
+  private final int threads;
+  /**
+   * The memory budget of the trainings, in MB.
+   */
+  private final int memoryBudget;
+  /**
+   * The memory estimate of a training, in MB.
+   */
+  private final int runMemory;
+  /**
+   * The resources loaded, by serializer and path.
+   */
+  private final Map<String, Object> resourceCache = new HashMap<String, Object>();
+
+  /**
+   * The result of a training of the sweep.
+   */
+  public static class Result {
+    private final int index;
+    private final Map<String, String> overrides;
+    private final FMeasure fmeasure;
+    private final double seconds;
+    private final String error;
+
+    Result(final int index, final Map<String, String> overrides,
+        final FMeasure fmeasure, final double seconds, final String error) {
+      this.index = index;
+      this.overrides = overrides;
+      this.fmeasure = fmeasure;
+      this.seconds = seconds;
+      this.error = error;
+    }
+
+    /**
+     * @return the parameter overrides of the training
+     */
+    public final Map<String, String> getOverrides() {
+      return overrides;
+    }
+
+    /**
+     * @return the F measure on the test set, or null if training failed
+     */
+    public final FMeasure getFMeasure() {
+      return fmeasure;
+    }
+
+    /**
+     * @return the seconds taken to train and evaluate
+     */
+    public final double getSeconds() {
+      return seconds;
+    }
+
+    /**
+     * @return the error if training failed, or null
+     */
+    public final String getError() {
+      return error;
+    }
+  }
+
+  /**
+   * Construct a sweep.
+   * @param baseParams the base training parameters
+   * @param gridProperties the grid of parameter alternatives
+   * @param threads the number of trainings running concurrently
+   * @param memoryBudget the memory budget of the trainings in MB, or 0 for
+   *          three quarters of the maximum heap
+   * @param runMemory the memory estimate of a training in MB, or 0 to
+   *          estimate it from the size of the training set
+   */
+  public ParameterSweep(final TrainingParameters baseParams,
+      final Properties gridProperties, final int threads,
+      final int memoryBudget, final int runMemory) {
+    this.baseParams = baseParams;
+    this.grid = expandGrid(gridProperties);
+    this.threads = threads;
+    this.memoryBudget = memoryBudget > 0 ? memoryBudget
+        : (int) (Runtime.getRuntime().maxMemory() / MB * 3 / 4);
+    if (runMemory > 0) {
+      this.runMemory = runMemory;
+    } else {
+      long trainSize = new File(baseParams.getSettings().get("TrainSet")).length();
+      this.runMemory = (int) Math.max(MIN_RUN_MEMORY, trainSize / MB * TRAINING_MEMORY_FACTOR);
+    }
+  }
+
+  /**
+   * Expand a grid into the parameter overrides of every grid point. The
+   * parameters are sorted by name, the last one varying fastest.
+   * @param gridProperties the grid
+   * @return the overrides of every grid point
+   */
+  public static List<Map<String, String>> expandGrid(final Properties gridProperties) {
+    Map<String, String[]> alternatives = new TreeMap<String, String[]>();
+    for (String key : gridProperties.stringPropertyNames()) {
+      alternatives.put(key, gridProperties.getProperty(key).trim().split(VALUE_SEPARATOR));
+    }
+    List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+    points.add(new LinkedHashMap<String, String>());
+    for (Map.Entry<String, String[]> parameter : alternatives.entrySet()) {
+      List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+      for (Map<String, String> point : points) {
+        for (String value : parameter.getValue()) {
+          Map<String, String> next = new LinkedHashMap<String, String>(point);
+          next.put(parameter.getKey(), value.trim());
+          expanded.add(next);
+        }
+      }
+      points = expanded;
+    }
+    return points;
+  }
+
+  /**
+   * Run every training of the grid.
+   * @return the results sorted by descending F1, failed trainings last
+   */
+  public final List<Result> run() {
+    System.err.println("-> Sweeping " + grid.size() + " trainings on " + threads
+        + " threads within " + memoryBudget + " MB, " + runMemory + " MB each");
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final Semaphore memory = new Semaphore(memoryBudget);
+    // a training larger than the budget runs alone
+    final int permits = Math.min(runMemory, memoryBudget);
+    List<Future<Result>> futures = new ArrayList<Future<Result>>();
+    for (int i = 0; i < grid.size(); i++) {
+      final int index = i;
+      futures.add(pool.submit(new Callable<Result>() {
+        @Override
+        public Result call() {
+          memory.acquireUninterruptibly(permits);
+          try {
+            return train(index);
+          } finally {
+            memory.release(permits);
+          }
+        }
+      }));
+    }
+    pool.shutdown();
+    List<Result> results = new ArrayList<Result>();
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        results.add(futures.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        results.add(new Result(i, grid.get(i), null, 0, "interrupted"));
+      } catch (ExecutionException e) {
+        results.add(new Result(i, grid.get(i), null, 0, String.valueOf(e.getCause())));
+      }
+    }
+    Collections.sort(results, new Comparator<Result>() {
+      @Override
+      public int compare(final Result a, final Result b) {
+        double scoreA = a.fmeasure == null ? -1 : a.fmeasure.getFMeasure();
+        double scoreB = b.fmeasure == null ? -1 : b.fmeasure.getFMeasure();
+        int byScore = Double.compare(scoreB, scoreA);
+        return byScore != 0 ? byScore : Integer.compare(a.index, b.index);
+      }
+    });
+    return results;
+  }
+
+  /**
+   * Train and evaluate the model of a grid point.
+   * @param index the index of the grid point
+   * @return the result
+   */
+  private Result train(final int index) {
+    Map<String, String> overrides = grid.get(index);
+    TrainingParameters params = new TrainingParameters();
+    for (Map.Entry<String, String> setting : baseParams.getSettings().entrySet()) {
+      params.put(setting.getKey(), setting.getValue());
+    }
+    for (Map.Entry<String, String> override : overrides.entrySet()) {
+      params.put(override.getKey(), override.getValue());
+    }
+    System.err.println("-> Training " + (index + 1) + " of " + grid.size() + ": " + overrides);
+    long start = System.nanoTime();
+    try (AbstractTrainer trainer = new FixedTrainer(params, resourceCache)) {
+      trainer.train(params);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      return new Result(index, overrides, trainer.getFMeasure(), seconds, null);
+    } catch (IOException | RuntimeException e) {
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.err.println("-> Training " + (index + 1) + " failed: " + e);
+      return new Result(index, overrides, null, seconds, e.toString());
+    }
+  }
+
+  /**
+   * Write the leaderboard of a sweep as tab separated values.
+   * @param results the results, sorted
+   * @param writer the writer
+   * @throws IOException if writing fails
+   */
+  public static void writeLeaderboard(final List<Result> results,
+      final Writer writer) throws IOException {
+    writer.write("rank\tF1\tprecision\trecall\tseconds\tparameters\n");
+    int rank = 1;
+    for (Result result : results) {
+      StringBuilder parameters = new StringBuilder();
+      for (Map.Entry<String, String> override : result.overrides.entrySet()) {
+        if (parameters.length() > 0) {
+          parameters.append(' ');
+        }
+        parameters.append(override.getKey()).append('=').append(override.getValue());
+      }
+      if (result.fmeasure == null) {
+        writer.write("-\t-\t-\t-\t" + String.format("%.1f", result.seconds) + "\t"
+            + parameters + "\tFAILED: " + result.error + "\n");
+      } else {
+        writer.write(rank++ + "\t"
+            + String.format("%.4f\t%.4f\t%.4f\t%.1f", result.fmeasure.getFMeasure(),
+                result.fmeasure.getPrecisionScore(), result.fmeasure.getRecallScore(),
+                result.seconds) + "\t" + parameters + "\n");
+      }
+    }
+    writer.flush();
+  }
+}
@@ -16,6 +16,7 @@
 
 package eus.ixa.ixa.pipe.nerc.train;
 
+import java.io.IOException;
 
 import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.TrainingParameters;
@@ -33,8 +34,10 @@ public interface Trainer {
    * @param params
    *          the training parameters file
    * @return the model
+   * @throws IOException
+   *          if the training or test data cannot be read
    */
-  TokenNameFinderModel train(TrainingParameters params);
+  TokenNameFinderModel train(TrainingParameters params) throws IOException;
 
 }
 
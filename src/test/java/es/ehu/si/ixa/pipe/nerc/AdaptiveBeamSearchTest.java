@@ -0,0 +1,170 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.decode.AdaptiveBeamSearch;
+
+public class AdaptiveBeamSearchTest {
+
+    private static final String[] OUTCOMES = {"other", "person-start", "person-cont",
+        "location-start", "location-cont"};
+
+    /**
+     * Probabilities drawn from the hash code of the context, so that the
+     * best outcome is often invalid and the greedy and beam searches differ.
+     */
+    static final MaxentModel MODEL = new MaxentModel() {
+        @Override
+        public double[] eval(String[] context, double[] probs) {
+            Random random = new Random(Arrays.hashCode(context));
+            double normal = 0;
+            for (int o = 0; o < probs.length; o++) {
+                probs[o] = random.nextDouble();
+                normal += probs[o];
+            }
+            for (int o = 0; o < probs.length; o++) {
+                probs[o] /= normal;
+            }
+            return probs;
+        }
+
+        @Override
+        public double[] eval(String[] context) {
+            return eval(context, new double[OUTCOMES.length]);
+        }
+
+        @Override
+        public double[] eval(String[] context, float[] values) {
+            return eval(context);
+        }
+
+        @Override
+        public String getBestOutcome(double[] probs) {
+            int best = 0;
+            for (int o = 1; o < probs.length; o++) {
+                if (probs[o] > probs[best]) {
+                    best = o;
+                }
+            }
+            return OUTCOMES[best];
+        }
+
+        @Override
+        public String getAllOutcomes(double[] probs) {
+            return Arrays.toString(probs);
+        }
+
+        @Override
+        public String getOutcome(int outcome) {
+            return OUTCOMES[outcome];
+        }
+
+        @Override
+        public int getIndex(String outcome) {
+            return Arrays.asList(OUTCOMES).indexOf(outcome);
+        }
+
+        @Override
+        public int getNumOutcomes() {
+            return OUTCOMES.length;
+        }
+    };
+
+    /**
+     * The token and the previous outcome.
+     */
+    static final BeamSearchContextGenerator<String> CONTEXTS = new BeamSearchContextGenerator<String>() {
+        @Override
+        public String[] getContext(int index, String[] sequence, String[] priorDecisions,
+                Object[] additionalContext) {
+            return new String[] {"w=" + sequence[index],
+                "p=" + (index == 0 ? "start" : priorDecisions[index - 1])};
+        }
+    };
+
+    /**
+     * A name continues a name of its type.
+     */
+    static final SequenceValidator<String> VALIDATOR = new SequenceValidator<String>() {
+        @Override
+        public boolean validSequence(int i, String[] inputSequence, String[] outcomesSequence,
+                String outcome) {
+            if (!outcome.endsWith("-cont")) {
+                return true;
+            }
+            String type = outcome.substring(0, outcome.indexOf('-'));
+            return i > 0 && outcomesSequence[i - 1].startsWith(type + "-");
+        }
+    };
+
+    static String[] sentence(Random random) {
+        String[] sentence = new String[1 + random.nextInt(12)];
+        for (int i = 0; i < sentence.length; i++) {
+            sentence[i] = "t" + random.nextInt(20);
+        }
+        return sentence;
+    }
+
+    private static void assertValid(String[] sentence, Sequence sequence) {
+        List<String> outcomes = sequence.getOutcomes();
+        assertEquals(sentence.length, outcomes.size());
+        for (int i = 0; i < outcomes.size(); i++) {
+            assertTrue(VALIDATOR.validSequence(i, sentence,
+                outcomes.toArray(new String[outcomes.size()]), outcomes.get(i)));
+        }
+    }
+
+    private static void assertSameSequences(int beamSize, double threshold, int fixedBeamSize) {
+        Random random = new Random(7);
+        AdaptiveBeamSearch.Statistics statistics = new AdaptiveBeamSearch.Statistics();
+        AdaptiveBeamSearch adaptive = new AdaptiveBeamSearch(beamSize, MODEL, threshold, statistics);
+        BeamSearch<String> fixed = new BeamSearch<String>(fixedBeamSize, MODEL);
+        for (int s = 0; s < 200; s++) {
+            String[] sentence = sentence(random);
+            Sequence expected = fixed.bestSequence(sentence, null, CONTEXTS, VALIDATOR);
+            Sequence sequence = adaptive.bestSequence(sentence, null, CONTEXTS, VALIDATOR);
+            assertEquals(expected.getOutcomes(), sequence.getOutcomes());
+            assertEquals(expected.getScore(), sequence.getScore(), 0);
+            assertValid(sentence, sequence);
+        }
+        assertEquals(threshold >= 1 ? statistics.getTokens() : 0, statistics.getWidenedTokens());
+    }
+
+    @Test
+    public void alwaysWidenedIsTheFixedBeam() {
+        for (int beamSize = 1; beamSize <= 4; beamSize++) {
+            assertSameSequences(beamSize, 1, beamSize);
+        }
+    }
+
+    @Test
+    public void neverWidenedIsGreedy() {
+        assertSameSequences(3, 0, 1);
+    }
+
+    @Test
+    public void widensAtLowMargins() {
+        Random random = new Random(7);
+        AdaptiveBeamSearch.Statistics statistics = new AdaptiveBeamSearch.Statistics();
+        AdaptiveBeamSearch adaptive = new AdaptiveBeamSearch(3, MODEL, 0.1, statistics);
+        for (int s = 0; s < 200; s++) {
+            String[] sentence = sentence(random);
+            assertValid(sentence, adaptive.bestSequence(sentence, null, CONTEXTS, VALIDATOR));
+        }
+        assertTrue(statistics.getWidenedTokens() > 0);
+        assertTrue(statistics.getWidenedTokens() < statistics.getTokens());
+    }
+}
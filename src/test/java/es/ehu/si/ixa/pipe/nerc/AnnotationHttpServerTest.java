@@ -0,0 +1,91 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.AnnotationHttpServer;
+
+public class AnnotationHttpServerTest {
+
+    private static AnnotationHttpServer server = null;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        File dictsDir = Files.createTempDirectory("dicts").toFile();
+        Files.copy(AnnotationHttpServerTest.class
+                .getResourceAsStream("/names.txt"),
+                new File(dictsDir, "names.txt").toPath());
+        // dictionary only tagging, no statistical model required
+        Properties properties = new Properties();
+        properties.setProperty("port", "0");
+        properties.setProperty("threads", "2");
+        properties.setProperty("language", "en");
+        properties.setProperty("ruleBasedOption", "off");
+        properties.setProperty("dictTag", "tag");
+        properties.setProperty("dictPath", dictsDir.getAbsolutePath());
+        properties.setProperty("clearFeatures", "no");
+        server = new AnnotationHttpServer(properties);
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop();
+    }
+
+    private static String post(String body, int expectedStatus) throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + "/annotate");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes("UTF-8"));
+        }
+        assertEquals(expectedStatus, connection.getResponseCode());
+        InputStream in = expectedStatus == 200 ? connection.getInputStream()
+                : connection.getErrorStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            response.write(buffer, 0, read);
+        }
+        in.close();
+        return response.toString("UTF-8");
+    }
+
+    @Test
+    public void jsonSentences() throws IOException {
+        String response = post("[[\"Achilles\", \"met\", \"Aristotle\"], [\"Ayn\", \"Rand\", \"\\\"laughed\\\"\"]]", 200);
+        assertEquals("{\"sentences\":[["
+                + "{\"start\":0,\"end\":1,\"type\":\"PERSON\",\"text\":\"Achilles\"},"
+                + "{\"start\":2,\"end\":3,\"type\":\"PERSON\",\"text\":\"Aristotle\"}],"
+                + "[{\"start\":0,\"end\":2,\"type\":\"PERSON\",\"text\":\"Ayn Rand\"}]]}", response);
+    }
+
+    @Test
+    public void flatTokenArray() throws IOException {
+        String response = post("[\"Abraham\", \"Lincoln\", \"spoke\"]", 200);
+        assertEquals("{\"sentences\":[["
+                + "{\"start\":0,\"end\":2,\"type\":\"PERSON\",\"text\":\"Abraham Lincoln\"}]]}", response);
+    }
+
+    @Test
+    public void badInput() throws IOException {
+        post("[\"Achilles\"", 400);
+    }
+
+}
@@ -0,0 +1,87 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.BatchScheduler;
+
+public class BatchSchedulerTest {
+
+    /**
+     * Upper cases the documents, recording the documents of every call.
+     */
+    private static class Recorder implements BatchScheduler.Processor<String, String> {
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public List<String> process(String key, List<String> documents) {
+            calls.add(key + documents);
+            List<String> results = new ArrayList<String>();
+            for (String document : documents) {
+                results.add(document.toUpperCase());
+            }
+            return results;
+        }
+    }
+
+    @Test
+    public void processesTheDocumentsOfAKeyTogether() throws Exception {
+        Recorder recorder = new Recorder();
+        BatchScheduler<String, String> scheduler = new BatchScheduler<String, String>(recorder, 64, 500, 1);
+        Future<String> a1 = scheduler.submit("a", "one", 1);
+        Future<String> b1 = scheduler.submit("b", "two", 1);
+        Future<String> a2 = scheduler.submit("a", "three", 1);
+        assertEquals("ONE", a1.get(5, TimeUnit.SECONDS));
+        assertEquals("TWO", b1.get(5, TimeUnit.SECONDS));
+        assertEquals("THREE", a2.get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a[one, three]", "b[two]"), recorder.calls);
+        assertEquals(Long.valueOf(1), scheduler.getMetrics().get("batches"));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shutdownFailsTheWaitingDocuments() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        BatchScheduler<String, String> scheduler = new BatchScheduler<String, String>(
+            new BatchScheduler.Processor<String, String>() {
+                @Override
+                public List<String> process(String key, List<String> documents) throws Exception {
+                    started.countDown();
+                    release.await();
+                    return documents;
+                }
+            }, 1, 1, 1);
+        Future<String> running = scheduler.submit("a", "running", 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> waiting = scheduler.submit("a", "waiting", 1);
+        scheduler.shutdown();
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("The waiting document should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            scheduler.submit("a", "late", 1).get(5, TimeUnit.SECONDS);
+            fail("The documents submitted after the shutdown should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,135 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.Span;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import eus.ixa.ixa.pipe.nerc.formats.CoNLL02Format;
+import eus.ixa.ixa.pipe.nerc.formats.CoNLL03Format;
+import eus.ixa.ixa.pipe.nerc.formats.CorpusIndex;
+import eus.ixa.ixa.pipe.nerc.formats.IndexedNameSampleStream;
+import eus.ixa.ixa.pipe.nerc.formats.MappedLineStream;
+
+public class CoNLLFormatTest {
+
+    private static File write(String text) throws IOException {
+        File file = File.createTempFile("conll", ".tsv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(Charsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void mappedLinesAcrossRegions() throws IOException {
+        File file = write("Donostia\r\nañ\n\nlast");
+        // regions smaller than the lines
+        ObjectStream<String> lines = new MappedLineStream(file, 3);
+        for (int pass = 0; pass < 2; pass++) {
+            assertEquals("Donostia", lines.read());
+            assertEquals("añ", lines.read());
+            assertEquals("", lines.read());
+            assertEquals("last", lines.read());
+            assertNull(lines.read());
+            lines.reset();
+        }
+        lines.close();
+    }
+
+    @Test
+    public void conll02() throws IOException {
+        StringBuilder text = new StringBuilder("Mikel\tB-PER\nPrado\tI-PER\nin\tO\n");
+        // a long run of empty lines between sentences
+        for (int i = 0; i < 100000; i++) {
+            text.append('\n');
+        }
+        text.append("Bilbao\tB-LOC\n");
+        ObjectStream<NameSample> samples = new CoNLL02Format("no",
+                new MappedLineStream(write(text.toString())));
+        NameSample sample = samples.read();
+        assertEquals(3, sample.getSentence().length);
+        assertEquals(new Span(0, 2, "PER"), sample.getNames()[0]);
+        assertFalse(sample.isClearAdaptiveDataSet());
+        sample = samples.read();
+        assertEquals("Bilbao", sample.getSentence()[0]);
+        assertEquals(new Span(0, 1, "LOC"), sample.getNames()[0]);
+        assertNull(samples.read());
+        samples.close();
+    }
+
+    @Test
+    public void conll03() throws IOException {
+        ObjectStream<NameSample> samples = new CoNLL03Format("docstart",
+                new MappedLineStream(write("-DOCSTART-\tO\n\n\n"
+                        + "EU\tI-ORG\nrejects\tO\nGerman\tI-MISC\n")));
+        NameSample sample = samples.read();
+        assertTrue(sample.isClearAdaptiveDataSet());
+        assertEquals(new Span(0, 1, "ORG"), sample.getNames()[0]);
+        assertEquals(new Span(2, 3, "MISC"), sample.getNames()[1]);
+        assertNull(samples.read());
+        samples.close();
+    }
+
+    @Test
+    public void indexedStream() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int doc = 0; doc < 4; doc++) {
+            text.append("-DOCSTART-\tO\n\n");
+            for (int sent = 0; sent < 3; sent++) {
+                text.append("d" + doc + "\tO\ns" + sent + "\tB-LOC\n\n\n");
+            }
+        }
+        File file = write(text.toString());
+        File indexFile = new File(file.getPath() + CorpusIndex.EXTENSION);
+        indexFile.deleteOnExit();
+        IndexedNameSampleStream samples = new IndexedNameSampleStream(file,
+                "conll03", "docstart");
+        assertTrue(indexFile.isFile());
+        assertEquals(12, samples.getSentences());
+        ObjectStream<NameSample> plain = new CoNLL03Format("docstart",
+                new MappedLineStream(file));
+        for (int pass = 0; pass < 2; pass++) {
+            NameSample sample;
+            while ((sample = plain.read()) != null) {
+                assertEquals(sample, samples.read());
+            }
+            assertNull(samples.read());
+            plain.reset();
+            samples.reset();
+        }
+        // documents are shuffled as a whole
+        samples.shuffle(7);
+        for (int doc = 0; doc < 4; doc++) {
+            NameSample first = samples.read();
+            assertTrue(first.isClearAdaptiveDataSet());
+            for (int sent = 1; sent < 3; sent++) {
+                assertEquals(first.getSentence()[0], samples.read().getSentence()[0]);
+            }
+        }
+        assertNull(samples.read());
+        IndexedNameSampleStream shard = new IndexedNameSampleStream(file,
+                "conll03", "docstart").shard(1, 2);
+        assertEquals(6, shard.getSentences());
+        assertEquals("d2", shard.read().getSentence()[0]);
+        samples.close();
+        shard.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void threeFields() throws IOException {
+        new CoNLL02Format("no", new MappedLineStream(write("EU\tNNP\tB-ORG\n"))).read();
+    }
+
+}
@@ -0,0 +1,53 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import java.io.File;
+import java.io.IOException;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.ObjectStream;
+
+import eus.ixa.ixa.pipe.nerc.formats.CoNLL02Format;
+import eus.ixa.ixa.pipe.nerc.formats.CoNLL03Format;
+import eus.ixa.ixa.pipe.nerc.formats.MappedLineStream;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+
+/**
+ * Throughput of the CoNLL readers, in tokens per second, reading the lines
+ * of a corpus from a {@link MappedLineStream} or from the buffered line
+ * stream of {@link InputOutputUtils#readFileIntoMarkableStreamFactory(String)}.
+ * Every round reads the whole corpus with both line streams; the first
+ * rounds warm up the JIT.
+ * <p>
+ * Usage: {@code CoNLLReaderBenchmark corpus [conll02|conll03] [rounds]},
+ * with the test classpath.
+ */
+public class CoNLLReaderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: CoNLLReaderBenchmark corpus [conll02|conll03] [rounds]");
+            System.exit(1);
+        }
+        String corpus = args[0];
+        String format = args.length > 1 ? args[1] : "conll03";
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        for (int round = 1; round <= rounds; round++) {
+            for (boolean mapped : new boolean[] { false, true }) {
+                ObjectStream<String> lines = mapped ? new MappedLineStream(new File(corpus))
+                        : InputOutputUtils.readFileIntoMarkableStreamFactory(corpus);
+                ObjectStream<NameSample> samples = format.equalsIgnoreCase("conll02")
+                        ? new CoNLL02Format("docstart", lines) : new CoNLL03Format("docstart", lines);
+                long start = System.nanoTime();
+                long tokens = 0;
+                NameSample sample;
+                while ((sample = samples.read()) != null) {
+                    tokens += sample.getSentence().length;
+                }
+                samples.close();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format("round %d %s: %d tokens in %.2fs, %.0f tokens/s", round,
+                        mapped ? "mapped" : "buffered", tokens, seconds, tokens / seconds));
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.decode.CompactModel;
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+import eus.ixa.ixa.pipe.nerc.decode.ScoringKernel;
+
+public class CompactModelTest {
+
+    private static final String[] PREDICATES = {"w=Bilbao", "sh=Xx", "pd=in", "bias"};
+    private static final String[] OUTCOMES = {"other", "location-start", "person-start"};
+
+    private static Context[] parameters() {
+        // sparse outcome patterns, as stored by the trainers
+        return new Context[] {
+            new Context(new int[] {1}, new double[] {2.5}),
+            new Context(new int[] {1, 2}, new double[] {0.75, 1.25}),
+            new Context(new int[] {0, 2}, new double[] {-0.5, 0.125}),
+            new Context(new int[] {0, 1, 2}, new double[] {1.5, -0.25, -1})};
+    }
+
+    private static void assertSameProbs(MaxentModel expected) throws IOException {
+        File weights = File.createTempFile("compact", MappedWeights.EXTENSION);
+        weights.deleteOnExit();
+        MappedWeights.write(expected, weights);
+        for (ScoringKernel kernel : new ScoringKernel[] {ScoringKernel.SCALAR, ScoringKernel.VECTOR}) {
+            assertSameProbs(expected, CompactModel.compile(expected, kernel));
+            assertSameProbs(expected, MappedWeights.map(weights, kernel));
+        }
+    }
+
+    private static void assertSameProbs(MaxentModel expected, CompactModel compact) {
+        String[][] contexts = {
+            {"w=Bilbao", "sh=Xx", "pd=in", "bias"},
+            // more than a block of features, with unknown features
+            {"bias", "w=Bilbao", "sh=Xx", "w=Mikel", "pd=in", "sh=Xx", "bias"},
+            {"w=Mikel", "sh=Xx", "bias"},
+            {"unknown"},
+            {}};
+        for (String[] context : contexts) {
+            assertArrayEquals(expected.eval(context), compact.eval(context), 0);
+        }
+        float[] values = {0.5f, 2, 1, -1, 3, 0.25f, 1};
+        for (int c = 0; c < 2; c++) {
+            float[] contextValues = Arrays.copyOf(values, contexts[c].length);
+            assertArrayEquals(expected.eval(contexts[c], contextValues),
+                    compact.eval(contexts[c], contextValues), 0);
+        }
+        assertEquals(expected.getBestOutcome(expected.eval(contexts[0])),
+                compact.getBestOutcome(compact.eval(contexts[0])));
+        assertEquals(2, compact.getIndex("person-start"));
+    }
+
+    @Test
+    public void perceptron() throws IOException {
+        assertSameProbs(new PerceptronModel(parameters(), PREDICATES, OUTCOMES));
+    }
+
+    @Test
+    public void maxent() throws IOException {
+        assertSameProbs(new GISModel(parameters(), PREDICATES, OUTCOMES, 3, 0));
+        // with the correction feature
+        assertSameProbs(new GISModel(parameters(), PREDICATES, OUTCOMES, 3, 0.4));
+    }
+
+}
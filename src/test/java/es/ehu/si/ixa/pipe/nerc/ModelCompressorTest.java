@@ -0,0 +1,161 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+import eus.ixa.ixa.pipe.nerc.train.ModelCompressor;
+
+public class ModelCompressorTest {
+
+    private static File modelFile;
+    private static String[] outcomes;
+    private static Map<String, double[]> original;
+
+    @BeforeClass
+    public static void train() throws IOException {
+        modelFile = ModelUpdaterTest.trainModel();
+        AbstractModel classifier = (AbstractModel) InputOutputUtils.getClassifier(
+            new ModelCompressor(modelFile).getModel());
+        outcomes = (String[]) classifier.getDataStructures()[2];
+        original = weights(classifier);
+    }
+
+    /**
+     * The weights of every feature of a classifier by outcome, zero for the
+     * outcomes not in its outcome pattern.
+     */
+    private static Map<String, double[]> weights(MaxentModel model) {
+        Object[] data = ((AbstractModel) model).getDataStructures();
+        Context[] parameters = (Context[]) data[0];
+        @SuppressWarnings("unchecked")
+        IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+        String[] modelOutcomes = (String[]) data[2];
+        assertArrayEquals(outcomes, modelOutcomes);
+        Map<String, double[]> weights = new HashMap<String, double[]>();
+        for (String predicate : pmap.toArray(new String[pmap.size()])) {
+            Context context = parameters[pmap.get(predicate)];
+            double[] row = new double[modelOutcomes.length];
+            for (int i = 0; i < context.getOutcomes().length; i++) {
+                row[context.getOutcomes()[i]] = context.getParameters()[i];
+            }
+            weights.put(predicate, row);
+        }
+        return weights;
+    }
+
+    private static double weight(Map<String, double[]> weights, String predicate, int outcome) {
+        double[] row = weights.get(predicate);
+        return row == null ? 0 : row[outcome];
+    }
+
+    @Test
+    public void int8ErrorIsWithinHalfTheScale() throws IOException {
+        double[] scales = new double[outcomes.length];
+        for (double[] row : original.values()) {
+            for (int o = 0; o < row.length; o++) {
+                scales[o] = Math.max(scales[o], Math.abs(row[o]) / 127);
+            }
+        }
+        Map<String, double[]> compressed = weights(new ModelCompressor(modelFile).compress(0, "int8"));
+        for (Map.Entry<String, double[]> entry : original.entrySet()) {
+            for (int o = 0; o < outcomes.length; o++) {
+                double quantized = weight(compressed, entry.getKey(), o);
+                assertEquals(entry.getKey() + " " + outcomes[o], entry.getValue()[o], quantized,
+                    scales[o] / 2 + 1e-12);
+                assertEquals(Math.rint(quantized / scales[o]), quantized / scales[o], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void float16WeightsAreHalfPrecisionValues() throws IOException {
+        Map<String, double[]> compressed = weights(new ModelCompressor(modelFile).compress(0, "float16"));
+        for (Map.Entry<String, double[]> entry : compressed.entrySet()) {
+            for (int o = 0; o < outcomes.length; o++) {
+                double value = entry.getValue()[o];
+                if (value == 0) {
+                    continue;
+                }
+                float single = (float) value;
+                assertEquals(value, single, 0);
+                // a normal half: 10 bit mantissa and exponent in [-14, 15]
+                int bits = Float.floatToIntBits(single);
+                assertEquals(0, bits & 0x1FFF);
+                int exponent = Math.getExponent(single);
+                assertTrue(exponent >= -14 && exponent <= 15);
+                double weight = weight(original, entry.getKey(), o);
+                assertEquals(weight, value, Math.abs(weight) / 2048);
+            }
+        }
+    }
+
+    @Test
+    public void thresholdPrunesTheFeaturesBelowIt() throws IOException {
+        // the largest weight of the model: only the features reaching it are kept
+        double threshold = 0;
+        for (double[] row : original.values()) {
+            for (double weight : row) {
+                threshold = Math.max(threshold, Math.abs(weight));
+            }
+        }
+        Set<String> expected = new HashSet<String>();
+        for (Map.Entry<String, double[]> entry : original.entrySet()) {
+            for (double weight : entry.getValue()) {
+                if (Math.abs(weight) >= threshold) {
+                    expected.add(entry.getKey());
+                }
+            }
+        }
+        assertTrue(expected.size() > 0 && expected.size() < original.size());
+        ModelCompressor compressor = new ModelCompressor(modelFile);
+        Map<String, double[]> compressed = weights(compressor.compress(threshold, "none"));
+        assertEquals(expected, compressed.keySet());
+        assertEquals(original.size() - expected.size(), compressor.getPruned());
+        for (String predicate : expected) {
+            assertArrayEquals(original.get(predicate), compressed.get(predicate), 0);
+        }
+    }
+
+    @Test
+    public void noCompressionKeepsTheSpans() throws IOException {
+        ModelCompressor compressor = new ModelCompressor(modelFile);
+        File output = File.createTempFile("compressed", ".bin");
+        output.deleteOnExit();
+        compressor.write(compressor.compress(0, "none"), output);
+        TokenNameFinderModel compressed;
+        try (InputStream in = new FileInputStream(output)) {
+            compressed = new TokenNameFinderModel(in);
+        }
+        NameFinderME originalFinder = new NameFinderME(compressor.getModel());
+        NameFinderME compressedFinder = new NameFinderME(compressed);
+        String[] sentences = { "Mikel lives in Bilbao .", "Ane works in Donostia .",
+            "Jon and Ane went to Gasteiz .", "the city of Bilbao is big ." };
+        for (String sentence : sentences) {
+            String[] tokens = sentence.split(" ");
+            assertArrayEquals(originalFinder.find(tokens), compressedFinder.find(tokens));
+            originalFinder.clearAdaptiveData();
+            compressedFinder.clearAdaptiveData();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.namefind.BioCodec;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderFactory;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.ObjectStreamUtils;
+import opennlp.tools.util.Span;
+import opennlp.tools.util.TrainingParameters;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.decode.MappedWeights;
+import eus.ixa.ixa.pipe.nerc.train.InputOutputUtils;
+import eus.ixa.ixa.pipe.nerc.train.ModelCompressor;
+import eus.ixa.ixa.pipe.nerc.train.ModelUpdater;
+
+public class ModelUpdaterTest {
+
+    private static File modelFile;
+
+    static NameSample sample(String sentence, Span... names) {
+        return new NameSample(sentence.split(" "), names, false);
+    }
+
+    private static ObjectStream<NameSample> trainingSamples() {
+        return ObjectStreamUtils.createObjectStream(
+            sample("Mikel lives in Bilbao .", new Span(0, 1, "person"), new Span(3, 4, "location")),
+            sample("Ane works in Donostia .", new Span(0, 1, "person"), new Span(3, 4, "location")),
+            sample("the city of Bilbao is big .", new Span(3, 4, "location")),
+            sample("Mikel and Ane went home .", new Span(0, 1, "person"), new Span(2, 3, "person")));
+    }
+
+    static File trainModel() throws IOException {
+        TrainingParameters params = new TrainingParameters();
+        params.put(TrainingParameters.ALGORITHM_PARAM, "PERCEPTRON");
+        params.put(TrainingParameters.ITERATIONS_PARAM, "10");
+        params.put(TrainingParameters.CUTOFF_PARAM, "0");
+        TokenNameFinderModel model = NameFinderME.train("en", null, trainingSamples(), params,
+            new TokenNameFinderFactory(null, Collections.<String, Object>emptyMap(), new BioCodec()));
+        File file = File.createTempFile("updater", ".bin");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            model.serialize(out);
+        }
+        return file;
+    }
+
+    @BeforeClass
+    public static void train() throws IOException {
+        modelFile = trainModel();
+    }
+
+    private static Set<String> predicates(PerceptronModel model) {
+        @SuppressWarnings("unchecked")
+        IndexHashTable<String> pmap = (IndexHashTable<String>) model.getDataStructures()[1];
+        Set<String> predicates = new HashSet<String>();
+        for (String predicate : pmap.toArray(new String[pmap.size()])) {
+            predicates.add(predicate);
+        }
+        return predicates;
+    }
+
+    @Test
+    public void zeroIterationsReproducesTheModel() throws IOException {
+        ModelUpdater updater = new ModelUpdater(modelFile);
+        AbstractModel original = (AbstractModel) InputOutputUtils.getClassifier(updater.getModel());
+        PerceptronModel updated = updater.update(ObjectStreamUtils.createObjectStream(
+            sample("Jon lives in Gasteiz .", new Span(0, 1, "person"), new Span(3, 4, "location"))), 0, 0);
+        assertEquals(predicates((PerceptronModel) original), predicates(updated));
+        List<String[]> contexts = new ArrayList<String[]>();
+        for (String predicate : predicates(updated)) {
+            contexts.add(new String[] {predicate});
+        }
+        contexts.add(predicates(updated).toArray(new String[0]));
+        contexts.add(new String[] {"w=gasteiz", "unknown"});
+        for (String[] context : contexts) {
+            assertArrayEquals(original.eval(context), updated.eval(context), 0);
+        }
+    }
+
+    @Test
+    public void keepsOutcomePatternsSparse() throws IOException {
+        ModelUpdater updater = new ModelUpdater(modelFile);
+        PerceptronModel original = (PerceptronModel) InputOutputUtils.getClassifier(updater.getModel());
+        ObjectStream<NameSample> samples = ObjectStreamUtils.createObjectStream(
+            sample("Jon lives in Gasteiz .", new Span(0, 1, "person"), new Span(3, 4, "location")),
+            sample("Gasteiz is far from Bilbao .", new Span(0, 1, "location"), new Span(4, 5, "location")));
+        PerceptronModel updated = updater.update(samples, 5, 2);
+        Set<String> predicates = predicates(updated);
+        assertTrue(predicates.containsAll(predicates(original)));
+        // seen twice in the new samples
+        assertTrue(predicates.contains("w=gasteiz"));
+        // seen once, below the cutoff
+        assertFalse(predicates.contains("w=jon"));
+        assertNotEquals(predicates(original).size(), predicates.size());
+        int originalWeights = 0;
+        for (Context context : (Context[]) original.getDataStructures()[0]) {
+            originalWeights += context.getOutcomes().length;
+        }
+        int updatedWeights = 0;
+        for (Context context : (Context[]) updated.getDataStructures()[0]) {
+            for (double weight : context.getParameters()) {
+                assertNotEquals(0, weight, 0);
+            }
+            updatedWeights += context.getOutcomes().length;
+        }
+        // far from a dense predicates * outcomes matrix
+        assertTrue(updatedWeights < originalWeights + predicates.size());
+    }
+
+    @Test
+    public void rejectsExportedModels() throws IOException {
+        File exported = File.createTempFile("exported", ".bin");
+        exported.deleteOnExit();
+        File weights = MappedWeights.export(modelFile, exported);
+        weights.deleteOnExit();
+        try {
+            new ModelUpdater(exported);
+            fail("An exported model should not be updated");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("mapped weights"));
+        }
+        try {
+            new ModelCompressor(exported);
+            fail("An exported model should not be compressed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("mapped weights"));
+        }
+    }
+}
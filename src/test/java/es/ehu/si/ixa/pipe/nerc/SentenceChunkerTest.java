@@ -0,0 +1,68 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import opennlp.tools.util.Span;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.SentenceChunker;
+
+public class SentenceChunkerTest {
+
+    /**
+     * Tags every run of capitalized tokens as a name, as seen in each window.
+     */
+    private static final SentenceChunker.Tagger CAPITALS = new SentenceChunker.Tagger() {
+        @Override
+        public Span[] tag(String[] tokens) {
+            List<Span> spans = new ArrayList<Span>();
+            int start = -1;
+            for (int i = 0; i <= tokens.length; i++) {
+                boolean capital = i < tokens.length && Character.isUpperCase(tokens[i].charAt(0));
+                if (capital && start < 0) {
+                    start = i;
+                } else if (!capital && start >= 0) {
+                    spans.add(new Span(start, i, "name"));
+                    start = -1;
+                }
+            }
+            return spans.toArray(new Span[spans.size()]);
+        }
+    };
+
+    @Test
+    public void splitsIntoOverlappingWindows() {
+        SentenceChunker chunker = new SentenceChunker(8);
+        assertEquals(Arrays.asList(new Span(0, 8)), chunker.getWindows(8));
+        assertEquals(Arrays.asList(new Span(0, 8), new Span(6, 14), new Span(12, 20)),
+            chunker.getWindows(20));
+    }
+
+    @Test
+    public void reconcilesNamesAcrossWindows() {
+        // windows [0, 8), [6, 14) and [12, 18)
+        String[] tokens = "a b Mikel c d e Ane Urrutia Garcia f g h Bilbao j k l m Bizkaia".split(" ");
+        SentenceChunker chunker = new SentenceChunker(8);
+        Span[] spans = chunker.tag(tokens, CAPITALS);
+        // the name cut by the first window is taken whole from the second one,
+        // and the name in the last overlap is found twice but kept once
+        assertArrayEquals(new Span[] { new Span(2, 3, "name"), new Span(6, 9, "name"),
+            new Span(12, 13, "name"), new Span(17, 18, "name") }, spans);
+        assertArrayEquals(CAPITALS.tag(tokens), spans);
+        assertEquals("split 1 sentences longer than 8 tokens into 3 windows", chunker.toString());
+    }
+
+    @Test
+    public void tagsShortSentencesAtOnce() {
+        String[] tokens = "Mikel lives in Bilbao".split(" ");
+        SentenceChunker chunker = new SentenceChunker(4);
+        assertArrayEquals(CAPITALS.tag(tokens), chunker.tag(tokens, CAPITALS));
+        assertEquals("split 0 sentences longer than 4 tokens into 0 windows", chunker.toString());
+    }
+}
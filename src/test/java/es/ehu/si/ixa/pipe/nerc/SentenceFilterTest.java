@@ -0,0 +1,53 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.Span;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.SentenceFilter;
+
+public class SentenceFilterTest {
+
+    private static NameSample sample(String sentence, Span... names) {
+        return new NameSample(sentence.split(" "), names, false);
+    }
+
+    private static ObjectStream<NameSample> samples() {
+        return new CollectionObjectStream<NameSample>(Arrays.asList(
+            sample("Mikel lives in Bilbao .", new Span(0, 1, "person"), new Span(3, 4, "location")),
+            sample("He works for IBM .", new Span(3, 4, "organization")),
+            sample("The match ended 2 - 1 ."),
+            sample("it rained all day .")));
+    }
+
+    @Test
+    public void coversTrainingNames() throws IOException {
+        SentenceFilter filter = SentenceFilter.train(samples(), 1);
+        // "The" and "He" are capitalized outside the names, but every name
+        // needs a capitalized token
+        assertEquals("ac,ic", filter.getManifestValue());
+        assertTrue(filter.accepts("Ane works at Eroski".split(" ")));
+        assertFalse(filter.accepts("call 555 1234 today !".split(" ")));
+        assertEquals("precision 0.6667, recall 1.0000, skipping 25.00% of 4 sentences",
+            filter.evaluate(samples()));
+    }
+
+    @Test
+    public void countsSkippedSentences() {
+        SentenceFilter filter = new SentenceFilter(Collections.singleton("ic"));
+        assertFalse(filter.skip("Bilbao".split(" ")));
+        assertTrue(filter.skip("bilbao".split(" ")));
+        assertEquals("skipped 1 of 2 sentences (50.00%)", filter.toString());
+    }
+}
@@ -0,0 +1,41 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.StatisticalNameFinder;
+
+public class StatisticalNameFinderTest {
+
+    private static String descriptor(String generator) {
+        return "<generators><cache><generators>"
+            + "<window prevLength=\"2\" nextLength=\"2\"><token/></window>"
+            + generator + "</generators></cache></generators>";
+    }
+
+    private static String custom(String className) {
+        return "<window prevLength=\"2\" nextLength=\"2\"><custom class=\"" + className
+            + "\"/></window>";
+    }
+
+    @Test
+    public void cachesSentencesOnlyWithoutAdaptiveFeatures() {
+        // safe: the features only depend on the tokens of the sentence
+        assertFalse(StatisticalNameFinder.hasAdaptiveFeatures(descriptor("")));
+        assertFalse(StatisticalNameFinder.hasAdaptiveFeatures(descriptor(
+            custom("eus.ixa.ixa.pipe.nerc.features.BrownTokenFeatureGenerator"))));
+        // unsafe: the features depend on the outcomes of the previous sentences
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(null));
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(descriptor("<prevmap/>")));
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(descriptor(
+            custom("eus.ixa.ixa.pipe.nerc.features.PreviousMapFeatureGenerator"))));
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(descriptor(
+            custom("eus.ixa.ixa.pipe.nerc.features.Prev2MapFeatureGenerator"))));
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(descriptor(
+            custom("eus.ixa.ixa.pipe.nerc.features.PreviousMapTokenFeatureGenerator"))));
+        assertTrue(StatisticalNameFinder.hasAdaptiveFeatures(descriptor(
+            custom("opennlp.tools.util.featuregen.PreviousMapFeatureGenerator"))));
+    }
+}
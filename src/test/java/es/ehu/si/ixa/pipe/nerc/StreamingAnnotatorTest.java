@@ -0,0 +1,98 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import ixa.kaflib.Entity;
+import ixa.kaflib.KAFDocument;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import org.jdom2.JDOMException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.StreamingAnnotator;
+
+public class StreamingAnnotatorTest {
+
+    private static Properties properties = null;
+
+    private static final String TEXT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<NAF xml:lang=\"en\" version=\"v3\">\n"
+            + "  <nafHeader />\n"
+            + "  <text>\n"
+            + "    <wf id=\"w1\" offset=\"0\" length=\"8\" sent=\"1\">Achilles</wf>\n"
+            + "    <wf id=\"w2\" offset=\"9\" length=\"3\" sent=\"1\">met</wf>\n"
+            + "    <wf id=\"w3\" offset=\"13\" length=\"9\" sent=\"1\">Aristotle</wf>\n"
+            + "    <wf id=\"w4\" offset=\"23\" length=\"3\" sent=\"2\">Ayn</wf>\n"
+            + "    <wf id=\"w5\" offset=\"27\" length=\"4\" sent=\"2\">Rand</wf>\n"
+            + "    <wf id=\"w6\" offset=\"32\" length=\"7\" sent=\"2\">laughed</wf>\n"
+            + "  </text>\n"
+            + "  <terms>\n"
+            + "    <term id=\"t1\"><span><target id=\"w1\" /></span></term>\n"
+            + "    <term id=\"t2\"><span><target id=\"w2\" /></span></term>\n"
+            + "    <term id=\"t3\"><span><target id=\"w3\" /></span></term>\n"
+            + "    <term id=\"t4\"><span><target id=\"w4\" /><target id=\"w5\" /></span></term>\n"
+            + "    <term id=\"t5\"><span><target id=\"w6\" /></span></term>\n"
+            + "  </terms>\n";
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        File dictsDir = Files.createTempDirectory("dicts").toFile();
+        Files.copy(StreamingAnnotatorTest.class
+                .getResourceAsStream("/names.txt"),
+                new File(dictsDir, "names.txt").toPath());
+        properties = new Properties();
+        properties.setProperty("ruleBasedOption", "off");
+        properties.setProperty("dictTag", "tag");
+        properties.setProperty("dictPath", dictsDir.getAbsolutePath());
+        properties.setProperty("clearFeatures", "no");
+    }
+
+    private static KAFDocument stream(String naf) throws IOException, JDOMException {
+        StreamingAnnotator annotator = new StreamingAnnotator(properties, "test", "1.0");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        annotator.annotate(new ByteArrayInputStream(naf.getBytes("UTF-8")), out);
+        return KAFDocument.createFromStream(new BufferedReader(
+                new StringReader(out.toString("UTF-8"))));
+    }
+
+    @Test
+    public void newEntitiesLayer() throws IOException, JDOMException {
+        KAFDocument kaf = stream(TEXT + "</NAF>\n");
+        List<Entity> entities = kaf.getEntities();
+        assertEquals(3, entities.size());
+        assertEquals("PERSON", entities.get(0).getType());
+        assertEquals("t1", entities.get(0).getTerms().get(0).getId());
+        assertEquals("t3", entities.get(1).getTerms().get(0).getId());
+        // a multiword term is referenced once
+        assertEquals(1, entities.get(2).getTerms().size());
+        assertEquals("t4", entities.get(2).getTerms().get(0).getId());
+        assertEquals(1, kaf.getLinguisticProcessors().get("entities").size());
+        KAFDocument.LinguisticProcessor lp = kaf.getLinguisticProcessors().get("entities").get(0);
+        assertTrue(lp.hasBeginTimestamp());
+        assertTrue(lp.hasEndTimestamp());
+    }
+
+    @Test
+    public void existingEntitiesLayer() throws IOException, JDOMException {
+        KAFDocument kaf = stream(TEXT + "  <entities>\n"
+                + "    <entity id=\"e1\" type=\"MISC\"><references><span>"
+                + "<target id=\"t5\" /></span></references></entity>\n"
+                + "  </entities>\n</NAF>\n");
+        List<Entity> entities = kaf.getEntities();
+        assertEquals(4, entities.size());
+        assertEquals("MISC", entities.get(0).getType());
+        assertEquals("e4", entities.get(3).getId());
+        assertEquals("t4", entities.get(3).getTerms().get(0).getId());
+    }
+
+}
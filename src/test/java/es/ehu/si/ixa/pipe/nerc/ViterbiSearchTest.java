@@ -0,0 +1,174 @@
+package es.ehu.si.ixa.pipe.nerc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.namefind.BilouCodec;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.nerc.decode.ViterbiSearch;
+
+public class ViterbiSearchTest {
+
+    private static final String[] OUTCOMES = {"other", "person-start", "person-cont",
+        "person-last", "person-unit", "location-start", "location-cont", "location-last",
+        "location-unit"};
+
+    private static final SequenceValidator<String> VALIDATOR = new BilouCodec().createSequenceValidator();
+
+    /**
+     * The token and the previous outcome, the states of the lattice.
+     */
+    private static final BeamSearchContextGenerator<String> CONTEXTS = new BeamSearchContextGenerator<String>() {
+        @Override
+        public String[] getContext(int index, String[] sequence, String[] priorDecisions,
+                Object[] additionalContext) {
+            return new String[] {"w=" + sequence[index],
+                "p=" + (index == 0 ? "start" : priorDecisions[index - 1])};
+        }
+    };
+
+    /**
+     * Probabilities drawn from the hash code of the context, the favored
+     * outcome getting most of them.
+     */
+    private static MaxentModel model(final int favored) {
+        return new MaxentModel() {
+            @Override
+            public double[] eval(String[] context, double[] probs) {
+                Random random = new Random(Arrays.hashCode(context));
+                double normal = 0;
+                for (int o = 0; o < probs.length; o++) {
+                    probs[o] = random.nextDouble() + (o == favored ? 5 : 0);
+                    normal += probs[o];
+                }
+                for (int o = 0; o < probs.length; o++) {
+                    probs[o] /= normal;
+                }
+                return probs;
+            }
+
+            @Override
+            public double[] eval(String[] context) {
+                return eval(context, new double[OUTCOMES.length]);
+            }
+
+            @Override
+            public double[] eval(String[] context, float[] values) {
+                return eval(context);
+            }
+
+            @Override
+            public String getBestOutcome(double[] probs) {
+                int best = 0;
+                for (int o = 1; o < probs.length; o++) {
+                    if (probs[o] > probs[best]) {
+                        best = o;
+                    }
+                }
+                return OUTCOMES[best];
+            }
+
+            @Override
+            public String getAllOutcomes(double[] probs) {
+                return Arrays.toString(probs);
+            }
+
+            @Override
+            public String getOutcome(int outcome) {
+                return OUTCOMES[outcome];
+            }
+
+            @Override
+            public int getIndex(String outcome) {
+                return Arrays.asList(OUTCOMES).indexOf(outcome);
+            }
+
+            @Override
+            public int getNumOutcomes() {
+                return OUTCOMES.length;
+            }
+        };
+    }
+
+    private static boolean insideName(String outcome) {
+        return outcome.endsWith(BilouCodec.START) || outcome.endsWith(BilouCodec.CONTINUE);
+    }
+
+    /**
+     * Whether an outcome may follow another one, as compiled in the masks.
+     */
+    private static boolean follows(String previous, String outcome) {
+        return VALIDATOR.validSequence(2, new String[3], new String[] {previous, previous}, outcome);
+    }
+
+    private static void assertValid(String[] sentence, Sequence sequence) {
+        List<String> outcomes = sequence.getOutcomes();
+        assertEquals(sentence.length, outcomes.size());
+        String[] path = outcomes.toArray(new String[outcomes.size()]);
+        for (int i = 0; i < path.length; i++) {
+            assertTrue(VALIDATOR.validSequence(i, sentence, Arrays.copyOf(path, i), path[i]));
+            assertTrue(i == 0 || follows(path[i - 1], path[i]));
+        }
+        assertFalse("ends inside a name: " + outcomes, insideName(path[path.length - 1]));
+    }
+
+    /**
+     * The score of the best path respecting the masks, by enumerating every
+     * path.
+     */
+    private static double bestScore(MaxentModel model, String[] sentence, String[] path, int i) {
+        if (i == sentence.length) {
+            return insideName(path[i - 1]) ? Double.NEGATIVE_INFINITY : 0;
+        }
+        double[] probs = model.eval(CONTEXTS.getContext(i, sentence, path, null));
+        double best = Double.NEGATIVE_INFINITY;
+        for (int o = 0; o < OUTCOMES.length; o++) {
+            boolean valid = i == 0 ? VALIDATOR.validSequence(0, sentence, new String[0], OUTCOMES[o])
+                : follows(path[i - 1], OUTCOMES[o]);
+            if (valid) {
+                path[i] = OUTCOMES[o];
+                best = Math.max(best, Math.log(probs[o]) + bestScore(model, sentence, path, i + 1));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void findsTheBestValidPath() {
+        Random random = new Random(11);
+        MaxentModel model = model(-1);
+        ViterbiSearch search = new ViterbiSearch(3, model);
+        for (int s = 0; s < 40; s++) {
+            String[] sentence = new String[1 + random.nextInt(4)];
+            for (int i = 0; i < sentence.length; i++) {
+                sentence[i] = "t" + random.nextInt(10);
+            }
+            Sequence sequence = search.bestSequence(sentence, null, CONTEXTS, VALIDATOR);
+            assertValid(sentence, sequence);
+            assertEquals(bestScore(model, sentence, new String[sentence.length], 0),
+                sequence.getScore(), 1e-9);
+        }
+    }
+
+    @Test
+    public void neverEndsInsideAName() {
+        // the start of a name is by far the most probable outcome of every token
+        ViterbiSearch search = new ViterbiSearch(3, model(Arrays.asList(OUTCOMES).indexOf("person-start")));
+        for (int length = 1; length <= 6; length++) {
+            String[] sentence = new String[length];
+            Arrays.fill(sentence, "Bilbao");
+            assertValid(sentence, search.bestSequence(sentence, null, CONTEXTS, VALIDATOR));
+        }
+    }
+}